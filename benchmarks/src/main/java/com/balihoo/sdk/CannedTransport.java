@@ -0,0 +1,62 @@
+package com.balihoo.sdk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A BlipTransport that answers every request with the same response without any I/O, so the benchmarks can isolate
+ * the cost of building requests and reading responses.
+ */
+class CannedTransport implements BlipTransport {
+
+    private final byte[] BODY;
+
+    /**
+     * The CannedTransport constructor.
+     * @param body The body returned with every 200 response.
+     */
+    CannedTransport(String body) {
+        BODY = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Consume the request body, if any, and return the canned response.
+     * @param request The request.
+     * @return A 200 response with the canned body.
+     * @throws IOException if the request body cannot be written.
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        if (request.BODY != null) {
+            request.BODY.writeTo(new ByteArrayOutputStream());
+        }
+
+        return new TransportResponse() {
+            @Override
+            public int getStatusCode() {
+                return 200;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return "Content-Type".equalsIgnoreCase(name) ? "application/json" : null;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(BODY);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,79 @@
+package com.balihoo.sdk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures bulk file handling at several file sizes: the gzip and MD5 pass of S3Request.compress on its own, and a
+ * complete bulkLoad (compress, authorize, upload to S3, initiate) against a StubBlipServer.
+ * Divide the file size by the average time for throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    public int fileSize;
+
+    private Path source;
+    private Path target;
+    private StubBlipServer server;
+    private Blip blip;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = Files.createTempFile("blip-bench-", ".json");
+        target = Files.createTempFile("blip-bench-", ".gz");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(source, StandardCharsets.UTF_8)) {
+            long written = 0;
+            for (int i = 0; written < fileSize; i++) {
+                String line = StubBlipServer.LOCATION.replace("ABC123", "LOC" + i) + "\n";
+                writer.write(line);
+                written += line.length();
+            }
+        }
+
+        server = new StubBlipServer();
+        blip = new Blip("key", "secret", server.getEndpoint(), server.getEndpoint(), new PooledHttpTransport());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        blip.close();
+        server.close();
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public String compress() throws IOException {
+        return S3Request.compress(source, target);
+    }
+
+    @Benchmark
+    public BlipResponse bulkLoad() throws IOException {
+        return blip.bulkLoad("mybrand", "mysource", source.toString(), false, 0, null, null, null, null);
+    }
+}
@@ -0,0 +1,142 @@
+package com.balihoo.sdk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a mixed read and write workload through a Blip against a BlipSimulator and reports the throughput and tail
+ * latency of each operation as the application sees it, including retries.
+ * The simulator answers with long-tailed latency, a small share of 503s and throttling, so the numbers reflect how
+ * the SDK's pooling, retries and backoff behave under realistic conditions rather than the SDK's own overhead.
+ * <pre>
+ *     java -cp target/benchmarks.jar com.balihoo.sdk.LoadDriver [threads] [seconds]
+ * </pre>
+ */
+public class LoadDriver {
+
+    private static final String BRAND_KEY = "mybrand";
+    private static final int LOCATIONS = 10000;
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Run the load test.
+     * @param args The number of calling threads (default 32) and the duration in seconds (default 30).
+     * @throws Exception if the simulator cannot be started or a worker fails unexpectedly.
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+        try (BlipSimulator simulator = new BlipSimulator()) {
+            simulator.addBrand(BRAND_KEY, "mysource");
+            for (int i = 0; i < LOCATIONS; i++) {
+                simulator.putLocation(BRAND_KEY, locationKey(i), StubBlipServer.LOCATION);
+            }
+
+            simulator.setLatency(BlipSimulator.Latency.logNormal(5, 50));
+            simulator.setLatency(BlipOperation.PUT_LOCATION, BlipSimulator.Latency.logNormal(10, 100));
+            simulator.setLatency(BlipOperation.QUERY_LOCATIONS, BlipSimulator.Latency.logNormal(20, 200));
+            simulator.setErrorRate(0.005, 503);
+            simulator.setRateLimit(5000, 500);
+
+            BlipMetrics metrics = new BlipMetrics();
+            BlipTransport pooled = new PooledHttpTransport(threads, threads, 5000, 30000, 30000);
+            BlipTransport transport = new InstrumentedTransport(new RetryingTransport(pooled, RetryPolicy.DEFAULT),
+                                                                metrics);
+
+            try (Blip blip = new Blip("key", "secret", simulator.getEndpoint(), simulator.getS3Endpoint(),
+                                      transport)) {
+                run(blip, threads, TimeUnit.SECONDS.toNanos(seconds));
+            }
+
+            report(metrics, seconds);
+        }
+    }
+
+    /**
+     * Call BLIP from many threads until a deadline: 80% getLocation, 15% putLocation and 5% queryLocations pages.
+     * @param blip The client.
+     * @param threads The number of calling threads.
+     * @param durationNanos How long to run for.
+     * @throws Exception if a worker fails unexpectedly.
+     */
+    private static void run(Blip blip, int threads, long durationNanos) throws Exception {
+        PreparedQuery query = new LocationQuery().view("full").prepare(PAGE_SIZE);
+        long deadline = System.nanoTime() + durationNanos;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            workers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                while (System.nanoTime() - deadline < 0) {
+                    String locationKey = locationKey(random.nextInt(LOCATIONS));
+                    double mix = random.nextDouble();
+
+                    try {
+                        if (mix < 0.8) {
+                            blip.getLocation(BRAND_KEY, locationKey);
+                        } else if (mix < 0.95) {
+                            blip.putLocation(BRAND_KEY, locationKey, "mysource", StubBlipServer.LOCATION);
+                        } else {
+                            blip.queryLocations(BRAND_KEY, query, random.nextInt(LOCATIONS / PAGE_SIZE),
+                                                Collections.<String, Object>emptyMap());
+                        }
+                    } catch (IOException e) {
+                        // Reported as a failure by the metrics
+                    }
+                }
+
+                return null;
+            }));
+        }
+
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Print the calls, throughput, failures, retries and latency percentiles of each operation.
+     * @param metrics The metrics recorded during the run.
+     * @param seconds The duration of the run.
+     */
+    private static void report(BlipMetrics metrics, int seconds) {
+        System.out.println(String.format("%-16s %10s %10s %9s %9s %9s %9s %9s", "operation", "calls", "calls/s",
+                                         "failures", "retries", "p50 ms", "p99 ms", "p99.9 ms"));
+
+        for (BlipOperation operation : BlipOperation.values()) {
+            BlipMetrics.OperationMetrics operationMetrics = metrics.get(operation);
+
+            if (operationMetrics.getCallCount() == 0) {
+                continue;
+            }
+
+            LatencyHistogram latency = operationMetrics.TOTAL_NANOS;
+            System.out.println(String.format("%-16s %10d %10.1f %9d %9d %9.2f %9.2f %9.2f", operation,
+                                             operationMetrics.getCallCount(),
+                                             (double) operationMetrics.getCallCount() / seconds,
+                                             operationMetrics.getFailureCount(), operationMetrics.getRetryCount(),
+                                             latency.getValueAtPercentile(50) / 1e6,
+                                             latency.getValueAtPercentile(99) / 1e6,
+                                             latency.getValueAtPercentile(99.9) / 1e6));
+        }
+    }
+
+    /**
+     * @param i A location number.
+     * @return The location's key.
+     */
+    private static String locationKey(int i) {
+        return String.format("LOC%05d", i);
+    }
+}
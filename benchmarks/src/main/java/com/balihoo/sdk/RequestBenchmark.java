@@ -0,0 +1,100 @@
+package com.balihoo.sdk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call cost of the Blip API: path construction, request building (BlipRequest.configureClient),
+ * query body building and response reading (BlipRequest.buildBlipResponse).
+ * The "canned" transport does no I/O, so its results are the SDK's own overhead; the "http" transport adds a pooled
+ * loopback round trip to a StubBlipServer. Run with -prof gc to see the allocation rate per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    @Param({"canned", "http"})
+    public String transport;
+
+    private StubBlipServer server;
+    private Blip blip;
+    private BlipRequest request;
+    private byte[] encodedLocation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BlipTransport blipTransport;
+        String endpoint;
+
+        if ("http".equals(transport)) {
+            server = new StubBlipServer();
+            endpoint = server.getEndpoint();
+            blipTransport = new PooledHttpTransport();
+        } else {
+            endpoint = "http://127.0.0.1";
+            blipTransport = new CannedTransport(StubBlipServer.LOCATION);
+        }
+
+        blip = new Blip("key", "secret", endpoint, blipTransport);
+        request = new BlipRequest("key", "secret", endpoint, blipTransport, -1);
+        encodedLocation = StubBlipServer.LOCATION.getBytes("UTF-8");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        blip.close();
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public BlipResponse executeCommand() throws IOException {
+        return request.executeCommand(BlipOperation.GET_LOCATION, "mybrand", BlipRequest.Command.GET,
+                                      "/brand/mybrand/location/ABC123", null);
+    }
+
+    @Benchmark
+    public BlipResponse ping() throws IOException {
+        return blip.ping();
+    }
+
+    @Benchmark
+    public BlipResponse getLocation() throws IOException {
+        return blip.getLocation("mybrand", "ABC123", "universal", true);
+    }
+
+    @Benchmark
+    public BlipResponse queryLocations() throws IOException {
+        return blip.queryLocations("mybrand", "{\"document.address.state\":\"ID\"}", "universal", 100, 2,
+                                   "locationKey", "asc");
+    }
+
+    @Benchmark
+    public BlipResponse putLocation() throws IOException {
+        return blip.putLocation("mybrand", "ABC123", "mysource", StubBlipServer.LOCATION);
+    }
+
+    @Benchmark
+    public BlipResponse putLocationBytes() throws IOException {
+        return blip.putLocation("mybrand", "ABC123", "mysource", encodedLocation);
+    }
+}
@@ -0,0 +1,109 @@
+package com.balihoo.sdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An in-process HTTP server that answers every BLIP and S3 call made by the benchmarks with a canned response, so the
+ * benchmarks measure the SDK rather than the network or the BLIP service.
+ */
+class StubBlipServer implements Closeable {
+
+    static final String LOCATION = "{\"brandKey\":\"mybrand\",\"locationKey\":\"ABC123\",\"document\":{"
+            + "\"name\":\"Main Street\",\"address\":{\"street\":\"123 Main St\",\"city\":\"Boise\",\"state\":\"ID\","
+            + "\"zip\":\"83702\"},\"phone\":\"208-555-0100\",\"url\":\"http://www.example.com\"}}";
+
+    private static final String AUTH = "{\"s3Bucket\":\"mybucket\",\"data\":{\"acl\":\"private\","
+            + "\"bucket\":\"mybucket\",\"key\":\"uploads/file.gz\",\"content-md5\":\"md5\",\"policy\":\"policy\","
+            + "\"signature\":\"signature\",\"AWSAccessKeyId\":\"id\"}}";
+
+    private final HttpServer SERVER;
+    private final ExecutorService EXECUTOR;
+
+    /**
+     * The StubBlipServer constructor. The server listens on an ephemeral loopback port.
+     * @throws IOException if the server cannot be started.
+     */
+    StubBlipServer() throws IOException {
+        SERVER = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        EXECUTOR = Executors.newFixedThreadPool(4);
+        SERVER.createContext("/", this::handle);
+        SERVER.setExecutor(EXECUTOR);
+        SERVER.start();
+    }
+
+    /**
+     * @return The base URL of the server, usable as both the BLIP and the S3 endpoint.
+     */
+    String getEndpoint() {
+        return String.format("http://127.0.0.1:%s", SERVER.getAddress().getPort());
+    }
+
+    /**
+     * Stop the server.
+     */
+    @Override
+    public void close() {
+        SERVER.stop(0);
+        EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * Answer a request based on its path.
+     * @param exchange The request.
+     * @throws IOException if the response cannot be written.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        // Drain the request so the connection can be reused
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[64 * 1024];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+
+        String path = exchange.getRequestURI().getPath();
+
+        if (path.endsWith("/authorizeUpload")) {
+            respond(exchange, 200, AUTH);
+        } else if (path.endsWith("/locationList")) {
+            respond(exchange, 200, "[" + LOCATION + "," + LOCATION + "]");
+        } else if ("GET".equals(exchange.getRequestMethod()) && path.contains("/location/")) {
+            respond(exchange, 200, LOCATION);
+        } else if ("GET".equals(exchange.getRequestMethod()) && !path.endsWith("/bulkLoad")) {
+            respond(exchange, 200, "[\"ABC123\",\"DEF456\"]");
+        } else {
+            respond(exchange, 204, null);
+        }
+    }
+
+    /**
+     * Write a response.
+     * @param exchange The request.
+     * @param statusCode The HTTP status code.
+     * @param body The JSON body, or null for an empty response.
+     * @throws IOException if the response cannot be written.
+     */
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.balihoo.sdk;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of calls in flight, adjusting the limit to what the server can handle (AIMD).
+ * <ul>
+ * <li>While the limit is being used, it grows by one after each limit's worth of successful calls.</li>
+ * <li>A 429 or 503 response, a call slower than latencyThresholdMillis, or a timeout cuts the limit by a quarter.
+ * Overloaded responses that arrive together only cut it once.</li>
+ * </ul>
+ * Acquiring and releasing a permit use the lock-free fast path of a Semaphore.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.75;
+
+    private final int MIN_LIMIT;
+    private final int MAX_LIMIT;
+    private final long LATENCY_THRESHOLD_NANOS;
+    private final AdjustableSemaphore PERMITS;
+    private final AtomicInteger LIMIT;
+    private final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    private final AtomicInteger SUCCESSES = new AtomicInteger();
+    private final AtomicLong LAST_DECREASE_NANOS = new AtomicLong(System.nanoTime());
+
+    /**
+     * The AdaptiveConcurrencyLimiter constructor.
+     * @param initialLimit The number of concurrent calls allowed at first.
+     * @param minLimit The lowest the limit may fall to.
+     * @param maxLimit The highest the limit may grow to.
+     * @param latencyThresholdMillis A call that takes longer than this to respond is treated as a sign of overload,
+     *                               or 0 to only react to 429 and 503 responses.
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMillis) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+
+        MIN_LIMIT = minLimit;
+        MAX_LIMIT = maxLimit;
+        LATENCY_THRESHOLD_NANOS = latencyThresholdMillis * 1000000;
+        PERMITS = new AdjustableSemaphore(initialLimit);
+        LIMIT = new AtomicInteger(initialLimit);
+    }
+
+    /**
+     * Take a permit, waiting until the number of calls in flight is below the limit.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedIOException {
+        try {
+            PERMITS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the concurrency limiter");
+        }
+
+        IN_FLIGHT.incrementAndGet();
+    }
+
+    /**
+     * Return a permit and adjust the limit from the outcome of the call.
+     * @param statusCode The HTTP status of the response, or 0 if the call failed without one.
+     * @param latencyNanos How long the call took to respond.
+     * @param timedOut Whether or not the call failed with a timeout.
+     */
+    public void release(int statusCode, long latencyNanos, boolean timedOut) {
+        int inFlight = IN_FLIGHT.getAndDecrement();
+        boolean slow = LATENCY_THRESHOLD_NANOS > 0 && latencyNanos > LATENCY_THRESHOLD_NANOS;
+
+        if (statusCode == 429 || statusCode == 503 || timedOut || slow) {
+            decrease(latencyNanos);
+        } else if (statusCode != 0 && statusCode < 500) {
+            increase(inFlight);
+        }
+
+        PERMITS.release();
+    }
+
+    /**
+     * @return The current number of concurrent calls allowed.
+     */
+    public int getLimit() {
+        return LIMIT.get();
+    }
+
+    /**
+     * @return The number of calls holding a permit.
+     */
+    public int getInFlightCount() {
+        return IN_FLIGHT.get();
+    }
+
+    /**
+     * Grow the limit by one after a limit's worth of successes, if the limit is being used.
+     * @param inFlight The number of calls in flight when the call completed.
+     */
+    private void increase(int inFlight) {
+        int limit = LIMIT.get();
+
+        // Don't grow a limit that isn't the bottleneck
+        if (inFlight * 2 < limit || SUCCESSES.incrementAndGet() < limit) {
+            return;
+        }
+
+        SUCCESSES.set(0);
+
+        if (limit < MAX_LIMIT && LIMIT.compareAndSet(limit, limit + 1)) {
+            PERMITS.release();
+        }
+    }
+
+    /**
+     * Cut the limit, unless it was already cut within the last round trip.
+     * @param latencyNanos How long the call took to respond, used as the round trip time.
+     */
+    private void decrease(long latencyNanos) {
+        long now = System.nanoTime();
+        long last = LAST_DECREASE_NANOS.get();
+
+        if (now - last < latencyNanos || !LAST_DECREASE_NANOS.compareAndSet(last, now)) {
+            return;
+        }
+
+        for (;;) {
+            int limit = LIMIT.get();
+            int reduced = Math.max(MIN_LIMIT, (int) (limit * BACKOFF_RATIO));
+
+            if (reduced == limit) {
+                return;
+            }
+
+            if (LIMIT.compareAndSet(limit, reduced)) {
+                SUCCESSES.set(0);
+                PERMITS.reducePermits(limit - reduced);
+                return;
+            }
+        }
+    }
+
+    /**
+     * A Semaphore whose number of permits can be reduced below the number currently held.
+     */
+    private static class AdjustableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        private AdjustableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -1,19 +1,41 @@
 package com.balihoo.sdk;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import org.apache.commons.validator.routines.EmailValidator;
 import org.apache.commons.validator.routines.UrlValidator;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * The BLIP object and its methods.
+ * A Blip holds a pool of HTTP connections, so create one per application, reuse it for every call and close it
+ * when it is no longer needed. Its configuration is fixed when it is created and every method is safe to call from
+ * any number of threads at once; the credentials, request headers and validators are built once and shared.
+ * Use builder() to configure the connection pool, timeouts, proxy, retries, rate limits, caching, hedging, metrics
+ * and the executor behind async() in one place.
  */
-public class Blip {
+public class Blip implements Closeable {
 
-    private final String API_KEY;
-    private final String SECRET_KEY;
-    private final String ENDPOINT;
+    public static final String DEFAULT_ENDPOINT = "https://blip.balihoo-cloud.com";
+
+    private static final EmailValidator EMAIL_VALIDATOR = EmailValidator.getInstance();
+    // Exclude ftp which is in the default schemes
+    private static final UrlValidator URL_VALIDATOR = new UrlValidator(new String[] {"http", "https"});
+
+    private final BlipTransport TRANSPORT;
+    private final BlipRequest REQUEST;
+    private final String S3_ENDPOINT;
+    private final int ASYNC_MAX_IN_FLIGHT;
+    private final Executor ASYNC_EXECUTOR;
+    private volatile BlipAsync async;
 
     /**
      * Blip constructor with default production endpoint.
@@ -21,7 +43,7 @@ public class Blip {
      * @param secretKey The secret key used to access the BLIP API.
      */
     public Blip(String apiKey, String secretKey) {
-        this(apiKey, secretKey, "https://blip.balihoo-cloud.com");
+        this(apiKey, secretKey, DEFAULT_ENDPOINT);
     }
 
     /**
@@ -31,9 +53,88 @@ public class Blip {
      * @param endpoint The BLIP endpoint to target.
      */
     public Blip(String apiKey, String secretKey, String endpoint) {
-        API_KEY = apiKey;
-        SECRET_KEY = secretKey;
-        ENDPOINT = endpoint;
+        this(apiKey, secretKey, endpoint, new PooledHttpTransport());
+    }
+
+    /**
+     * Blip constructor with a custom transport (e.g. a PooledHttpTransport with non-default pool size or timeouts).
+     * The Blip takes ownership of the transport and closes it when the Blip is closed.
+     * @param apiKey The key used to access the BLIP API.
+     * @param secretKey The secret key used to access the BLIP API.
+     * @param endpoint The BLIP endpoint to target.
+     * @param transport The transport used for every BLIP and S3 request.
+     */
+    public Blip(String apiKey, String secretKey, String endpoint, BlipTransport transport) {
+        this(apiKey, secretKey, endpoint, S3Request.DEFAULT_S3_ENDPOINT, transport);
+    }
+
+    /**
+     * Blip constructor with a custom transport and S3 endpoint (e.g. a local S3 stand-in for testing bulk loads).
+     * The Blip takes ownership of the transport and closes it when the Blip is closed.
+     * @param apiKey The key used to access the BLIP API.
+     * @param secretKey The secret key used to access the BLIP API.
+     * @param endpoint The BLIP endpoint to target.
+     * @param s3Endpoint The S3 endpoint bulk files are uploaded to. Defaults to "https://s3.amazonaws.com".
+     * @param transport The transport used for every BLIP and S3 request.
+     */
+    public Blip(String apiKey, String secretKey, String endpoint, String s3Endpoint, BlipTransport transport) {
+        this(apiKey, secretKey, endpoint, s3Endpoint, transport, -1, BlipAsync.DEFAULT_MAX_IN_FLIGHT, null);
+    }
+
+    /**
+     * Blip constructor used by the Builder.
+     * @param apiKey The key used to access the BLIP API.
+     * @param secretKey The secret key used to access the BLIP API.
+     * @param endpoint The BLIP endpoint to target.
+     * @param s3Endpoint The S3 endpoint bulk files are uploaded to.
+     * @param transport The transport used for every BLIP and S3 request.
+     * @param compressionThreshold The smallest request body to compress with gzip, or -1 to never compress.
+     * @param asyncMaxInFlight The maximum number of calls async() may have running at once.
+     * @param asyncExecutor The executor that runs async() calls, or null for a pool owned by the Blip.
+     */
+    private Blip(String apiKey, String secretKey, String endpoint, String s3Endpoint, BlipTransport transport,
+                 long compressionThreshold, int asyncMaxInFlight, Executor asyncExecutor) {
+        TRANSPORT = transport;
+        REQUEST = new BlipRequest(apiKey, secretKey, endpoint, transport, compressionThreshold);
+        S3_ENDPOINT = s3Endpoint;
+        ASYNC_MAX_IN_FLIGHT = asyncMaxInFlight;
+        ASYNC_EXECUTOR = asyncExecutor;
+    }
+
+    /**
+     * Start configuring a Blip.
+     * <pre>
+     *     Blip blip = Blip.builder()
+     *             .credentials("&lt;Your API Key&gt;", "&lt;Your Secret Key&gt;")
+     *             .connectionPool(50, 100)
+     *             .retries(RetryPolicy.DEFAULT)
+     *             .listener(metrics)
+     *             .build();
+     * </pre>
+     * @return A Builder with the default endpoints, pool size and timeouts.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the BlipAsync shared by everyone using this Blip. It is created on first use and closed with the Blip.
+     * @return The shared BlipAsync.
+     */
+    public BlipAsync async() {
+        BlipAsync current = async;
+
+        if (current == null) {
+            synchronized (this) {
+                if (async == null) {
+                    async = ASYNC_EXECUTOR == null ? new BlipAsync(this, ASYNC_MAX_IN_FLIGHT)
+                                                   : new BlipAsync(this, ASYNC_MAX_IN_FLIGHT, ASYNC_EXECUTOR);
+                }
+                current = async;
+            }
+        }
+
+        return current;
     }
 
     /**
@@ -42,9 +143,32 @@ public class Blip {
      * @throws IOException if response cannot be parsed.
      */
     public BlipResponse ping() throws IOException {
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
+        return REQUEST.executeCommand(BlipOperation.PING, null, BlipRequest.Command.GET, "/ping", null);
+    }
 
-        return request.executeCommand(BlipRequest.Command.GET, "/ping", null);
+    /**
+     * Prepare this Blip for its first real calls, which would otherwise pay for DNS lookups, TCP and TLS handshakes
+     * and cold caches. In parallel, this opens a number of connections to BLIP with concurrent pings (checking the
+     * credentials at the same time), opens a connection to the S3 endpoint, and loads the brand keys and every
+     * brand's projections. The brand keys and projections stay in memory only if the transport includes a
+     * CachingTransport. Failures are reported rather than thrown, so an application can decide whether to start.
+     * @param connections The number of connections to open to BLIP, at most the pool's per-route limit.
+     * @param timeoutMillis The longest the warm-up may take.
+     * @return The outcome and timings of each step.
+     */
+    public WarmUpReport warmUp(int connections, long timeoutMillis) {
+        return warmUp(connections, timeoutMillis, null);
+    }
+
+    /**
+     * Prepare this Blip for its first real calls, loading the projections of some brands only.
+     * @param connections The number of connections to open to BLIP, at most the pool's per-route limit.
+     * @param timeoutMillis The longest the warm-up may take.
+     * @param brandKeys The brands whose projections to load, or null for every brand the credentials can access.
+     * @return The outcome and timings of each step.
+     */
+    public WarmUpReport warmUp(int connections, long timeoutMillis, Collection<String> brandKeys) {
+        return new WarmUp(REQUEST, new S3Request(TRANSPORT, S3_ENDPOINT)).run(connections, timeoutMillis, brandKeys);
     }
 
     /**
@@ -53,9 +177,7 @@ public class Blip {
      * @throws IOException if response cannot be parsed.
      */
     public BlipResponse getBrandKeys() throws IOException {
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
-
-        return request.executeCommand(BlipRequest.Command.GET, "/brand", null);
+        return REQUEST.executeCommand(BlipOperation.GET_BRAND_KEYS, null, BlipRequest.Command.GET, "/brand", null);
     }
 
     /**
@@ -65,10 +187,24 @@ public class Blip {
      * @throws IOException if response cannot be parsed.
      */
     public BlipResponse getBrandSources(String brandKey) throws IOException {
-        String path = String.format("/brand/%s/source", brandKey);
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
+        String path = String.format("/brand/%s/source", BlipRequest.encode(brandKey));
+
+        return REQUEST.executeCommand(BlipOperation.GET_BRAND_SOURCES, brandKey, BlipRequest.Command.GET, path, null);
+    }
 
-        return request.executeCommand(BlipRequest.Command.GET, path, null);
+    /**
+     * Get a list of data sources available for an individual brand within a time limit.
+     * @param brandKey The unique identifier for a single brand.
+     * @param timeoutMillis How long the call may take, including any retries.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws java.net.SocketTimeoutException if the time limit passes before BLIP responds.
+     * @throws IOException if response cannot be parsed.
+     */
+    public BlipResponse getBrandSources(String brandKey, long timeoutMillis) throws IOException {
+        String path = String.format("/brand/%s/source", BlipRequest.encode(brandKey));
+
+        return REQUEST.executeCommand(BlipOperation.GET_BRAND_SOURCES, brandKey, BlipRequest.Command.GET, path, null,
+                                      timeoutMillis);
     }
 
     /**
@@ -78,10 +214,24 @@ public class Blip {
      * @throws IOException if response cannot be parsed.
      */
     public BlipResponse getBrandProjections(String brandKey) throws IOException {
-        String path = String.format("/brand/%s/projection", brandKey);
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
+        String path = String.format("/brand/%s/projection", BlipRequest.encode(brandKey));
 
-        return request.executeCommand(BlipRequest.Command.GET, path, null);
+        return REQUEST.executeCommand(BlipOperation.GET_BRAND_PROJECTIONS, brandKey, BlipRequest.Command.GET, path, null);
+    }
+
+    /**
+     * Get a list of data projections available for an individual brand within a time limit.
+     * @param brandKey The unique identifier for a single brand.
+     * @param timeoutMillis How long the call may take, including any retries.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws java.net.SocketTimeoutException if the time limit passes before BLIP responds.
+     * @throws IOException if response cannot be parsed.
+     */
+    public BlipResponse getBrandProjections(String brandKey, long timeoutMillis) throws IOException {
+        String path = String.format("/brand/%s/projection", BlipRequest.encode(brandKey));
+
+        return REQUEST.executeCommand(BlipOperation.GET_BRAND_PROJECTIONS, brandKey, BlipRequest.Command.GET, path,
+                                      null, timeoutMillis);
     }
 
     /**
@@ -102,10 +252,78 @@ public class Blip {
      * @throws IOException if response cannot be parsed.
      */
     public BlipResponse getLocationKeys(String brandKey, String projection) throws IOException {
-        String path = String.format("/brand/%s/location?projection=%s", brandKey, projection);
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
+        String path = String.format("/brand/%s/location?projection=%s", BlipRequest.encode(brandKey),
+                                    BlipRequest.encode(projection));
 
-        return request.executeCommand(BlipRequest.Command.GET, path, null);
+        return REQUEST.executeCommand(BlipOperation.GET_LOCATION_KEYS, brandKey, BlipRequest.Command.GET, path, null);
+    }
+
+    /**
+     * Get a list of locationKeys for all of a brand's locations within a time limit.
+     * @param brandKey The unique identifier for a single brand.
+     * @param projection The data projection on which to filter results.
+     * @param timeoutMillis How long the call may take, including any retries.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws java.net.SocketTimeoutException if the time limit passes before BLIP responds.
+     * @throws IOException if response cannot be parsed.
+     */
+    public BlipResponse getLocationKeys(String brandKey, String projection, long timeoutMillis) throws IOException {
+        String path = String.format("/brand/%s/location?projection=%s", BlipRequest.encode(brandKey),
+                                    BlipRequest.encode(projection));
+
+        return REQUEST.executeCommand(BlipOperation.GET_LOCATION_KEYS, brandKey, BlipRequest.Command.GET, path, null,
+                                      timeoutMillis);
+    }
+
+    /**
+     * Get a list of locationKeys for all of a brand's locations using the universal projection, without buffering
+     * the response body in memory.
+     * @param brandKey The unique identifier for a single brand.
+     * @return BlipStreamingResponse object with a status code and a body stream. The caller must close it.
+     * @throws IOException if the request cannot be sent.
+     */
+    public BlipStreamingResponse streamLocationKeys(String brandKey) throws IOException {
+        return streamLocationKeys(brandKey, "universal");
+    }
+
+    /**
+     * Get a list of locationKeys for all of a brand's locations, without buffering the response body in memory.
+     * @param brandKey The unique identifier for a single brand.
+     * @param projection The data projection on which to filter results.
+     * @return BlipStreamingResponse object with a status code and a body stream. The caller must close it.
+     * @throws IOException if the request cannot be sent.
+     */
+    public BlipStreamingResponse streamLocationKeys(String brandKey, String projection) throws IOException {
+        String path = String.format("/brand/%s/location?projection=%s", BlipRequest.encode(brandKey),
+                                    BlipRequest.encode(projection));
+
+        return REQUEST.executeStreamingCommand(BlipOperation.GET_LOCATION_KEYS, brandKey,
+                                               BlipRequest.Command.GET, path, null);
+    }
+
+    /**
+     * Iterate over the locationKeys for all of a brand's locations using the universal projection.
+     * Keys are parsed one at a time as they arrive, so memory use does not grow with the size of the brand.
+     * @param brandKey The unique identifier for a single brand.
+     * @return An iterator of locationKeys. The caller must close it if it is not read to the end.
+     * @throws BlipException if BLIP responds with an error status.
+     * @throws IOException if the request cannot be sent.
+     */
+    public JsonRecordIterator<String> iterateLocationKeys(String brandKey) throws IOException {
+        return iterateLocationKeys(brandKey, "universal");
+    }
+
+    /**
+     * Iterate over the locationKeys for all of a brand's locations.
+     * Keys are parsed one at a time as they arrive, so memory use does not grow with the size of the brand.
+     * @param brandKey The unique identifier for a single brand.
+     * @param projection The data projection on which to filter results.
+     * @return An iterator of locationKeys. The caller must close it if it is not read to the end.
+     * @throws BlipException if BLIP responds with an error status.
+     * @throws IOException if the request cannot be sent.
+     */
+    public JsonRecordIterator<String> iterateLocationKeys(String brandKey, String projection) throws IOException {
+        return new JsonRecordIterator<>(streamLocationKeys(brandKey, projection), Blip::toLocationKey);
     }
 
     /**
@@ -155,10 +373,31 @@ public class Blip {
     public BlipResponse getLocation(String brandKey, String locationKey,
                                     String projection, Boolean includeRefs) throws IOException {
         String path = String.format("/brand/%s/location/%s?projection=%s&includeRefs=%s",
-                                    brandKey, locationKey, projection, includeRefs.toString().toLowerCase());
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
+                                    BlipRequest.encode(brandKey), BlipRequest.encode(locationKey),
+                                    BlipRequest.encode(projection), includeRefs.toString().toLowerCase());
 
-        return request.executeCommand(BlipRequest.Command.GET, path, null);
+        return REQUEST.executeCommand(BlipOperation.GET_LOCATION, brandKey, BlipRequest.Command.GET, path, null);
+    }
+
+    /**
+     * Get data for an individual location within a time limit, e.g. while rendering a page.
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param projection The data projection on which to filter results.
+     * @param includeRefs Whether or not to include objects referenced by the location in its data.
+     * @param timeoutMillis How long the call may take, including any retries.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws java.net.SocketTimeoutException if the time limit passes before BLIP responds.
+     * @throws IOException if response cannot be parsed.
+     */
+    public BlipResponse getLocation(String brandKey, String locationKey, String projection,
+                                    Boolean includeRefs, long timeoutMillis) throws IOException {
+        String path = String.format("/brand/%s/location/%s?projection=%s&includeRefs=%s",
+                                    BlipRequest.encode(brandKey), BlipRequest.encode(locationKey),
+                                    BlipRequest.encode(projection), includeRefs.toString().toLowerCase());
+
+        return REQUEST.executeCommand(BlipOperation.GET_LOCATION, brandKey, BlipRequest.Command.GET, path, null,
+                                      timeoutMillis);
     }
 
     /**
@@ -202,25 +441,132 @@ public class Blip {
      */
     public BlipResponse queryLocations(String brandKey, String query, String view, Integer pageSize, Integer pageNumber,
                                        String sortColumn, String sortDirection) throws IOException {
-        if (view == null) {
-            view = "full";
-        }
+        return queryLocations(brandKey, buildQuery(query, view, pageSize, pageNumber, sortColumn, sortDirection));
+    }
+
+    /**
+     * Get data for locations in a single brand that match a query.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query The filters, view, page and sort order.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws IOException if response cannot be parsed.
+     */
+    public BlipResponse queryLocations(String brandKey, LocationQuery query) throws IOException {
+        return queryLocations(brandKey, RequestBody.create(query.toBytes(), "application/json"));
+    }
 
-        String path = String.format("/brand/%s/locationList", brandKey);
-        String queryParam = String.format("{\"query\":%s,\"view\":\"%s\"", query, view);
+    /**
+     * Get a page of data for locations in a single brand that match a prepared query.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query The prepared query.
+     * @param pageNumber The page index to return starting from page 0.
+     * @param parameters The value of each of the query's parameters, or null if it has none.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws IOException if response cannot be parsed.
+     */
+    public BlipResponse queryLocations(String brandKey, PreparedQuery query, int pageNumber,
+                                       Map<String, ?> parameters) throws IOException {
+        return queryLocations(brandKey, RequestBody.create(query.encode(pageNumber, parameters), "application/json"));
+    }
 
-        if (pageSize != null && pageNumber != null) {
-            queryParam += String.format(",\"pageSize\":%s,\"pageNumber\":%s", pageSize, pageNumber);
-        }
+    /**
+     * Get data for locations in a single brand with an encoded query.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query The encoded request body.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws IOException if response cannot be parsed.
+     */
+    BlipResponse queryLocations(String brandKey, RequestBody query) throws IOException {
+        String path = String.format("/brand/%s/locationList", BlipRequest.encode(brandKey));
 
-        if (sortColumn != null && sortDirection != null) {
-            queryParam += String.format(",\"sortColumn\":\"%s\",\"sortDirection\":\"%s\"", sortColumn, sortDirection);
-        }
+        return REQUEST.executeRequest(BlipOperation.QUERY_LOCATIONS, brandKey, BlipRequest.Command.POST, path, query);
+    }
+
+    /**
+     * Get data for locations in a single brand that match the specified BLIP query, without buffering the response
+     * body in memory.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @return BlipStreamingResponse object with a status code and a body stream. The caller must close it.
+     * @throws IOException if the request cannot be sent.
+     */
+    public BlipStreamingResponse streamQueryLocations(String brandKey, String query, String view) throws IOException {
+        return streamQueryLocations(brandKey, query, view, null, null, null, null);
+    }
+
+    /**
+     * Get data for locations in a single brand that match the specified BLIP query, without buffering the response
+     * body in memory.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @param pageSize The number of results to include in each page of results.
+     * @param pageNumber The page index to return starting from page 0.
+     * @param sortColumn The column by which to sort results. ('name' or 'locationKey' -- defaults to 'locationKey').
+     * @param sortDirection The direction to sort results. ('asc' or 'desc' -- defaults to 'asc').
+     * @return BlipStreamingResponse object with a status code and a body stream. The caller must close it.
+     * @throws IOException if the request cannot be sent.
+     */
+    public BlipStreamingResponse streamQueryLocations(String brandKey, String query, String view, Integer pageSize,
+                                                      Integer pageNumber, String sortColumn,
+                                                      String sortDirection) throws IOException {
+        return streamQueryLocations(brandKey,
+                                    buildQuery(query, view, pageSize, pageNumber, sortColumn, sortDirection));
+    }
+
+    /**
+     * Get data for locations in a single brand that match a query, without buffering the response body in memory.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query The filters, view, page and sort order.
+     * @return BlipStreamingResponse object with a status code and a body stream. The caller must close it.
+     * @throws IOException if the request cannot be sent.
+     */
+    public BlipStreamingResponse streamQueryLocations(String brandKey, LocationQuery query) throws IOException {
+        String path = String.format("/brand/%s/locationList", BlipRequest.encode(brandKey));
+        RequestBody body = RequestBody.create(query.toBytes(), "application/json");
+
+        return REQUEST.executeStreamingRequest(BlipOperation.QUERY_LOCATIONS, brandKey,
+                                               BlipRequest.Command.POST, path, body);
+    }
+
+    /**
+     * Iterate over the locations in a single brand that match the specified BLIP query.
+     * Locations are parsed one at a time as they arrive, so memory use does not grow with the size of the result.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @return An iterator of location objects. The caller must close it if it is not read to the end.
+     * @throws BlipException if BLIP responds with an error status.
+     * @throws IOException if the request cannot be sent.
+     */
+    public JsonRecordIterator<JsonObject> iterateQueryLocations(String brandKey, String query,
+                                                               String view) throws IOException {
+        return iterateQueryLocations(brandKey, query, view, null, null, null, null);
+    }
 
-        queryParam += "}";
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
+    /**
+     * Iterate over the locations in a single brand that match the specified BLIP query.
+     * Locations are parsed one at a time as they arrive, so memory use does not grow with the size of the result.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @param pageSize The number of results to include in each page of results.
+     * @param pageNumber The page index to return starting from page 0.
+     * @param sortColumn The column by which to sort results. ('name' or 'locationKey' -- defaults to 'locationKey').
+     * @param sortDirection The direction to sort results. ('asc' or 'desc' -- defaults to 'asc').
+     * @return An iterator of location objects. The caller must close it if it is not read to the end.
+     * @throws BlipException if BLIP responds with an error status.
+     * @throws IOException if the request cannot be sent.
+     */
+    public JsonRecordIterator<JsonObject> iterateQueryLocations(String brandKey, String query, String view,
+                                                               Integer pageSize, Integer pageNumber,
+                                                               String sortColumn,
+                                                               String sortDirection) throws IOException {
+        BlipStreamingResponse response = streamQueryLocations(brandKey, query, view, pageSize, pageNumber,
+                                                              sortColumn, sortDirection);
 
-        return request.executeCommand(BlipRequest.Command.POST, path, queryParam);
+        return new JsonRecordIterator<>(response, JsonElement::getAsJsonObject);
     }
 
     /**
@@ -234,10 +580,41 @@ public class Blip {
      */
     public BlipResponse putLocation(String brandKey, String locationKey,
                                     String source, String locationData) throws IOException {
-        String path = String.format("/brand/%s/location/%s?source=%s", brandKey, locationKey, source);
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
+        String path = String.format("/brand/%s/location/%s?source=%s", BlipRequest.encode(brandKey),
+                                    BlipRequest.encode(locationKey), BlipRequest.encode(source));
 
-        return request.executeCommand(BlipRequest.Command.PUT, path, locationData);
+        return REQUEST.executeCommand(BlipOperation.PUT_LOCATION, brandKey, BlipRequest.Command.PUT, path, locationData);
+    }
+
+    /**
+     * Add or update a location from a pre-encoded document, e.g. one serialized straight to UTF-8 bytes.
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param source The unique identifier for the data source being used to add/update the location.
+     * @param locationData The UTF-8 encoded JSON location document. The array is not copied.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws IOException if response cannot be parsed.
+     */
+    public BlipResponse putLocation(String brandKey, String locationKey,
+                                    String source, byte[] locationData) throws IOException {
+        return putLocation(brandKey, locationKey, source, RequestBody.create(locationData, "application/json"));
+    }
+
+    /**
+     * Add or update a location from a RequestBody, e.g. a ByteBuffer or a file created with RequestBody.create.
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param source The unique identifier for the data source being used to add/update the location.
+     * @param locationData The JSON location document.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws IOException if response cannot be parsed.
+     */
+    public BlipResponse putLocation(String brandKey, String locationKey,
+                                    String source, RequestBody locationData) throws IOException {
+        String path = String.format("/brand/%s/location/%s?source=%s", BlipRequest.encode(brandKey),
+                                    BlipRequest.encode(locationKey), BlipRequest.encode(source));
+
+        return REQUEST.executeRequest(BlipOperation.PUT_LOCATION, brandKey, BlipRequest.Command.PUT, path, locationData);
     }
 
     /**
@@ -249,10 +626,10 @@ public class Blip {
      * @throws IOException if response cannot be parsed.
      */
     public BlipResponse deleteLocation(String brandKey, String locationKey, String source) throws IOException {
-        String path = String.format("/brand/%s/location/%s?source=%s", brandKey, locationKey, source);
-        BlipRequest request = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
+        String path = String.format("/brand/%s/location/%s?source=%s", BlipRequest.encode(brandKey),
+                                    BlipRequest.encode(locationKey), BlipRequest.encode(source));
 
-        return request.executeCommand(BlipRequest.Command.DELETE, path, null);
+        return REQUEST.executeCommand(BlipOperation.DELETE_LOCATION, brandKey, BlipRequest.Command.DELETE, path, null);
     }
 
     /**
@@ -272,51 +649,127 @@ public class Blip {
     public BlipResponse bulkLoad(String brandKey, String source, String filePath, Boolean implicitDelete,
                                  int expectedRecordCount, String successEmail, String failEmail,
                                  String successCallbackUrl, String failCallbackUrl) throws IOException {
+        return bulkLoad(brandKey, source, filePath, implicitDelete, expectedRecordCount, successEmail, failEmail,
+                        successCallbackUrl, failCallbackUrl, null);
+    }
+
+    /**
+     * Load a bulk location file into BLIP, reporting the S3 path of the file once it has been uploaded.
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source.
+     * @param filePath The full path to the bulk location file.
+     * @param implicitDelete Whether or not to delete locations from BLIP if they're missing from the file.
+     * @param expectedRecordCount The number of location records to expect in the file.
+     * @param successEmail An optional email address to notify upon success. Can be a comma-delimited list.
+     * @param failEmail An optional email address to notify upon failure. Can be a comma-delimited list.
+     * @param successCallbackUrl An optional URL to call upon success.
+     * @param failCallbackUrl An optional URL to call upon failure.
+     * @param uploaded Called with the S3 path of the file after it is uploaded, or null.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws IOException if the bulk load cannot be initiated.
+     */
+    BlipResponse bulkLoad(String brandKey, String source, String filePath, Boolean implicitDelete,
+                          int expectedRecordCount, String successEmail, String failEmail,
+                          String successCallbackUrl, String failCallbackUrl, Consumer<String> uploaded)
+            throws IOException {
         // Use pre-signed auth from BLIP to upload the file to S3
-        BlipRequest blipRequest = new BlipRequest(API_KEY, SECRET_KEY, ENDPOINT);
-        BlipResponse s3UploadResponse = new S3Request().upload(blipRequest, brandKey, filePath);
+        BlipResponse s3UploadResponse = new S3Request(TRANSPORT, S3_ENDPOINT).upload(REQUEST, brandKey, filePath);
 
         // Return error response if S3 upload fails.
         if (s3UploadResponse.STATUS_CODE != 204) {
             return s3UploadResponse;
         }
 
-        String path = String.format("/brand/%s/bulkLoad?", brandKey);
+        if (uploaded != null) {
+            uploaded.accept(s3UploadResponse.BODY);
+        }
+
+        String path = String.format("/brand/%s/bulkLoad?", BlipRequest.encode(brandKey));
         path += String.format("s3Path=%s&source=%s&implicitDelete=%s&expectedRecordCount=%s",
-                s3UploadResponse.BODY, source, implicitDelete, expectedRecordCount);
+                BlipRequest.encode(s3UploadResponse.BODY), BlipRequest.encode(source), implicitDelete,
+                expectedRecordCount);
 
         // Validate and add optional params
         if (successEmail != null && !successEmail.isEmpty()) {
             if (isValidEmail(successEmail)) {
-                path += "&successEmail=" + successEmail;
+                path += "&successEmail=" + BlipRequest.encode(successEmail);
             } else {
                 return new BlipResponse(400, "Error: successEmail is not valid. " + successEmail);
             }
         }
         if (failEmail != null && !failEmail.isEmpty()) {
             if (isValidEmail(failEmail)) {
-                path += "&failEmail=" + failEmail;
+                path += "&failEmail=" + BlipRequest.encode(failEmail);
             } else {
                 return new BlipResponse(400, "Error: failEmail is not valid. " + failEmail);
             }
         }
         if (successCallbackUrl != null && !successCallbackUrl.isEmpty()) {
             if (isValidUrl(successCallbackUrl)) {
-                path += "&successCallback=" + successCallbackUrl;
+                path += "&successCallback=" + BlipRequest.encode(successCallbackUrl);
             } else {
                 return new BlipResponse(400, "Error: successCallbackUrl is not valid. " + successCallbackUrl);
             }
         }
         if (failCallbackUrl != null && !failCallbackUrl.isEmpty()) {
             if (isValidUrl(failCallbackUrl)) {
-                path += "&failCallback=" + failCallbackUrl;
+                path += "&failCallback=" + BlipRequest.encode(failCallbackUrl);
             } else {
                 return new BlipResponse(400, "Error: failCallbackUrl is not valid. " + failCallbackUrl);
             }
         }
 
         // Ask BLIP to load the file from S3 and return its response (success of failure)
-        return blipRequest.executeCommand(BlipRequest.Command.GET, path, null);
+        return REQUEST.executeCommand(BlipOperation.BULK_LOAD, brandKey, BlipRequest.Command.GET, path, null);
+    }
+
+    /**
+     * Close the connection pool used by this Blip and the BlipAsync returned by async(). The Blip cannot be used
+     * afterwards.
+     * @throws IOException if the connections cannot be closed cleanly.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (async != null) {
+                async.close();
+            }
+        }
+        TRANSPORT.close();
+    }
+
+    /**
+     * Build a locationList query from the parameters of the String-based query methods.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @param pageSize The number of results to include in each page of results.
+     * @param pageNumber The page index to return starting from page 0.
+     * @param sortColumn The column by which to sort results.
+     * @param sortDirection The direction to sort results.
+     * @return The query.
+     */
+    private static LocationQuery buildQuery(String query, String view, Integer pageSize, Integer pageNumber,
+                                            String sortColumn, String sortDirection) {
+        LocationQuery locationQuery = new LocationQuery(query).view(view).sort(sortColumn, sortDirection);
+
+        if (pageSize != null && pageNumber != null) {
+            locationQuery.page(pageSize, pageNumber);
+        }
+
+        return locationQuery;
+    }
+
+    /**
+     * Extract a locationKey from an element of a location key list.
+     * @param element Either the key itself or an object with a locationKey property.
+     * @return The locationKey.
+     */
+    private static String toLocationKey(JsonElement element) {
+        if (element.isJsonObject()) {
+            return element.getAsJsonObject().get("locationKey").getAsString();
+        }
+
+        return element.getAsString();
     }
 
     /**
@@ -327,7 +780,7 @@ public class Blip {
     private Boolean isValidEmail(String email) {
         List<String> emailList = Arrays.asList(email.split(","));
         for (String e : emailList) {
-            Boolean valid = EmailValidator.getInstance().isValid(e);
+            Boolean valid = EMAIL_VALIDATOR.isValid(e);
             if (!valid) { return false; }
         }
         return true; // no invalid emails found
@@ -339,8 +792,255 @@ public class Blip {
      * @return Boolean validation response.
      */
     private Boolean isValidUrl(String url) {
-        String[] schemes = {"http", "https"}; // Exclude ftp which is in the default schemes
-        UrlValidator urlValidator = new UrlValidator(schemes);
-        return urlValidator.isValid(url);
+        return URL_VALIDATOR.isValid(url);
+    }
+
+    /**
+     * Configures a Blip. Settings that are not given keep the defaults used by the Blip constructors.
+     * The transport is composed from the settings in a fixed order, from the outside in: CachingTransport,
+     * InstrumentedTransport, RetryingTransport, HedgingTransport, RateLimitingTransport and the PooledHttpTransport,
+     * so cache hits make no calls, listeners see one event per call with its retries, and every attempt is paced.
+     * A Builder is not safe for concurrent use; the Blip it builds is.
+     */
+    public static class Builder {
+
+        private String apiKey;
+        private String secretKey;
+        private String endpoint = DEFAULT_ENDPOINT;
+        private String s3Endpoint = S3Request.DEFAULT_S3_ENDPOINT;
+        private int maxConnectionsPerRoute = PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private int maxConnectionsTotal = PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_TOTAL;
+        private int connectTimeoutMillis = PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        private int readTimeoutMillis = PooledHttpTransport.DEFAULT_READ_TIMEOUT_MILLIS;
+        private long idleTimeoutMillis = PooledHttpTransport.DEFAULT_IDLE_TIMEOUT_MILLIS;
+        private InetSocketAddress proxy;
+        private BlipTransport transport;
+        private long compressionThreshold = -1;
+        private RetryPolicy retryPolicy;
+        private RateLimiter rateLimiter;
+        private double brandRatePerSecond;
+        private int brandBurst;
+        private AdaptiveConcurrencyLimiter concurrencyLimiter;
+        private int cacheMaxEntries;
+        private long cacheTtlMillis;
+        private double hedgePercentile;
+        private long hedgeInitialDelayMillis;
+        private final List<BlipCallListener> LISTENERS = new ArrayList<>();
+        private int asyncMaxInFlight = BlipAsync.DEFAULT_MAX_IN_FLIGHT;
+        private Executor asyncExecutor;
+
+        /**
+         * The Builder constructor.
+         */
+        private Builder() {
+        }
+
+        /**
+         * @param apiKey The key used to access the BLIP API.
+         * @param secretKey The secret key used to access the BLIP API.
+         * @return This builder.
+         */
+        public Builder credentials(String apiKey, String secretKey) {
+            this.apiKey = apiKey;
+            this.secretKey = secretKey;
+            return this;
+        }
+
+        /**
+         * @param endpoint The BLIP endpoint to target. Defaults to production.
+         * @return This builder.
+         */
+        public Builder endpoint(String endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * @param s3Endpoint The S3 endpoint bulk files are uploaded to. Defaults to "https://s3.amazonaws.com".
+         * @return This builder.
+         */
+        public Builder s3Endpoint(String s3Endpoint) {
+            this.s3Endpoint = s3Endpoint;
+            return this;
+        }
+
+        /**
+         * @param maxConnectionsPerRoute The maximum number of open connections to a single host.
+         * @param maxConnectionsTotal The maximum number of open connections across all hosts.
+         * @return This builder.
+         */
+        public Builder connectionPool(int maxConnectionsPerRoute, int maxConnectionsTotal) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            this.maxConnectionsTotal = maxConnectionsTotal;
+            return this;
+        }
+
+        /**
+         * @param connectTimeoutMillis How long to wait for a connection to be established or leased from the pool.
+         * @param readTimeoutMillis How long to wait for data on an open connection.
+         * @return This builder.
+         */
+        public Builder timeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param idleTimeoutMillis How long an unused connection may stay in the pool before it is closed.
+         * @return This builder.
+         */
+        public Builder idleTimeout(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param host The host of the HTTP proxy every request is sent through.
+         * @param port The port of the proxy.
+         * @return This builder.
+         */
+        public Builder proxy(String host, int port) {
+            this.proxy = InetSocketAddress.createUnresolved(host, port);
+            return this;
+        }
+
+        /**
+         * Send requests with a custom transport instead of a PooledHttpTransport. The pool, timeout and proxy
+         * settings are then ignored, and the other settings wrap the custom transport.
+         * @param transport The innermost transport. The Blip takes ownership of it.
+         * @return This builder.
+         */
+        public Builder transport(BlipTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Compress request bodies (e.g. putLocation documents) with gzip once they reach a given size. Off by default;
+         * only enable it for a BLIP endpoint that accepts gzip-encoded requests.
+         * @param thresholdBytes The smallest body to compress, or -1 to never compress.
+         * @return This builder.
+         */
+        public Builder requestCompressionThreshold(long thresholdBytes) {
+            this.compressionThreshold = thresholdBytes;
+            return this;
+        }
+
+        /**
+         * @param policy The policy used to retry transient failures, or null to not retry.
+         * @return This builder.
+         */
+        public Builder retries(RetryPolicy policy) {
+            this.retryPolicy = policy;
+            return this;
+        }
+
+        /**
+         * @param limiter The rate limiter shared by every call, or null for no limit.
+         * @return This builder.
+         */
+        public Builder rateLimit(RateLimiter limiter) {
+            this.rateLimiter = limiter;
+            return this;
+        }
+
+        /**
+         * @param ratePerSecond The sustained calls per second allowed for each brand, or 0 for no per-brand limit.
+         * @param burst The number of calls each brand may make at once after a quiet period.
+         * @return This builder.
+         */
+        public Builder brandRateLimit(double ratePerSecond, int burst) {
+            this.brandRatePerSecond = ratePerSecond;
+            this.brandBurst = burst;
+            return this;
+        }
+
+        /**
+         * @param limiter The adaptive limiter on the number of calls in flight, or null for no concurrency limit.
+         * @return This builder.
+         */
+        public Builder concurrencyLimit(AdaptiveConcurrencyLimiter limiter) {
+            this.concurrencyLimiter = limiter;
+            return this;
+        }
+
+        /**
+         * @param maxEntries The maximum number of responses to cache, or 0 to not cache.
+         * @param ttlMillis How long a response is served from the cache before it is revalidated.
+         * @return This builder.
+         */
+        public Builder cache(int maxEntries, long ttlMillis) {
+            this.cacheMaxEntries = maxEntries;
+            this.cacheTtlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * @param percentile The percentile of recent response times after which a read is hedged, or 0 to not hedge.
+         * @param initialDelayMillis The delay used until enough calls have been timed.
+         * @return This builder.
+         */
+        public Builder hedging(double percentile, long initialDelayMillis) {
+            this.hedgePercentile = percentile;
+            this.hedgeInitialDelayMillis = initialDelayMillis;
+            return this;
+        }
+
+        /**
+         * Report every HTTP call to a listener, such as a BlipMetrics. May be called more than once.
+         * @param listener The listener.
+         * @return This builder.
+         */
+        public Builder listener(BlipCallListener listener) {
+            LISTENERS.add(listener);
+            return this;
+        }
+
+        /**
+         * @param maxInFlight The maximum number of calls async() may have running at once.
+         * @param executor The executor that runs async() calls, or null for a pool of daemon threads owned by the
+         *                 Blip. A caller-supplied executor is not shut down when the Blip is closed.
+         * @return This builder.
+         */
+        public Builder async(int maxInFlight, Executor executor) {
+            this.asyncMaxInFlight = maxInFlight;
+            this.asyncExecutor = executor;
+            return this;
+        }
+
+        /**
+         * @return A new Blip with this configuration.
+         * @throws IllegalStateException if no credentials were given.
+         */
+        public Blip build() {
+            if (apiKey == null || secretKey == null) {
+                throw new IllegalStateException("credentials are required");
+            }
+
+            BlipTransport composed = transport != null ? transport
+                    : new PooledHttpTransport(maxConnectionsPerRoute, maxConnectionsTotal, connectTimeoutMillis,
+                                              readTimeoutMillis, idleTimeoutMillis, proxy);
+
+            if (rateLimiter != null || brandRatePerSecond > 0 || concurrencyLimiter != null) {
+                composed = new RateLimitingTransport(composed, rateLimiter, brandRatePerSecond, brandBurst,
+                                                     concurrencyLimiter);
+            }
+            if (hedgePercentile > 0) {
+                composed = new HedgingTransport(composed, hedgePercentile, hedgeInitialDelayMillis);
+            }
+            if (retryPolicy != null) {
+                composed = new RetryingTransport(composed, retryPolicy);
+            }
+            if (!LISTENERS.isEmpty()) {
+                composed = new InstrumentedTransport(composed, LISTENERS.toArray(new BlipCallListener[0]));
+            }
+            if (cacheMaxEntries > 0) {
+                composed = new CachingTransport(composed, cacheMaxEntries, cacheTtlMillis);
+            }
+
+            return new Blip(apiKey, secretKey, endpoint, s3Endpoint, composed, compressionThreshold, asyncMaxInFlight,
+                            asyncExecutor);
+        }
     }
 }
@@ -0,0 +1,426 @@
+package com.balihoo.sdk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous versions of the Blip methods.
+ * At most maxInFlight calls run at once; when that limit is reached the calling thread blocks until a call
+ * completes, so producers cannot queue up more work than the API (or the connection pool) can absorb.
+ * Cancelling a returned future aborts its call: a call that has not started is skipped, and one in progress has its
+ * connection closed.
+ */
+public class BlipAsync implements Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+    private final Blip BLIP;
+    private final Executor EXECUTOR;
+    private final Semaphore PERMITS;
+    private final int MAX_IN_FLIGHT;
+    private final boolean OWNS_EXECUTOR;
+
+    /**
+     * BlipAsync constructor with the default in-flight limit.
+     * @param blip The Blip used to make the calls.
+     */
+    public BlipAsync(Blip blip) {
+        this(blip, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * BlipAsync constructor. Calls run on a pool of maxInFlight daemon threads owned by this object.
+     * @param blip The Blip used to make the calls.
+     * @param maxInFlight The maximum number of calls that may be running at once.
+     *                    This should not exceed the connection pool's per-route limit.
+     */
+    public BlipAsync(Blip blip, int maxInFlight) {
+        this(blip, maxInFlight, Executors.newFixedThreadPool(maxInFlight, new AsyncThreadFactory()), true);
+    }
+
+    /**
+     * BlipAsync constructor with a caller-supplied executor (e.g. one that starts a virtual thread per task).
+     * The executor is not shut down when this object is closed.
+     * @param blip The Blip used to make the calls.
+     * @param maxInFlight The maximum number of calls that may be running at once.
+     * @param executor The executor that runs the blocking calls.
+     */
+    public BlipAsync(Blip blip, int maxInFlight, Executor executor) {
+        this(blip, maxInFlight, executor, false);
+    }
+
+    private BlipAsync(Blip blip, int maxInFlight, Executor executor, boolean ownsExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+
+        BLIP = blip;
+        EXECUTOR = executor;
+        PERMITS = new Semaphore(maxInFlight);
+        MAX_IN_FLIGHT = maxInFlight;
+        OWNS_EXECUTOR = ownsExecutor;
+    }
+
+    /**
+     * @return The number of calls currently running.
+     */
+    public int getInFlightCount() {
+        return MAX_IN_FLIGHT - PERMITS.availablePermits();
+    }
+
+    /**
+     * @see Blip#ping()
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> ping() {
+        return submit(() -> BLIP.ping());
+    }
+
+    /**
+     * @see Blip#getBrandKeys()
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getBrandKeys() {
+        return submit(() -> BLIP.getBrandKeys());
+    }
+
+    /**
+     * @see Blip#getBrandSources(String)
+     * @param brandKey The unique identifier for a single brand.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getBrandSources(String brandKey) {
+        return submit(() -> BLIP.getBrandSources(brandKey));
+    }
+
+    /**
+     * @see Blip#getBrandProjections(String)
+     * @param brandKey The unique identifier for a single brand.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getBrandProjections(String brandKey) {
+        return submit(() -> BLIP.getBrandProjections(brandKey));
+    }
+
+    /**
+     * @see Blip#getLocationKeys(String)
+     * @param brandKey The unique identifier for a single brand.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getLocationKeys(String brandKey) {
+        return submit(() -> BLIP.getLocationKeys(brandKey));
+    }
+
+    /**
+     * @see Blip#getLocationKeys(String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param projection The data projection on which to filter results.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getLocationKeys(String brandKey, String projection) {
+        return submit(() -> BLIP.getLocationKeys(brandKey, projection));
+    }
+
+    /**
+     * @see Blip#getLocation(String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getLocation(String brandKey, String locationKey) {
+        return submit(() -> BLIP.getLocation(brandKey, locationKey));
+    }
+
+    /**
+     * @see Blip#getLocation(String, String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param projection The data projection on which to filter results.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getLocation(String brandKey, String locationKey, String projection) {
+        return submit(() -> BLIP.getLocation(brandKey, locationKey, projection));
+    }
+
+    /**
+     * @see Blip#getLocation(String, String, Boolean)
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param includeRefs Whether or not to include objects referenced by the location in its data.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getLocation(String brandKey, String locationKey, Boolean includeRefs) {
+        return submit(() -> BLIP.getLocation(brandKey, locationKey, includeRefs));
+    }
+
+    /**
+     * @see Blip#getLocation(String, String, String, Boolean)
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param projection The data projection on which to filter results.
+     * @param includeRefs Whether or not to include objects referenced by the location in its data.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> getLocation(String brandKey, String locationKey,
+                                                       String projection, Boolean includeRefs) {
+        return submit(() -> BLIP.getLocation(brandKey, locationKey, projection, includeRefs));
+    }
+
+    /**
+     * @see Blip#queryLocations(String, String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> queryLocations(String brandKey, String query, String view) {
+        return submit(() -> BLIP.queryLocations(brandKey, query, view));
+    }
+
+    /**
+     * @see Blip#queryLocations(String, String, String, Integer, Integer)
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @param pageSize The number of results to include in each page of results.
+     * @param pageNumber The page index to return starting from page 0.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> queryLocations(String brandKey, String query, String view,
+                                                          Integer pageSize, Integer pageNumber) {
+        return submit(() -> BLIP.queryLocations(brandKey, query, view, pageSize, pageNumber));
+    }
+
+    /**
+     * @see Blip#queryLocations(String, String, String, Integer, Integer, String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @param pageSize The number of results to include in each page of results.
+     * @param pageNumber The page index to return starting from page 0.
+     * @param sortColumn The column by which to sort results. ('name' or 'locationKey' -- defaults to 'locationKey').
+     * @param sortDirection The direction to sort results. ('asc' or 'desc' -- defaults to 'asc').
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> queryLocations(String brandKey, String query, String view,
+                                                          Integer pageSize, Integer pageNumber,
+                                                          String sortColumn, String sortDirection) {
+        return submit(() -> BLIP.queryLocations(brandKey, query, view, pageSize, pageNumber,
+                                                sortColumn, sortDirection));
+    }
+
+    /**
+     * @see Blip#queryLocations(String, LocationQuery)
+     * The query is encoded before this method returns, so it can be changed and reused straight away.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query The filters, view, page and sort order.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> queryLocations(String brandKey, LocationQuery query) {
+        RequestBody body = RequestBody.create(query.toBytes(), "application/json");
+
+        return submit(() -> BLIP.queryLocations(brandKey, body));
+    }
+
+    /**
+     * @see Blip#queryLocations(String, PreparedQuery, int, Map)
+     * @param brandKey The unique identifier for a single brand.
+     * @param query The prepared query.
+     * @param pageNumber The page index to return starting from page 0.
+     * @param parameters The value of each of the query's parameters, or null if it has none.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> queryLocations(String brandKey, PreparedQuery query, int pageNumber,
+                                                          Map<String, ?> parameters) {
+        RequestBody body = RequestBody.create(query.encode(pageNumber, parameters), "application/json");
+
+        return submit(() -> BLIP.queryLocations(brandKey, body));
+    }
+
+    /**
+     * @see Blip#putLocation(String, String, String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param source The unique identifier for the data source being used to add/update the location.
+     * @param locationData The stringified JSON location document.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> putLocation(String brandKey, String locationKey,
+                                                       String source, String locationData) {
+        return submit(() -> BLIP.putLocation(brandKey, locationKey, source, locationData));
+    }
+
+    /**
+     * @see Blip#putLocation(String, String, String, byte[])
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param source The unique identifier for the data source being used to add/update the location.
+     * @param locationData The UTF-8 encoded JSON location document. The array must not change until the call
+     *                     completes.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> putLocation(String brandKey, String locationKey,
+                                                       String source, byte[] locationData) {
+        return submit(() -> BLIP.putLocation(brandKey, locationKey, source, locationData));
+    }
+
+    /**
+     * @see Blip#deleteLocation(String, String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param source The unique identifier for the data source being used to add/update the location.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> deleteLocation(String brandKey, String locationKey, String source) {
+        return submit(() -> BLIP.deleteLocation(brandKey, locationKey, source));
+    }
+
+    /**
+     * @see Blip#bulkLoad(String, String, String, Boolean, int, String, String, String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source.
+     * @param filePath The full path to the bulk location file.
+     * @param implicitDelete Whether or not to delete locations from BLIP if they're missing from the file.
+     * @param expectedRecordCount The number of location records to expect in the file.
+     * @param successEmail An optional email address to notify upon success. Can be a comma-delimited list.
+     * @param failEmail An optional email address to notify upon failure. Can be a comma-delimited list.
+     * @param successCallbackUrl An optional URL to call upon success.
+     * @param failCallbackUrl An optional URL to call upon failure.
+     * @return A future BlipResponse.
+     */
+    public CompletableFuture<BlipResponse> bulkLoad(String brandKey, String source, String filePath,
+                                                    Boolean implicitDelete, int expectedRecordCount,
+                                                    String successEmail, String failEmail,
+                                                    String successCallbackUrl, String failCallbackUrl) {
+        return submit(() -> BLIP.bulkLoad(brandKey, source, filePath, implicitDelete, expectedRecordCount,
+                                          successEmail, failEmail, successCallbackUrl, failCallbackUrl));
+    }
+
+    /**
+     * Load a bulk location file into BLIP and track it to completion through a callback receiver, instead of
+     * polling. BLIP is given the receiver's callback URLs for the load.
+     * @see Blip#bulkLoad(String, String, String, Boolean, int, String, String, String, String)
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source.
+     * @param filePath The full path to the bulk location file.
+     * @param implicitDelete Whether or not to delete locations from BLIP if they're missing from the file.
+     * @param expectedRecordCount The number of location records to expect in the file.
+     * @param receiver The receiver BLIP's callbacks are sent to.
+     * @param timeoutMillis How long to wait for the callback, from when the call is made.
+     * @return A handle whose futures complete when the load is initiated and when it finishes.
+     */
+    public BulkLoadHandle bulkLoad(String brandKey, String source, String filePath, Boolean implicitDelete,
+                                   int expectedRecordCount, BulkLoadCallbackReceiver receiver, long timeoutMillis) {
+        BulkLoadHandle handle = receiver.register(timeoutMillis);
+
+        submit(() -> BLIP.bulkLoad(brandKey, source, filePath, implicitDelete, expectedRecordCount, null, null,
+                                   handle.SUCCESS_CALLBACK_URL, handle.FAIL_CALLBACK_URL, handle::uploaded))
+                .whenComplete(handle::initiated);
+
+        return handle;
+    }
+
+    /**
+     * Stop the threads owned by this object. Calls that are already running are allowed to finish.
+     * The underlying Blip is not closed.
+     */
+    @Override
+    public void close() {
+        if (OWNS_EXECUTOR) {
+            ((ExecutorService) EXECUTOR).shutdown();
+        }
+    }
+
+    /**
+     * Run a blocking call on the executor once an in-flight permit is available.
+     * @param call The blocking call.
+     * @return A future that completes with the call's response or exception.
+     */
+    private CompletableFuture<BlipResponse> submit(BlipCall call) {
+        CancelSignal signal = new CancelSignal();
+        CompletableFuture<BlipResponse> future = new CompletableFuture<BlipResponse>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    signal.cancel();
+                }
+
+                return cancelled;
+            }
+        };
+
+        try {
+            PERMITS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        try {
+            EXECUTOR.execute(() -> {
+                BlipResponse response = null;
+                Throwable error = null;
+
+                CancelSignal previous = CancelSignal.enter(signal);
+
+                try {
+                    if (!signal.isCancelled()) {
+                        response = call.execute();
+                    }
+                } catch (Throwable t) {
+                    error = t;
+                } finally {
+                    CancelSignal.exit(previous);
+                    // Release before completing so dependent stages can submit new calls without deadlocking.
+                    PERMITS.release();
+                }
+
+                if (error == null) {
+                    future.complete(response);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            PERMITS.release();
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * A blocking Blip call.
+     */
+    private interface BlipCall {
+        BlipResponse execute() throws IOException;
+    }
+
+    /**
+     * Names the threads owned by a BlipAsync and marks them as daemons so they don't keep the JVM alive.
+     */
+    private static class AsyncThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+        private final int POOL = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, String.format("blip-async-%s-%s", POOL, THREAD_NUMBER.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
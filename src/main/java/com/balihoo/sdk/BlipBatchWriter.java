@@ -0,0 +1,487 @@
+package com.balihoo.sdk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects putLocation and deleteLocation calls for one brand and source and sends them in batches.
+ * Repeated writes to the same locationKey between flushes are coalesced so only the last one is sent. A batch is
+ * flushed when it reaches maxBatchSize operations or every flushIntervalMillis, whichever comes first. Deletes and
+ * small batches of puts are sent as individual calls through a BlipAsync (so its in-flight limit applies); once a
+ * batch holds bulkLoadThreshold puts or more, and a BulkLoadCallbackReceiver was given, they are written to a bulk
+ * location file and sent with bulkLoad instead.
+ * Batches are sent one at a time: a batch is only sent once every operation in the previous one has completed,
+ * including a bulk load, so a later write to a locationKey can never be overtaken by an earlier one. A producer that
+ * fills a batch while another is still waiting to be sent blocks until that one starts. The writer is safe for use
+ * by multiple threads.
+ */
+public class BlipBatchWriter implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public enum Operation {
+        PUT,
+        DELETE
+    }
+
+    /**
+     * Receives the outcome of every operation sent by a BlipBatchWriter.
+     * Called from the thread that completed the call, so implementations must be thread-safe and should not block.
+     */
+    public interface Listener {
+        void onResult(Result result);
+    }
+
+    /**
+     * The outcome of a single operation.
+     * For puts sent with bulkLoad, the result is reported once BLIP has called back with the outcome of the load.
+     * RESPONSE is then the response to the bulkLoad request, and ERROR is set if the load failed or no callback
+     * arrived in time.
+     */
+    public static class Result {
+
+        public final Operation OPERATION;
+        public final String LOCATION_KEY;
+        public final BlipResponse RESPONSE;
+        public final Throwable ERROR;
+        public final boolean BULK_LOADED;
+
+        /**
+         * The Result constructor.
+         * @param operation The operation that was sent.
+         * @param locationKey The location the operation applied to.
+         * @param response The response from BLIP, or null if the call failed.
+         * @param error The reason the call failed, or null if a response was received.
+         * @param bulkLoaded Whether or not the operation was sent as part of a bulk load.
+         */
+        public Result(Operation operation, String locationKey, BlipResponse response, Throwable error,
+                      boolean bulkLoaded) {
+            OPERATION = operation;
+            LOCATION_KEY = locationKey;
+            RESPONSE = response;
+            ERROR = error;
+            BULK_LOADED = bulkLoaded;
+        }
+
+        /**
+         * @return Whether or not BLIP accepted the operation.
+         */
+        public boolean isSuccessful() {
+            return RESPONSE != null && 200 <= RESPONSE.STATUS_CODE && RESPONSE.STATUS_CODE <= 299;
+        }
+    }
+
+    private final BlipAsync ASYNC;
+    private final String BRAND_KEY;
+    private final String SOURCE;
+    private final int MAX_BATCH_SIZE;
+    private final int BULK_LOAD_THRESHOLD;
+    private final BulkLoadCallbackReceiver RECEIVER;
+    private final long BULK_LOAD_TIMEOUT_MILLIS;
+    private final Listener LISTENER;
+    private final ScheduledExecutorService TIMER;
+    private final ExecutorService SENDER;
+    private final Gson GSON = new Gson();
+    private final long START_NANOS = System.nanoTime();
+
+    private final AtomicLong SUBMITTED = new AtomicLong();
+    private final AtomicLong COALESCED = new AtomicLong();
+    private final AtomicLong SUCCEEDED = new AtomicLong();
+    private final AtomicLong FAILED = new AtomicLong();
+    private final AtomicLong BULK_LOADED = new AtomicLong();
+
+    private Map<String, PendingOperation> pending = new LinkedHashMap<>();
+    // Completes when the last batch flushed has completed
+    private CompletableFuture<Void> lastBatch = CompletableFuture.completedFuture(null);
+    private int waitingBatches = 0;
+    private boolean closed = false;
+
+    /**
+     * BlipBatchWriter constructor without bulk loads.
+     * The writer could not tell when a bulk load had finished, so every put is sent individually.
+     * @param async The BlipAsync used to send calls.
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source being used to add/update locations.
+     * @param maxBatchSize The number of pending operations that triggers a flush.
+     * @param flushIntervalMillis The longest an operation may wait before it is flushed.
+     * @param listener Receives the outcome of every operation, or null to only update the counters.
+     */
+    public BlipBatchWriter(BlipAsync async, String brandKey, String source, int maxBatchSize,
+                           long flushIntervalMillis, Listener listener) {
+        this(async, brandKey, source, maxBatchSize, flushIntervalMillis, Integer.MAX_VALUE, null, 0, listener);
+    }
+
+    /**
+     * The BlipBatchWriter constructor.
+     * @param async The BlipAsync used to send calls.
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source being used to add/update locations.
+     * @param maxBatchSize The number of pending operations that triggers a flush.
+     * @param flushIntervalMillis The longest an operation may wait before it is flushed.
+     * @param bulkLoadThreshold The number of puts in a batch at which they are sent with bulkLoad.
+     * @param receiver The receiver BLIP's bulk load callbacks are sent to, or null to never use bulkLoad.
+     * @param bulkLoadTimeoutMillis How long to wait for a bulk load's callback before reporting its puts as failed.
+     * @param listener Receives the outcome of every operation, or null to only update the counters.
+     */
+    public BlipBatchWriter(BlipAsync async, String brandKey, String source, int maxBatchSize,
+                           long flushIntervalMillis, int bulkLoadThreshold, BulkLoadCallbackReceiver receiver,
+                           long bulkLoadTimeoutMillis, Listener listener) {
+        ASYNC = async;
+        BRAND_KEY = brandKey;
+        SOURCE = source;
+        MAX_BATCH_SIZE = maxBatchSize;
+        BULK_LOAD_THRESHOLD = bulkLoadThreshold;
+        RECEIVER = receiver;
+        BULK_LOAD_TIMEOUT_MILLIS = bulkLoadTimeoutMillis;
+        LISTENER = listener;
+        TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blip-batch-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Batches are sent from their own thread, which may block on the BlipAsync's in-flight limit
+        SENDER = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blip-batch-writer-send");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TIMER.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a location to be added or updated, replacing any queued operation for the same locationKey.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param locationData The stringified JSON location document.
+     */
+    public void put(String locationKey, String locationData) {
+        enqueue(new PendingOperation(Operation.PUT, locationKey, locationData));
+    }
+
+    /**
+     * Queue a location to be deleted, replacing any queued operation for the same locationKey.
+     * @param locationKey The unique identifier for a single location within the brand.
+     */
+    public void delete(String locationKey) {
+        enqueue(new PendingOperation(Operation.DELETE, locationKey, null));
+    }
+
+    /**
+     * Send every queued operation once the batches flushed before have completed.
+     * @return A future that completes when BLIP has responded to every operation flushed so far.
+     */
+    public CompletableFuture<Void> flush() {
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return lastBatch;
+            }
+
+            Map<String, PendingOperation> batch = pending;
+            pending = new LinkedHashMap<>();
+            waitingBatches++;
+
+            CompletableFuture<Void> done = lastBatch.thenComposeAsync(ignored -> {
+                synchronized (this) {
+                    waitingBatches--;
+                    notifyAll();
+                }
+
+                return sendBatch(batch);
+            }, SENDER);
+            // Outcomes are reported per operation, so a failed batch must not stop the ones after it
+            lastBatch = done.exceptionally(error -> null);
+
+            return lastBatch;
+        }
+    }
+
+    /**
+     * @return The number of put and delete calls made on this writer.
+     */
+    public long getSubmittedCount() {
+        return SUBMITTED.get();
+    }
+
+    /**
+     * @return The number of operations that were replaced by a later operation on the same locationKey.
+     */
+    public long getCoalescedCount() {
+        return COALESCED.get();
+    }
+
+    /**
+     * @return The number of operations BLIP accepted.
+     */
+    public long getSucceededCount() {
+        return SUCCEEDED.get();
+    }
+
+    /**
+     * @return The number of operations that failed or were rejected by BLIP.
+     */
+    public long getFailedCount() {
+        return FAILED.get();
+    }
+
+    /**
+     * @return The number of puts sent with bulkLoad.
+     */
+    public long getBulkLoadedCount() {
+        return BULK_LOADED.get();
+    }
+
+    /**
+     * @return The number of operations completed per second since the writer was created.
+     */
+    public double getCompletedPerSecond() {
+        double seconds = (System.nanoTime() - START_NANOS) / 1e9;
+
+        return seconds <= 0 ? 0 : (SUCCEEDED.get() + FAILED.get()) / seconds;
+    }
+
+    /**
+     * Stop the flush timer, send every queued operation and wait for all outstanding calls to complete.
+     * @throws IOException if interrupted while waiting.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        TIMER.shutdown();
+
+        try {
+            // A flush the timer has started must be queued before the final one
+            TIMER.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            flush().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for batched calls to complete");
+        } catch (ExecutionException e) {
+            // Failures have already been reported per operation.
+        } finally {
+            SENDER.shutdown();
+        }
+    }
+
+    /**
+     * Queue an operation and flush if the batch is full.
+     * @param operation The operation to queue.
+     */
+    private void enqueue(PendingOperation operation) {
+        boolean full;
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("BlipBatchWriter is closed");
+            }
+            if (pending.put(operation.LOCATION_KEY, operation) != null) {
+                COALESCED.incrementAndGet();
+            }
+            full = pending.size() >= MAX_BATCH_SIZE;
+        }
+
+        SUBMITTED.incrementAndGet();
+
+        if (full) {
+            flush();
+            awaitWaitingBatch();
+        }
+    }
+
+    /**
+     * Block while a flushed batch is waiting behind the one being sent as well as the one just flushed, so producers
+     * cannot queue up more batches than the API can absorb.
+     */
+    private synchronized void awaitWaitingBatch() {
+        try {
+            while (waitingBatches > 1) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send a batch of operations.
+     * @param batch The operations, one per locationKey.
+     * @return A future that completes when BLIP has responded to every operation in the batch.
+     */
+    private CompletableFuture<Void> sendBatch(Map<String, PendingOperation> batch) {
+        List<PendingOperation> puts = new ArrayList<>();
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+
+        for (PendingOperation operation : batch.values()) {
+            if (operation.OPERATION == Operation.DELETE) {
+                calls.add(send(operation, ASYNC.deleteLocation(BRAND_KEY, operation.LOCATION_KEY, SOURCE)));
+            } else {
+                puts.add(operation);
+            }
+        }
+
+        if (RECEIVER != null && puts.size() >= BULK_LOAD_THRESHOLD) {
+            calls.add(bulkLoad(puts));
+        } else {
+            for (PendingOperation operation : puts) {
+                calls.add(send(operation, ASYNC.putLocation(BRAND_KEY, operation.LOCATION_KEY, SOURCE,
+                                                            operation.LOCATION_DATA)));
+            }
+        }
+
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[calls.size()]));
+    }
+
+    /**
+     * Write a batch of puts to a bulk location file and load it.
+     * @param puts The puts to load.
+     * @return A future that completes once BLIP has reported the outcome of the load and it has been reported on.
+     */
+    private CompletableFuture<Void> bulkLoad(List<PendingOperation> puts) {
+        Path file;
+
+        try {
+            file = writeBulkFile(puts);
+        } catch (IOException | RuntimeException e) {
+            for (PendingOperation operation : puts) {
+                report(new Result(operation.OPERATION, operation.LOCATION_KEY, null, e, true));
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        BulkLoadHandle handle = ASYNC.bulkLoad(BRAND_KEY, SOURCE, file.toString(), false, puts.size(), RECEIVER,
+                                               BULK_LOAD_TIMEOUT_MILLIS);
+
+        handle.getInitiated().whenComplete((response, error) -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Leave the temp file behind rather than lose the outcomes.
+            }
+        });
+
+        // The callback only arrives after the load was initiated, so combining the two never waits on initiation
+        return handle.getCompletion().thenCombine(handle.getInitiated(), (loaded, response) -> {
+            if (!loaded.SUCCEEDED) {
+                throw new CompletionException(new IOException(String.format("Bulk load of %s failed: %s",
+                                                                            loaded.S3_PATH, loaded.BODY)));
+            }
+            return response;
+        }).handle((response, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            BlipResponse reported = response;
+
+            if (cause instanceof BlipException) {
+                // BLIP rejected the load, so report its response as for an individual call
+                reported = ((BlipException) cause).RESPONSE;
+                cause = null;
+            }
+
+            for (PendingOperation operation : puts) {
+                report(new Result(operation.OPERATION, operation.LOCATION_KEY, reported, cause, true));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Write puts to a temporary file in the bulk load format, one location per line.
+     * @param puts The puts to write.
+     * @return The path of the file.
+     * @throws IOException if the file cannot be written.
+     */
+    private Path writeBulkFile(List<PendingOperation> puts) throws IOException {
+        Path file = Files.createTempFile("blip-batch-", ".json");
+        JsonParser parser = new JsonParser();
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, UTF_8)) {
+            for (PendingOperation operation : puts) {
+                JsonObject line = new JsonObject();
+                line.addProperty("brandKey", BRAND_KEY);
+                line.addProperty("locationKey", operation.LOCATION_KEY);
+                // Re-serialize the document so it is guaranteed to fit on one line.
+                line.add("document", parser.parse(operation.LOCATION_DATA));
+                GSON.toJson(line, writer);
+                writer.write('\n');
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+
+        return file;
+    }
+
+    /**
+     * Report the outcome of a single call when it completes.
+     * @param operation The operation that was sent.
+     * @param call The pending call.
+     * @return A future that completes once the outcome has been reported.
+     */
+    private CompletableFuture<Void> send(PendingOperation operation, CompletableFuture<BlipResponse> call) {
+        return call.handle((response, error) -> {
+            report(new Result(operation.OPERATION, operation.LOCATION_KEY, response, error, false));
+            return null;
+        });
+    }
+
+    /**
+     * Update the counters and notify the listener.
+     * @param result The outcome of an operation.
+     */
+    private void report(Result result) {
+        if (result.isSuccessful()) {
+            SUCCEEDED.incrementAndGet();
+        } else {
+            FAILED.incrementAndGet();
+        }
+
+        if (result.BULK_LOADED) {
+            BULK_LOADED.incrementAndGet();
+        }
+
+        if (LISTENER != null) {
+            LISTENER.onResult(result);
+        }
+    }
+
+    /**
+     * A queued operation.
+     */
+    private static class PendingOperation {
+
+        private final Operation OPERATION;
+        private final String LOCATION_KEY;
+        private final String LOCATION_DATA;
+
+        private PendingOperation(Operation operation, String locationKey, String locationData) {
+            OPERATION = operation;
+            LOCATION_KEY = locationKey;
+            LOCATION_DATA = locationData;
+        }
+    }
+}
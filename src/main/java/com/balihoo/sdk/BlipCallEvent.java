@@ -0,0 +1,54 @@
+package com.balihoo.sdk;
+
+import java.io.IOException;
+
+/**
+ * The details of a single HTTP call reported to a BlipCallListener.
+ * Timings are in nanoseconds. DNS and connect times are only reported by a PooledHttpTransport and are 0 when the
+ * call reused a pooled connection.
+ */
+public final class BlipCallEvent {
+
+    public final BlipOperation OPERATION;
+    public final String BRAND_KEY;
+    public final String METHOD;
+    public final int STATUS_CODE;
+    public final IOException ERROR;
+    public final long BYTES_SENT;
+    public final long BYTES_RECEIVED;
+    public final boolean CONNECTION_REUSED;
+    public final long DNS_NANOS;
+    public final long CONNECT_NANOS;
+    public final long TIME_TO_FIRST_BYTE_NANOS;
+    public final long TOTAL_NANOS;
+    public final int RETRIES;
+    public final boolean HEDGED;
+
+    /**
+     * The BlipCallEvent constructor.
+     * @param trace The completed call.
+     */
+    BlipCallEvent(CallTrace trace) {
+        OPERATION = trace.REQUEST.OPERATION;
+        BRAND_KEY = trace.REQUEST.BRAND_KEY;
+        METHOD = trace.REQUEST.METHOD;
+        STATUS_CODE = trace.statusCode;
+        ERROR = trace.error;
+        BYTES_SENT = trace.bytesSent;
+        BYTES_RECEIVED = trace.bytesReceived;
+        CONNECTION_REUSED = trace.connections == 0;
+        DNS_NANOS = trace.dnsNanos;
+        CONNECT_NANOS = trace.connectNanos;
+        TIME_TO_FIRST_BYTE_NANOS = trace.firstByteNanos;
+        TOTAL_NANOS = trace.totalNanos;
+        RETRIES = trace.retries;
+        HEDGED = trace.hedged;
+    }
+
+    /**
+     * @return Whether or not the call received a 2xx response.
+     */
+    public boolean isSuccessful() {
+        return ERROR == null && STATUS_CODE >= 200 && STATUS_CODE < 300;
+    }
+}
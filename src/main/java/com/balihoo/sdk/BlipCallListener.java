@@ -0,0 +1,15 @@
+package com.balihoo.sdk;
+
+/**
+ * Receives an event for every HTTP call sent through an InstrumentedTransport.
+ * Implement this to forward SDK metrics or traces to an external registry. Listeners are called on the thread that
+ * made the call, so they should be fast and must be safe for concurrent use.
+ */
+public interface BlipCallListener {
+
+    /**
+     * Called once a call has completed: its response has been closed or it has failed.
+     * @param event The details of the call.
+     */
+    void onCallCompleted(BlipCallEvent event);
+}
@@ -0,0 +1,22 @@
+package com.balihoo.sdk;
+
+import java.io.IOException;
+
+/**
+ * Thrown by methods that return parsed results rather than a BlipResponse when BLIP responds with an error status.
+ */
+public class BlipException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final BlipResponse RESPONSE;
+
+    /**
+     * The BlipException constructor.
+     * @param response The error response returned by BLIP.
+     */
+    public BlipException(BlipResponse response) {
+        super(String.format("BLIP responded with status %s: %s", response.STATUS_CODE, response.BODY));
+        RESPONSE = response;
+    }
+}
@@ -0,0 +1,676 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Exports every location of many brands in parallel.
+ * <ul>
+ * <li>Brands are exported side by side on a work-stealing ForkJoinPool, so threads that finish a small brand move on
+ * to the remaining work of large ones. At most maxConcurrency requests are in flight in total, and at most
+ * maxPerBrand for any one brand.</li>
+ * <li>A brand is read with queryLocations pages, which return pageSize locations per request, whenever a page can
+ * return the requested documents: with the universal projection and no referenced objects. Otherwise its locationKeys
+ * are listed and each location is fetched with getLocation.</li>
+ * <li>Locations are written to an ExportSink as they arrive. Progress is reported to an optional listener after every
+ * page, batch of locations and brand.</li>
+ * <li>With a checkpoint file, completed brands, pages and locations are recorded after the sink has been flushed, and
+ * a later export with the same file skips them. A location can be written twice if the export stops between the two.
+ * Work that failed is not recorded, so it is retried by the next export. Pages are fetched again, since locations
+ * added or deleted before a page move others on to or off it, but only locations outside the locationKey ranges of
+ * the exported pages are written. A location added since within such a range is left out, as it would have been had
+ * the export not stopped.</li>
+ * </ul>
+ * <pre>
+ *     BlipExporter exporter = new BlipExporter(blip, 16, 4, 500);
+ *     try (NdjsonExportSink sink = new NdjsonExportSink(Paths.get("export.json"))) {
+ *         BlipExporter.Progress result = exporter.export(null, sink, Paths.get("export.checkpoint"), null);
+ *     }
+ * </pre>
+ */
+public class BlipExporter {
+
+    /**
+     * A snapshot of an export's progress.
+     */
+    public static class Progress {
+
+        public final int BRANDS;
+        public final int BRANDS_COMPLETED;
+        public final long EXPORTED;
+        public final long SKIPPED;
+        public final long FAILED;
+        public final long REQUESTS;
+        public final long ELAPSED_NANOS;
+        public final Map<String, Throwable> ERRORS;
+
+        /**
+         * The Progress constructor.
+         * @param brands The number of brands being exported.
+         * @param brandsCompleted The number of brands whose every location has been exported.
+         * @param exported The number of locations written to the sink.
+         * @param skipped The number of locations already exported according to the checkpoint.
+         * @param failed The number of pages and locations that could not be fetched.
+         * @param requests The number of requests sent to BLIP.
+         * @param elapsedNanos The time since the export started.
+         * @param errors The first error of each brand that could not be exported completely.
+         */
+        private Progress(int brands, int brandsCompleted, long exported, long skipped, long failed, long requests,
+                         long elapsedNanos, Map<String, Throwable> errors) {
+            BRANDS = brands;
+            BRANDS_COMPLETED = brandsCompleted;
+            EXPORTED = exported;
+            SKIPPED = skipped;
+            FAILED = failed;
+            REQUESTS = requests;
+            ELAPSED_NANOS = elapsedNanos;
+            ERRORS = errors;
+        }
+
+        /**
+         * @return Whether or not every brand has been exported completely.
+         */
+        public boolean isComplete() {
+            return BRANDS_COMPLETED == BRANDS;
+        }
+    }
+
+    private final Blip BLIP;
+    private final int MAX_CONCURRENCY;
+    private final int MAX_PER_BRAND;
+    private final int PAGE_SIZE;
+    private final String PROJECTION;
+    private final boolean INCLUDE_REFS;
+    private final PreparedQuery ALL_LOCATIONS;
+
+    /**
+     * BlipExporter constructor for the universal projection without referenced objects.
+     * @param blip The Blip used to make the calls.
+     * @param maxConcurrency The maximum number of requests in flight across all brands.
+     * @param maxPerBrand The maximum number of requests in flight for a single brand.
+     * @param pageSize The number of locations in each queryLocations page, and in each checkpointed batch.
+     */
+    public BlipExporter(Blip blip, int maxConcurrency, int maxPerBrand, int pageSize) {
+        this(blip, maxConcurrency, maxPerBrand, pageSize, "universal", false);
+    }
+
+    /**
+     * The BlipExporter constructor.
+     * @param blip The Blip used to make the calls.
+     * @param maxConcurrency The maximum number of requests in flight across all brands.
+     * @param maxPerBrand The maximum number of requests in flight for a single brand.
+     * @param pageSize The number of locations in each queryLocations page, and in each checkpointed batch.
+     * @param projection The data projection on which to filter locations.
+     * @param includeRefs Whether or not to include objects referenced by each location in its data.
+     */
+    public BlipExporter(Blip blip, int maxConcurrency, int maxPerBrand, int pageSize, String projection,
+                        boolean includeRefs) {
+        if (maxConcurrency < 1 || maxPerBrand < 1 || pageSize < 1) {
+            throw new IllegalArgumentException("maxConcurrency, maxPerBrand and pageSize must be positive");
+        }
+
+        BLIP = blip;
+        MAX_CONCURRENCY = maxConcurrency;
+        MAX_PER_BRAND = maxPerBrand;
+        PAGE_SIZE = pageSize;
+        PROJECTION = projection;
+        INCLUDE_REFS = includeRefs;
+        ALL_LOCATIONS = new LocationQuery("{}").view("full").prepare(pageSize);
+    }
+
+    /**
+     * Export every location of every brand the API user can access, without a checkpoint.
+     * @param sink Receives the exported locations.
+     * @return The outcome of the export.
+     * @throws IOException if the brands cannot be listed or the sink cannot be flushed.
+     */
+    public Progress export(ExportSink sink) throws IOException {
+        return export(null, sink, null, null);
+    }
+
+    /**
+     * Export every location of the given brands. Brands that fail are reported in the result rather than stopping
+     * the export.
+     * @param brandKeys The brands to export, or null for every brand the API user can access.
+     * @param sink Receives the exported locations.
+     * @param checkpointFile The file used to resume an interrupted export, or null.
+     * @param listener Called with the progress of the export from the export's threads, or null.
+     * @return The outcome of the export.
+     * @throws IOException if the brands cannot be listed, the checkpoint cannot be read or written or the sink cannot
+     *                     be flushed.
+     */
+    public Progress export(List<String> brandKeys, ExportSink sink, Path checkpointFile,
+                           Consumer<Progress> listener) throws IOException {
+        if (brandKeys == null) {
+            brandKeys = getBrandKeys();
+        }
+
+        try (ExportCheckpoint checkpoint = new ExportCheckpoint(checkpointFile)) {
+            Export export = new Export(brandKeys, sink, checkpoint, listener);
+            ForkJoinPool pool = new ForkJoinPool(MAX_CONCURRENCY, new ExportThreadFactory(), null, false);
+
+            try {
+                pool.invoke(export);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+
+            sink.flush();
+            Progress progress = export.progress();
+            if (listener != null) {
+                listener.accept(progress);
+            }
+
+            return progress;
+        }
+    }
+
+    /**
+     * @return The brandKeys the API user can access.
+     * @throws IOException if the brands cannot be listed.
+     */
+    private List<String> getBrandKeys() throws IOException {
+        BlipResponse response = BLIP.getBrandKeys();
+        if (response.STATUS_CODE != 200) {
+            throw new BlipException(response);
+        }
+
+        List<String> brandKeys = new ArrayList<>();
+        for (JsonElement brandKey : new JsonParser().parse(response.BODY).getAsJsonArray()) {
+            brandKeys.add(brandKey.getAsString());
+        }
+
+        return brandKeys;
+    }
+
+    /**
+     * The state of a single call to export, and the root task that fans out to its brands.
+     */
+    private class Export extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> BRAND_KEYS;
+        private final ExportSink SINK;
+        private final ExportCheckpoint CHECKPOINT;
+        private final Consumer<Progress> LISTENER;
+        // Held for each request; worker threads the pool adds while others wait in a join still respect the limit.
+        private final Semaphore PERMITS = new Semaphore(MAX_CONCURRENCY);
+        private final long START = System.nanoTime();
+        private final AtomicInteger BRANDS_COMPLETED = new AtomicInteger();
+        private final LongAdder EXPORTED = new LongAdder();
+        private final LongAdder SKIPPED = new LongAdder();
+        private final LongAdder FAILED = new LongAdder();
+        private final LongAdder REQUESTS = new LongAdder();
+        private final Map<String, Throwable> ERRORS = new ConcurrentHashMap<>();
+
+        /**
+         * The Export constructor.
+         * @param brandKeys The brands to export.
+         * @param sink Receives the exported locations.
+         * @param checkpoint The progress of earlier exports.
+         * @param listener Called with the progress of the export, or null.
+         */
+        private Export(List<String> brandKeys, ExportSink sink, ExportCheckpoint checkpoint,
+                       Consumer<Progress> listener) {
+            BRAND_KEYS = brandKeys;
+            SINK = sink;
+            CHECKPOINT = checkpoint;
+            LISTENER = listener;
+        }
+
+        /**
+         * Export every brand.
+         */
+        @Override
+        protected void compute() {
+            List<BrandTask> brands = new ArrayList<>(BRAND_KEYS.size());
+            for (String brandKey : BRAND_KEYS) {
+                brands.add(new BrandTask(this, brandKey));
+            }
+
+            invokeAll(brands);
+        }
+
+        /**
+         * @return The current progress.
+         */
+        private Progress progress() {
+            return new Progress(BRAND_KEYS.size(), BRANDS_COMPLETED.get(), EXPORTED.sum(), SKIPPED.sum(),
+                                FAILED.sum(), REQUESTS.sum(), System.nanoTime() - START,
+                                Collections.unmodifiableMap(new ConcurrentHashMap<>(ERRORS)));
+        }
+
+        /**
+         * Tell the listener about the current progress.
+         */
+        private void report() {
+            if (LISTENER != null) {
+                LISTENER.accept(progress());
+            }
+        }
+
+        /**
+         * Make a blocking Blip call once a request permit is available.
+         * @param call The call.
+         * @param <T> The result type.
+         * @return The result of the call.
+         * @throws IOException if the call fails or the wait is interrupted.
+         */
+        private <T> T call(BlipCall<T> call) throws IOException {
+            try {
+                PERMITS.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send a request");
+            }
+
+            try {
+                REQUESTS.increment();
+                return call.execute();
+            } finally {
+                PERMITS.release();
+            }
+        }
+    }
+
+    /**
+     * Exports one brand.
+     */
+    private class BrandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Export EXPORT;
+        private final String BRAND_KEY;
+        private volatile boolean failed = false;
+
+        /**
+         * The BrandTask constructor.
+         * @param export The export the brand belongs to.
+         * @param brandKey The brand.
+         */
+        private BrandTask(Export export, String brandKey) {
+            EXPORT = export;
+            BRAND_KEY = brandKey;
+        }
+
+        /**
+         * Choose how to read the brand, split it into maxPerBrand lanes and record it if every lane succeeded.
+         */
+        @Override
+        protected void compute() {
+            if (EXPORT.CHECKPOINT.isBrandDone(BRAND_KEY)) {
+                EXPORT.BRANDS_COMPLETED.incrementAndGet();
+                return;
+            }
+
+            try {
+                if (usePages()) {
+                    List<PageLane> lanes = new ArrayList<>(MAX_PER_BRAND);
+                    for (int lane = 0; lane < MAX_PER_BRAND; lane++) {
+                        lanes.add(new PageLane(this, lane));
+                    }
+                    invokeAll(lanes);
+                } else {
+                    new KeyLanes(this, getRemainingKeys(), MAX_PER_BRAND).invoke();
+                }
+
+                if (!failed) {
+                    EXPORT.SINK.flush();
+                    EXPORT.CHECKPOINT.recordBrand(BRAND_KEY);
+                    EXPORT.BRANDS_COMPLETED.incrementAndGet();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+
+            EXPORT.report();
+        }
+
+        /**
+         * Decide whether to read the brand with queryLocations pages, keeping the mode of an earlier export.
+         * @return Whether or not to use pages.
+         * @throws IOException if the mode cannot be recorded.
+         */
+        private boolean usePages() throws IOException {
+            String mode = EXPORT.CHECKPOINT.getMode(BRAND_KEY);
+            String pagesMode = ExportCheckpoint.PAGES + "\t" + PAGE_SIZE;
+
+            // A page can only stand in for getLocation calls when it returns the same documents
+            boolean pagesAvailable = "universal".equals(PROJECTION) && !INCLUDE_REFS;
+
+            if (ExportCheckpoint.KEYS.equals(mode) || !pagesAvailable) {
+                if (!ExportCheckpoint.KEYS.equals(mode)) {
+                    EXPORT.CHECKPOINT.recordKeysMode(BRAND_KEY);
+                }
+                return false;
+            }
+
+            if (!pagesMode.equals(mode)) {
+                EXPORT.CHECKPOINT.recordPagesMode(BRAND_KEY, PAGE_SIZE);
+            }
+            return true;
+        }
+
+        /**
+         * List the brand's locationKeys that have not been exported yet.
+         * @return The remaining locationKeys.
+         * @throws IOException if the keys cannot be listed.
+         */
+        private List<String> getRemainingKeys() throws IOException {
+            List<String> keys = EXPORT.call(() -> {
+                List<String> all = new ArrayList<>();
+                try (JsonRecordIterator<String> iterator = BLIP.iterateLocationKeys(BRAND_KEY, PROJECTION)) {
+                    while (iterator.hasNext()) {
+                        all.add(iterator.next());
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                return all;
+            });
+
+            List<String> remaining = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                if (EXPORT.CHECKPOINT.isKeyDone(BRAND_KEY, key)) {
+                    EXPORT.SKIPPED.increment();
+                } else {
+                    remaining.add(key);
+                }
+            }
+
+            return remaining;
+        }
+
+        /**
+         * Mark the brand as incomplete, keeping its first error.
+         * @param error The reason part of the brand could not be exported.
+         */
+        private void fail(Throwable error) {
+            failed = true;
+            EXPORT.ERRORS.putIfAbsent(BRAND_KEY, error);
+        }
+    }
+
+    /**
+     * Reads every maxPerBrand-th page of a brand, starting from its lane number, until a page is short.
+     */
+    private class PageLane extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BrandTask BRAND;
+        private final int LANE;
+
+        /**
+         * The PageLane constructor.
+         * @param brand The brand being exported.
+         * @param lane The first page of the lane.
+         */
+        private PageLane(BrandTask brand, int lane) {
+            BRAND = brand;
+            LANE = lane;
+        }
+
+        /**
+         * Export the lane's pages. A page that fails ends the lane, leaving the brand incomplete.
+         */
+        @Override
+        protected void compute() {
+            Export export = BRAND.EXPORT;
+
+            for (int pageNumber = LANE; ; pageNumber += MAX_PER_BRAND) {
+                int count;
+
+                try {
+                    count = exportPage(pageNumber);
+                } catch (IOException | RuntimeException e) {
+                    export.FAILED.increment();
+                    BRAND.fail(e);
+                    return;
+                }
+
+                if (count < PAGE_SIZE) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Fetch a page, write the locations on it that have not been exported yet and record it. Locations are listed
+         * in locationKey order, so an exported page covers every key from its first to its last locationKey. A page
+         * whose locations were all covered by exported pages is skipped; one that locations moved on to, because
+         * others were added or deleted before it, only has the locations that moved written.
+         * @param pageNumber The page index.
+         * @return The number of locations on the page.
+         * @throws IOException if the page cannot be fetched or written.
+         */
+        private int exportPage(int pageNumber) throws IOException {
+            Export export = BRAND.EXPORT;
+            String brandKey = BRAND.BRAND_KEY;
+            long start = System.nanoTime();
+            LocationPage page;
+
+            try {
+                page = export.call(() -> LocationQueryCursor.parsePage(pageNumber,
+                        BLIP.queryLocations(brandKey, ALL_LOCATIONS, pageNumber, null), start));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            List<JsonObject> locations = page.LOCATIONS;
+            int written = 0;
+
+            for (JsonObject location : locations) {
+                String locationKey = getLocationKey(location);
+
+                if (locationKey != null && export.CHECKPOINT.isInExportedPage(brandKey, locationKey)) {
+                    export.SKIPPED.increment();
+                } else {
+                    export.SINK.write(brandKey, locationKey, toDocument(location));
+                    export.EXPORTED.increment();
+                    written++;
+                }
+            }
+
+            String firstKey = locations.isEmpty() ? null : getLocationKey(locations.get(0));
+            String lastKey = locations.isEmpty() ? null : getLocationKey(locations.get(locations.size() - 1));
+            ExportCheckpoint.Page recorded = export.CHECKPOINT.getPage(brandKey, pageNumber);
+
+            if (written > 0 || recorded == null || recorded.COUNT != locations.size()
+                    || !Objects.equals(recorded.FIRST_KEY, firstKey) || !Objects.equals(recorded.LAST_KEY, lastKey)) {
+                export.SINK.flush();
+                export.CHECKPOINT.recordPage(brandKey, pageNumber, locations.size(), firstKey, lastKey);
+                export.report();
+            }
+
+            return locations.size();
+        }
+
+        /**
+         * @param location A location from a page.
+         * @return Its locationKey, or null if it has none.
+         */
+        private String getLocationKey(JsonObject location) {
+            JsonElement locationKey = location.get("locationKey");
+
+            return locationKey == null ? null : locationKey.getAsString();
+        }
+    }
+
+    /**
+     * Extract the document from a location as BLIP returns it: {"brandKey":...,"locationKey":...,"document":{...}}.
+     * @param location The location.
+     * @return The stringified JSON location document.
+     */
+    private static String toDocument(JsonObject location) {
+        JsonElement document = location.get("document");
+
+        return document == null ? "null" : document.toString();
+    }
+
+    /**
+     * Fetches a range of a brand's locations one at a time, splitting it in two until there is one lane per range.
+     */
+    private class KeyLanes extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BrandTask BRAND;
+        private final List<String> KEYS;
+        private final int LANES;
+
+        /**
+         * The KeyLanes constructor.
+         * @param brand The brand being exported.
+         * @param keys The locationKeys to fetch.
+         * @param lanes The number of locations that may be fetched at once.
+         */
+        private KeyLanes(BrandTask brand, List<String> keys, int lanes) {
+            BRAND = brand;
+            KEYS = keys;
+            LANES = lanes;
+        }
+
+        /**
+         * Split the range, or fetch it in checkpointed batches of pageSize.
+         */
+        @Override
+        protected void compute() {
+            if (LANES > 1 && KEYS.size() > 1) {
+                int half = KEYS.size() / 2;
+                invokeAll(new KeyLanes(BRAND, KEYS.subList(0, half), LANES / 2),
+                          new KeyLanes(BRAND, KEYS.subList(half, KEYS.size()), LANES - LANES / 2));
+                return;
+            }
+
+            Export export = BRAND.EXPORT;
+            List<String> batch = new ArrayList<>(Math.min(PAGE_SIZE, KEYS.size()));
+
+            try {
+                for (String locationKey : KEYS) {
+                    if (exportLocation(locationKey)) {
+                        batch.add(locationKey);
+                    }
+
+                    if (batch.size() == PAGE_SIZE) {
+                        recordBatch(batch);
+                    }
+                }
+                recordBatch(batch);
+            } catch (IOException e) {
+                // The sink or checkpoint failed, so nothing else can be recorded
+                BRAND.fail(e);
+            }
+        }
+
+        /**
+         * Fetch and write a single location.
+         * @param locationKey The location.
+         * @return Whether or not the location was exported, or no longer exists.
+         * @throws IOException if the location cannot be written.
+         */
+        private boolean exportLocation(String locationKey) throws IOException {
+            Export export = BRAND.EXPORT;
+            String brandKey = BRAND.BRAND_KEY;
+            BlipResponse response;
+
+            try {
+                response = export.call(() -> BLIP.getLocation(brandKey, locationKey, PROJECTION, INCLUDE_REFS));
+            } catch (IOException e) {
+                export.FAILED.increment();
+                BRAND.fail(e);
+                return false;
+            }
+
+            if (response.STATUS_CODE == 404) {
+                // Deleted since the keys were listed
+                return true;
+            }
+
+            if (response.STATUS_CODE != 200) {
+                export.FAILED.increment();
+                BRAND.fail(new BlipException(response));
+                return false;
+            }
+
+            String document;
+
+            try {
+                document = toDocument(new JsonParser().parse(response.BODY).getAsJsonObject());
+            } catch (JsonParseException | IllegalStateException e) {
+                export.FAILED.increment();
+                BRAND.fail(new IOException("Unexpected response for location " + locationKey, e));
+                return false;
+            }
+
+            export.SINK.write(brandKey, locationKey, document);
+            export.EXPORTED.increment();
+
+            return true;
+        }
+
+        /**
+         * Flush the sink, record a batch of exported locations and clear it.
+         * @param batch The locationKeys exported since the last batch.
+         * @throws IOException if the sink cannot be flushed or the checkpoint cannot be written.
+         */
+        private void recordBatch(List<String> batch) throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            BRAND.EXPORT.SINK.flush();
+            BRAND.EXPORT.CHECKPOINT.recordKeys(BRAND.BRAND_KEY, batch);
+            batch.clear();
+            BRAND.EXPORT.report();
+        }
+    }
+
+    /**
+     * A blocking Blip call.
+     * @param <T> The result type.
+     */
+    private interface BlipCall<T> {
+        T execute() throws IOException;
+    }
+
+    /**
+     * Names the export's worker threads. ForkJoinPool worker threads are daemons.
+     */
+    private static class ExportThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+        private final int POOL = POOL_NUMBER.incrementAndGet();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(String.format("blip-export-%s-%s", POOL, thread.getPoolIndex()));
+
+            return thread;
+        }
+    }
+}
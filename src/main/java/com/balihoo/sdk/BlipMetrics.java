@@ -0,0 +1,145 @@
+package com.balihoo.sdk;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A BlipCallListener that keeps call counts, byte counts and latency histograms for each BLIP operation.
+ * Calls made without an operation (e.g. through a TransportRequest built by hand) are not counted.
+ * <pre>
+ *     BlipMetrics metrics = new BlipMetrics();
+ *     Blip blip = new Blip(apiKey, secretKey, endpoint, new InstrumentedTransport(new PooledHttpTransport(), metrics));
+ *     ...
+ *     long p99 = metrics.get(BlipOperation.GET_LOCATION).TOTAL_NANOS.getValueAtPercentile(99);
+ * </pre>
+ */
+public class BlipMetrics implements BlipCallListener {
+
+    private final Map<BlipOperation, OperationMetrics> OPERATIONS = new EnumMap<>(BlipOperation.class);
+
+    /**
+     * The BlipMetrics constructor.
+     */
+    public BlipMetrics() {
+        for (BlipOperation operation : BlipOperation.values()) {
+            OPERATIONS.put(operation, new OperationMetrics());
+        }
+    }
+
+    /**
+     * Record a completed call.
+     * @param event The details of the call.
+     */
+    @Override
+    public void onCallCompleted(BlipCallEvent event) {
+        if (event.OPERATION != null) {
+            OPERATIONS.get(event.OPERATION).record(event);
+        }
+    }
+
+    /**
+     * @param operation A BLIP operation.
+     * @return The metrics recorded for the operation.
+     */
+    public OperationMetrics get(BlipOperation operation) {
+        return OPERATIONS.get(operation);
+    }
+
+    /**
+     * The metrics recorded for a single BLIP operation.
+     */
+    public static class OperationMetrics {
+
+        public final LatencyHistogram TOTAL_NANOS = new LatencyHistogram();
+        public final LatencyHistogram TIME_TO_FIRST_BYTE_NANOS = new LatencyHistogram();
+        public final LatencyHistogram DNS_NANOS = new LatencyHistogram();
+        public final LatencyHistogram CONNECT_NANOS = new LatencyHistogram();
+
+        private final AtomicLong CALLS = new AtomicLong();
+        private final AtomicLong FAILURES = new AtomicLong();
+        private final AtomicLong RETRIES = new AtomicLong();
+        private final AtomicLong HEDGED = new AtomicLong();
+        private final AtomicLong REUSED_CONNECTIONS = new AtomicLong();
+        private final AtomicLong BYTES_SENT = new AtomicLong();
+        private final AtomicLong BYTES_RECEIVED = new AtomicLong();
+
+        private OperationMetrics() {
+        }
+
+        /**
+         * @param event A completed call.
+         */
+        private void record(BlipCallEvent event) {
+            CALLS.incrementAndGet();
+            if (!event.isSuccessful()) {
+                FAILURES.incrementAndGet();
+            }
+            if (event.CONNECTION_REUSED) {
+                REUSED_CONNECTIONS.incrementAndGet();
+            } else {
+                DNS_NANOS.record(event.DNS_NANOS);
+                CONNECT_NANOS.record(event.CONNECT_NANOS);
+            }
+            RETRIES.addAndGet(event.RETRIES);
+            if (event.HEDGED) {
+                HEDGED.incrementAndGet();
+            }
+            BYTES_SENT.addAndGet(event.BYTES_SENT);
+            BYTES_RECEIVED.addAndGet(event.BYTES_RECEIVED);
+            TOTAL_NANOS.record(event.TOTAL_NANOS);
+            if (event.ERROR == null) {
+                TIME_TO_FIRST_BYTE_NANOS.record(event.TIME_TO_FIRST_BYTE_NANOS);
+            }
+        }
+
+        /**
+         * @return The number of calls made.
+         */
+        public long getCallCount() {
+            return CALLS.get();
+        }
+
+        /**
+         * @return The number of calls that failed or received a non-2xx response.
+         */
+        public long getFailureCount() {
+            return FAILURES.get();
+        }
+
+        /**
+         * @return The total number of retries across all calls.
+         */
+        public long getRetryCount() {
+            return RETRIES.get();
+        }
+
+        /**
+         * @return The number of calls for which a HedgingTransport sent a second request.
+         */
+        public long getHedgedCount() {
+            return HEDGED.get();
+        }
+
+        /**
+         * @return The number of calls that did not need to open a new connection.
+         */
+        public long getReusedConnectionCount() {
+            return REUSED_CONNECTIONS.get();
+        }
+
+        /**
+         * @return The total number of request body bytes sent.
+         */
+        public long getBytesSent() {
+            return BYTES_SENT.get();
+        }
+
+        /**
+         * @return The total number of response body bytes received.
+         */
+        public long getBytesReceived() {
+            return BYTES_RECEIVED.get();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.balihoo.sdk;
+
+/**
+ * The BLIP API operations a Blip client performs, attached to each TransportRequest so transports can apply
+ * per-operation behaviour such as retries, circuit breaking and metrics.
+ */
+public enum BlipOperation {
+    PING(true),
+    GET_BRAND_KEYS(true),
+    GET_BRAND_SOURCES(true),
+    GET_BRAND_PROJECTIONS(true),
+    GET_LOCATION_KEYS(true),
+    GET_LOCATION(true),
+    // A read-only search, safe to repeat even though it is sent as a POST
+    QUERY_LOCATIONS(true),
+    PUT_LOCATION(true),
+    DELETE_LOCATION(true),
+    AUTHORIZE_UPLOAD(true),
+    // Repeating this request would start a second load job
+    BULK_LOAD(false),
+    // Retried by S3Request itself from the compressed file
+    S3_UPLOAD(false);
+
+    public final boolean IDEMPOTENT;
+
+    BlipOperation(boolean idempotent) {
+        IDEMPOTENT = idempotent;
+    }
+}
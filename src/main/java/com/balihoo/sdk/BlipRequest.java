@@ -1,16 +1,23 @@
 package com.balihoo.sdk;
 
 import java.io.*;
-import java.net.*;
-import javax.xml.bind.DatatypeConverter;
+import java.net.URLEncoder;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An HTTP request to the BLIP API.
  */
 class BlipRequest {
 
-    private final String CREDENTIALS;
+    private final Map<String, String> HEADERS;
+    private final Map<String, String> GZIP_HEADERS;
     private final String ENDPOINT;
+    private final BlipTransport TRANSPORT;
+    private final long COMPRESSION_THRESHOLD;
 
     protected enum Command {
         GET,
@@ -24,88 +31,162 @@ class BlipRequest {
      * @param apiKey The key used to access the BLIP API.
      * @param secretKey The secret key used to access the BLIP API.
      * @param endpoint The base URL for the BLIP environment.
+     * @param transport The transport used to send HTTP requests.
+     * @param compressionThreshold The smallest request body to compress with gzip, or -1 to never compress.
      */
-    protected BlipRequest(String apiKey, String secretKey, String endpoint) {
-        CREDENTIALS = encodeCredentials(apiKey, secretKey);
-        ENDPOINT = endpoint;
+    protected BlipRequest(String apiKey, String secretKey, String endpoint, BlipTransport transport,
+                          long compressionThreshold) {
+        // Every request sends the same headers, so they are built once and shared
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Authorization", "Basic " + encodeCredentials(apiKey, secretKey));
+        headers.put("Content-Type", "application/json");
+        headers.put("Accept", "application/json");
+        headers.put("Accept-Encoding", "gzip");
+        HEADERS = Collections.unmodifiableMap(headers);
+
+        Map<String, String> gzipHeaders = new LinkedHashMap<>(headers);
+        gzipHeaders.put("Content-Encoding", "gzip");
+        GZIP_HEADERS = Collections.unmodifiableMap(gzipHeaders);
+
+        ENDPOINT = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        TRANSPORT = transport;
+        COMPRESSION_THRESHOLD = compressionThreshold;
     }
 
     /**
      * Executes the specified HTTP command.
+     * @param operation The BLIP operation being performed.
+     * @param brandKey The brand the operation applies to, or null if it is not brand specific.
      * @param command The HTTP command.
      * @param path The URI path for the API function to be executed.
      * @param content Any content that may need to be supplied to the API.
      * @return A BlipResponse object.
      * @throws IOException if response cannot be parsed.
      */
-    protected BlipResponse executeCommand(Command command, String path, String content) throws IOException {
-        return buildBlipResponse(configureClient(command, path, content));
+    protected BlipResponse executeCommand(BlipOperation operation, String brandKey, Command command,
+                                          String path, String content) throws IOException {
+        return executeRequest(operation, brandKey, command, path, toBody(content));
     }
 
     /**
-     * Creates and configures the HttpURLConnection client with credentials, headers, etc.
+     * Executes the specified HTTP command with a pre-encoded body.
+     * @param operation The BLIP operation being performed.
+     * @param brandKey The brand the operation applies to, or null if it is not brand specific.
+     * @param command The HTTP command.
      * @param path The URI path for the API function to be executed.
+     * @param body The content to send, or null.
+     * @return A BlipResponse object.
+     * @throws IOException if response cannot be parsed.
+     */
+    protected BlipResponse executeRequest(BlipOperation operation, String brandKey, Command command,
+                                         String path, RequestBody body) throws IOException {
+        return buildBlipResponse(TRANSPORT.execute(configureClient(operation, brandKey, command, path, body, null)));
+    }
+
+    /**
+     * Executes the specified HTTP command within a time limit.
+     * The transport shortens its connect and read timeouts to fit within the limit, and stops retrying or hedging
+     * the request once it has passed.
+     * @param operation The BLIP operation being performed.
+     * @param brandKey The brand the operation applies to, or null if it is not brand specific.
      * @param command The HTTP command.
+     * @param path The URI path for the API function to be executed.
      * @param content Any content that may need to be supplied to the API.
-     * @return A configured HttpURLConnection client.
+     * @param timeoutMillis How long the call may take.
+     * @return A BlipResponse object.
+     * @throws java.net.SocketTimeoutException if the time limit passes before the response arrives.
      * @throws IOException if response cannot be parsed.
      */
-    private HttpURLConnection configureClient(Command command, String path, String content) throws IOException {
-        URL url = new URL(String.format("%s%s", ENDPOINT, path));
-        HttpURLConnection client = (HttpURLConnection) url.openConnection();
-
-        client.setRequestProperty("Authorization", String.format("Basic %s", CREDENTIALS));
-        client.setRequestProperty("Content-Type", "application/json");
-        client.setRequestProperty("Accept", "application/json");
-        client.setRequestMethod(command.toString());
-
-        if (content != null) {
-            client.setDoOutput(true);
-            OutputStream os = client.getOutputStream();
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
-            try {
-                writer.write(content);
-                writer.flush();
-            } finally {
-                writer.close();
-                os.close();
-            }
-        }
+    protected BlipResponse executeCommand(BlipOperation operation, String brandKey, Command command,
+                                          String path, String content, long timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
 
-        return client;
+        return buildBlipResponse(TRANSPORT.execute(configureClient(operation, brandKey, command, path,
+                                                                   toBody(content), deadline)));
     }
 
     /**
-     * Convert the HTTP response into a BlipResponse object.
-     * @param client An HttpURLConnection client.
-     * @return A BlipResponse object.
-     * @throws IOException if response cannot be parsed.
+     * Executes the specified HTTP command without reading the response body.
+     * @param operation The BLIP operation being performed.
+     * @param brandKey The brand the operation applies to, or null if it is not brand specific.
+     * @param command The HTTP command.
+     * @param path The URI path for the API function to be executed.
+     * @param content Any content that may need to be supplied to the API.
+     * @return A BlipStreamingResponse object that the caller must close.
+     * @throws IOException if the request cannot be sent.
      */
-    private BlipResponse buildBlipResponse(HttpURLConnection client) throws IOException {
-        BufferedReader reader;
-        int statusCode = client.getResponseCode();
-
-        if (200 <= statusCode && statusCode <= 299) {
-            reader = new BufferedReader(new InputStreamReader((client.getInputStream())));
-        } else {
-            reader = new BufferedReader(new InputStreamReader((client.getErrorStream())));
-        }
+    protected BlipStreamingResponse executeStreamingCommand(BlipOperation operation, String brandKey, Command command,
+                                                            String path, String content) throws IOException {
+        return executeStreamingRequest(operation, brandKey, command, path, toBody(content));
+    }
 
-        StringBuilder builder = new StringBuilder();
-        String text;
+    /**
+     * Executes the specified HTTP command with a pre-encoded body, without reading the response body.
+     * @param operation The BLIP operation being performed.
+     * @param brandKey The brand the operation applies to, or null if it is not brand specific.
+     * @param command The HTTP command.
+     * @param path The URI path for the API function to be executed.
+     * @param body The content to send, or null.
+     * @return A BlipStreamingResponse object that the caller must close.
+     * @throws IOException if the request cannot be sent.
+     */
+    protected BlipStreamingResponse executeStreamingRequest(BlipOperation operation, String brandKey, Command command,
+                                                            String path, RequestBody body) throws IOException {
+        return new BlipStreamingResponse(TRANSPORT.execute(configureClient(operation, brandKey, command, path, body,
+                                                                           null)));
+    }
 
-        while ((text = reader.readLine()) != null) {
-            builder.append(text);
-            builder.append(System.lineSeparator());
+    /**
+     * Creates the transport request with credentials, headers, etc.
+     * @param operation The BLIP operation being performed.
+     * @param brandKey The brand the operation applies to, or null if it is not brand specific.
+     * @param command The HTTP command.
+     * @param path The URI path for the API function to be executed.
+     * @param body The content to send, or null.
+     * @param deadlineNanos The System.nanoTime() by which the response must arrive, or null for no deadline.
+     * @return A configured TransportRequest.
+     * @throws IOException if the body cannot be compressed.
+     */
+    private TransportRequest configureClient(BlipOperation operation, String brandKey, Command command,
+                                             String path, RequestBody body, Long deadlineNanos) throws IOException {
+        Map<String, String> headers = HEADERS;
+        if (body != null && COMPRESSION_THRESHOLD >= 0
+                && (body.getContentLength() >= COMPRESSION_THRESHOLD || body.getContentLength() < 0)) {
+            body = RequestBody.gzip(body);
+            headers = GZIP_HEADERS;
         }
 
-        String body = builder.toString();
-        reader.close();
+        return new TransportRequest(operation, brandKey, command.toString(), ENDPOINT + path, headers, body,
+                                    deadlineNanos);
+    }
+
+    /**
+     * Percent-encode a value for use as a path segment or a query parameter value, so that characters such as '/',
+     * '?', '#', '&' and '%' in a brandKey or locationKey do not change the meaning of the URL.
+     * @param value The value.
+     * @return The encoded value.
+     * @throws UnsupportedEncodingException never, as UTF-8 is always supported.
+     */
+    static String encode(Object value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(String.valueOf(value), "UTF-8").replace("+", "%20");
+    }
 
-        BlipResponse blipResponse = new BlipResponse(statusCode, body);
-        client.disconnect();
+    /**
+     * @param content Text content, or null.
+     * @return A JSON body for the content, or null.
+     */
+    private static RequestBody toBody(String content) {
+        return content == null ? null : RequestBody.create(content, "application/json");
+    }
 
-        return blipResponse;
+    /**
+     * Convert the HTTP response into a BlipResponse object.
+     * @param response The HTTP response returned by the transport.
+     * @return A BlipResponse object.
+     * @throws IOException if response cannot be parsed.
+     */
+    private BlipResponse buildBlipResponse(TransportResponse response) throws IOException {
+        return new BlipStreamingResponse(response).toBlipResponse();
     }
 
     /**
@@ -117,6 +198,6 @@ class BlipRequest {
     private String encodeCredentials(String apiKey, String secretKey) {
         String credentials = String.format("%s:%s", apiKey, secretKey);
 
-        return DatatypeConverter.printBase64Binary(credentials.getBytes());
+        return Base64.getEncoder().encodeToString(credentials.getBytes());
     }
 }
@@ -0,0 +1,934 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for the BLIP API and the S3 bucket bulk files are uploaded to, for testing and load testing
+ * an application offline.
+ * <ul>
+ * <li>It serves every endpoint a Blip calls from brands and locations held in memory. queryLocations supports
+ * equality filters, sorting and paging, and bulk loads are applied from the uploaded file and reported to their
+ * callback URLs.</li>
+ * <li>Each operation can be given a latency distribution and an error rate, and all calls can be throttled to a
+ * rate, answering 429 when it is exceeded.</li>
+ * </ul>
+ * <pre>
+ *     try (BlipSimulator simulator = new BlipSimulator()) {
+ *         simulator.addBrand("mybrand", "mysource");
+ *         simulator.setLatency(BlipSimulator.Latency.logNormal(5, 50));
+ *
+ *         Blip blip = new Blip("key", "secret", simulator.getEndpoint(), simulator.getS3Endpoint(),
+ *                              new PooledHttpTransport());
+ *     }
+ * </pre>
+ * Brands, locations and behaviour can be changed from any thread while the simulator is running.
+ */
+public class BlipSimulator implements Closeable {
+
+    public static final String S3_BUCKET = "blip-simulator";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final HttpServer SERVER;
+    private final ExecutorService EXECUTOR;
+    private final BlipTransport CALLBACK_TRANSPORT = new PooledHttpTransport();
+    private final ConcurrentMap<String, Brand> BRANDS = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, byte[]> UPLOADS = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BlipOperation, Latency> LATENCIES = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BlipOperation, Fault> FAULTS = new ConcurrentHashMap<>();
+    private final Map<BlipOperation, AtomicLong> REQUESTS = new EnumMap<>(BlipOperation.class);
+    private volatile Latency defaultLatency = Latency.fixed(0);
+    private volatile Fault defaultFault;
+    private volatile RateLimiter rateLimiter;
+
+    /**
+     * BlipSimulator constructor that listens on an ephemeral loopback port.
+     * @throws IOException if the server cannot be started.
+     */
+    public BlipSimulator() throws IOException {
+        this(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    /**
+     * The BlipSimulator constructor.
+     * @param address The address to listen on.
+     * @throws IOException if the server cannot be started.
+     */
+    public BlipSimulator(InetSocketAddress address) throws IOException {
+        for (BlipOperation operation : BlipOperation.values()) {
+            REQUESTS.put(operation, new AtomicLong());
+        }
+
+        // Calls wait out their simulated latency on the thread that serves them, so threads are not limited
+        int pool = POOL_NUMBER.incrementAndGet();
+        AtomicInteger threadNumber = new AtomicInteger();
+        EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable,
+                                       String.format("blip-simulator-%s-%s", pool, threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Without TCP_NODELAY, small responses wait out the client's delayed ACK (~40ms) and swamp the simulated
+        // latency. The JDK server only reads this setting once, so it must be set before any server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        SERVER = HttpServer.create(address, 0);
+        SERVER.createContext("/", this::handle);
+        SERVER.setExecutor(EXECUTOR);
+        SERVER.start();
+    }
+
+    /**
+     * @return The base URL to pass to a Blip as its BLIP endpoint.
+     */
+    public String getEndpoint() {
+        return String.format("http://%s:%s", SERVER.getAddress().getHostString(), SERVER.getAddress().getPort());
+    }
+
+    /**
+     * @return The base URL to pass to a Blip as its S3 endpoint.
+     */
+    public String getS3Endpoint() {
+        return getEndpoint() + "/s3";
+    }
+
+    /**
+     * Add a brand with no locations, or replace the sources of an existing brand.
+     * @param brandKey The unique identifier for the brand.
+     * @param sources The brand's data sources.
+     */
+    public void addBrand(String brandKey, String... sources) {
+        BRANDS.computeIfAbsent(brandKey, key -> new Brand()).sources = Arrays.asList(sources.clone());
+    }
+
+    /**
+     * Store a location, adding its brand if needed.
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param document The location's data as a JSON object.
+     */
+    public void putLocation(String brandKey, String locationKey, String document) {
+        BRANDS.computeIfAbsent(brandKey, key -> new Brand()).put(brandKey, locationKey,
+                                                               new JsonParser().parse(document));
+    }
+
+    /**
+     * @param brandKey The unique identifier for a single brand.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @return The location's data as a JSON object, or null if it does not exist.
+     */
+    public String getLocation(String brandKey, String locationKey) {
+        Brand brand = BRANDS.get(brandKey);
+        JsonObject record = brand == null ? null : brand.LOCATIONS.get(locationKey);
+
+        return record == null ? null : record.get("document").toString();
+    }
+
+    /**
+     * @param brandKey The unique identifier for a single brand.
+     * @return The number of locations the brand has.
+     */
+    public int getLocationCount(String brandKey) {
+        Brand brand = BRANDS.get(brandKey);
+
+        return brand == null ? 0 : brand.LOCATIONS.size();
+    }
+
+    /**
+     * Delay every call.
+     * @param latency How long each call takes to be answered.
+     */
+    public void setLatency(Latency latency) {
+        defaultLatency = latency;
+    }
+
+    /**
+     * Delay calls of one operation, overriding the latency set for every call.
+     * @param operation The BLIP operation, or S3_UPLOAD for uploads to the S3 stand-in.
+     * @param latency How long each call takes to be answered.
+     */
+    public void setLatency(BlipOperation operation, Latency latency) {
+        LATENCIES.put(operation, latency);
+    }
+
+    /**
+     * Fail a share of every call.
+     * @param rate The share of calls to fail, from 0 to 1.
+     * @param statusCode The status code failed calls are answered with, e.g. 503.
+     */
+    public void setErrorRate(double rate, int statusCode) {
+        defaultFault = new Fault(rate, statusCode);
+    }
+
+    /**
+     * Fail a share of the calls of one operation, overriding the error rate set for every call.
+     * @param operation The BLIP operation, or S3_UPLOAD for uploads to the S3 stand-in.
+     * @param rate The share of calls to fail, from 0 to 1.
+     * @param statusCode The status code failed calls are answered with, e.g. 503.
+     */
+    public void setErrorRate(BlipOperation operation, double rate, int statusCode) {
+        FAULTS.put(operation, new Fault(rate, statusCode));
+    }
+
+    /**
+     * Throttle every call to a rate, answering 429 with a Retry-After header when it is exceeded.
+     * @param ratePerSecond The sustained number of calls allowed per second, or 0 to stop throttling.
+     * @param burst The number of calls that may be made at once after a quiet period.
+     */
+    public void setRateLimit(double ratePerSecond, int burst) {
+        rateLimiter = ratePerSecond > 0 ? new RateLimiter(ratePerSecond, burst) : null;
+    }
+
+    /**
+     * @param operation A BLIP operation, or S3_UPLOAD for uploads to the S3 stand-in.
+     * @return The number of calls of the operation received so far, including throttled and failed calls.
+     */
+    public long getRequestCount(BlipOperation operation) {
+        return REQUESTS.get(operation).get();
+    }
+
+    /**
+     * Stop the server. Bulk loads in progress are abandoned.
+     * @throws IOException if the callback connections cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        SERVER.stop(0);
+        EXECUTOR.shutdownNow();
+        CALLBACK_TRANSPORT.close();
+    }
+
+    /**
+     * Answer a call: throttle it, delay it, fail it or serve it.
+     * @param exchange The call.
+     * @throws IOException if the response cannot be written.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = readBody(exchange);
+            String method = exchange.getRequestMethod();
+            String[] path = splitPath(exchange.getRequestURI().getRawPath());
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            BlipOperation operation = operation(method, path);
+
+            if (operation == null) {
+                respond(exchange, 404, error("Unknown endpoint " + method + " " + exchange.getRequestURI().getPath()));
+                return;
+            }
+
+            REQUESTS.get(operation).incrementAndGet();
+            RateLimiter limiter = rateLimiter;
+
+            if (limiter != null && !limiter.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, error("Too many requests"));
+                return;
+            }
+
+            Latency latency = LATENCIES.get(operation);
+            long delay = (latency == null ? defaultLatency : latency).sampleNanos();
+            if (delay > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+
+            Fault fault = FAULTS.get(operation);
+            fault = fault == null ? defaultFault : fault;
+
+            if (fault != null && ThreadLocalRandom.current().nextDouble() < fault.RATE) {
+                respond(exchange, fault.STATUS_CODE, error("Simulated failure"));
+                return;
+            }
+
+            serve(exchange, operation, path, query, body);
+        } catch (InterruptedException e) {
+            exchange.close();
+        } catch (RuntimeException e) {
+            respond(exchange, 400, error(String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * Serve a call.
+     * @param exchange The call.
+     * @param operation The BLIP operation called.
+     * @param path The path segments of the call.
+     * @param query The query parameters of the call.
+     * @param body The request body.
+     * @throws IOException if the response cannot be written.
+     */
+    private void serve(HttpExchange exchange, BlipOperation operation, String[] path, Map<String, String> query,
+                       byte[] body) throws IOException {
+        if (operation == BlipOperation.PING) {
+            respond(exchange, 200, "\"pong\"");
+            return;
+        } else if (operation == BlipOperation.GET_BRAND_KEYS) {
+            respond(exchange, 200, toJsonArray(BRANDS.keySet()));
+            return;
+        } else if (operation == BlipOperation.S3_UPLOAD) {
+            upload(exchange, body);
+            return;
+        }
+
+        String brandKey = path[2];
+        Brand brand = BRANDS.get(brandKey);
+
+        if (brand == null) {
+            respond(exchange, 404, error("Unknown brand " + brandKey));
+            return;
+        }
+
+        switch (operation) {
+            case GET_BRAND_SOURCES:
+                respond(exchange, 200, toJsonArray(brand.sources));
+                break;
+            case GET_BRAND_PROJECTIONS:
+                respond(exchange, 200, toJsonArray(Collections.singletonList("universal")));
+                break;
+            case GET_LOCATION_KEYS:
+                respond(exchange, 200, toJsonArray(brand.LOCATIONS.keySet()));
+                break;
+            case GET_LOCATION:
+                JsonObject record = brand.LOCATIONS.get(path[4]);
+                respond(exchange, record == null ? 404 : 200,
+                        record == null ? error("Unknown location " + path[4]) : record.toString());
+                break;
+            case QUERY_LOCATIONS:
+                respond(exchange, 200, brand.query(new JsonParser().parse(new String(body, UTF_8)).getAsJsonObject()));
+                break;
+            case PUT_LOCATION:
+                brand.put(brandKey, path[4], new JsonParser().parse(new String(body, UTF_8)));
+                respond(exchange, 204, null);
+                break;
+            case DELETE_LOCATION:
+                brand.LOCATIONS.remove(path[4]);
+                respond(exchange, 204, null);
+                break;
+            case AUTHORIZE_UPLOAD:
+                respond(exchange, 200, authorizeUpload(brandKey, query.get("fileMD5")));
+                break;
+            default:
+                bulkLoad(exchange, brandKey, brand, query);
+        }
+    }
+
+    /**
+     * Sign an upload of a bulk file.
+     * @param brandKey The unique identifier for a single brand.
+     * @param fileMD5 The MD5 checksum of the file.
+     * @return The upload authorization.
+     */
+    private static String authorizeUpload(String brandKey, String fileMD5) {
+        JsonObject data = new JsonObject();
+        data.addProperty("acl", "private");
+        data.addProperty("bucket", S3_BUCKET);
+        data.addProperty("key", String.format("uploads/%s/%s.gz", brandKey, UUID.randomUUID()));
+        data.addProperty("content-md5", fileMD5);
+        data.addProperty("policy", "simulated-policy");
+        data.addProperty("signature", "simulated-signature");
+        data.addProperty("AWSAccessKeyId", "simulated-access-key");
+
+        JsonObject auth = new JsonObject();
+        auth.addProperty("s3Bucket", S3_BUCKET);
+        auth.add("data", data);
+
+        return auth.toString();
+    }
+
+    /**
+     * Store a bulk file posted to the S3 stand-in as multipart/form-data.
+     * @param exchange The upload.
+     * @param body The multipart body.
+     * @throws IOException if the response cannot be written.
+     */
+    private void upload(HttpExchange exchange, byte[] body) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        int boundaryStart = contentType == null ? -1 : contentType.indexOf("boundary=");
+
+        if (boundaryStart < 0) {
+            respond(exchange, 400, error("Expected a multipart/form-data upload"));
+            return;
+        }
+
+        Map<String, byte[]> fields = parseMultipart(body, contentType.substring(boundaryStart + "boundary=".length()));
+        byte[] file = fields.get("file");
+        byte[] key = fields.get("key");
+
+        if (file == null || key == null) {
+            respond(exchange, 400, error("The upload has no key or file"));
+            return;
+        }
+
+        UPLOADS.put(new String(key, UTF_8), file);
+        exchange.getResponseHeaders().set("ETag", "\"" + md5(file) + "\"");
+        respond(exchange, 204, null);
+    }
+
+    /**
+     * Start loading an uploaded bulk file. The file is applied in the background and the result is posted to the
+     * load's callback URL.
+     * @param exchange The call.
+     * @param brandKey The unique identifier for a single brand.
+     * @param brand The brand.
+     * @param query The load's parameters.
+     * @throws IOException if the response cannot be written.
+     */
+    private void bulkLoad(HttpExchange exchange, String brandKey, Brand brand, Map<String, String> query)
+            throws IOException {
+        String s3Path = query.get("s3Path");
+        String prefix = "s3://" + S3_BUCKET + "/";
+        byte[] file = s3Path == null || !s3Path.startsWith(prefix) ? null
+                : UPLOADS.remove(s3Path.substring(prefix.length()));
+
+        if (file == null) {
+            respond(exchange, 400, error("No file has been uploaded to " + s3Path));
+            return;
+        }
+
+        respond(exchange, 204, null);
+
+        EXECUTOR.execute(() -> {
+            JsonObject result = new JsonObject();
+            result.addProperty("brandKey", brandKey);
+            result.addProperty("s3Path", s3Path);
+            boolean succeeded;
+
+            try {
+                int count = brand.load(brandKey, file, Boolean.parseBoolean(query.get("implicitDelete")));
+                String expected = query.get("expectedRecordCount");
+                result.addProperty("recordCount", count);
+                succeeded = expected == null || Integer.parseInt(expected) == count;
+                if (!succeeded) {
+                    result.addProperty("message", String.format("Expected %s records but found %s", expected, count));
+                }
+            } catch (IOException | RuntimeException e) {
+                result.addProperty("message", String.valueOf(e.getMessage()));
+                succeeded = false;
+            }
+
+            String callbackUrl = query.get(succeeded ? "successCallback" : "failCallback");
+            if (callbackUrl != null) {
+                notify(callbackUrl, result.toString());
+            }
+        });
+    }
+
+    /**
+     * Post the result of a bulk load to its callback URL. Failures are ignored, as BLIP does not retry callbacks.
+     * @param url The callback URL.
+     * @param result The result as JSON.
+     */
+    private void notify(String url, String result) {
+        Map<String, String> headers = Collections.singletonMap("Content-Type", "application/json");
+
+        try (TransportResponse response = CALLBACK_TRANSPORT.execute(
+                new TransportRequest("POST", url, headers, RequestBody.create(result, "application/json")))) {
+            response.getStatusCode();
+        } catch (IOException e) {
+            // The receiver is gone
+        }
+    }
+
+    /**
+     * @param method The HTTP method of a call.
+     * @param path The path segments of the call.
+     * @return The BLIP operation called, or null if the call matches no endpoint.
+     */
+    private static BlipOperation operation(String method, String[] path) {
+        int length = path.length;
+
+        if (length == 2 && "GET".equals(method) && "ping".equals(path[1])) {
+            return BlipOperation.PING;
+        } else if (length == 3 && "POST".equals(method) && "s3".equals(path[1])) {
+            return BlipOperation.S3_UPLOAD;
+        } else if (length < 2 || !"brand".equals(path[1])) {
+            return null;
+        } else if (length == 2) {
+            return "GET".equals(method) ? BlipOperation.GET_BRAND_KEYS : null;
+        } else if (length == 4 && "GET".equals(method)) {
+            switch (path[3]) {
+                case "source":
+                    return BlipOperation.GET_BRAND_SOURCES;
+                case "projection":
+                    return BlipOperation.GET_BRAND_PROJECTIONS;
+                case "location":
+                    return BlipOperation.GET_LOCATION_KEYS;
+                case "authorizeUpload":
+                    return BlipOperation.AUTHORIZE_UPLOAD;
+                case "bulkLoad":
+                    return BlipOperation.BULK_LOAD;
+                default:
+                    return null;
+            }
+        } else if (length == 4 && "POST".equals(method) && "locationList".equals(path[3])) {
+            return BlipOperation.QUERY_LOCATIONS;
+        } else if (length == 5 && "location".equals(path[3])) {
+            switch (method) {
+                case "GET":
+                    return BlipOperation.GET_LOCATION;
+                case "PUT":
+                    return BlipOperation.PUT_LOCATION;
+                case "DELETE":
+                    return BlipOperation.DELETE_LOCATION;
+                default:
+                    return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read a request body, decompressing it if it was gzipped.
+     * @param exchange The call.
+     * @return The request body.
+     * @throws IOException if the body cannot be read.
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+
+        return readAll(in);
+    }
+
+    /**
+     * @param in A stream.
+     * @return Everything left in the stream.
+     * @throws IOException if the stream cannot be read.
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @param rawPath The raw path of a call.
+     * @return The decoded path segments, so an encoded '/' stays within its segment.
+     * @throws UnsupportedEncodingException never, as UTF-8 is always supported.
+     */
+    private static String[] splitPath(String rawPath) throws UnsupportedEncodingException {
+        String[] segments = rawPath.split("/");
+
+        for (int i = 0; i < segments.length; i++) {
+            // A '+' in a path is a plus sign, not a space
+            segments[i] = URLDecoder.decode(segments[i].replace("+", "%2B"), "UTF-8");
+        }
+
+        return segments;
+    }
+
+    /**
+     * @param rawQuery The raw query String of a call, or null.
+     * @return The decoded query parameters.
+     * @throws UnsupportedEncodingException never, as UTF-8 is always supported.
+     */
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new LinkedHashMap<>();
+
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                                   URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Split a multipart/form-data body into its fields.
+     * @param body The body.
+     * @param boundary The boundary from the Content-Type header.
+     * @return The value of each field, by name.
+     */
+    private static Map<String, byte[]> parseMultipart(byte[] body, String boundary) {
+        Map<String, byte[]> fields = new LinkedHashMap<>();
+        byte[] delimiter = ("--" + boundary.replace("\"", "")).getBytes(UTF_8);
+        byte[] headerEnd = "\r\n\r\n".getBytes(UTF_8);
+        int start = indexOf(body, delimiter, 0);
+
+        while (start >= 0) {
+            int headersStart = start + delimiter.length + 2;
+            int next = indexOf(body, delimiter, headersStart);
+            int valueStart = indexOf(body, headerEnd, headersStart);
+
+            if (next < 0 || valueStart < 0 || valueStart > next) {
+                break;
+            }
+
+            String headers = new String(body, headersStart, valueStart - headersStart, UTF_8);
+            int nameStart = headers.indexOf("name=\"");
+
+            if (nameStart >= 0) {
+                String name = headers.substring(nameStart + 6, headers.indexOf('"', nameStart + 6));
+                // The value is followed by CRLF before the next delimiter
+                fields.put(name, Arrays.copyOfRange(body, valueStart + headerEnd.length, next - 2));
+            }
+
+            start = next;
+        }
+
+        return fields;
+    }
+
+    /**
+     * @param bytes The bytes to search.
+     * @param target The bytes to find.
+     * @param from The index to start searching from.
+     * @return The index of the first occurrence of target, or -1 if there is none.
+     */
+    private static int indexOf(byte[] bytes, byte[] target, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param bytes The bytes to hash.
+     * @return The MD5 checksum of the bytes as a lowercase hex String.
+     */
+    private static String md5(byte[] bytes) {
+        try {
+            return String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(bytes)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * @param values Strings.
+     * @return The Strings as a JSON array.
+     */
+    private static String toJsonArray(Iterable<String> values) {
+        JsonArray array = new JsonArray();
+        for (String value : values) {
+            array.add(new JsonPrimitive(value));
+        }
+
+        return array.toString();
+    }
+
+    /**
+     * @param message An error message.
+     * @return The message as a JSON error body.
+     */
+    private static String error(String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", message);
+
+        return error.toString();
+    }
+
+    /**
+     * Write a response.
+     * @param exchange The call.
+     * @param statusCode The HTTP status code.
+     * @param body The JSON body, or null for an empty response.
+     * @throws IOException if the response cannot be written.
+     */
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * How long the simulator takes to answer a call, drawn at random for each call.
+     */
+    public static class Latency {
+
+        private final long MEDIAN_NANOS;
+        private final long SPREAD_NANOS;
+        private final double SIGMA;
+
+        /**
+         * The Latency constructor.
+         * @param medianNanos The fixed or median delay, or the least delay of a uniform distribution.
+         * @param spreadNanos The width of a uniform distribution, or 0.
+         * @param sigma The standard deviation of the delay's logarithm for a log-normal distribution, or 0.
+         */
+        private Latency(long medianNanos, long spreadNanos, double sigma) {
+            MEDIAN_NANOS = medianNanos;
+            SPREAD_NANOS = spreadNanos;
+            SIGMA = sigma;
+        }
+
+        /**
+         * @param millis The delay of every call.
+         * @return A fixed latency.
+         */
+        public static Latency fixed(long millis) {
+            return new Latency(TimeUnit.MILLISECONDS.toNanos(millis), 0, 0);
+        }
+
+        /**
+         * @param minMillis The shortest delay.
+         * @param maxMillis The longest delay.
+         * @return A latency spread evenly between two delays.
+         */
+        public static Latency uniform(long minMillis, long maxMillis) {
+            return new Latency(TimeUnit.MILLISECONDS.toNanos(minMillis),
+                               TimeUnit.MILLISECONDS.toNanos(maxMillis - minMillis), 0);
+        }
+
+        /**
+         * A long-tailed latency, typical of a service under load.
+         * @param medianMillis The median delay.
+         * @param p99Millis The 99th percentile delay, at least the median.
+         * @return A log-normal latency.
+         */
+        public static Latency logNormal(double medianMillis, double p99Millis) {
+            // 2.326 is the 99th percentile of the standard normal distribution
+            double sigma = Math.log(Math.max(p99Millis, medianMillis) / medianMillis) / 2.326;
+
+            return new Latency((long) (medianMillis * 1000000), 0, sigma);
+        }
+
+        /**
+         * @return The delay of one call.
+         */
+        long sampleNanos() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            if (SIGMA > 0) {
+                return (long) (MEDIAN_NANOS * Math.exp(SIGMA * random.nextGaussian()));
+            }
+
+            return SPREAD_NANOS > 0 ? MEDIAN_NANOS + (long) (random.nextDouble() * SPREAD_NANOS) : MEDIAN_NANOS;
+        }
+    }
+
+    /**
+     * An injected failure.
+     */
+    private static class Fault {
+
+        private final double RATE;
+        private final int STATUS_CODE;
+
+        private Fault(double rate, int statusCode) {
+            RATE = rate;
+            STATUS_CODE = statusCode;
+        }
+    }
+
+    /**
+     * A brand's sources and locations. Locations are kept sorted by locationKey as they would be listed by BLIP.
+     */
+    private static class Brand {
+
+        private final ConcurrentSkipListMap<String, JsonObject> LOCATIONS = new ConcurrentSkipListMap<>();
+        private volatile List<String> sources = Collections.emptyList();
+
+        /**
+         * Store a location.
+         * @param brandKey The unique identifier for the brand.
+         * @param locationKey The unique identifier for the location.
+         * @param document The location's data.
+         */
+        private void put(String brandKey, String locationKey, JsonElement document) {
+            JsonObject record = new JsonObject();
+            record.addProperty("brandKey", brandKey);
+            record.addProperty("locationKey", locationKey);
+            record.add("document", document);
+            LOCATIONS.put(locationKey, record);
+        }
+
+        /**
+         * Apply a gzipped bulk file.
+         * @param brandKey The unique identifier for the brand.
+         * @param file The file.
+         * @param implicitDelete Whether or not to delete locations that are missing from the file.
+         * @return The number of records in the file.
+         * @throws IOException if the file cannot be read.
+         */
+        private int load(String brandKey, byte[] file, boolean implicitDelete) throws IOException {
+            Set<String> loaded = ConcurrentHashMap.newKeySet();
+            JsonParser parser = new JsonParser();
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new ByteArrayInputStream(file)), UTF_8))) {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    JsonObject record = parser.parse(line).getAsJsonObject();
+                    String locationKey = record.get("locationKey").getAsString();
+                    put(brandKey, locationKey, record.get("document"));
+                    loaded.add(locationKey);
+                }
+            }
+
+            if (implicitDelete) {
+                LOCATIONS.keySet().retainAll(loaded);
+            }
+
+            return loaded.size();
+        }
+
+        /**
+         * Answer a queryLocations call.
+         * @param request The request body.
+         * @return The matching page of locations as a JSON array.
+         */
+        private String query(JsonObject request) {
+            JsonElement filters = request.get("query");
+            List<JsonObject> matches = new ArrayList<>();
+
+            for (JsonObject record : LOCATIONS.values()) {
+                if (filters == null || !filters.isJsonObject() || matches(record, filters.getAsJsonObject())) {
+                    matches.add(record);
+                }
+            }
+
+            String sortColumn = request.has("sortColumn") ? request.get("sortColumn").getAsString() : "locationKey";
+            if ("name".equals(sortColumn)) {
+                matches.sort(Comparator.comparing(record -> String.valueOf(find(record, "document.name"))));
+            }
+            if (request.has("sortDirection") && "desc".equals(request.get("sortDirection").getAsString())) {
+                Collections.reverse(matches);
+            }
+
+            int from = 0;
+            int to = matches.size();
+
+            if (request.has("pageSize") && request.has("pageNumber")) {
+                int pageSize = request.get("pageSize").getAsInt();
+                from = (int) Math.min(to, (long) request.get("pageNumber").getAsInt() * pageSize);
+                to = Math.min(to, from + pageSize);
+            }
+
+            JsonArray page = new JsonArray();
+            for (JsonObject record : matches.subList(from, to)) {
+                page.add(record);
+            }
+
+            return page.toString();
+        }
+
+        /**
+         * Check a location against equality filters, e.g. {"address.state":"ID"} or
+         * {"document.address.state":{"equals":"ID"}}.
+         * @param record The location.
+         * @param filters The filters.
+         * @return Whether or not the location matches every filter.
+         */
+        private static boolean matches(JsonObject record, JsonObject filters) {
+            for (Map.Entry<String, JsonElement> filter : filters.entrySet()) {
+                JsonElement expected = filter.getValue();
+
+                if (expected.isJsonObject()) {
+                    JsonObject condition = expected.getAsJsonObject();
+                    if (condition.entrySet().size() != 1 || !condition.has("equals")) {
+                        throw new IllegalArgumentException("Unsupported condition " + condition);
+                    }
+                    expected = condition.get("equals");
+                }
+
+                JsonElement actual = find(record, filter.getKey());
+                if (actual == null) {
+                    actual = find(record, "document." + filter.getKey());
+                }
+                if (!expected.equals(actual)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * @param record A location.
+         * @param path A dotted path, e.g. "document.address.state".
+         * @return The value at the path, or null if there is none.
+         */
+        private static JsonElement find(JsonObject record, String path) {
+            JsonElement value = record;
+
+            for (String name : path.split("\\.")) {
+                if (value == null || !value.isJsonObject()) {
+                    return null;
+                }
+                value = value.getAsJsonObject().get(name);
+            }
+
+            return value;
+        }
+    }
+}
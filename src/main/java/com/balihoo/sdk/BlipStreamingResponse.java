@@ -0,0 +1,104 @@
+package com.balihoo.sdk;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A BLIP API response whose body is read incrementally from the connection instead of being buffered in memory.
+ * The response must be closed once the body has been processed so the connection can be reused.
+ */
+public class BlipStreamingResponse implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public final int STATUS_CODE;
+
+    private final TransportResponse RESPONSE;
+    private InputStream body;
+
+    /**
+     * The BlipStreamingResponse constructor.
+     * @param response The HTTP response returned by the transport.
+     */
+    BlipStreamingResponse(TransportResponse response) {
+        STATUS_CODE = response.getStatusCode();
+        RESPONSE = response;
+    }
+
+    /**
+     * @return Whether or not the status code is in the 2xx range.
+     */
+    public boolean isSuccessful() {
+        return 200 <= STATUS_CODE && STATUS_CODE <= 299;
+    }
+
+    /**
+     * Get the first value of a response header.
+     * @param name The case-insensitive header name.
+     * @return The header value, or null if the header is not present.
+     */
+    public String getHeader(String name) {
+        return RESPONSE.getHeader(name);
+    }
+
+    /**
+     * Get the response body exactly as sent by the server, decompressed if it was gzip encoded.
+     * @return The response body. Repeated calls return the same stream.
+     * @throws IOException if the body cannot be read.
+     */
+    public InputStream getInputStream() throws IOException {
+        if (body == null) {
+            InputStream in = RESPONSE.getBody();
+            String encoding = RESPONSE.getHeader("Content-Encoding");
+
+            if (encoding != null && encoding.trim().equalsIgnoreCase("gzip")) {
+                in = new GZIPInputStream(in, 8192);
+            }
+
+            body = in;
+        }
+
+        return body;
+    }
+
+    /**
+     * Get the response body as UTF-8 text.
+     * @return A Reader over the response body.
+     * @throws IOException if the body cannot be read.
+     */
+    public Reader getReader() throws IOException {
+        return new InputStreamReader(getInputStream(), UTF_8);
+    }
+
+    /**
+     * Read the rest of the body into a BlipResponse and close this response.
+     * @return A BlipResponse object.
+     * @throws IOException if the body cannot be read.
+     */
+    public BlipResponse toBlipResponse() throws IOException {
+        try {
+            Reader reader = getReader();
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[8192];
+            int len;
+
+            while ((len = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, len);
+            }
+
+            return new BlipResponse(STATUS_CODE, builder.toString());
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Release the connection back to the transport.
+     * @throws IOException if the connection cannot be released.
+     */
+    @Override
+    public void close() throws IOException {
+        RESPONSE.close();
+    }
+}
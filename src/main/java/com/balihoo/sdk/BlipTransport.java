@@ -0,0 +1,20 @@
+package com.balihoo.sdk;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The HTTP layer used by a Blip client to talk to BLIP and S3.
+ * Implementations must be safe for concurrent use by multiple threads.
+ */
+public interface BlipTransport extends Closeable {
+
+    /**
+     * Sends an HTTP request and returns the response once its status line and headers are available.
+     * The caller must close the returned response so its connection can be reused.
+     * @param request The request to send.
+     * @return The HTTP response.
+     * @throws IOException if the request cannot be sent or the response cannot be read.
+     */
+    TransportResponse execute(TransportRequest request) throws IOException;
+}
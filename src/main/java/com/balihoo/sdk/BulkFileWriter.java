@@ -0,0 +1,456 @@
+package com.balihoo.sdk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a bulk location file for Blip.bulkLoad, validating each location before it reaches the server.
+ * <ul>
+ * <li>Locations are serialized in chunks on a pool of threads and written in the order they were given, one per
+ * line, in the bulk load file format.</li>
+ * <li>Each document must be a JSON object: a JSON String, a Gson JsonElement, or any object Gson can serialize.
+ * Documents are re-serialized, so a line never contains an embedded newline.</li>
+ * <li>Locations with a missing or duplicate locationKey, invalid JSON, or a document that is not an object or cannot
+ * be serialized (such as one with a NaN or infinite number) are rejected and left out of the file. Duplicates are
+ * found with a compact set of 64-bit key hashes, so in the rare case of a hash collision a unique key is reported as
+ * a duplicate.</li>
+ * <li>With gzip, each chunk is compressed on the pool as a separate gzip member; S3Request recognizes gzipped files
+ * and uploads them without compressing them again.</li>
+ * </ul>
+ * A BulkFileWriter must be used by one thread at a time. Once closed, it reports the number of records written,
+ * which is the expectedRecordCount for bulkLoad, and the MD5 checksum of the file.
+ */
+public class BulkFileWriter implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_RECORDS = 1000;
+    private static final int MAX_REJECTIONS = 1000;
+
+    /**
+     * A location that was left out of the file.
+     */
+    public static class Rejection {
+
+        public final String LOCATION_KEY;
+        public final String REASON;
+
+        /**
+         * The Rejection constructor.
+         * @param locationKey The locationKey of the rejected location.
+         * @param reason Why the location was rejected.
+         */
+        private Rejection(String locationKey, String reason) {
+            LOCATION_KEY = locationKey;
+            REASON = reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s", LOCATION_KEY, REASON);
+        }
+    }
+
+    private final Gson GSON = new Gson();
+    private final String BRAND_KEY;
+    private final boolean GZIP;
+    private final ExecutorService EXECUTOR;
+    private final int MAX_PENDING_CHUNKS;
+    private final MessageDigest MD5;
+    private final OutputStream OUT;
+    private final Deque<Future<Chunk>> PENDING = new ArrayDeque<>();
+    private final KeyHashSet KEYS = new KeyHashSet();
+    private final List<Rejection> REJECTIONS = new ArrayList<>();
+
+    private String[] chunkKeys = new String[CHUNK_RECORDS];
+    private Object[] chunkDocuments = new Object[CHUNK_RECORDS];
+    private int chunkSize = 0;
+    private long recordCount = 0;
+    private long rejectedCount = 0;
+    private String md5;
+    private boolean closed = false;
+
+    /**
+     * BulkFileWriter constructor using one serialization thread per processor.
+     * @param file The file to write. It is created or truncated.
+     * @param brandKey The unique identifier for a single brand.
+     * @param gzip Whether or not to gzip the file as it is written.
+     * @throws IOException if the file cannot be opened.
+     */
+    public BulkFileWriter(Path file, String brandKey, boolean gzip) throws IOException {
+        this(file, brandKey, gzip, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The BulkFileWriter constructor.
+     * @param file The file to write. It is created or truncated.
+     * @param brandKey The unique identifier for a single brand.
+     * @param gzip Whether or not to gzip the file as it is written.
+     * @param threads The number of threads that serialize locations.
+     * @throws IOException if the file cannot be opened.
+     */
+    public BulkFileWriter(Path file, String brandKey, boolean gzip, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+
+        try {
+            MD5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not available", e);
+        }
+
+        BRAND_KEY = brandKey;
+        GZIP = gzip;
+        MAX_PENDING_CHUNKS = threads * 2;
+        OUT = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE), MD5);
+        EXECUTOR = Executors.newFixedThreadPool(threads, new WriterThreadFactory());
+    }
+
+    /**
+     * Add a location to the file.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param document The location document: a JSON String, a JsonElement, or an object Gson can serialize.
+     * @return False if the location was rejected straight away for a missing or duplicate locationKey. Documents are
+     *         validated in the background, so a true result does not guarantee the location will be written.
+     * @throws IOException if the file cannot be written.
+     */
+    public boolean write(String locationKey, Object document) throws IOException {
+        if (closed) {
+            throw new IOException("BulkFileWriter is closed");
+        }
+
+        if (locationKey == null || locationKey.isEmpty()) {
+            reject(new Rejection(locationKey, "locationKey is missing"));
+            return false;
+        }
+
+        if (!KEYS.add(hash(locationKey))) {
+            reject(new Rejection(locationKey, "duplicate locationKey"));
+            return false;
+        }
+
+        chunkKeys[chunkSize] = locationKey;
+        chunkDocuments[chunkSize] = document;
+
+        if (++chunkSize == CHUNK_RECORDS) {
+            submitChunk();
+        }
+
+        return true;
+    }
+
+    /**
+     * Finish writing the file and release the serialization threads.
+     * @throws IOException if the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            if (chunkSize > 0) {
+                submitChunk();
+            }
+
+            while (!PENDING.isEmpty()) {
+                writeChunk(PENDING.poll());
+            }
+        } finally {
+            EXECUTOR.shutdownNow();
+            OUT.close();
+        }
+
+        md5 = S3Request.toHex(MD5.digest());
+    }
+
+    /**
+     * @return The number of locations written to the file so far.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return The number of locations left out of the file so far.
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return The first 1000 locations left out of the file.
+     */
+    public List<Rejection> getRejections() {
+        return Collections.unmodifiableList(REJECTIONS);
+    }
+
+    /**
+     * @return The MD5 checksum of the file as a lowercase hex String, or null if the writer has not been closed.
+     */
+    public String getMD5() {
+        return md5;
+    }
+
+    /**
+     * Hand the current chunk to the pool, first writing the oldest pending chunk if too many are waiting.
+     * @throws IOException if the file cannot be written.
+     */
+    private void submitChunk() throws IOException {
+        if (PENDING.size() >= MAX_PENDING_CHUNKS) {
+            writeChunk(PENDING.poll());
+        }
+
+        final String[] keys = chunkKeys;
+        final Object[] documents = chunkDocuments;
+        final int size = chunkSize;
+        PENDING.add(EXECUTOR.submit(() -> serialize(keys, documents, size)));
+
+        chunkKeys = new String[CHUNK_RECORDS];
+        chunkDocuments = new Object[CHUNK_RECORDS];
+        chunkSize = 0;
+    }
+
+    /**
+     * Wait for a chunk to be serialized and append it to the file.
+     * @param pending The pending chunk.
+     * @throws IOException if the chunk failed or the file cannot be written.
+     */
+    private void writeChunk(Future<Chunk> pending) throws IOException {
+        Chunk chunk;
+
+        try {
+            chunk = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing bulk file");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not serialize locations", e.getCause());
+        }
+
+        OUT.write(chunk.BYTES);
+        recordCount += chunk.RECORDS;
+
+        for (Rejection rejection : chunk.REJECTIONS) {
+            reject(rejection);
+        }
+    }
+
+    /**
+     * @param rejection A location that was left out of the file.
+     */
+    private void reject(Rejection rejection) {
+        rejectedCount++;
+
+        if (REJECTIONS.size() < MAX_REJECTIONS) {
+            REJECTIONS.add(rejection);
+        }
+    }
+
+    /**
+     * Serialize and validate a chunk of locations, compressing it if the file is gzipped.
+     * @param keys The locationKeys.
+     * @param documents The location documents.
+     * @param size The number of locations in the chunk.
+     * @return The bytes to append to the file.
+     * @throws IOException if the chunk cannot be compressed.
+     */
+    private Chunk serialize(String[] keys, Object[] documents, int size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 256);
+        OutputStream out = GZIP ? new GZIPOutputStream(bytes, BUFFER_SIZE) : bytes;
+        JsonParser parser = new JsonParser();
+        List<Rejection> rejections = new ArrayList<>();
+        int records = 0;
+
+        for (int i = 0; i < size; i++) {
+            JsonElement document;
+
+            try {
+                if (documents[i] instanceof String) {
+                    document = parser.parse((String) documents[i]);
+                } else if (documents[i] instanceof JsonElement) {
+                    document = (JsonElement) documents[i];
+                } else {
+                    document = GSON.toJsonTree(documents[i]);
+                }
+            } catch (JsonParseException e) {
+                rejections.add(new Rejection(keys[i], "invalid JSON: " + e.getMessage()));
+                continue;
+            } catch (RuntimeException e) {
+                // e.g. a NaN field or a type Gson cannot serialize; only this location is left out
+                rejections.add(new Rejection(keys[i], "cannot serialize document: " + e.getMessage()));
+                continue;
+            }
+
+            if (document == null || !document.isJsonObject()) {
+                rejections.add(new Rejection(keys[i], "document is not a JSON object"));
+                continue;
+            }
+
+            JsonObject line = new JsonObject();
+            line.addProperty("brandKey", BRAND_KEY);
+            line.addProperty("locationKey", keys[i]);
+            line.add("document", document);
+            StringWriter json = new StringWriter();
+
+            try {
+                // Unlike Gson.toJson(JsonElement), a strict writer refuses NaN and Infinity instead of writing them
+                GSON.getAdapter(JsonElement.class).write(GSON.newJsonWriter(json), line);
+            } catch (RuntimeException e) {
+                rejections.add(new Rejection(keys[i], "cannot serialize document: " + e.getMessage()));
+                continue;
+            }
+
+            out.write(json.toString().getBytes(UTF_8));
+            out.write('\n');
+            records++;
+        }
+
+        out.close();
+
+        // Don't add an empty gzip member for a chunk with nothing in it
+        if (records == 0) {
+            return new Chunk(new byte[0], 0, rejections);
+        }
+
+        return new Chunk(bytes.toByteArray(), records, rejections);
+    }
+
+    /**
+     * A 64-bit hash of a locationKey (FNV-1a followed by a MurmurHash3 finalizer).
+     * @param locationKey The locationKey.
+     * @return The hash.
+     */
+    private static long hash(String locationKey) {
+        long h = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < locationKey.length(); i++) {
+            h ^= locationKey.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    /**
+     * The serialized form of a chunk of locations.
+     */
+    private static class Chunk {
+
+        private final byte[] BYTES;
+        private final int RECORDS;
+        private final List<Rejection> REJECTIONS;
+
+        private Chunk(byte[] bytes, int records, List<Rejection> rejections) {
+            BYTES = bytes;
+            RECORDS = records;
+            REJECTIONS = rejections;
+        }
+    }
+
+    /**
+     * An open addressing set of 64-bit hashes stored in a single long array.
+     */
+    private static class KeyHashSet {
+
+        private long[] table = new long[1024];
+        private int size = 0;
+
+        /**
+         * @param hash The hash to add.
+         * @return False if the hash was already in the set.
+         */
+        private boolean add(long hash) {
+            // 0 marks an empty slot
+            long value = hash == 0 ? 1 : hash;
+
+            if (size * 4 >= table.length * 3) {
+                grow();
+            }
+
+            int mask = table.length - 1;
+
+            for (int i = (int) (value ^ (value >>> 32)) & mask; ; i = (i + 1) & mask) {
+                if (table[i] == 0) {
+                    table[i] = value;
+                    size++;
+                    return true;
+                }
+                if (table[i] == value) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Double the table and re-insert every hash.
+         */
+        private void grow() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            size = 0;
+
+            for (long value : old) {
+                if (value != 0) {
+                    add(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the daemon threads that serialize locations.
+     */
+    private static class WriterThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+        private final int POOL = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, String.format("blip-bulk-writer-%s-%s", POOL,
+                                                               THREAD_NUMBER.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
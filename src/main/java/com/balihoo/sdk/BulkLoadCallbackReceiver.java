@@ -0,0 +1,209 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An embedded HTTP server that receives BLIP's bulk load success and failure callbacks and completes the matching
+ * BulkLoadHandle, so many loads can be tracked concurrently without polling.
+ * Each load gets callback URLs containing a random token. A callback to an unknown token is also matched by the
+ * S3 path of the load, if it carries one as an s3Path query parameter or JSON property.
+ * The receiver must be reachable from BLIP at publicUrl, for example through a load balancer or tunnel.
+ */
+public class BulkLoadCallbackReceiver implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_BODY_LENGTH = 64 * 1024;
+
+    private final HttpServer SERVER;
+    private final String PUBLIC_URL;
+    private final ScheduledExecutorService TIMER;
+    private final ConcurrentMap<String, BulkLoadHandle> BY_TOKEN = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BulkLoadHandle> BY_S3_PATH = new ConcurrentHashMap<>();
+
+    /**
+     * The BulkLoadCallbackReceiver constructor. The server starts immediately.
+     * @param address The address to listen on. Use port 0 for an ephemeral port.
+     * @param publicUrl The base URL at which BLIP can reach the server, or null to use the listening address.
+     * @throws IllegalArgumentException if publicUrl is null and the address is a wildcard address, which BLIP
+     *                                  cannot call back to.
+     * @throws IOException if the server cannot be started.
+     */
+    public BulkLoadCallbackReceiver(InetSocketAddress address, String publicUrl) throws IOException {
+        if (publicUrl == null && (address.getAddress() == null || address.getAddress().isAnyLocalAddress())) {
+            throw new IllegalArgumentException("A publicUrl is required when listening on a wildcard address");
+        }
+
+        SERVER = HttpServer.create(address, 0);
+        SERVER.createContext("/bulkLoad/", this::handle);
+        TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blip-bulk-load-callbacks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SERVER.setExecutor(TIMER);
+        SERVER.start();
+
+        if (publicUrl == null) {
+            InetSocketAddress bound = SERVER.getAddress();
+            publicUrl = String.format("http://%s:%s", bound.getAddress().getHostAddress(), bound.getPort());
+        }
+        PUBLIC_URL = publicUrl.endsWith("/") ? publicUrl.substring(0, publicUrl.length() - 1) : publicUrl;
+    }
+
+    /**
+     * Create a handle for a new load.
+     * @param timeoutMillis How long to wait for the callback before the handle completes with a TimeoutException.
+     * @return The handle, whose callback URLs are passed to bulkLoad.
+     */
+    public BulkLoadHandle register(long timeoutMillis) {
+        final BulkLoadHandle handle = new BulkLoadHandle(this, UUID.randomUUID().toString(), PUBLIC_URL);
+        BY_TOKEN.put(handle.TOKEN, handle);
+
+        final ScheduledFuture<?> timeout = TIMER.schedule(() -> {
+            handle.getCompletion().completeExceptionally(new TimeoutException(
+                    String.format("No bulk load callback received within %sms", timeoutMillis)));
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        handle.getCompletion().whenComplete((result, error) -> {
+            timeout.cancel(false);
+            BY_TOKEN.remove(handle.TOKEN);
+            if (handle.getS3Path() != null) {
+                BY_S3_PATH.remove(handle.getS3Path(), handle);
+            }
+        });
+
+        return handle;
+    }
+
+    /**
+     * @return The number of loads waiting for a callback.
+     */
+    public int getPendingCount() {
+        return BY_TOKEN.size();
+    }
+
+    /**
+     * Stop the server. Handles still waiting complete with a TimeoutException.
+     */
+    @Override
+    public void close() {
+        SERVER.stop(0);
+        TIMER.shutdownNow();
+
+        for (BulkLoadHandle handle : BY_TOKEN.values()) {
+            handle.getCompletion().completeExceptionally(new TimeoutException("Bulk load callback receiver closed"));
+        }
+    }
+
+    /**
+     * Index a handle by the S3 path of its file.
+     * @param s3Path The S3 path of the uploaded file.
+     * @param handle The handle.
+     */
+    void correlate(String s3Path, BulkLoadHandle handle) {
+        // The handle may complete between the two checks, after its completion has already cleaned up
+        if (BY_S3_PATH.putIfAbsent(s3Path, handle) == null && handle.getCompletion().isDone()) {
+            BY_S3_PATH.remove(s3Path, handle);
+        }
+    }
+
+    /**
+     * Complete the handle a callback is for.
+     * @param exchange A request to /bulkLoad/{token}/{success|fail}.
+     * @throws IOException if the response cannot be written.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = readBody(exchange.getRequestBody());
+        String[] segments = exchange.getRequestURI().getPath().split("/");
+        int statusCode = 404;
+
+        if (segments.length == 4 && ("success".equals(segments[3]) || "fail".equals(segments[3]))) {
+            BulkLoadHandle handle = BY_TOKEN.get(segments[2]);
+
+            if (handle == null) {
+                String s3Path = findS3Path(exchange.getRequestURI().getRawQuery(), body);
+                handle = s3Path == null ? null : BY_S3_PATH.get(s3Path);
+            }
+
+            if (handle != null) {
+                handle.getCompletion().complete(new BulkLoadResult("success".equals(segments[3]),
+                                                                   handle.getS3Path(), body));
+                statusCode = 200;
+            }
+        }
+
+        exchange.sendResponseHeaders(statusCode, -1);
+        exchange.close();
+    }
+
+    /**
+     * Read a callback body, up to a limit.
+     * @param in The request body.
+     * @return The body as text.
+     * @throws IOException if the body cannot be read.
+     */
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+
+        while ((len = in.read(buffer)) != -1) {
+            if (body.size() < MAX_BODY_LENGTH) {
+                body.write(buffer, 0, Math.min(len, MAX_BODY_LENGTH - body.size()));
+            }
+        }
+
+        return new String(body.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Look for the S3 path of a load in a callback.
+     * @param query The raw query String of the callback, or null.
+     * @param body The body of the callback.
+     * @return The S3 path, or null if the callback does not carry one.
+     */
+    private static String findS3Path(String query, String body) {
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("s3Path=")) {
+                    try {
+                        return URLDecoder.decode(parameter.substring("s3Path=".length()), "UTF-8");
+                    } catch (IOException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        try {
+            JsonElement json = new JsonParser().parse(body);
+            if (json.isJsonObject()) {
+                JsonObject object = json.getAsJsonObject();
+                return object.has("s3Path") ? object.get("s3Path").getAsString() : null;
+            }
+        } catch (RuntimeException e) {
+            // Not JSON
+        }
+
+        return null;
+    }
+}
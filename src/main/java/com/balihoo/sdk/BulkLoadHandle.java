@@ -0,0 +1,89 @@
+package com.balihoo.sdk;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tracks a bulk load started with BlipAsync.bulkLoad from upload to completion.
+ * getInitiated() completes once BLIP has accepted the load; getCompletion() completes when BLIP calls back with the
+ * outcome. If the load cannot be initiated, or no callback arrives before the timeout, getCompletion() completes
+ * exceptionally (with a BlipException or a TimeoutException respectively).
+ */
+public class BulkLoadHandle {
+
+    public final String TOKEN;
+    public final String SUCCESS_CALLBACK_URL;
+    public final String FAIL_CALLBACK_URL;
+
+    private final BulkLoadCallbackReceiver RECEIVER;
+    private final CompletableFuture<BlipResponse> INITIATED = new CompletableFuture<>();
+    private final CompletableFuture<BulkLoadResult> COMPLETION = new CompletableFuture<>();
+    private volatile String s3Path;
+
+    /**
+     * The BulkLoadHandle constructor.
+     * @param receiver The receiver the callbacks are sent to.
+     * @param token The unguessable token that identifies this load in its callback URLs.
+     * @param baseUrl The public base URL of the receiver.
+     */
+    BulkLoadHandle(BulkLoadCallbackReceiver receiver, String token, String baseUrl) {
+        RECEIVER = receiver;
+        TOKEN = token;
+        SUCCESS_CALLBACK_URL = String.format("%s/bulkLoad/%s/success", baseUrl, token);
+        FAIL_CALLBACK_URL = String.format("%s/bulkLoad/%s/fail", baseUrl, token);
+    }
+
+    /**
+     * @return A future that completes with BLIP's response once the load has been initiated.
+     */
+    public CompletableFuture<BlipResponse> getInitiated() {
+        return INITIATED;
+    }
+
+    /**
+     * @return A future that completes when BLIP reports the outcome of the load.
+     */
+    public CompletableFuture<BulkLoadResult> getCompletion() {
+        return COMPLETION;
+    }
+
+    /**
+     * @return The S3 path of the uploaded file, or null if it has not been uploaded yet.
+     */
+    public String getS3Path() {
+        return s3Path;
+    }
+
+    /**
+     * Stop waiting for the load's callback. The load itself is not cancelled in BLIP.
+     */
+    public void cancel() {
+        COMPLETION.cancel(false);
+    }
+
+    /**
+     * Record the S3 path of the uploaded file, so callbacks can also be matched by it.
+     * @param s3Path The S3 path of the uploaded file.
+     */
+    void uploaded(String s3Path) {
+        this.s3Path = s3Path;
+        RECEIVER.correlate(s3Path, this);
+    }
+
+    /**
+     * Record the outcome of initiating the load.
+     * @param response BLIP's response, or null if the call failed.
+     * @param error The reason the call failed, or null.
+     */
+    void initiated(BlipResponse response, Throwable error) {
+        if (error != null) {
+            INITIATED.completeExceptionally(error);
+            COMPLETION.completeExceptionally(error);
+        } else if (response.STATUS_CODE < 200 || response.STATUS_CODE > 299) {
+            BlipException exception = new BlipException(response);
+            INITIATED.completeExceptionally(exception);
+            COMPLETION.completeExceptionally(exception);
+        } else {
+            INITIATED.complete(response);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.balihoo.sdk;
+
+/**
+ * The outcome of a bulk load, as reported by BLIP's success or failure callback.
+ */
+public class BulkLoadResult {
+
+    public final boolean SUCCEEDED;
+    public final String S3_PATH;
+    public final String BODY;
+
+    /**
+     * The BulkLoadResult constructor.
+     * @param succeeded Whether BLIP called the success callback (true) or the failure callback (false).
+     * @param s3Path The S3 path of the loaded file, or null if the upload had not been reported.
+     * @param body The body of the callback request, or an empty String if it had none.
+     */
+    BulkLoadResult(boolean succeeded, String s3Path, String body) {
+        SUCCEEDED = succeeded;
+        S3_PATH = s3Path;
+        BODY = body;
+    }
+}
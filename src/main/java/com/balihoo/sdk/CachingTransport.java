@@ -0,0 +1,361 @@
+package com.balihoo.sdk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A BlipTransport that caches successful getLocation, getBrandKeys, getBrandSources and getBrandProjections responses
+ * in memory.
+ * <ul>
+ * <li>Entries are keyed on the full request URL (brand, location, projection and includeRefs) and the credentials
+ * used, and evicted least recently used first once maxEntries paths are cached.</li>
+ * <li>An entry is served without a request for ttlMillis. After that, if the server sent an ETag, it is revalidated
+ * with If-None-Match and kept when the server answers 304 Not Modified.</li>
+ * <li>Concurrent misses for the same URL share a single request.</li>
+ * <li>putLocation and deleteLocation calls sent through this transport invalidate every cached variant of that
+ * location.</li>
+ * </ul>
+ */
+public class CachingTransport implements BlipTransport {
+
+    private static final Set<BlipOperation> CACHEABLE = EnumSet.of(BlipOperation.GET_LOCATION,
+            BlipOperation.GET_BRAND_KEYS, BlipOperation.GET_BRAND_SOURCES, BlipOperation.GET_BRAND_PROJECTIONS);
+    private static final Set<BlipOperation> INVALIDATING = EnumSet.of(BlipOperation.PUT_LOCATION,
+            BlipOperation.DELETE_LOCATION);
+    private static final String[] STORED_HEADERS = {"ETag", "Content-Type", "Content-Encoding"};
+    private static final int GENERATION_STRIPES = 64;
+
+    private final BlipTransport DELEGATE;
+    private final int MAX_ENTRIES;
+    private final long TTL_NANOS;
+    private final Map<String, Map<String, CachedResponse>> ENTRIES;
+    private final ConcurrentMap<String, CompletableFuture<CachedResponse>> LOADING = new ConcurrentHashMap<>();
+    // Bumped on invalidation so a load that raced with a write does not store the old value.
+    private final AtomicLongArray GENERATIONS = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final AtomicLong HITS = new AtomicLong();
+    private final AtomicLong MISSES = new AtomicLong();
+    private final AtomicLong REVALIDATIONS = new AtomicLong();
+    private final AtomicLong COALESCED = new AtomicLong();
+
+    /**
+     * The CachingTransport constructor.
+     * @param delegate The transport used for requests that are not served from the cache.
+     * @param maxEntries The maximum number of distinct paths (e.g. locations) to cache.
+     * @param ttlMillis How long a response is served without contacting the server.
+     */
+    public CachingTransport(BlipTransport delegate, final int maxEntries, long ttlMillis) {
+        DELEGATE = delegate;
+        MAX_ENTRIES = maxEntries;
+        TTL_NANOS = ttlMillis * 1000000;
+        ENTRIES = new LinkedHashMap<String, Map<String, CachedResponse>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, CachedResponse>> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Serves cacheable requests from the cache where possible and invalidates entries on writes.
+     * @param request The request to send.
+     * @return The cached or fresh response.
+     * @throws IOException if the request cannot be sent or the response cannot be read.
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        if (INVALIDATING.contains(request.OPERATION)) {
+            String path = pathKey(request);
+            invalidate(path);
+            try {
+                return DELEGATE.execute(request);
+            } finally {
+                invalidate(path);
+            }
+        }
+
+        if (!CACHEABLE.contains(request.OPERATION) || !"GET".equals(request.METHOD)) {
+            return DELEGATE.execute(request);
+        }
+
+        String path = pathKey(request);
+        String key = request.URL;
+        long now = System.nanoTime();
+        CachedResponse cached = lookup(path, key);
+
+        if (cached != null && now - cached.STORED_AT < TTL_NANOS) {
+            HITS.incrementAndGet();
+            return cached.toResponse();
+        }
+
+        CompletableFuture<CachedResponse> loading = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> existing = LOADING.putIfAbsent(key, loading);
+
+        if (existing != null) {
+            COALESCED.incrementAndGet();
+            return await(existing).toResponse();
+        }
+
+        MISSES.incrementAndGet();
+
+        try {
+            CachedResponse loaded = load(request, path, cached);
+            loading.complete(loaded);
+            return loaded.toResponse();
+        } catch (IOException | RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            LOADING.remove(key, loading);
+        }
+    }
+
+    /**
+     * Remove every cached variant of a path.
+     * @param path The path key of a request.
+     */
+    private void invalidate(String path) {
+        GENERATIONS.incrementAndGet(stripe(path));
+
+        synchronized (ENTRIES) {
+            ENTRIES.remove(path);
+        }
+    }
+
+    /**
+     * Remove every cached entry.
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            GENERATIONS.incrementAndGet(i);
+        }
+
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    /**
+     * @return The number of requests served from the cache without contacting the server.
+     */
+    public long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * @return The number of requests that were sent to the server, including revalidations.
+     */
+    public long getMissCount() {
+        return MISSES.get();
+    }
+
+    /**
+     * @return The number of stale entries the server confirmed as unchanged.
+     */
+    public long getRevalidationCount() {
+        return REVALIDATIONS.get();
+    }
+
+    /**
+     * @return The number of requests that waited for another thread's identical request instead of sending one.
+     */
+    public long getCoalescedCount() {
+        return COALESCED.get();
+    }
+
+    /**
+     * Close the underlying transport.
+     * @throws IOException if the underlying transport cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        DELEGATE.close();
+    }
+
+    /**
+     * Fetch a response, revalidating a stale entry if it has an ETag, and store it if it was successful.
+     * @param request The cacheable request.
+     * @param path The path key of the request.
+     * @param stale The expired entry for the request, or null if there is none.
+     * @return The response.
+     * @throws IOException if the request cannot be sent or the response cannot be read.
+     */
+    private CachedResponse load(TransportRequest request, String path, CachedResponse stale) throws IOException {
+        long generation = GENERATIONS.get(stripe(path));
+        String eTag = stale == null ? null : stale.HEADERS.get("ETag");
+        TransportRequest toSend = request;
+
+        if (eTag != null) {
+            Map<String, String> headers = new LinkedHashMap<>(request.HEADERS);
+            headers.put("If-None-Match", eTag);
+            toSend = new TransportRequest(request.OPERATION, request.BRAND_KEY, request.METHOD, request.URL,
+                                          headers, request.BODY, request.DEADLINE_NANOS);
+        }
+
+        CachedResponse loaded;
+
+        try (TransportResponse response = DELEGATE.execute(toSend)) {
+            if (response.getStatusCode() == 304 && eTag != null) {
+                REVALIDATIONS.incrementAndGet();
+                loaded = new CachedResponse(stale.STATUS_CODE, stale.HEADERS, stale.BODY, System.nanoTime());
+            } else {
+                loaded = CachedResponse.read(response);
+            }
+        }
+
+        if (loaded.STATUS_CODE == 200) {
+            synchronized (ENTRIES) {
+                if (GENERATIONS.get(stripe(path)) == generation) {
+                    Map<String, CachedResponse> variants = ENTRIES.get(path);
+                    if (variants == null) {
+                        variants = new HashMap<>();
+                        ENTRIES.put(path, variants);
+                    }
+                    variants.put(request.URL, loaded);
+                }
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * @param path The path key of a request.
+     * @param key The full URL of the request.
+     * @return The cached entry, or null if there is none.
+     */
+    private CachedResponse lookup(String path, String key) {
+        synchronized (ENTRIES) {
+            Map<String, CachedResponse> variants = ENTRIES.get(path);
+            return variants == null ? null : variants.get(key);
+        }
+    }
+
+    /**
+     * Wait for another thread's request for the same URL.
+     * @param loading The other thread's pending response.
+     * @return The response.
+     * @throws IOException if the other request failed or the wait was interrupted.
+     */
+    private CachedResponse await(CompletableFuture<CachedResponse> loading) throws IOException {
+        try {
+            return loading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a shared request");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * @param path A path key.
+     * @return The generation stripe for the path.
+     */
+    private static int stripe(String path) {
+        return (path.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    /**
+     * Build the key that groups every variant of a resource, so a write to a location finds all cached reads of it.
+     * @param request A request.
+     * @return The credentials and the URL without its query string.
+     */
+    private static String pathKey(TransportRequest request) {
+        int query = request.URL.indexOf('?');
+        String path = query < 0 ? request.URL : request.URL.substring(0, query);
+
+        return request.HEADERS.get("Authorization") + " " + path;
+    }
+
+    /**
+     * A buffered response.
+     */
+    private static class CachedResponse {
+
+        private final int STATUS_CODE;
+        private final Map<String, String> HEADERS;
+        private final byte[] BODY;
+        private final long STORED_AT;
+
+        private CachedResponse(int statusCode, Map<String, String> headers, byte[] body, long storedAt) {
+            STATUS_CODE = statusCode;
+            HEADERS = headers;
+            BODY = body;
+            STORED_AT = storedAt;
+        }
+
+        /**
+         * Buffer a response.
+         * @param response The response to read.
+         * @return The buffered response.
+         * @throws IOException if the body cannot be read.
+         */
+        private static CachedResponse read(TransportResponse response) throws IOException {
+            Map<String, String> headers = new HashMap<>();
+
+            for (String name : STORED_HEADERS) {
+                String value = response.getHeader(name);
+                if (value != null) {
+                    headers.put(name, value);
+                }
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = response.getBody();
+            byte[] buffer = new byte[8192];
+            int len;
+
+            while ((len = in.read(buffer)) != -1) {
+                body.write(buffer, 0, len);
+            }
+
+            return new CachedResponse(response.getStatusCode(), headers, body.toByteArray(), System.nanoTime());
+        }
+
+        /**
+         * @return A new TransportResponse that replays this response.
+         */
+        private TransportResponse toResponse() {
+            return new TransportResponse() {
+                @Override
+                public int getStatusCode() {
+                    return STATUS_CODE;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    for (Map.Entry<String, String> header : HEADERS.entrySet()) {
+                        if (header.getKey().equalsIgnoreCase(name)) {
+                            return header.getValue();
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(BODY);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.balihoo.sdk;
+
+import java.io.IOException;
+
+/**
+ * Collects the details of a call made through an InstrumentedTransport while it is in progress.
+ * The trace is bound to the calling thread so that the transports it wraps can add connection timings and retries
+ * without changing their API; when no InstrumentedTransport is listening, current() returns null.
+ */
+class CallTrace {
+
+    private static final ThreadLocal<CallTrace> CURRENT = new ThreadLocal<>();
+
+    final TransportRequest REQUEST;
+    final long START_NANOS = System.nanoTime();
+
+    int statusCode;
+    IOException error;
+    long bytesSent;
+    long bytesReceived;
+    int connections;
+    long dnsNanos;
+    long connectNanos;
+    long firstByteNanos;
+    long totalNanos;
+    int retries;
+    boolean hedged;
+
+    /**
+     * The CallTrace constructor.
+     * @param request The request being traced.
+     */
+    CallTrace(TransportRequest request) {
+        REQUEST = request;
+    }
+
+    /**
+     * Add the connections and retries recorded while the same call was sent on another thread.
+     * @param other The trace bound to the other thread, which has finished with it.
+     */
+    void add(CallTrace other) {
+        connections += other.connections;
+        dnsNanos += other.dnsNanos;
+        connectNanos += other.connectNanos;
+        retries += other.retries;
+    }
+
+    /**
+     * @return The trace of the call in progress on this thread, or null if the call is not being traced.
+     */
+    static CallTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind a trace to this thread.
+     * @param trace The trace to bind.
+     * @return The trace that was bound before, to be restored with exit.
+     */
+    static CallTrace enter(CallTrace trace) {
+        CallTrace previous = CURRENT.get();
+        CURRENT.set(trace);
+
+        return previous;
+    }
+
+    /**
+     * Restore the trace that was bound before enter was called.
+     * @param previous The value returned by enter.
+     */
+    static void exit(CallTrace previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Record a DNS lookup on the current thread's trace, if any.
+     * @param nanos How long the lookup took.
+     */
+    static void recordDns(long nanos) {
+        CallTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.dnsNanos += nanos;
+        }
+    }
+
+    /**
+     * Record a new connection on the current thread's trace, if any.
+     * @param nanos How long the connection took to establish, including any TLS handshake.
+     */
+    static void recordConnect(long nanos) {
+        CallTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.connections++;
+            trace.connectNanos += nanos;
+        }
+    }
+
+    /**
+     * Record a retry on the current thread's trace, if any.
+     */
+    static void recordRetry() {
+        CallTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.retries++;
+        }
+    }
+}
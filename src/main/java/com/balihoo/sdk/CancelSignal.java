@@ -0,0 +1,90 @@
+package com.balihoo.sdk;
+
+/**
+ * Lets a HedgingTransport or BlipAsync abort a request that is no longer needed while another thread is blocked
+ * sending it.
+ * Like CallTrace, the signal is bound to the thread making the request so that the transport doing the I/O can
+ * register how to abort it without changing the BlipTransport API; when nothing can cancel the request, current()
+ * returns null.
+ */
+class CancelSignal {
+
+    private static final ThreadLocal<CancelSignal> CURRENT = new ThreadLocal<>();
+
+    private Runnable onCancel;
+    private boolean cancelled = false;
+
+    /**
+     * @return The signal for the request being made on this thread, or null if it cannot be cancelled.
+     */
+    static CancelSignal current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind a signal to this thread.
+     * @param signal The signal to bind.
+     * @return The signal that was bound before, to be restored with exit.
+     */
+    static CancelSignal enter(CancelSignal signal) {
+        CancelSignal previous = CURRENT.get();
+        CURRENT.set(signal);
+
+        return previous;
+    }
+
+    /**
+     * Restore the signal that was bound before enter was called.
+     * @param previous The value returned by enter.
+     */
+    static void exit(CancelSignal previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Set how to abort the request in progress, replacing any earlier action. If the request has already been
+     * cancelled, the action is run straight away.
+     * @param action The action that aborts the request.
+     */
+    void onCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                onCancel = action;
+                return;
+            }
+        }
+
+        action.run();
+    }
+
+    /**
+     * Cancel the request, aborting it if it is in progress.
+     */
+    void cancel() {
+        Runnable action;
+
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            action = onCancel;
+            onCancel = null;
+        }
+
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * @return Whether or not the request has been cancelled.
+     */
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,96 @@
+package com.balihoo.sdk;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops sending requests to an endpoint that keeps failing.
+ * After failureThreshold consecutive failures the breaker opens and rejects requests for openMillis. It then lets a
+ * single trial request through; if that succeeds the breaker closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Whether a request may be sent, and if so whether it is the trial request of a half-open breaker.
+     */
+    enum Admission {
+        REJECTED,
+        ALLOWED,
+        TRIAL
+    }
+
+    private final int FAILURE_THRESHOLD;
+    private final long OPEN_NANOS;
+    private final AtomicInteger CONSECUTIVE_FAILURES = new AtomicInteger();
+    private final AtomicLong OPEN_UNTIL = new AtomicLong();
+    private final AtomicBoolean TRIAL_IN_FLIGHT = new AtomicBoolean();
+
+    /**
+     * The CircuitBreaker constructor.
+     * @param failureThreshold The number of consecutive failures that opens the breaker.
+     * @param openMillis How long the breaker stays open before a trial request is allowed.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        FAILURE_THRESHOLD = failureThreshold;
+        OPEN_NANOS = openMillis * 1000000;
+    }
+
+    /**
+     * @return Whether or not a request may be sent now.
+     */
+    public boolean allowRequest() {
+        return admit() != Admission.REJECTED;
+    }
+
+    /**
+     * Decide whether a request may be sent now. A caller given the trial must end it with onSuccess, onFailure or
+     * releaseTrial.
+     * @return Whether the request is rejected, allowed, or allowed as the trial of a half-open breaker.
+     */
+    Admission admit() {
+        if (CONSECUTIVE_FAILURES.get() < FAILURE_THRESHOLD) {
+            return Admission.ALLOWED;
+        }
+
+        if (System.nanoTime() - OPEN_UNTIL.get() < 0) {
+            return Admission.REJECTED;
+        }
+
+        // Half open: let exactly one caller through to test the endpoint.
+        return TRIAL_IN_FLIGHT.compareAndSet(false, true) ? Admission.TRIAL : Admission.REJECTED;
+    }
+
+    /**
+     * End a trial request that neither succeeded nor failed, e.g. because it could not be sent, so another caller
+     * can test the endpoint.
+     */
+    void releaseTrial() {
+        TRIAL_IN_FLIGHT.set(false);
+    }
+
+    /**
+     * Record a successful request, closing the breaker.
+     */
+    public void onSuccess() {
+        CONSECUTIVE_FAILURES.set(0);
+        TRIAL_IN_FLIGHT.set(false);
+    }
+
+    /**
+     * Record a failed request, opening the breaker if the failure threshold has been reached.
+     */
+    public void onFailure() {
+        if (CONSECUTIVE_FAILURES.incrementAndGet() >= FAILURE_THRESHOLD) {
+            OPEN_UNTIL.set(System.nanoTime() + OPEN_NANOS);
+            TRIAL_IN_FLIGHT.set(false);
+        }
+    }
+
+    /**
+     * @return Whether or not the breaker is currently rejecting requests.
+     */
+    public boolean isOpen() {
+        return CONSECUTIVE_FAILURES.get() >= FAILURE_THRESHOLD && System.nanoTime() - OPEN_UNTIL.get() < 0;
+    }
+}
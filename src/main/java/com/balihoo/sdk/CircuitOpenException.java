@@ -0,0 +1,19 @@
+package com.balihoo.sdk;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a RetryingTransport when a request is rejected because its endpoint's circuit breaker is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The CircuitOpenException constructor.
+     * @param endpoint The name of the endpoint whose breaker is open.
+     */
+    public CircuitOpenException(String endpoint) {
+        super(String.format("Circuit breaker for %s is open", endpoint));
+    }
+}
@@ -0,0 +1,316 @@
+package com.balihoo.sdk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a brand's locations in BLIP in step with a local dataset by sending only what changed since the last sync.
+ * A digest of every location's document is kept in a memory-mapped index file. Each sync compares the new dataset
+ * against it and sends adds and updates as puts and missing locations as deletes through a BlipBatchWriter, which
+ * uses putLocation/deleteLocation for small batches and, given a BulkLoadCallbackReceiver, a reduced bulkLoad file
+ * for large ones. The index is only updated for operations BLIP accepted, and for a bulk load only once BLIP has
+ * called back to say it succeeded, so anything that failed is sent again by the next sync.
+ * <pre>
+ *     DeltaSync sync = new DeltaSync(async, "mybrand", "mysource", Paths.get("mybrand.idx"), 500, 10000,
+ *                                    receiver, 600000);
+ *     try (DeltaSync.Session session = sync.begin()) {
+ *         for (MyLocation location : locations) {
+ *             session.add(location.getKey(), location);
+ *         }
+ *         DeltaSync.Result result = session.commit();
+ *     }
+ * </pre>
+ */
+public class DeltaSync {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    /**
+     * The outcome of a sync.
+     */
+    public static class Result {
+
+        public final long ADDED;
+        public final long UPDATED;
+        public final long DELETED;
+        public final long UNCHANGED;
+        public final long FAILED;
+
+        /**
+         * The Result constructor.
+         * @param added The number of new locations sent.
+         * @param updated The number of changed locations sent.
+         * @param deleted The number of missing locations deleted.
+         * @param unchanged The number of locations that did not need to be sent.
+         * @param failed The number of operations BLIP did not accept.
+         */
+        private Result(long added, long updated, long deleted, long unchanged, long failed) {
+            ADDED = added;
+            UPDATED = updated;
+            DELETED = deleted;
+            UNCHANGED = unchanged;
+            FAILED = failed;
+        }
+    }
+
+    private final BlipAsync ASYNC;
+    private final String BRAND_KEY;
+    private final String SOURCE;
+    private final Path INDEX_FILE;
+    private final int BULK_LOAD_THRESHOLD;
+    private final int MAX_BATCH_SIZE;
+    private final BulkLoadCallbackReceiver RECEIVER;
+    private final long BULK_LOAD_TIMEOUT_MILLIS;
+    private final Gson GSON = new Gson();
+
+    /**
+     * DeltaSync constructor without bulk loads. Every change is sent with putLocation or deleteLocation.
+     * @param async The BlipAsync used to send changes.
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source being used to add/update locations.
+     * @param indexFile The file that holds the digests from the last sync. It is created by the first sync.
+     * @param maxBatchSize The number of changes held in memory before they are sent.
+     */
+    public DeltaSync(BlipAsync async, String brandKey, String source, Path indexFile, int maxBatchSize) {
+        this(async, brandKey, source, indexFile, Integer.MAX_VALUE, maxBatchSize, null, 0);
+    }
+
+    /**
+     * The DeltaSync constructor.
+     * @param async The BlipAsync used to send changes.
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source being used to add/update locations.
+     * @param indexFile The file that holds the digests from the last sync. It is created by the first sync.
+     * @param bulkLoadThreshold The number of puts in a batch at which they are sent with bulkLoad.
+     * @param maxBatchSize The number of changes held in memory before they are sent.
+     * @param receiver The receiver BLIP's bulk load callbacks are sent to, or null to never use bulkLoad.
+     * @param bulkLoadTimeoutMillis How long to wait for a bulk load's callback before treating it as failed.
+     */
+    public DeltaSync(BlipAsync async, String brandKey, String source, Path indexFile, int bulkLoadThreshold,
+                     int maxBatchSize, BulkLoadCallbackReceiver receiver, long bulkLoadTimeoutMillis) {
+        ASYNC = async;
+        BRAND_KEY = brandKey;
+        SOURCE = source;
+        INDEX_FILE = indexFile;
+        BULK_LOAD_THRESHOLD = bulkLoadThreshold;
+        MAX_BATCH_SIZE = maxBatchSize;
+        RECEIVER = receiver;
+        BULK_LOAD_TIMEOUT_MILLIS = bulkLoadTimeoutMillis;
+    }
+
+    /**
+     * Start a sync. Only one session should be open for an index file at a time.
+     * @return A session to add the complete dataset to.
+     * @throws IOException if the index file cannot be read.
+     */
+    public Session begin() throws IOException {
+        return new Session();
+    }
+
+    /**
+     * A single sync: every location in the dataset is added, then the session is committed.
+     * Changes are sent while locations are being added. A session that is closed without being committed sends no
+     * deletes and leaves the index unchanged.
+     */
+    public class Session implements Closeable {
+
+        private final LocationDigestIndex INDEX;
+        private final BitSet SEEN;
+        private final Map<String, byte[]> CHANGED = new HashMap<>();
+        private final Set<String> FAILED_KEYS = ConcurrentHashMap.newKeySet();
+        private final BlipBatchWriter WRITER;
+        private final MessageDigest MD5;
+        private final JsonParser PARSER = new JsonParser();
+        private long added = 0;
+        private long updated = 0;
+        private long unchanged = 0;
+        private boolean finished = false;
+
+        /**
+         * The Session constructor.
+         * @throws IOException if the index file cannot be read.
+         */
+        private Session() throws IOException {
+            try {
+                MD5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("MD5 is not available", e);
+            }
+
+            INDEX = new LocationDigestIndex(INDEX_FILE);
+            SEEN = new BitSet(INDEX.size());
+            WRITER = new BlipBatchWriter(ASYNC, BRAND_KEY, SOURCE, MAX_BATCH_SIZE, FLUSH_INTERVAL_MILLIS,
+                                         BULK_LOAD_THRESHOLD, RECEIVER, BULK_LOAD_TIMEOUT_MILLIS, this::onResult);
+        }
+
+        /**
+         * Add a location from the dataset, sending it if it is new or has changed since the last sync.
+         * @param locationKey The unique identifier for a single location within the brand.
+         * @param document The location document: a JSON String, a JsonElement, or an object Gson can serialize.
+         * @throws IOException if the session has finished.
+         */
+        public void add(String locationKey, Object document) throws IOException {
+            if (finished) {
+                throw new IOException("DeltaSync session has finished");
+            }
+
+            JsonElement element;
+            if (document instanceof String) {
+                element = PARSER.parse((String) document);
+            } else if (document instanceof JsonElement) {
+                element = (JsonElement) document;
+            } else {
+                element = GSON.toJsonTree(document);
+            }
+
+            String locationData = GSON.toJson(element);
+            byte[] digest = MD5.digest(locationData.getBytes(UTF_8));
+            int position = INDEX.find(locationKey.getBytes(UTF_8));
+
+            if (position >= 0) {
+                SEEN.set(position);
+                if (INDEX.digestEquals(position, digest)) {
+                    unchanged++;
+                    return;
+                }
+            }
+
+            if (CHANGED.put(locationKey, digest) == null) {
+                if (position >= 0) {
+                    updated++;
+                } else {
+                    added++;
+                }
+            }
+
+            WRITER.put(locationKey, locationData);
+        }
+
+        /**
+         * Delete every location from the last sync that was not added to this session, wait for all changes to be
+         * sent, and update the index.
+         * @return The outcome of the sync.
+         * @throws IOException if the index cannot be written.
+         */
+        public Result commit() throws IOException {
+            if (finished) {
+                throw new IOException("DeltaSync session has finished");
+            }
+
+            long deleted = 0;
+            for (int position = SEEN.nextClearBit(0); position < INDEX.size();
+                 position = SEEN.nextClearBit(position + 1)) {
+                WRITER.delete(INDEX.key(position));
+                deleted++;
+            }
+
+            finished = true;
+            WRITER.close();
+
+            Path updatedIndex = INDEX_FILE.resolveSibling(INDEX_FILE.getFileName() + ".tmp");
+            try {
+                writeIndex(updatedIndex);
+            } finally {
+                INDEX.close();
+            }
+            Files.move(updatedIndex, INDEX_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return new Result(added, updated, deleted, unchanged, FAILED_KEYS.size());
+        }
+
+        /**
+         * Stop the session. If it was not committed, waits for changes already queued to be sent but sends no
+         * deletes and leaves the index unchanged.
+         * @throws IOException if the changes cannot be sent.
+         */
+        @Override
+        public void close() throws IOException {
+            if (finished) {
+                return;
+            }
+
+            finished = true;
+            try {
+                WRITER.close();
+            } finally {
+                INDEX.close();
+            }
+        }
+
+        /**
+         * Record operations BLIP did not accept, so their index entries are left as they were. The writer reports
+         * bulk-loaded puts once the load has finished, so a load that fails or is never confirmed counts here too.
+         * @param result The outcome of an operation.
+         */
+        private void onResult(BlipBatchWriter.Result result) {
+            // A location that is already gone does not need deleting again
+            boolean alreadyDeleted = result.OPERATION == BlipBatchWriter.Operation.DELETE && result.RESPONSE != null
+                    && result.RESPONSE.STATUS_CODE == 404;
+
+            if (!result.isSuccessful() && !alreadyDeleted) {
+                FAILED_KEYS.add(result.LOCATION_KEY);
+            }
+        }
+
+        /**
+         * Merge the old index with the changes BLIP accepted into a new index file.
+         * @param file The file to write.
+         * @throws IOException if the file cannot be written.
+         */
+        private void writeIndex(Path file) throws IOException {
+            List<byte[]> changedKeys = new ArrayList<>(CHANGED.size());
+            for (String key : CHANGED.keySet()) {
+                changedKeys.add(key.getBytes(UTF_8));
+            }
+            changedKeys.sort(LocationDigestIndex::compareKeys);
+
+            try (LocationDigestIndex.Writer writer = new LocationDigestIndex.Writer(file)) {
+                int position = 0;
+                int change = 0;
+
+                while (position < INDEX.size() || change < changedKeys.size()) {
+                    byte[] oldKey = position < INDEX.size() ? INDEX.keyBytes(position) : null;
+                    byte[] newKey = change < changedKeys.size() ? changedKeys.get(change) : null;
+                    int comparison = oldKey == null ? 1 : newKey == null ? -1
+                            : LocationDigestIndex.compareKeys(oldKey, newKey);
+
+                    if (comparison < 0) {
+                        // Unchanged, or a delete that failed: keep the old digest
+                        if (SEEN.get(position) || FAILED_KEYS.contains(new String(oldKey, UTF_8))) {
+                            writer.add(oldKey, INDEX.digest(position));
+                        }
+                        position++;
+                    } else {
+                        String key = new String(newKey, UTF_8);
+                        if (!FAILED_KEYS.contains(key)) {
+                            writer.add(newKey, CHANGED.get(key));
+                        } else if (comparison == 0) {
+                            writer.add(oldKey, INDEX.digest(position));
+                        }
+                        if (comparison == 0) {
+                            position++;
+                        }
+                        change++;
+                    }
+                }
+            }
+        }
+    }
+}
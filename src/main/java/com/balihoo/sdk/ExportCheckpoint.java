@@ -0,0 +1,311 @@
+package com.balihoo.sdk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The progress of a BlipExporter run, appended to a text file so an interrupted export can be resumed.
+ * Each line is a tab-separated record of work that has been written to the sink:
+ * <pre>
+ *     brand  brandKey                        every location in the brand was exported
+ *     mode   brandKey  pages  pageSize       the brand is exported with queryLocations pages
+ *     mode   brandKey  keys                  the brand is exported with getLocation per key
+ *     page   brandKey  pageNumber  count  firstKey  lastKey
+ *                                            a page, how many locations were on it and its first and last locationKey
+ *     key    brandKey  locationKey           a single location
+ * </pre>
+ * A locationKey between the first and last locationKey of any page of its brand counts as exported. A mode record
+ * for a brand discards its earlier page records. A torn last line from a crash only loses that record.
+ */
+class ExportCheckpoint implements Closeable {
+
+    static final String PAGES = "pages";
+    static final String KEYS = "keys";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * An exported page. Its first and last locationKeys give the range of locations it covered.
+     */
+    static class Page {
+
+        final int COUNT;
+        final String FIRST_KEY;
+        final String LAST_KEY;
+
+        /**
+         * The Page constructor.
+         * @param count The number of locations on the page.
+         * @param firstKey The locationKey of the first location, or null if the page was empty or it is not known.
+         * @param lastKey The locationKey of the last location, or null if the page was empty or it is not known.
+         */
+        Page(int count, String firstKey, String lastKey) {
+            COUNT = count;
+            FIRST_KEY = firstKey;
+            LAST_KEY = lastKey;
+        }
+    }
+
+    private final BufferedWriter OUT;
+    private final Set<String> BRANDS = new HashSet<>();
+    private final Map<String, String> MODES = new HashMap<>();
+    private final Map<String, Page> PAGES_DONE = new HashMap<>();
+    private final Set<String> KEYS_DONE = new HashSet<>();
+    // For each brand, the locationKey ranges covered by its exported pages: first key to last key, merged
+    private final Map<String, NavigableMap<String, String>> RANGES = new HashMap<>();
+
+    /**
+     * Load a checkpoint file and open it for appending.
+     * @param file The checkpoint file, or null to keep progress in memory only. It is created if it does not exist.
+     * @throws IOException if the file cannot be read or opened.
+     */
+    ExportCheckpoint(Path file) throws IOException {
+        if (file == null) {
+            OUT = null;
+            return;
+        }
+
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    load(line.split("\t"));
+                }
+            }
+        }
+
+        OUT = Files.newBufferedWriter(file, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @param brandKey A brand.
+     * @return Whether or not every location in the brand has been exported.
+     */
+    synchronized boolean isBrandDone(String brandKey) {
+        return BRANDS.contains(brandKey);
+    }
+
+    /**
+     * @param brandKey A brand.
+     * @return The mode the brand was exported with ("pages\tpageSize" or "keys"), or null if it has not been started.
+     */
+    synchronized String getMode(String brandKey) {
+        return MODES.get(brandKey);
+    }
+
+    /**
+     * @param brandKey A brand.
+     * @param pageNumber A page index.
+     * @return The page as it was exported, or null if it has not been exported.
+     */
+    synchronized Page getPage(String brandKey, int pageNumber) {
+        return PAGES_DONE.get(brandKey + "\t" + pageNumber);
+    }
+
+    /**
+     * @param brandKey A brand.
+     * @param locationKey A location within the brand.
+     * @return Whether or not the location lies between the first and last locationKey of an exported page, so it
+     * was exported with that page unless it was added after the page was exported.
+     */
+    synchronized boolean isInExportedPage(String brandKey, String locationKey) {
+        NavigableMap<String, String> ranges = RANGES.get(brandKey);
+        Map.Entry<String, String> range = ranges == null ? null : ranges.floorEntry(locationKey);
+
+        return range != null && range.getValue().compareTo(locationKey) >= 0;
+    }
+
+    /**
+     * @param brandKey A brand.
+     * @param locationKey A location within the brand.
+     * @return Whether or not the location has been exported on its own.
+     */
+    synchronized boolean isKeyDone(String brandKey, String locationKey) {
+        return KEYS_DONE.contains(brandKey + "\t" + locationKey);
+    }
+
+    /**
+     * Record that a brand is exported with queryLocations pages.
+     * @param brandKey The brand.
+     * @param pageSize The page size, which must stay the same for page records to be reused.
+     * @throws IOException if the record cannot be written.
+     */
+    void recordPagesMode(String brandKey, int pageSize) throws IOException {
+        record(new String[] {"mode", brandKey, PAGES, String.valueOf(pageSize)});
+    }
+
+    /**
+     * Record that a brand is exported with getLocation per key.
+     * @param brandKey The brand.
+     * @throws IOException if the record cannot be written.
+     */
+    void recordKeysMode(String brandKey) throws IOException {
+        record(new String[] {"mode", brandKey, KEYS});
+    }
+
+    /**
+     * Record an exported page.
+     * @param brandKey The brand.
+     * @param pageNumber The page index.
+     * @param count The number of locations on the page.
+     * @param firstKey The locationKey of the first location, or null if the page was empty.
+     * @param lastKey The locationKey of the last location, or null if the page was empty.
+     * @throws IOException if the record cannot be written.
+     */
+    void recordPage(String brandKey, int pageNumber, int count, String firstKey, String lastKey) throws IOException {
+        if (firstKey == null || lastKey == null) {
+            record(new String[] {"page", brandKey, String.valueOf(pageNumber), String.valueOf(count)});
+        } else {
+            record(new String[] {"page", brandKey, String.valueOf(pageNumber), String.valueOf(count), firstKey,
+                                 lastKey});
+        }
+    }
+
+    /**
+     * Record a batch of exported locations.
+     * @param brandKey The brand.
+     * @param locationKeys The locations.
+     * @throws IOException if the records cannot be written.
+     */
+    synchronized void recordKeys(String brandKey, Collection<String> locationKeys) throws IOException {
+        for (String locationKey : locationKeys) {
+            String[] fields = {"key", brandKey, locationKey};
+            load(fields);
+            write(fields);
+        }
+
+        if (OUT != null) {
+            OUT.flush();
+        }
+    }
+
+    /**
+     * Record a completed brand.
+     * @param brandKey The brand.
+     * @throws IOException if the record cannot be written.
+     */
+    void recordBrand(String brandKey) throws IOException {
+        record(new String[] {"brand", brandKey});
+    }
+
+    /**
+     * Close the checkpoint file.
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (OUT != null) {
+            OUT.close();
+        }
+    }
+
+    /**
+     * Apply a record and append it to the file.
+     * @param fields The fields of the record.
+     * @throws IOException if the record cannot be written.
+     */
+    private synchronized void record(String[] fields) throws IOException {
+        load(fields);
+        write(fields);
+
+        if (OUT != null) {
+            OUT.flush();
+        }
+    }
+
+    /**
+     * Append a record to the file without flushing it.
+     * @param fields The fields of the record.
+     * @throws IOException if the record cannot be written.
+     */
+    private void write(String[] fields) throws IOException {
+        if (OUT != null) {
+            OUT.write(String.join("\t", fields));
+            OUT.newLine();
+        }
+    }
+
+    /**
+     * Apply a record to the in-memory state. Unrecognized or incomplete records are ignored.
+     * @param fields The fields of the record.
+     */
+    private void load(String[] fields) {
+        try {
+            switch (fields[0]) {
+                case "brand":
+                    BRANDS.add(fields[1]);
+                    break;
+                case "mode":
+                    String mode = PAGES.equals(fields[2]) ? PAGES + "\t" + Integer.parseInt(fields[3]) : KEYS;
+                    if (!mode.equals(MODES.put(fields[1], mode))) {
+                        // Pages of a different size do not line up with the new ones
+                        PAGES_DONE.keySet().removeIf(page -> page.startsWith(fields[1] + "\t"));
+                        RANGES.remove(fields[1]);
+                    }
+                    break;
+                case "page":
+                    boolean keyed = fields.length > 5;
+                    PAGES_DONE.put(fields[1] + "\t" + Integer.parseInt(fields[2]),
+                                   new Page(Integer.parseInt(fields[3]), keyed ? fields[4] : null,
+                                            keyed ? fields[5] : null));
+                    if (keyed) {
+                        addRange(fields[1], fields[4], fields[5]);
+                    }
+                    break;
+                case "key":
+                    KEYS_DONE.add(fields[1] + "\t" + fields[2]);
+                    break;
+                default:
+                    break;
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            // A record torn by a crash
+        }
+    }
+
+    /**
+     * Add the range of an exported page to its brand's ranges, merging it with the ranges it overlaps.
+     * @param brandKey The brand.
+     * @param firstKey The locationKey of the first location on the page.
+     * @param lastKey The locationKey of the last location on the page.
+     */
+    private void addRange(String brandKey, String firstKey, String lastKey) {
+        if (firstKey.compareTo(lastKey) > 0) {
+            return;
+        }
+
+        NavigableMap<String, String> ranges = RANGES.computeIfAbsent(brandKey, key -> new TreeMap<>());
+        String first = firstKey;
+        String last = lastKey;
+        Map.Entry<String, String> before = ranges.floorEntry(first);
+
+        if (before != null && before.getValue().compareTo(first) >= 0) {
+            first = before.getKey();
+        }
+
+        Iterator<String> overlapping = ranges.subMap(first, true, last, true).values().iterator();
+        while (overlapping.hasNext()) {
+            String end = overlapping.next();
+            if (end.compareTo(last) > 0) {
+                last = end;
+            }
+            overlapping.remove();
+        }
+
+        ranges.put(first, last);
+    }
+}
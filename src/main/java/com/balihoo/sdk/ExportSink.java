@@ -0,0 +1,27 @@
+package com.balihoo.sdk;
+
+import java.io.IOException;
+
+/**
+ * Receives the locations exported by a BlipExporter.
+ * Locations from different brands are written concurrently, so implementations must be safe for concurrent use.
+ */
+public interface ExportSink {
+
+    /**
+     * Write one exported location.
+     * @param brandKey The unique identifier for the location's brand.
+     * @param locationKey The unique identifier for the location within the brand.
+     * @param document The stringified JSON location document.
+     * @throws IOException if the location cannot be written.
+     */
+    void write(String brandKey, String locationKey, String document) throws IOException;
+
+    /**
+     * Make everything written so far durable. Called before progress is recorded in a checkpoint, so a resumed
+     * export does not skip locations that were lost.
+     * @throws IOException if the written locations cannot be flushed.
+     */
+    default void flush() throws IOException {
+    }
+}
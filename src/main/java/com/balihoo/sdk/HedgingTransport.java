@@ -0,0 +1,385 @@
+package com.balihoo.sdk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A BlipTransport that hedges slow reads. If a getLocation, getLocationKeys, getBrandSources or getBrandProjections
+ * request has not been answered after a delay, a second copy is sent. Whichever answers first is used and the other
+ * is aborted.
+ * <ul>
+ * <li>The delay is a percentile (e.g. the 95th) of each operation's recent response times, so only about that share
+ * of requests is hedged. Until MIN_SAMPLES responses have been seen, a fixed initial delay is used. A copy that is
+ * aborted because the other answered first counts with the time it had waited, so the slow requests that were hedged
+ * still hold the delay up.</li>
+ * <li>A request with a deadline is only hedged while time remains before it.</li>
+ * <li>Other operations are passed straight through on the calling thread.</li>
+ * </ul>
+ * Place it inside a RetryingTransport so that each attempt is hedged and retries only follow a failure of both
+ * copies. Place it inside an InstrumentedTransport too, which then reports whether each call was hedged.
+ */
+public class HedgingTransport implements BlipTransport {
+
+    public static final double DEFAULT_PERCENTILE = 95;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+    public static final int MIN_SAMPLES = 20;
+
+    private static final Set<BlipOperation> HEDGED_OPERATIONS = EnumSet.of(BlipOperation.GET_LOCATION,
+                                                                            BlipOperation.GET_LOCATION_KEYS,
+                                                                            BlipOperation.GET_BRAND_SOURCES,
+                                                                            BlipOperation.GET_BRAND_PROJECTIONS);
+    // The delay is estimated from the last 1000 responses of each operation
+    private static final int WINDOW_SIZE = 1000;
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final BlipTransport DELEGATE;
+    private final double PERCENTILE;
+    private final long INITIAL_DELAY_NANOS;
+    private final Map<BlipOperation, LatencyWindow> LATENCIES = new EnumMap<>(BlipOperation.class);
+    private final ExecutorService EXECUTOR;
+    private final AtomicLong HEDGES_SENT = new AtomicLong();
+    private final AtomicLong HEDGES_WON = new AtomicLong();
+
+    /**
+     * HedgingTransport constructor that hedges requests slower than the 95th percentile.
+     * @param delegate The transport that sends each request.
+     */
+    public HedgingTransport(BlipTransport delegate) {
+        this(delegate, DEFAULT_PERCENTILE, DEFAULT_INITIAL_DELAY_MILLIS);
+    }
+
+    /**
+     * The HedgingTransport constructor.
+     * @param delegate The transport that sends each request.
+     * @param percentile The percentile of recent response times after which a request is hedged, from 0 to 100.
+     * @param initialDelayMillis The delay used until enough responses have been seen to estimate the percentile.
+     */
+    public HedgingTransport(BlipTransport delegate, double percentile, long initialDelayMillis) {
+        DELEGATE = delegate;
+        PERCENTILE = percentile;
+        INITIAL_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(initialDelayMillis);
+
+        for (BlipOperation operation : HEDGED_OPERATIONS) {
+            LATENCIES.put(operation, new LatencyWindow());
+        }
+
+        int pool = POOL_NUMBER.incrementAndGet();
+        AtomicInteger threadNumber = new AtomicInteger();
+        EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable,
+                                       String.format("blip-hedge-%s-%s", pool, threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends the request, sending a second copy if a hedged operation is slow to respond.
+     * @param request The request to send.
+     * @return The first response to arrive.
+     * @throws InterruptedIOException if interrupted while waiting; both copies are aborted.
+     * @throws IOException if every copy that was sent failed.
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        if (!HEDGED_OPERATIONS.contains(request.OPERATION) || request.BODY != null) {
+            return DELEGATE.execute(request);
+        }
+
+        CallTrace trace = CallTrace.current();
+        CancelSignal signal = CancelSignal.current();
+        BlockingQueue<Attempt> completed = new ArrayBlockingQueue<>(2);
+        Attempt primary = submit(new Attempt(request, trace, completed));
+        Attempt hedge = null;
+
+        // The copies run on other threads, so a caller that is cancelled aborts them directly
+        if (signal != null) {
+            signal.onCancel(primary::cancel);
+        }
+
+        try {
+            long delay = Math.min(getHedgeDelayNanos(request.OPERATION), remainingNanos(request));
+            Attempt first = completed.poll(delay, TimeUnit.NANOSECONDS);
+
+            if (first == null && remainingNanos(request) > 0) {
+                hedge = submit(new Attempt(request, trace, completed));
+                HEDGES_SENT.incrementAndGet();
+                if (signal != null) {
+                    Attempt copy = hedge;
+                    signal.onCancel(() -> {
+                        primary.cancel();
+                        copy.cancel();
+                    });
+                }
+                if (trace != null) {
+                    trace.hedged = true;
+                }
+            }
+
+            if (first == null) {
+                first = completed.take();
+            }
+
+            Attempt winner = first;
+
+            // When one copy fails, the other may still succeed
+            if (first.error != null && hedge != null) {
+                Attempt second = completed.take();
+                if (second.error == null) {
+                    winner = second;
+                } else {
+                    first.error.addSuppressed(second.error);
+                }
+            }
+
+            Attempt loser = winner == primary ? hedge : primary;
+            if (loser != null) {
+                loser.cancel();
+            }
+
+            if (trace != null && winner.TRACE != null) {
+                trace.add(winner.TRACE);
+            }
+
+            if (winner.error != null) {
+                throw winner.error;
+            }
+
+            if (winner == hedge) {
+                HEDGES_WON.incrementAndGet();
+            }
+
+            return winner.response;
+        } catch (InterruptedException e) {
+            primary.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        }
+    }
+
+    /**
+     * Get the delay after which a request is hedged.
+     * @param operation A BLIP operation.
+     * @return The delay in nanoseconds, or Long.MAX_VALUE if the operation is never hedged.
+     */
+    public long getHedgeDelayNanos(BlipOperation operation) {
+        LatencyWindow window = LATENCIES.get(operation);
+
+        return window == null ? Long.MAX_VALUE : window.getValueAtPercentile(PERCENTILE, INITIAL_DELAY_NANOS);
+    }
+
+    /**
+     * @return The number of second requests sent.
+     */
+    public long getHedgesSent() {
+        return HEDGES_SENT.get();
+    }
+
+    /**
+     * @return The number of calls answered by the second request rather than the first.
+     */
+    public long getHedgesWon() {
+        return HEDGES_WON.get();
+    }
+
+    /**
+     * Stop the hedging threads and close the underlying transport.
+     * @throws IOException if the underlying transport cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        EXECUTOR.shutdown();
+        DELEGATE.close();
+    }
+
+    /**
+     * Start sending a copy of a request.
+     * @param attempt The copy to send.
+     * @return The copy.
+     * @throws IOException if the transport has been closed.
+     */
+    private Attempt submit(Attempt attempt) throws IOException {
+        try {
+            EXECUTOR.execute(attempt);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("The transport has been closed", e);
+        }
+
+        return attempt;
+    }
+
+    /**
+     * @param request A request.
+     * @return The time left before the request's deadline, or Long.MAX_VALUE if it has none.
+     */
+    private static long remainingNanos(TransportRequest request) {
+        return request.DEADLINE_NANOS == null ? Long.MAX_VALUE : request.DEADLINE_NANOS - System.nanoTime();
+    }
+
+    /**
+     * One copy of a request, sent on a hedging thread.
+     */
+    private class Attempt implements Runnable {
+
+        private final TransportRequest REQUEST;
+        private final CallTrace TRACE;
+        private final BlockingQueue<Attempt> COMPLETED;
+        private final CancelSignal SIGNAL = new CancelSignal();
+        private TransportResponse response;
+        private IOException error;
+        private long startNanos;
+        // Whether the copy has started and not yet had its time recorded or failed
+        private boolean timing = false;
+
+        /**
+         * The Attempt constructor.
+         * @param request The request to send.
+         * @param callerTrace The trace of the call on the calling thread, or null if it is not being traced.
+         * @param completed The queue the attempt is added to once it has a response or has failed.
+         */
+        private Attempt(TransportRequest request, CallTrace callerTrace, BlockingQueue<Attempt> completed) {
+            REQUEST = request;
+            // Each copy records its connections separately; only the winner's are added to the caller's trace
+            TRACE = callerTrace == null ? null : new CallTrace(request);
+            COMPLETED = completed;
+        }
+
+        @Override
+        public void run() {
+            CallTrace previousTrace = CallTrace.enter(TRACE);
+            CancelSignal previousSignal = CancelSignal.enter(SIGNAL);
+
+            synchronized (this) {
+                startNanos = System.nanoTime();
+                timing = true;
+            }
+
+            try {
+                TransportResponse received = DELEGATE.execute(REQUEST);
+                recordLatency();
+
+                synchronized (this) {
+                    if (!SIGNAL.isCancelled()) {
+                        response = received;
+                        received = null;
+                    }
+                }
+
+                if (received != null) {
+                    closeQuietly(received);
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            } finally {
+                synchronized (this) {
+                    // A failure is not a response time
+                    timing = false;
+                }
+                CancelSignal.exit(previousSignal);
+                CallTrace.exit(previousTrace);
+                COMPLETED.add(this);
+            }
+        }
+
+        /**
+         * Record the time since the copy was sent, once. When it is aborted this is how long it had waited so far.
+         */
+        private void recordLatency() {
+            long elapsed;
+
+            synchronized (this) {
+                if (!timing) {
+                    return;
+                }
+                timing = false;
+                elapsed = System.nanoTime() - startNanos;
+            }
+
+            LATENCIES.get(REQUEST.OPERATION).record(elapsed);
+        }
+
+        /**
+         * Abort the copy if it is still in progress, or close its response if it has one.
+         */
+        private void cancel() {
+            recordLatency();
+            SIGNAL.cancel();
+            TransportResponse discarded;
+
+            synchronized (this) {
+                discarded = response;
+                response = null;
+            }
+
+            if (discarded != null) {
+                closeQuietly(discarded);
+            }
+        }
+
+        /**
+         * @param unused A response that will not be read.
+         */
+        private void closeQuietly(TransportResponse unused) {
+            try {
+                unused.close();
+            } catch (IOException e) {
+                // The connection was aborted, so there is nothing left to release
+            }
+        }
+    }
+
+    /**
+     * The response times of an operation's most recent requests.
+     */
+    private static class LatencyWindow {
+
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private volatile LatencyHistogram previous;
+
+        /**
+         * @param nanos The time a request took to be answered.
+         */
+        private void record(long nanos) {
+            LatencyHistogram histogram = current;
+            histogram.record(nanos);
+
+            if (histogram.getCount() >= WINDOW_SIZE) {
+                synchronized (this) {
+                    if (current == histogram) {
+                        previous = histogram;
+                        current = new LatencyHistogram();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param percentile The percentile, from 0 to 100.
+         * @param fallback The value to return until enough responses have been recorded.
+         * @return The percentile of the last full window of response times, or of those recorded so far.
+         */
+        private long getValueAtPercentile(double percentile, long fallback) {
+            LatencyHistogram full = previous;
+            LatencyHistogram histogram = full != null ? full : current;
+
+            return histogram.getCount() < MIN_SAMPLES ? fallback : histogram.getValueAtPercentile(percentile);
+        }
+    }
+}
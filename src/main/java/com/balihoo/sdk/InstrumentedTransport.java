@@ -0,0 +1,239 @@
+package com.balihoo.sdk;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A BlipTransport that reports every call made through another transport to a set of BlipCallListeners.
+ * Place it outermost, around any RetryingTransport, so that one event is reported per call with its retry count;
+ * the S3 authorize and upload phases of a bulk load are reported as AUTHORIZE_UPLOAD and S3_UPLOAD calls.
+ * While no listener is registered, requests are passed straight through without allocating anything.
+ */
+public class InstrumentedTransport implements BlipTransport {
+
+    private static final BlipCallListener[] NO_LISTENERS = new BlipCallListener[0];
+
+    private final BlipTransport DELEGATE;
+    private volatile BlipCallListener[] listeners = NO_LISTENERS;
+
+    /**
+     * The InstrumentedTransport constructor.
+     * @param delegate The transport that sends each call.
+     * @param listeners The listeners to register initially.
+     */
+    public InstrumentedTransport(BlipTransport delegate, BlipCallListener... listeners) {
+        DELEGATE = delegate;
+        for (BlipCallListener listener : listeners) {
+            addListener(listener);
+        }
+    }
+
+    /**
+     * Register a listener for subsequent calls.
+     * @param listener The listener to add.
+     */
+    public synchronized void addListener(BlipCallListener listener) {
+        BlipCallListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Stop reporting calls to a listener.
+     * @param listener The listener to remove.
+     */
+    public synchronized void removeListener(BlipCallListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                BlipCallListener[] updated = new BlipCallListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends the request, tracing it if any listener is registered.
+     * @param request The request to send.
+     * @return The response. The call is reported when it is closed.
+     * @throws IOException if the request cannot be sent; the failure is reported before it is thrown.
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        BlipCallListener[] current = listeners;
+
+        if (current.length == 0) {
+            return DELEGATE.execute(request);
+        }
+
+        CallTrace trace = new CallTrace(request);
+        TransportRequest counted = request;
+
+        if (request.BODY != null) {
+            counted = new TransportRequest(request.OPERATION, request.BRAND_KEY, request.METHOD, request.URL,
+                                           request.HEADERS, new CountingBody(request.BODY, trace),
+                                           request.DEADLINE_NANOS);
+        }
+
+        CallTrace previous = CallTrace.enter(trace);
+        TransportResponse response;
+
+        try {
+            response = DELEGATE.execute(counted);
+        } catch (IOException e) {
+            trace.error = e;
+            complete(trace, current);
+            throw e;
+        } finally {
+            CallTrace.exit(previous);
+        }
+
+        trace.firstByteNanos = System.nanoTime() - trace.START_NANOS;
+        trace.statusCode = response.getStatusCode();
+
+        return new InstrumentedResponse(response, trace, current);
+    }
+
+    /**
+     * Close the underlying transport.
+     * @throws IOException if the underlying transport cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        DELEGATE.close();
+    }
+
+    /**
+     * Report a finished call to each listener.
+     * @param trace The finished call.
+     * @param current The listeners registered when the call started.
+     */
+    private static void complete(CallTrace trace, BlipCallListener[] current) {
+        trace.totalNanos = System.nanoTime() - trace.START_NANOS;
+        BlipCallEvent event = new BlipCallEvent(trace);
+
+        for (BlipCallListener listener : current) {
+            try {
+                listener.onCallCompleted(event);
+            } catch (RuntimeException e) {
+                // A faulty listener must not fail the call or stop the other listeners.
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes of a request body as they are written.
+     */
+    private static class CountingBody extends RequestBody {
+
+        private final RequestBody BODY;
+        private final CallTrace TRACE;
+
+        private CountingBody(RequestBody body, CallTrace trace) {
+            BODY = body;
+            TRACE = trace;
+        }
+
+        @Override
+        public long getContentLength() {
+            return BODY.getContentLength();
+        }
+
+        @Override
+        public String getContentType() {
+            return BODY.getContentType();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return BODY.isRepeatable();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            // Count only the last attempt if the body is written more than once
+            TRACE.bytesSent = 0;
+            BODY.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    TRACE.bytesSent++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    TRACE.bytesSent += len;
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts the bytes of a response body as they are read and reports the call when the response is closed.
+     */
+    private static class InstrumentedResponse implements TransportResponse {
+
+        private final TransportResponse RESPONSE;
+        private final CallTrace TRACE;
+        private final BlipCallListener[] LISTENERS;
+        private boolean closed = false;
+
+        private InstrumentedResponse(TransportResponse response, CallTrace trace, BlipCallListener[] listeners) {
+            RESPONSE = response;
+            TRACE = trace;
+            LISTENERS = listeners;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return RESPONSE.getStatusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return RESPONSE.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return new FilterInputStream(RESPONSE.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b != -1) {
+                        TRACE.bytesReceived++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = in.read(b, off, len);
+                    if (n > 0) {
+                        TRACE.bytesReceived += n;
+                    }
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                RESPONSE.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    complete(TRACE, LISTENERS);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the records in a JSON list response, parsing one record at a time as it arrives on the connection.
+ * The records are the elements of the top-level array, or of the first array-valued property when the response is
+ * an object. The underlying connection is released when the last record has been read or the iterator is closed.
+ * @param <T> The record type.
+ */
+public class JsonRecordIterator<T> implements Iterator<T>, Closeable {
+
+    private final BlipStreamingResponse RESPONSE;
+    private final JsonReader READER;
+    private final JsonParser PARSER = new JsonParser();
+    private final Function<JsonElement, T> CONVERTER;
+    private boolean open = true;
+
+    /**
+     * The JsonRecordIterator constructor.
+     * @param response A streaming response whose body is a JSON list.
+     * @param converter Converts each parsed record to the record type.
+     * @throws BlipException if the response has an error status.
+     * @throws IOException if the body cannot be read.
+     */
+    JsonRecordIterator(BlipStreamingResponse response, Function<JsonElement, T> converter) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new BlipException(response.toBlipResponse());
+        }
+
+        RESPONSE = response;
+        READER = new JsonReader(response.getReader());
+        CONVERTER = converter;
+
+        try {
+            if (!seekToRecords(READER)) {
+                close();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Whether or not another record is available.
+     * @throws UncheckedIOException if the body cannot be read.
+     */
+    @Override
+    public boolean hasNext() {
+        if (!open) {
+            return false;
+        }
+
+        try {
+            if (READER.hasNext()) {
+                return true;
+            }
+            close();
+            return false;
+        } catch (IOException e) {
+            closeQuietly();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The next record.
+     * @throws NoSuchElementException if there are no more records.
+     * @throws UncheckedIOException if the body cannot be read.
+     */
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            return CONVERTER.apply(PARSER.parse(READER));
+        } catch (RuntimeException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the remaining records as a sequential Stream. Closing the stream closes this iterator.
+     * @return A Stream of records.
+     */
+    public Stream<T> stream() {
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(this::closeQuietly);
+    }
+
+    /**
+     * Stop reading and release the connection.
+     * @throws IOException if the connection cannot be released.
+     */
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            RESPONSE.close();
+        }
+    }
+
+    /**
+     * Position a reader at the first record of a JSON list response.
+     * @param reader A reader at the start of the response.
+     * @return Whether or not a list was found.
+     * @throws IOException if the body cannot be read.
+     */
+    static boolean seekToRecords(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+
+        if (token == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            return true;
+        }
+
+        if (token == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                reader.nextName();
+
+                if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    return true;
+                }
+
+                reader.skipValue();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Close without reporting failures, for use on paths that are already failing or cannot throw.
+     */
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            // The connection is discarded either way.
+        }
+    }
+}
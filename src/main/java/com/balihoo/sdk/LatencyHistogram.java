@@ -0,0 +1,115 @@
+package com.balihoo.sdk;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values such as latencies in nanoseconds.
+ * Values are counted in log-linear buckets: each power of two is split into 32 sub-buckets, so a recorded value is
+ * reported with a relative error of at most about 3% while the histogram has a fixed size of under 16KB.
+ * Recording never allocates or blocks.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray COUNTS = new AtomicLongArray(BUCKETS);
+    private final AtomicLong COUNT = new AtomicLong();
+    private final AtomicLong SUM = new AtomicLong();
+    private final AtomicLong MAX = new AtomicLong();
+
+    /**
+     * Record a value.
+     * @param value The value to record. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        COUNTS.incrementAndGet(bucketIndex(v));
+        COUNT.incrementAndGet();
+        SUM.addAndGet(v);
+
+        long max;
+        while (v > (max = MAX.get()) && !MAX.compareAndSet(max, v)) {
+            // another thread raised the maximum; re-check against it
+        }
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return COUNT.get();
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if none has been.
+     */
+    public long getMax() {
+        return MAX.get();
+    }
+
+    /**
+     * @return The mean of the values recorded, or 0 if none has been.
+     */
+    public double getMean() {
+        long count = COUNT.get();
+
+        return count == 0 ? 0 : (double) SUM.get() / count;
+    }
+
+    /**
+     * Estimate a percentile of the recorded values.
+     * @param percentile The percentile, from 0 to 100 (e.g. 99.9).
+     * @return The upper bound of the bucket containing the percentile, or 0 if no value has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = COUNT.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += COUNTS.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), MAX.get());
+            }
+        }
+
+        return MAX.get();
+    }
+
+    /**
+     * @param value A non-negative value.
+     * @return The index of the bucket that counts the value.
+     */
+    private static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @param index A bucket index.
+     * @return The largest value counted by the bucket.
+     */
+    private static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,268 @@
+package com.balihoo.sdk;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only, memory-mapped index of locationKey to content digest, sorted by key.
+ * The file holds a header (magic number and entry count) followed by one entry per location:
+ * [unsigned short key length][UTF-8 key][16 byte digest]. Only an int offset per entry is kept on the heap, and
+ * lookups binary search the mapped file without decoding keys.
+ */
+class LocationDigestIndex implements Closeable {
+
+    static final int DIGEST_LENGTH = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x424c4458;
+    private static final int HEADER_LENGTH = 8;
+
+    private final FileChannel CHANNEL;
+    private final ByteBuffer BUFFER;
+    private final int[] OFFSETS;
+
+    /**
+     * Open an index file, or an empty index if the file does not exist.
+     * @param file The index file.
+     * @throws IOException if the file cannot be read or is not an index.
+     */
+    LocationDigestIndex(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            CHANNEL = null;
+            BUFFER = ByteBuffer.allocate(HEADER_LENGTH);
+            OFFSETS = new int[0];
+            return;
+        }
+
+        CHANNEL = FileChannel.open(file, StandardOpenOption.READ);
+        if (CHANNEL.size() > Integer.MAX_VALUE) {
+            CHANNEL.close();
+            throw new IOException("Index file is larger than 2GB: " + file);
+        }
+
+        MappedByteBuffer buffer = CHANNEL.map(FileChannel.MapMode.READ_ONLY, 0, CHANNEL.size());
+        if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+            CHANNEL.close();
+            throw new IOException("Not a location digest index: " + file);
+        }
+
+        BUFFER = buffer;
+        OFFSETS = new int[buffer.getInt(4)];
+
+        int offset = HEADER_LENGTH;
+        for (int i = 0; i < OFFSETS.length; i++) {
+            OFFSETS[i] = offset;
+            offset += 2 + (buffer.getShort(offset) & 0xffff) + DIGEST_LENGTH;
+        }
+    }
+
+    /**
+     * @return The number of entries in the index.
+     */
+    int size() {
+        return OFFSETS.length;
+    }
+
+    /**
+     * Find a key.
+     * @param key The UTF-8 encoded locationKey.
+     * @return The position of the key in the index, or -1 if it is not present.
+     */
+    int find(byte[] key) {
+        int low = 0;
+        int high = OFFSETS.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareKey(mid, key);
+
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param position A position in the index.
+     * @return The UTF-8 encoded key at the position.
+     */
+    byte[] keyBytes(int position) {
+        int offset = OFFSETS[position];
+        byte[] key = new byte[BUFFER.getShort(offset) & 0xffff];
+
+        for (int i = 0; i < key.length; i++) {
+            key[i] = BUFFER.get(offset + 2 + i);
+        }
+
+        return key;
+    }
+
+    /**
+     * @param position A position in the index.
+     * @return The locationKey at the position.
+     */
+    String key(int position) {
+        return new String(keyBytes(position), UTF_8);
+    }
+
+    /**
+     * @param position A position in the index.
+     * @return The digest stored for the key at the position.
+     */
+    byte[] digest(int position) {
+        int offset = OFFSETS[position];
+        int digestOffset = offset + 2 + (BUFFER.getShort(offset) & 0xffff);
+        byte[] digest = new byte[DIGEST_LENGTH];
+
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            digest[i] = BUFFER.get(digestOffset + i);
+        }
+
+        return digest;
+    }
+
+    /**
+     * @param position A position in the index.
+     * @param digest A digest to compare.
+     * @return Whether or not the digest stored at the position is the same.
+     */
+    boolean digestEquals(int position, byte[] digest) {
+        int offset = OFFSETS[position];
+        int digestOffset = offset + 2 + (BUFFER.getShort(offset) & 0xffff);
+
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (BUFFER.get(digestOffset + i) != digest[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Unmap the index file.
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (CHANNEL != null) {
+            CHANNEL.close();
+        }
+    }
+
+    /**
+     * Compare the key at a position with another key, byte by byte as unsigned values.
+     * @param position A position in the index.
+     * @param key The UTF-8 encoded key to compare with.
+     * @return A negative number, zero or a positive number as the key at the position sorts before, the same as or
+     *         after the other key.
+     */
+    private int compareKey(int position, byte[] key) {
+        int offset = OFFSETS[position];
+        int length = BUFFER.getShort(offset) & 0xffff;
+        int common = Math.min(length, key.length);
+
+        for (int i = 0; i < common; i++) {
+            int difference = (BUFFER.get(offset + 2 + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return length - key.length;
+    }
+
+    /**
+     * Compare two UTF-8 encoded keys in index order.
+     * @param a A key.
+     * @param b Another key.
+     * @return A negative number, zero or a positive number as a sorts before, the same as or after b.
+     */
+    static int compareKeys(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return a.length - b.length;
+    }
+
+    /**
+     * Writes a new index file. Entries must be added in key order.
+     */
+    static class Writer implements Closeable {
+
+        private final Path FILE;
+        private final DataOutputStream OUT;
+        private byte[] lastKey;
+        private int count = 0;
+
+        /**
+         * The Writer constructor.
+         * @param file The file to write. It is created or truncated.
+         * @throws IOException if the file cannot be opened.
+         */
+        Writer(Path file) throws IOException {
+            FILE = file;
+            OUT = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+            OUT.writeInt(MAGIC);
+            OUT.writeInt(0);
+        }
+
+        /**
+         * Add an entry.
+         * @param key The UTF-8 encoded locationKey.
+         * @param digest The content digest.
+         * @throws IOException if the entry cannot be written or is out of order.
+         */
+        void add(byte[] key, byte[] digest) throws IOException {
+            if (key.length > 0xffff) {
+                throw new IOException("locationKey is too long to index");
+            }
+
+            if (lastKey != null && compareKeys(lastKey, key) >= 0) {
+                throw new IOException("Index entries must be added in key order");
+            }
+
+            OUT.writeShort(key.length);
+            OUT.write(key);
+            OUT.write(digest, 0, DIGEST_LENGTH);
+            lastKey = key;
+            count++;
+        }
+
+        /**
+         * Write the entry count and close the file.
+         * @throws IOException if the file cannot be written.
+         */
+        @Override
+        public void close() throws IOException {
+            OUT.close();
+
+            try (RandomAccessFile file = new RandomAccessFile(FILE.toFile(), "rw")) {
+                file.seek(4);
+                file.writeInt(count);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.balihoo.sdk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps an in-memory LocationKeySet of each tracked brand's locationKeys and refreshes it in the background.
+ * Each refresh streams the brand's keys from getLocationKeys straight into a new prefix-compressed set, compares it
+ * with the previous one and publishes it, so readers always see a complete snapshot without taking a lock, and
+ * listeners only hear about the keys that were added or removed. A refresh that fails keeps the last snapshot.
+ * <pre>
+ *     try (LocationKeyIndex index = new LocationKeyIndex(blip, "universal")) {
+ *         index.track("mybrand", 60000, (brandKey, diff, keys) -&gt; reconcile(diff.ADDED, diff.REMOVED));
+ *         ...
+ *         if (index.get("mybrand").contains(locationKey)) { ... }
+ *     }
+ * </pre>
+ */
+public class LocationKeyIndex implements Closeable {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    /**
+     * Receives the changes found by each refresh of a tracked brand.
+     * Called from the refresh thread, so implementations should not block.
+     */
+    public interface Listener {
+
+        /**
+         * @param brandKey The brand that was refreshed.
+         * @param diff The keys added and removed since the last snapshot.
+         * @param keys The new snapshot.
+         */
+        void onChange(String brandKey, LocationKeySet.Diff diff, LocationKeySet keys);
+
+        /**
+         * @param brandKey The brand that could not be refreshed.
+         * @param error The reason the refresh failed.
+         */
+        default void onError(String brandKey, Exception error) {
+        }
+    }
+
+    private final Blip BLIP;
+    private final String PROJECTION;
+    private final ScheduledExecutorService TIMER;
+    private final Map<String, LocationKeySet> SNAPSHOTS = new ConcurrentHashMap<>();
+    private final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+    private final Map<String, ScheduledFuture<?>> TRACKED = new ConcurrentHashMap<>();
+
+    /**
+     * The LocationKeyIndex constructor.
+     * @param blip The client used to fetch locationKeys.
+     * @param projection The data projection on which to filter locationKeys.
+     */
+    public LocationKeyIndex(Blip blip, String projection) {
+        BLIP = blip;
+        PROJECTION = projection;
+        int pool = POOL_NUMBER.incrementAndGet();
+        TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blip-key-index-" + pool);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the latest snapshot of a brand's locationKeys. Never blocks.
+     * @param brandKey The unique identifier for a single brand.
+     * @return The snapshot, or null if the brand has not been refreshed yet.
+     */
+    public LocationKeySet get(String brandKey) {
+        return SNAPSHOTS.get(brandKey);
+    }
+
+    /**
+     * Fetch a brand's locationKeys now and publish them as its new snapshot.
+     * Concurrent refreshes of the same brand run one at a time.
+     * @param brandKey The unique identifier for a single brand.
+     * @return The keys added and removed since the last snapshot. Every key is added on the first refresh.
+     * @throws BlipException if BLIP responds with an error status.
+     * @throws IOException if the keys cannot be fetched.
+     */
+    public LocationKeySet.Diff refresh(String brandKey) throws IOException {
+        synchronized (LOCKS.computeIfAbsent(brandKey, key -> new Object())) {
+            LocationKeySet keys;
+
+            try (JsonRecordIterator<String> iterator = BLIP.iterateLocationKeys(brandKey, PROJECTION)) {
+                keys = LocationKeySet.of(iterator);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            LocationKeySet previous = SNAPSHOTS.put(brandKey, keys);
+
+            return (previous == null ? LocationKeySet.EMPTY : previous).diff(keys);
+        }
+    }
+
+    /**
+     * Refresh a brand now and then periodically in the background, replacing any earlier schedule for it.
+     * @param brandKey The unique identifier for a single brand.
+     * @param periodMillis The time between the end of one refresh and the start of the next.
+     * @param listener Receives the changes found by each refresh that finds any, or null.
+     */
+    public void track(String brandKey, long periodMillis, Listener listener) {
+        ScheduledFuture<?> previous = TRACKED.put(brandKey, TIMER.scheduleWithFixedDelay(() -> {
+            try {
+                LocationKeySet.Diff diff = refresh(brandKey);
+
+                if (listener != null && !diff.isEmpty()) {
+                    listener.onChange(brandKey, diff, get(brandKey));
+                }
+            } catch (IOException | RuntimeException e) {
+                if (listener != null) {
+                    listener.onError(brandKey, e);
+                }
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS));
+
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    /**
+     * Stop refreshing a brand in the background. Its last snapshot is kept.
+     * @param brandKey The unique identifier for a single brand.
+     */
+    public void untrack(String brandKey) {
+        ScheduledFuture<?> tracked = TRACKED.remove(brandKey);
+
+        if (tracked != null) {
+            tracked.cancel(false);
+        }
+    }
+
+    /**
+     * Stop all background refreshes. The Blip is not closed.
+     */
+    @Override
+    public void close() {
+        TRACKED.clear();
+        TIMER.shutdownNow();
+    }
+}
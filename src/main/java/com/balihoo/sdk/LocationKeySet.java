@@ -0,0 +1,522 @@
+package com.balihoo.sdk;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, sorted set of locationKeys stored in a compact, prefix-compressed form.
+ * Keys are kept in UTF-8 byte order in a single byte array, in blocks of BLOCK_SIZE keys. The first key of a block
+ * is stored in full and every other key as the length of the prefix it shares with the key before it plus the
+ * rest of its bytes, so keys with common prefixes (e.g. "store-000123") take a few bytes each. Membership tests
+ * binary search the first keys of the blocks and then scan a single block. Unions, intersections and differences
+ * merge two sets in one pass without decoding them into Strings.
+ * Sets are safe to share between threads.
+ */
+public final class LocationKeySet implements Iterable<String> {
+
+    public static final LocationKeySet EMPTY = new LocationKeySet(new byte[0], new int[0], 0, 0);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BLOCK_SIZE = 16;
+
+    private final byte[] DATA;
+    private final int[] BLOCKS;
+    private final int SIZE;
+    private final int MAX_KEY_LENGTH;
+
+    /**
+     * The LocationKeySet constructor.
+     * @param data The encoded keys.
+     * @param blocks The offset of each block in data.
+     * @param size The number of keys.
+     * @param maxKeyLength The length of the longest UTF-8 encoded key.
+     */
+    private LocationKeySet(byte[] data, int[] blocks, int size, int maxKeyLength) {
+        DATA = data;
+        BLOCKS = blocks;
+        SIZE = size;
+        MAX_KEY_LENGTH = maxKeyLength;
+    }
+
+    /**
+     * Build a set from keys in any order. Duplicates are dropped.
+     * @param keys The locationKeys.
+     * @return The set.
+     */
+    public static LocationKeySet of(Iterable<String> keys) {
+        return of(keys.iterator());
+    }
+
+    /**
+     * Build a set from keys in any order, such as the iterator returned by Blip.iterateLocationKeys.
+     * Duplicates are dropped.
+     * @param keys The locationKeys.
+     * @return The set.
+     */
+    public static LocationKeySet of(Iterator<String> keys) {
+        List<byte[]> encoded = new ArrayList<>();
+        while (keys.hasNext()) {
+            encoded.add(keys.next().getBytes(UTF_8));
+        }
+
+        byte[][] sorted = encoded.toArray(new byte[encoded.size()][]);
+        Arrays.sort(sorted, LocationDigestIndex::compareKeys);
+        Encoder encoder = new Encoder(sorted.length);
+
+        for (byte[] key : sorted) {
+            encoder.add(key);
+        }
+
+        return encoder.build();
+    }
+
+    /**
+     * @return The number of keys in the set.
+     */
+    public int size() {
+        return SIZE;
+    }
+
+    /**
+     * @return Whether or not the set has no keys.
+     */
+    public boolean isEmpty() {
+        return SIZE == 0;
+    }
+
+    /**
+     * @return The number of bytes used to store the keys.
+     */
+    public long getEncodedSize() {
+        return DATA.length + 4L * BLOCKS.length;
+    }
+
+    /**
+     * @param locationKey A locationKey.
+     * @return Whether or not the key is in the set.
+     */
+    public boolean contains(String locationKey) {
+        if (SIZE == 0) {
+            return false;
+        }
+
+        byte[] key = locationKey.getBytes(UTF_8);
+        int block = findBlock(key);
+
+        if (block < 0) {
+            return false;
+        }
+
+        Cursor cursor = new Cursor(this, block);
+        int end = Math.min(SIZE, (block + 1) * BLOCK_SIZE);
+
+        for (int i = block * BLOCK_SIZE; i < end; i++) {
+            cursor.advance();
+            int comparison = cursor.compareTo(key);
+
+            if (comparison == 0) {
+                return true;
+            } else if (comparison > 0) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param other Another set.
+     * @return The keys in either set.
+     */
+    public LocationKeySet union(LocationKeySet other) {
+        return merge(this, other, true, true, true);
+    }
+
+    /**
+     * @param other Another set.
+     * @return The keys in both sets.
+     */
+    public LocationKeySet intersect(LocationKeySet other) {
+        return merge(this, other, false, true, false);
+    }
+
+    /**
+     * @param other Another set.
+     * @return The keys in this set that are not in the other set.
+     */
+    public LocationKeySet minus(LocationKeySet other) {
+        return merge(this, other, true, false, false);
+    }
+
+    /**
+     * Compare this set with a newer version of it.
+     * @param newer The newer set.
+     * @return The keys added and removed in the newer set.
+     */
+    public Diff diff(LocationKeySet newer) {
+        return new Diff(newer.minus(this), minus(newer));
+    }
+
+    /**
+     * @return The keys in UTF-8 byte order, decoded one at a time.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        final Cursor cursor = new Cursor(this, 0);
+
+        return new Iterator<String>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < SIZE;
+            }
+
+            @Override
+            public String next() {
+                if (position++ >= SIZE) {
+                    throw new NoSuchElementException();
+                }
+                cursor.advance();
+
+                return new String(cursor.KEY, 0, cursor.length, UTF_8);
+            }
+        };
+    }
+
+    /**
+     * @param o Another object.
+     * @return Whether or not the other object is a set with the same keys.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LocationKeySet)) {
+            return false;
+        }
+
+        LocationKeySet other = (LocationKeySet) o;
+
+        // The encoding of a set of keys is unique
+        return SIZE == other.SIZE && Arrays.equals(DATA, other.DATA);
+    }
+
+    /**
+     * @return A hash of the keys.
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(DATA);
+    }
+
+    /**
+     * Find the block that would hold a key.
+     * @param key A UTF-8 encoded key.
+     * @return The last block whose first key sorts at or before the key, or -1 if the key sorts before every key.
+     */
+    private int findBlock(byte[] key) {
+        int low = 0;
+        int high = BLOCKS.length - 1;
+        int found = -1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (compareFirstKey(mid, key) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Compare the first key of a block with another key, without decoding it.
+     * @param block A block.
+     * @param key A UTF-8 encoded key.
+     * @return A negative number, zero or a positive number as the block's first key sorts before, the same as or
+     *         after the key.
+     */
+    private int compareFirstKey(int block, byte[] key) {
+        int[] position = {BLOCKS[block]};
+        int length = readVarInt(DATA, position);
+        int common = Math.min(length, key.length);
+
+        for (int i = 0; i < common; i++) {
+            int difference = (DATA[position[0] + i] & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return length - key.length;
+    }
+
+    /**
+     * Merge two sets in one pass.
+     * @param a A set.
+     * @param b Another set.
+     * @param onlyA Whether to keep keys that are only in a.
+     * @param both Whether to keep keys that are in both sets.
+     * @param onlyB Whether to keep keys that are only in b.
+     * @return The merged set.
+     */
+    private static LocationKeySet merge(LocationKeySet a, LocationKeySet b, boolean onlyA, boolean both,
+                                        boolean onlyB) {
+        Cursor left = new Cursor(a, 0);
+        Cursor right = new Cursor(b, 0);
+        Encoder encoder = new Encoder(a.SIZE + b.SIZE);
+        int i = 0;
+        int j = 0;
+        boolean leftReady = false;
+        boolean rightReady = false;
+
+        while (i < a.SIZE || j < b.SIZE) {
+            if (!leftReady && i < a.SIZE) {
+                left.advance();
+                leftReady = true;
+            }
+            if (!rightReady && j < b.SIZE) {
+                right.advance();
+                rightReady = true;
+            }
+
+            int comparison = !leftReady ? 1 : !rightReady ? -1 : left.compareTo(right.KEY, right.length);
+
+            if (comparison < 0) {
+                if (onlyA) {
+                    encoder.add(left.KEY, left.length);
+                }
+                leftReady = false;
+                i++;
+            } else if (comparison > 0) {
+                if (onlyB) {
+                    encoder.add(right.KEY, right.length);
+                }
+                rightReady = false;
+                j++;
+            } else {
+                if (both) {
+                    encoder.add(left.KEY, left.length);
+                }
+                leftReady = false;
+                rightReady = false;
+                i++;
+                j++;
+            }
+        }
+
+        return encoder.build();
+    }
+
+    /**
+     * @param data Encoded keys.
+     * @param position A one-element array holding the offset to read from, which is advanced past the value.
+     * @return The unsigned variable-length int at the offset.
+     */
+    private static int readVarInt(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = data[position[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        return value;
+    }
+
+    /**
+     * The keys added and removed between two versions of a set.
+     */
+    public static final class Diff {
+
+        public final LocationKeySet ADDED;
+        public final LocationKeySet REMOVED;
+
+        /**
+         * The Diff constructor.
+         * @param added The keys only in the newer set.
+         * @param removed The keys only in the older set.
+         */
+        private Diff(LocationKeySet added, LocationKeySet removed) {
+            ADDED = added;
+            REMOVED = removed;
+        }
+
+        /**
+         * @return Whether or not the two sets have the same keys.
+         */
+        public boolean isEmpty() {
+            return ADDED.isEmpty() && REMOVED.isEmpty();
+        }
+    }
+
+    /**
+     * Decodes the keys of a set in order, starting from a block, into a reusable buffer.
+     */
+    private static class Cursor {
+
+        private final LocationKeySet SET;
+        private final byte[] KEY;
+        private final int[] POSITION = new int[1];
+        private int index;
+        private int length;
+
+        private Cursor(LocationKeySet set, int block) {
+            SET = set;
+            KEY = new byte[set.MAX_KEY_LENGTH];
+            index = block * BLOCK_SIZE;
+            POSITION[0] = set.BLOCKS.length == 0 ? 0 : set.BLOCKS[block];
+        }
+
+        /**
+         * Decode the next key.
+         */
+        private void advance() {
+            int shared = index % BLOCK_SIZE == 0 ? 0 : readVarInt(SET.DATA, POSITION);
+            int suffix = readVarInt(SET.DATA, POSITION);
+            System.arraycopy(SET.DATA, POSITION[0], KEY, shared, suffix);
+            POSITION[0] += suffix;
+            length = shared + suffix;
+            index++;
+        }
+
+        /**
+         * @param key A UTF-8 encoded key.
+         * @return How the current key compares with the other key.
+         */
+        private int compareTo(byte[] key) {
+            return compareTo(key, key.length);
+        }
+
+        /**
+         * @param key A buffer holding a UTF-8 encoded key.
+         * @param keyLength The length of the key in the buffer.
+         * @return How the current key compares with the other key.
+         */
+        private int compareTo(byte[] key, int keyLength) {
+            int common = Math.min(length, keyLength);
+
+            for (int i = 0; i < common; i++) {
+                int difference = (KEY[i] & 0xff) - (key[i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+
+            return length - keyLength;
+        }
+    }
+
+    /**
+     * Prefix-compresses keys that are added in sorted order.
+     */
+    private static class Encoder {
+
+        private final int[] BLOCKS;
+        private byte[] data = new byte[64];
+        private int size = 0;
+        private int count = 0;
+        private int maxKeyLength = 0;
+        private byte[] previous = new byte[0];
+        private int previousLength = -1;
+
+        /**
+         * @param capacity The most keys that will be added.
+         */
+        private Encoder(int capacity) {
+            BLOCKS = new int[(capacity + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        }
+
+        /**
+         * @param key A UTF-8 encoded key.
+         */
+        private void add(byte[] key) {
+            add(key, key.length);
+        }
+
+        /**
+         * Add a key, dropping it if it repeats the key before it.
+         * @param key A buffer holding a UTF-8 encoded key that sorts at or after the key before it.
+         * @param length The length of the key in the buffer.
+         */
+        private void add(byte[] key, int length) {
+            int shared = 0;
+            int limit = Math.min(length, previousLength);
+
+            while (shared < limit && key[shared] == previous[shared]) {
+                shared++;
+            }
+
+            if (shared == length && length == previousLength) {
+                return;
+            }
+
+            ensureCapacity(10 + length);
+
+            if (count % BLOCK_SIZE == 0) {
+                BLOCKS[count / BLOCK_SIZE] = size;
+                shared = 0;
+            } else {
+                writeVarInt(shared);
+            }
+
+            writeVarInt(length - shared);
+            System.arraycopy(key, shared, data, size, length - shared);
+            size += length - shared;
+
+            if (previous.length < length) {
+                previous = new byte[Math.max(length, previous.length * 2)];
+            }
+            System.arraycopy(key, 0, previous, 0, length);
+            previousLength = length;
+            maxKeyLength = Math.max(maxKeyLength, length);
+            count++;
+        }
+
+        /**
+         * @return The set of the keys added.
+         */
+        private LocationKeySet build() {
+            if (count == 0) {
+                return EMPTY;
+            }
+
+            int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+            return new LocationKeySet(Arrays.copyOf(data, size), Arrays.copyOf(BLOCKS, blocks), count, maxKeyLength);
+        }
+
+        /**
+         * @param value An unsigned int to append.
+         */
+        private void writeVarInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                data[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        /**
+         * @param extra The number of bytes about to be written.
+         */
+        private void ensureCapacity(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(size + extra, data.length * 2));
+            }
+        }
+    }
+}
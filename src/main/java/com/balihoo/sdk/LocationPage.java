@@ -0,0 +1,30 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonObject;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single page of queryLocations results returned by a LocationQueryCursor.
+ */
+public class LocationPage {
+
+    public final int PAGE_NUMBER;
+    public final List<JsonObject> LOCATIONS;
+    public final long FETCH_NANOS;
+    public final long WAIT_NANOS;
+
+    /**
+     * The LocationPage constructor.
+     * @param pageNumber The page index starting from page 0.
+     * @param locations The locations on the page.
+     * @param fetchNanos The time taken to request, receive and parse the page.
+     * @param waitNanos The time the consumer spent blocked waiting for the page. Zero when it was already prefetched.
+     */
+    public LocationPage(int pageNumber, List<JsonObject> locations, long fetchNanos, long waitNanos) {
+        PAGE_NUMBER = pageNumber;
+        LOCATIONS = Collections.unmodifiableList(locations);
+        FETCH_NANOS = fetchNanos;
+        WAIT_NANOS = waitNanos;
+    }
+}
@@ -0,0 +1,298 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A queryLocations request: the filters, view, page and sort order.
+ * The request body is written with a streaming JSON writer, so field names and values are always escaped correctly.
+ * A query that is sent many times with different page numbers or filter values should be prepared once, which
+ * encodes everything but those values up front.
+ * <pre>
+ *     LocationQuery query = new LocationQuery()
+ *             .where("document.address.state", "ID")
+ *             .whereParameter("document.address.city", "city")
+ *             .view("full")
+ *             .sort("name", "asc");
+ *     PreparedQuery prepared = query.prepare(500);
+ *
+ *     BlipResponse page = blip.queryLocations("mybrand", prepared, 0, Collections.singletonMap("city", "Boise"));
+ * </pre>
+ * A LocationQuery is not safe for concurrent use; a PreparedQuery is.
+ */
+public class LocationQuery {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String PLACEHOLDER = "null";
+
+    private final String RAW_QUERY;
+    private final Map<String, Object> FILTERS = new LinkedHashMap<>();
+    private final ByteArrayOutputStream BUFFER = new ByteArrayOutputStream(256);
+    private String view = "full";
+    private Integer pageSize;
+    private Integer pageNumber;
+    private String sortColumn;
+    private String sortDirection;
+
+    /**
+     * LocationQuery constructor for a query built from filters. With no filters, every location matches.
+     */
+    public LocationQuery() {
+        RAW_QUERY = null;
+    }
+
+    /**
+     * LocationQuery constructor for a query written in the BLIP query language. Filters cannot be added to it.
+     * @param rawQuery A stringified JSON query used to filter locations in BLIP.
+     */
+    public LocationQuery(String rawQuery) {
+        RAW_QUERY = rawQuery == null ? "null" : rawQuery;
+    }
+
+    /**
+     * Match locations whose field has a value.
+     * @param field The field to filter on, e.g. "document.address.state".
+     * @param value The value to match.
+     * @return This query.
+     */
+    public LocationQuery where(String field, String value) {
+        return addFilter(field, value);
+    }
+
+    /**
+     * Match locations whose field has a value.
+     * @param field The field to filter on.
+     * @param value The value to match.
+     * @return This query.
+     */
+    public LocationQuery where(String field, Number value) {
+        return addFilter(field, value);
+    }
+
+    /**
+     * Match locations whose field has a value.
+     * @param field The field to filter on.
+     * @param value The value to match.
+     * @return This query.
+     */
+    public LocationQuery where(String field, boolean value) {
+        return addFilter(field, value);
+    }
+
+    /**
+     * Match locations whose field satisfies a condition, e.g. an operator object in the BLIP query language.
+     * @param field The field to filter on.
+     * @param condition The JSON value or condition to match.
+     * @return This query.
+     */
+    public LocationQuery where(String field, JsonElement condition) {
+        return addFilter(field, condition);
+    }
+
+    /**
+     * Match locations whose field has a value that is supplied each time a prepared query is encoded.
+     * @param field The field to filter on.
+     * @param parameter The name the value is supplied under.
+     * @return This query.
+     */
+    public LocationQuery whereParameter(String field, String parameter) {
+        return addFilter(field, new Parameter(parameter));
+    }
+
+    /**
+     * @param view The name of the view to return. Defaults to "full".
+     * @return This query.
+     */
+    public LocationQuery view(String view) {
+        this.view = view == null ? "full" : view;
+        return this;
+    }
+
+    /**
+     * @param pageSize The number of results to include in each page of results.
+     * @param pageNumber The page index to return starting from page 0.
+     * @return This query.
+     */
+    public LocationQuery page(int pageSize, int pageNumber) {
+        this.pageSize = pageSize;
+        this.pageNumber = pageNumber;
+        return this;
+    }
+
+    /**
+     * @param column The column by which to sort results. ('name' or 'locationKey' -- defaults to 'locationKey').
+     * @param direction The direction to sort results. ('asc' or 'desc' -- defaults to 'asc').
+     * @return This query.
+     */
+    public LocationQuery sort(String column, String direction) {
+        sortColumn = column;
+        sortDirection = direction;
+        return this;
+    }
+
+    /**
+     * Encode the request body.
+     * @return The UTF-8 encoded JSON request body.
+     * @throws IllegalStateException if the query has parameters, which are only supplied to a prepared query.
+     */
+    public byte[] toBytes() {
+        return compile(false).encode(0, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Encode the query once for reuse. Only the page number and parameter values are encoded per request.
+     * @param pageSize The number of results to include in each page of results.
+     * @return The prepared query.
+     */
+    public PreparedQuery prepare(int pageSize) {
+        Integer previousSize = this.pageSize;
+        this.pageSize = pageSize;
+
+        try {
+            return compile(true);
+        } finally {
+            this.pageSize = previousSize;
+        }
+    }
+
+    /**
+     * Add a filter.
+     * @param field The field to filter on.
+     * @param value The value to match.
+     * @return This query.
+     */
+    private LocationQuery addFilter(String field, Object value) {
+        if (RAW_QUERY != null) {
+            throw new IllegalStateException("Filters cannot be added to a raw query");
+        }
+
+        FILTERS.put(field, value);
+        return this;
+    }
+
+    /**
+     * Write the request body into the reusable buffer, splitting it around the values that are supplied later.
+     * @param preparePage Whether the page number is supplied later.
+     * @return The encoded query.
+     */
+    private PreparedQuery compile(boolean preparePage) {
+        BUFFER.reset();
+        List<Integer> holeOffsets = new ArrayList<>();
+        List<String> holeNames = new ArrayList<>();
+
+        try {
+            Writer writer = new OutputStreamWriter(BUFFER, UTF_8);
+            JsonWriter json = new JsonWriter(writer);
+
+            json.beginObject();
+            json.name("query");
+            if (RAW_QUERY != null) {
+                json.jsonValue(RAW_QUERY);
+            } else {
+                json.beginObject();
+                for (Map.Entry<String, Object> filter : FILTERS.entrySet()) {
+                    json.name(filter.getKey());
+                    if (filter.getValue() instanceof Parameter) {
+                        hole(json, holeOffsets);
+                        holeNames.add(((Parameter) filter.getValue()).NAME);
+                    } else {
+                        PreparedQuery.writeValue(json, filter.getValue());
+                    }
+                }
+                json.endObject();
+            }
+            json.name("view").value(view);
+
+            if (sortColumn != null && sortDirection != null) {
+                json.name("sortColumn").value(sortColumn);
+                json.name("sortDirection").value(sortDirection);
+            }
+
+            if (preparePage) {
+                json.name("pageSize").value(pageSize);
+                json.name("pageNumber");
+                hole(json, holeOffsets);
+                holeNames.add(null);
+            } else if (pageSize != null && pageNumber != null) {
+                json.name("pageSize").value(pageSize);
+                json.name("pageNumber").value(pageNumber);
+            }
+
+            json.endObject();
+            json.flush();
+        } catch (IOException e) {
+            // Only thrown by the underlying stream, which is in memory
+            throw new UncheckedIOException(e);
+        }
+
+        if (!preparePage && !holeNames.isEmpty()) {
+            throw new IllegalStateException("Queries with parameters must be prepared");
+        }
+
+        byte[] encoded = BUFFER.toByteArray();
+        if (holeOffsets.isEmpty()) {
+            return new PreparedQuery(new byte[][] {encoded}, new String[0], -1);
+        }
+
+        byte[][] segments = new byte[holeOffsets.size() + 1][];
+        int start = 0;
+
+        for (int i = 0; i < holeOffsets.size(); i++) {
+            segments[i] = copy(encoded, start, holeOffsets.get(i));
+            start = holeOffsets.get(i) + PLACEHOLDER.length();
+        }
+        segments[holeOffsets.size()] = copy(encoded, start, encoded.length);
+
+        return new PreparedQuery(segments, holeNames.toArray(new String[holeNames.size()]),
+                                 preparePage ? pageSize : -1);
+    }
+
+    /**
+     * Write a placeholder value and record where it starts.
+     * @param json The writer, positioned where a value is expected.
+     * @param offsets The offsets of the placeholders written so far.
+     * @throws IOException if the value cannot be written.
+     */
+    private void hole(JsonWriter json, List<Integer> offsets) throws IOException {
+        // The name (and any separator) is only written along with the value, so write the value first
+        json.jsonValue(PLACEHOLDER);
+        json.flush();
+        offsets.add(BUFFER.size() - PLACEHOLDER.length());
+    }
+
+    /**
+     * @param bytes An array.
+     * @param from The first index to copy.
+     * @param to The index after the last one to copy.
+     * @return A copy of the range.
+     */
+    private static byte[] copy(byte[] bytes, int from, int to) {
+        byte[] range = new byte[to - from];
+        System.arraycopy(bytes, from, range, 0, range.length);
+
+        return range;
+    }
+
+    /**
+     * A filter value that is supplied when a prepared query is encoded.
+     */
+    private static class Parameter {
+
+        private final String NAME;
+
+        private Parameter(String name) {
+            NAME = name;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Pages through every result of a BLIP query.
+ * While the caller works on one page, the next pages are already being fetched in the background, so a full export
+ * costs roughly one round trip per prefetchPages pages instead of one per page. Iteration stops after the first page
+ * that has fewer than pageSize locations. Pages are fetched through a BlipAsync, whose in-flight limit applies.
+ */
+public class LocationQueryCursor implements Iterator<LocationPage>, Closeable {
+
+    private final BlipAsync ASYNC;
+    private final String BRAND_KEY;
+    private final PreparedQuery QUERY;
+    private final Map<String, ?> PARAMETERS;
+    private final int PAGE_SIZE;
+    private final Deque<CompletableFuture<LocationPage>> PENDING = new ArrayDeque<>();
+    private int nextPageNumber = 0;
+    private boolean finished = false;
+
+    /**
+     * LocationQueryCursor constructor with the default sort order.
+     * @param async The BlipAsync used to fetch pages.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @param pageSize The number of results to include in each page of results.
+     * @param prefetchPages The number of pages to fetch ahead of the page being consumed.
+     */
+    public LocationQueryCursor(BlipAsync async, String brandKey, String query, String view,
+                               int pageSize, int prefetchPages) {
+        this(async, brandKey, query, view, pageSize, prefetchPages, null, null);
+    }
+
+    /**
+     * LocationQueryCursor constructor. The first pages are requested immediately.
+     * @param async The BlipAsync used to fetch pages.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @param pageSize The number of results to include in each page of results.
+     * @param prefetchPages The number of pages to fetch ahead of the page being consumed.
+     * @param sortColumn The column by which to sort results. ('name' or 'locationKey' -- defaults to 'locationKey').
+     * @param sortDirection The direction to sort results. ('asc' or 'desc' -- defaults to 'asc').
+     */
+    public LocationQueryCursor(BlipAsync async, String brandKey, String query, String view, int pageSize,
+                               int prefetchPages, String sortColumn, String sortDirection) {
+        this(async, brandKey, prepare(query, view, pageSize, sortColumn, sortDirection), null, prefetchPages);
+    }
+
+    /**
+     * LocationQueryCursor constructor for a prepared query. The first pages are requested immediately.
+     * @param async The BlipAsync used to fetch pages.
+     * @param brandKey The unique identifier for a single brand.
+     * @param query The prepared query, whose page size is used.
+     * @param parameters The value of each of the query's parameters, or null if it has none.
+     * @param prefetchPages The number of pages to fetch ahead of the page being consumed.
+     */
+    public LocationQueryCursor(BlipAsync async, String brandKey, PreparedQuery query, Map<String, ?> parameters,
+                               int prefetchPages) {
+        if (query.getPageSize() < 1 || prefetchPages < 0) {
+            throw new IllegalArgumentException("pageSize must be positive and prefetchPages must not be negative");
+        }
+
+        ASYNC = async;
+        BRAND_KEY = brandKey;
+        QUERY = query;
+        PARAMETERS = parameters;
+        PAGE_SIZE = query.getPageSize();
+
+        for (int i = 0; i <= prefetchPages; i++) {
+            requestPage();
+        }
+    }
+
+    /**
+     * @return Whether or not another page is available.
+     */
+    @Override
+    public boolean hasNext() {
+        return !finished;
+    }
+
+    /**
+     * Wait for the next page and request another one in its place.
+     * @return The next page.
+     * @throws NoSuchElementException if the last page has already been returned.
+     * @throws UncheckedIOException if the page cannot be fetched. A BlipException cause carries BLIP's error response.
+     */
+    @Override
+    public LocationPage next() {
+        if (finished) {
+            throw new NoSuchElementException();
+        }
+
+        long start = System.nanoTime();
+        LocationPage page = awaitPage(PENDING.poll());
+        long waitNanos = System.nanoTime() - start;
+
+        if (page.LOCATIONS.size() < PAGE_SIZE) {
+            close();
+        } else {
+            requestPage();
+        }
+
+        return new LocationPage(page.PAGE_NUMBER, page.LOCATIONS, page.FETCH_NANOS, waitNanos);
+    }
+
+    /**
+     * Get the remaining pages as a sequential Stream. Closing the stream closes this cursor.
+     * @return A Stream of pages.
+     */
+    public Stream<LocationPage> stream() {
+        Spliterator<LocationPage> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Get the remaining locations of every page as a sequential Stream.
+     * @return A Stream of location objects.
+     */
+    public Stream<JsonObject> locations() {
+        return stream().flatMap(page -> page.LOCATIONS.stream());
+    }
+
+    /**
+     * Stop paging. Requests for prefetched pages that have not been consumed are aborted.
+     */
+    @Override
+    public void close() {
+        finished = true;
+
+        for (CompletableFuture<LocationPage> pending : PENDING) {
+            pending.cancel(false);
+        }
+
+        PENDING.clear();
+    }
+
+    /**
+     * Request the next unrequested page.
+     */
+    private void requestPage() {
+        int pageNumber = nextPageNumber++;
+        long start = System.nanoTime();
+
+        CompletableFuture<BlipResponse> call = ASYNC.queryLocations(BRAND_KEY, QUERY, pageNumber, PARAMETERS);
+        CompletableFuture<LocationPage> page = call.thenApply(response -> parsePage(pageNumber, response, start));
+
+        // Cancelling a derived future does not reach the call behind it, so pass the cancellation on
+        page.whenComplete((result, error) -> {
+            if (page.isCancelled()) {
+                call.cancel(false);
+            }
+        });
+        PENDING.add(page);
+    }
+
+    /**
+     * Prepare a query given as a String.
+     * @param query A stringified JSON query used to filter locations in BLIP.
+     * @param view The name of the view to return if known. Defaults to "full".
+     * @param pageSize The number of results to include in each page of results.
+     * @param sortColumn The column by which to sort results.
+     * @param sortDirection The direction to sort results.
+     * @return The prepared query.
+     */
+    private static PreparedQuery prepare(String query, String view, int pageSize, String sortColumn,
+                                         String sortDirection) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive and prefetchPages must not be negative");
+        }
+
+        return new LocationQuery(query).view(view).sort(sortColumn, sortDirection).prepare(pageSize);
+    }
+
+    /**
+     * Wait for a requested page, closing the cursor if it failed.
+     * @param future The pending page.
+     * @return The page.
+     */
+    private LocationPage awaitPage(CompletableFuture<LocationPage> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for a page");
+            interrupted.initCause(e);
+            throw new UncheckedIOException(interrupted);
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Parse the locations out of a queryLocations response.
+     * @param pageNumber The page index of the response.
+     * @param response The buffered response.
+     * @param start When the page was requested, from System.nanoTime().
+     * @return The parsed page.
+     */
+    static LocationPage parsePage(int pageNumber, BlipResponse response, long start) {
+        if (response.STATUS_CODE < 200 || response.STATUS_CODE > 299) {
+            throw new UncheckedIOException(new BlipException(response));
+        }
+
+        List<JsonObject> locations = new ArrayList<>();
+
+        try {
+            JsonReader reader = new JsonReader(new StringReader(response.BODY));
+            JsonParser parser = new JsonParser();
+
+            if (JsonRecordIterator.seekToRecords(reader)) {
+                while (reader.hasNext()) {
+                    JsonElement location = parser.parse(reader);
+                    locations.add(location.getAsJsonObject());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new LocationPage(pageNumber, locations, System.nanoTime() - start, 0);
+    }
+}
@@ -0,0 +1,645 @@
+package com.balihoo.sdk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A durable local queue of putLocation and deleteLocation calls for one brand and source, so producers are not held
+ * up when BLIP is slow or unavailable.
+ * Each write is appended to a memory-mapped segment file in a directory and returns as soon as it is in the log.
+ * A background drainer reads the log in order, coalesces repeated writes to the same locationKey within a batch so
+ * only the last one is sent, sends the batch through a BlipAsync (so its in-flight limit applies) and then records
+ * how far it got in a checkpoint file. A batch that fails with an IOException or a retryable status is sent again
+ * after a backoff; other failures are reported to the listener and skipped. Segments are deleted once they have
+ * been drained. Writes that have not been drained when the spool is closed, or when the process dies, are sent when
+ * a spool is next opened on the same directory.
+ * A write survives a crash of the process once put or delete returns, and a crash of the machine once the segment
+ * has been forced to disk, which happens on every drain cycle and when sync() is called.
+ * The spool is safe for use by multiple threads, but only one spool may use a directory at a time.
+ * <pre>
+ *     try (LocationSpool spool = new LocationSpool(async, "mybrand", "mysource", Paths.get("/var/spool/mybrand"))) {
+ *         spool.put("ABC123", "{\"name\":\"Main Street\"}");
+ *     }
+ * </pre>
+ */
+public class LocationSpool implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    public static final long DEFAULT_DRAIN_INTERVAL_MILLIS = 100;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    // Each record is a length, a CRC32 of the payload and the payload itself
+    private static final int HEADER_SIZE = 8;
+    // Written in place of a length when the rest of a segment is unused
+    private static final int END_OF_SEGMENT = -1;
+
+    private final BlipAsync ASYNC;
+    private final String BRAND_KEY;
+    private final String SOURCE;
+    private final Path DIRECTORY;
+    private final int SEGMENT_SIZE;
+    private final int MAX_BATCH_SIZE;
+    private final RetryPolicy POLICY;
+    private final BlipBatchWriter.Listener LISTENER;
+    private final ScheduledExecutorService DRAINER;
+    private final ConcurrentSkipListMap<Long, MappedByteBuffer> SEGMENTS = new ConcurrentSkipListMap<>();
+    private final CRC32 WRITE_CRC = new CRC32();
+    private final CRC32 READ_CRC = new CRC32();
+    private final AtomicLong BACKLOG = new AtomicLong();
+    private final AtomicLong DRAINED = new AtomicLong();
+    private final AtomicLong COALESCED = new AtomicLong();
+    private final AtomicLong FAILED = new AtomicLong();
+    private final Object PROGRESS = new Object();
+
+    // The position after the last record appended, published to the drainer
+    private volatile long written;
+    // The position of the first record that has not been drained
+    private volatile long checkpoint;
+    private volatile long forced;
+    private int attempts = 0;
+    private long retryAtNanos = System.nanoTime();
+    private boolean closed = false;
+
+    /**
+     * LocationSpool constructor with default segment size, batch size, drain interval and retry policy.
+     * @param async The BlipAsync used to send the writes.
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source being used to add/update locations.
+     * @param directory The directory holding the log and checkpoint. It is created if it does not exist.
+     * @throws IOException if the log cannot be opened or recovered.
+     */
+    public LocationSpool(BlipAsync async, String brandKey, String source, Path directory) throws IOException {
+        this(async, brandKey, source, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_BATCH_SIZE,
+             DEFAULT_DRAIN_INTERVAL_MILLIS, RetryPolicy.DEFAULT, null);
+    }
+
+    /**
+     * LocationSpool constructor.
+     * @param async The BlipAsync used to send the writes.
+     * @param brandKey The unique identifier for a single brand.
+     * @param source The unique identifier for the data source being used to add/update locations.
+     * @param directory The directory holding the log and checkpoint. It is created if it does not exist.
+     * @param segmentSize The size of each new segment file in bytes. A write must fit in a single segment.
+     * @param maxBatchSize The most writes read from the log for a single batch, before coalescing.
+     * @param drainIntervalMillis The time between the end of one drain cycle and the start of the next.
+     * @param policy The backoff and retryable statuses used when a batch fails. MAX_ATTEMPTS and DEADLINE_MILLIS
+     *               are ignored: a batch that fails with an IOException or a retryable status is retried until it
+     *               succeeds, so no write is lost to an outage.
+     * @param listener Receives the outcome of every write sent, or null to only update the counters.
+     * @throws IOException if the log cannot be opened or recovered.
+     */
+    public LocationSpool(BlipAsync async, String brandKey, String source, Path directory, int segmentSize,
+                         int maxBatchSize, long drainIntervalMillis, RetryPolicy policy,
+                         BlipBatchWriter.Listener listener) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small");
+        }
+
+        ASYNC = async;
+        BRAND_KEY = brandKey;
+        SOURCE = source;
+        DIRECTORY = directory;
+        SEGMENT_SIZE = segmentSize;
+        MAX_BATCH_SIZE = maxBatchSize;
+        POLICY = policy;
+        LISTENER = listener;
+
+        Files.createDirectories(directory);
+        recover();
+
+        DRAINER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blip-spool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        DRAINER.scheduleWithFixedDelay(this::drain, 0, drainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append a location to be added or updated.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param locationData The stringified JSON location document.
+     * @throws IllegalArgumentException if the write does not fit in a segment.
+     * @throws IOException if the spool is closed or a new segment cannot be created.
+     */
+    public void put(String locationKey, String locationData) throws IOException {
+        append(BlipBatchWriter.Operation.PUT, locationKey, locationData);
+    }
+
+    /**
+     * Append a location to be deleted.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @throws IllegalArgumentException if the write does not fit in a segment.
+     * @throws IOException if the spool is closed or a new segment cannot be created.
+     */
+    public void delete(String locationKey) throws IOException {
+        append(BlipBatchWriter.Operation.DELETE, locationKey, null);
+    }
+
+    /**
+     * Force every write appended so far to disk.
+     */
+    public void sync() {
+        long position = written;
+        MappedByteBuffer segment = SEGMENTS.get(segmentOf(position));
+
+        if (segment != null) {
+            segment.force();
+        }
+        forced = position;
+    }
+
+    /**
+     * Wait until every write appended so far has been sent.
+     * @param timeoutMillis The longest to wait.
+     * @return Whether or not the spool was drained in time.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public boolean awaitDrained(long timeoutMillis) throws InterruptedIOException {
+        long target = written;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        synchronized (PROGRESS) {
+            // Positions only grow, so the checkpoint may pass the target without ever equalling it
+            while (checkpoint < target) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                try {
+                    PROGRESS.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the spool to drain");
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The number of writes appended that have not been sent yet.
+     */
+    public long getBacklog() {
+        return BACKLOG.get();
+    }
+
+    /**
+     * @return The number of writes BLIP has responded to, not counting ones that were coalesced.
+     */
+    public long getDrainedCount() {
+        return DRAINED.get();
+    }
+
+    /**
+     * @return The number of writes that were not sent because a later write to the same locationKey replaced them.
+     */
+    public long getCoalescedCount() {
+        return COALESCED.get();
+    }
+
+    /**
+     * @return The number of writes BLIP rejected with a status that is not retried, or that failed with an error
+     *         other than an IOException.
+     */
+    public long getFailedCount() {
+        return FAILED.get();
+    }
+
+    /**
+     * Stop the drainer once the batch in progress is sent and force the log to disk.
+     * Writes that have not been drained stay in the log for the next spool opened on the directory; call
+     * awaitDrained first to send them now.
+     * @throws IOException if interrupted while waiting for the drainer to stop.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        DRAINER.shutdown();
+        try {
+            DRAINER.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the drainer to stop");
+        }
+
+        sync();
+    }
+
+    /**
+     * Encode a write and append it to the current segment, starting a new segment if it does not fit.
+     * @param operation The operation.
+     * @param locationKey The unique identifier for a single location within the brand.
+     * @param locationData The stringified JSON location document, or null for a delete.
+     * @throws IOException if the spool is closed or a new segment cannot be created.
+     */
+    private void append(BlipBatchWriter.Operation operation, String locationKey,
+                        String locationData) throws IOException {
+        byte[] key = locationKey.getBytes(UTF_8);
+        byte[] data = locationData == null ? new byte[0] : locationData.getBytes(UTF_8);
+        int length = 1 + 4 + key.length + 4 + data.length;
+
+        if (HEADER_SIZE + length > SEGMENT_SIZE - 4) {
+            throw new IllegalArgumentException("The write is larger than a segment: " + locationKey);
+        }
+
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The spool is closed");
+            }
+
+            long segment = segmentOf(written);
+            int offset = offsetOf(written);
+            MappedByteBuffer buffer = SEGMENTS.get(segment);
+
+            if (offset + HEADER_SIZE + length > buffer.capacity() - 4) {
+                buffer.putInt(offset, END_OF_SEGMENT);
+                buffer.force();
+                segment++;
+                offset = 0;
+                buffer = createSegment(segment);
+            }
+
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + HEADER_SIZE);
+            record.put((byte) operation.ordinal());
+            record.putInt(key.length).put(key);
+            record.putInt(data.length).put(data);
+
+            WRITE_CRC.reset();
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(offset + HEADER_SIZE).limit(offset + HEADER_SIZE + length);
+            WRITE_CRC.update(payload);
+            buffer.putInt(offset + 4, (int) WRITE_CRC.getValue());
+            // The length goes last so a torn write is never mistaken for a record
+            buffer.putInt(offset, length);
+
+            BACKLOG.incrementAndGet();
+            written = position(segment, offset + HEADER_SIZE + length);
+        }
+    }
+
+    /**
+     * Send the next batch of writes and advance the checkpoint past them. Runs on the drainer thread.
+     */
+    private void drain() {
+        try {
+            long end = written;
+
+            if (forced != end) {
+                // Segments before the current one were forced when it was started
+                SEGMENTS.get(segmentOf(end)).force();
+                forced = end;
+            }
+
+            if (checkpoint == end || System.nanoTime() - retryAtNanos < 0) {
+                return;
+            }
+
+            Map<String, Record> batch = new LinkedHashMap<>();
+            long[] position = {checkpoint};
+            int count = 0;
+
+            while (position[0] != end && count < MAX_BATCH_SIZE) {
+                Record record = read(position);
+
+                if (record != null) {
+                    batch.remove(record.LOCATION_KEY);
+                    batch.put(record.LOCATION_KEY, record);
+                    count++;
+                }
+            }
+
+            List<CompletableFuture<BlipResponse>> calls = new ArrayList<>();
+            for (Record record : batch.values()) {
+                calls.add(record.OPERATION == BlipBatchWriter.Operation.PUT
+                          ? ASYNC.putLocation(BRAND_KEY, record.LOCATION_KEY, SOURCE, record.LOCATION_DATA)
+                          : ASYNC.deleteLocation(BRAND_KEY, record.LOCATION_KEY, SOURCE));
+            }
+
+            List<BlipBatchWriter.Result> results = new ArrayList<>();
+            boolean retry = false;
+            int i = 0;
+
+            for (Record record : batch.values()) {
+                BlipResponse response = null;
+                Throwable error = null;
+
+                try {
+                    response = calls.get(i++).join();
+                } catch (RuntimeException e) {
+                    error = e.getCause() == null ? e : e.getCause();
+                }
+
+                retry |= response == null ? isTransient(error) : POLICY.isRetryableStatus(response.STATUS_CODE);
+                results.add(new BlipBatchWriter.Result(record.OPERATION, record.LOCATION_KEY, response, error, false));
+            }
+
+            if (retry) {
+                // Resending the writes that did succeed is harmless, and keeps the log the only record of progress
+                attempts++;
+                retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(POLICY.backoffMillis(attempts));
+                return;
+            }
+
+            attempts = 0;
+            saveCheckpoint(position[0]);
+            BACKLOG.addAndGet(-count);
+            COALESCED.addAndGet(count - batch.size());
+
+            for (BlipBatchWriter.Result result : results) {
+                DRAINED.incrementAndGet();
+                if (!result.isSuccessful()) {
+                    FAILED.incrementAndGet();
+                }
+            }
+
+            // Wake anyone waiting in awaitDrained only once the counters are up to date
+            synchronized (PROGRESS) {
+                checkpoint = position[0];
+                PROGRESS.notifyAll();
+            }
+
+            if (LISTENER != null) {
+                for (BlipBatchWriter.Result result : results) {
+                    LISTENER.onResult(result);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep the drainer running; the same batch is read again on the next cycle
+            attempts++;
+            retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(POLICY.backoffMillis(attempts));
+        }
+    }
+
+    /**
+     * @param error The reason a write could not be sent.
+     * @return Whether or not sending the write again may succeed: it failed to reach BLIP, or BlipAsync could not
+     *         run it. Any other error comes from the write itself and would happen again.
+     */
+    private static boolean isTransient(Throwable error) {
+        return error instanceof IOException || error instanceof InterruptedException
+                || error instanceof RejectedExecutionException;
+    }
+
+    /**
+     * Read the record at a position, which must be before the end of the log.
+     * @param position A one-element array holding the position to read from, which is advanced past the record.
+     * @return The record, or null if the position was the unused end of a segment.
+     */
+    private Record read(long[] position) {
+        long segment = segmentOf(position[0]);
+        int offset = offsetOf(position[0]);
+        MappedByteBuffer buffer = SEGMENTS.get(segment);
+
+        if (offset + 4 > buffer.capacity() || buffer.getInt(offset) == END_OF_SEGMENT) {
+            position[0] = position(segment + 1, 0);
+            return null;
+        }
+
+        int length = buffer.getInt(offset);
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + HEADER_SIZE);
+        BlipBatchWriter.Operation operation = BlipBatchWriter.Operation.values()[record.get()];
+        String locationKey = readString(record);
+        String locationData = readString(record);
+        position[0] = position(segment, offset + HEADER_SIZE + length);
+
+        return new Record(operation, locationKey,
+                          operation == BlipBatchWriter.Operation.PUT ? locationData : null);
+    }
+
+    /**
+     * @param record A buffer positioned at a length-prefixed UTF-8 String, which is advanced past it.
+     * @return The String.
+     */
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Open the segments left by an earlier spool, drop the ones that were fully drained, and find the end of the
+     * log. A record torn by a crash ends the log and is erased, along with any segment after it.
+     * @throws IOException if the segments or checkpoint cannot be read.
+     */
+    private void recover() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(DIRECTORY, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+
+        Path checkpointFile = DIRECTORY.resolve(CHECKPOINT_FILE);
+        long start = Files.exists(checkpointFile) ? ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).getLong()
+                                                  : position(files.isEmpty() ? 0 : files.firstKey(), 0);
+
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            if (file.getKey() < segmentOf(start)) {
+                Files.delete(file.getValue());
+            } else {
+                SEGMENTS.put(file.getKey(), map(file.getValue(), Files.size(file.getValue())));
+            }
+        }
+
+        if (!SEGMENTS.containsKey(segmentOf(start))) {
+            createSegment(segmentOf(start));
+        }
+
+        long[] position = {start};
+        long count = 0;
+
+        while (true) {
+            long segment = segmentOf(position[0]);
+            int offset = offsetOf(position[0]);
+            MappedByteBuffer buffer = SEGMENTS.get(segment);
+
+            if (offset + 4 > buffer.capacity() || buffer.getInt(offset) == END_OF_SEGMENT) {
+                if (!SEGMENTS.containsKey(segment + 1)) {
+                    // The segment was filled just before a crash; the next write starts a new one
+                    break;
+                }
+                position[0] = position(segment + 1, 0);
+                continue;
+            }
+
+            if (!isValidRecord(buffer, offset)) {
+                for (int i = offset; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                for (long later : new ArrayList<>(SEGMENTS.tailMap(segment, false).keySet())) {
+                    SEGMENTS.remove(later);
+                    Files.delete(segmentFile(later));
+                }
+                break;
+            }
+
+            read(position);
+            count++;
+        }
+
+        checkpoint = start;
+        written = position[0];
+        forced = written;
+        BACKLOG.set(count);
+    }
+
+    /**
+     * @param buffer A segment.
+     * @param offset The offset of a record in it.
+     * @return Whether or not a whole record with a matching checksum is at the offset.
+     */
+    private boolean isValidRecord(MappedByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+
+        if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+            return false;
+        }
+
+        READ_CRC.reset();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(offset + HEADER_SIZE).limit(offset + HEADER_SIZE + length);
+        READ_CRC.update(payload);
+
+        return (int) READ_CRC.getValue() == buffer.getInt(offset + 4);
+    }
+
+    /**
+     * Record in the checkpoint file that every write before a position has been sent, then delete the segments
+     * before it.
+     * @param position The position of the first write that has not been sent.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    private void saveCheckpoint(long position) throws IOException {
+        Path file = DIRECTORY.resolve(CHECKPOINT_FILE);
+        Path updated = DIRECTORY.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(updated, ByteBuffer.allocate(8).putLong(position).array());
+        Files.move(updated, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (long segment : new ArrayList<>(SEGMENTS.headMap(segmentOf(position)).keySet())) {
+            SEGMENTS.remove(segment);
+            Files.delete(segmentFile(segment));
+        }
+    }
+
+    /**
+     * Create and map a new, zero-filled segment file.
+     * @param segment The segment number.
+     * @return The mapped segment.
+     * @throws IOException if the file cannot be created.
+     */
+    private MappedByteBuffer createSegment(long segment) throws IOException {
+        MappedByteBuffer buffer = map(segmentFile(segment), SEGMENT_SIZE);
+        SEGMENTS.put(segment, buffer);
+
+        return buffer;
+    }
+
+    /**
+     * @param file A segment file, which is created or extended to the size if needed.
+     * @param size The number of bytes to map.
+     * @return The mapped file. It stays mapped after the channel is closed.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * @param segment A segment number.
+     * @return The path of the segment's file.
+     */
+    private Path segmentFile(long segment) {
+        return DIRECTORY.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @param segment A segment number.
+     * @param offset An offset within the segment.
+     * @return The position in the log.
+     */
+    private static long position(long segment, int offset) {
+        return segment << 32 | offset;
+    }
+
+    /**
+     * @param position A position in the log.
+     * @return The segment number.
+     */
+    private static long segmentOf(long position) {
+        return position >>> 32;
+    }
+
+    /**
+     * @param position A position in the log.
+     * @return The offset within the segment.
+     */
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    /**
+     * A write read back from the log.
+     */
+    private static class Record {
+
+        private final BlipBatchWriter.Operation OPERATION;
+        private final String LOCATION_KEY;
+        private final String LOCATION_DATA;
+
+        /**
+         * The Record constructor.
+         * @param operation The operation.
+         * @param locationKey The unique identifier for a single location within the brand.
+         * @param locationData The stringified JSON location document, or null for a delete.
+         */
+        private Record(BlipBatchWriter.Operation operation, String locationKey, String locationData) {
+            OPERATION = operation;
+            LOCATION_KEY = locationKey;
+            LOCATION_DATA = locationData;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.balihoo.sdk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An ExportSink that writes one JSON line per location to a file or stream, in the bulk load file format:
+ * {"brandKey":"mybrand","locationKey":"ABC123","document":{...}}
+ * Documents are re-serialized, so a pretty-printed document still takes a single line.
+ */
+public class NdjsonExportSink implements ExportSink, Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gson GSON = new Gson();
+    private final Writer OUT;
+
+    /**
+     * NdjsonExportSink constructor that appends to a file, so a resumed export adds to the output of the last run.
+     * @param file The file to write. It is created if it does not exist.
+     * @throws IOException if the file cannot be opened.
+     */
+    public NdjsonExportSink(Path file) throws IOException {
+        this(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+
+    /**
+     * NdjsonExportSink constructor that writes to a stream.
+     * @param out The stream to write. It is closed when the sink is closed.
+     */
+    public NdjsonExportSink(OutputStream out) {
+        OUT = new BufferedWriter(new OutputStreamWriter(out, UTF_8), 64 * 1024);
+    }
+
+    /**
+     * Write a location as a single line.
+     * @param brandKey The unique identifier for the location's brand.
+     * @param locationKey The unique identifier for the location within the brand.
+     * @param document The stringified JSON location document.
+     * @throws IOException if the document is not valid JSON or the line cannot be written.
+     */
+    @Override
+    public void write(String brandKey, String locationKey, String document) throws IOException {
+        JsonElement parsed;
+
+        try {
+            parsed = new JsonParser().parse(document);
+        } catch (JsonParseException e) {
+            throw new IOException("The document of " + locationKey + " is not valid JSON", e);
+        }
+
+        // Build the line outside the lock; only the copy into the buffer is serialized
+        StringWriter line = new StringWriter(document.length() + 64);
+        JsonWriter json = new JsonWriter(line);
+        json.beginObject();
+        json.name("brandKey").value(brandKey);
+        json.name("locationKey").value(locationKey);
+        json.name("document");
+        GSON.toJson(parsed, json);
+        json.endObject();
+        line.write('\n');
+
+        synchronized (OUT) {
+            OUT.write(line.toString());
+        }
+    }
+
+    /**
+     * Flush buffered lines to the file or stream.
+     * @throws IOException if the lines cannot be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (OUT) {
+            OUT.flush();
+        }
+    }
+
+    /**
+     * Flush and close the file or stream.
+     * @throws IOException if the lines cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (OUT) {
+            OUT.close();
+        }
+    }
+}
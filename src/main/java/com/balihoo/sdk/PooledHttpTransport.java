@@ -0,0 +1,352 @@
+package com.balihoo.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BlipTransport backed by a bounded pool of keep-alive connections.
+ * One instance should be shared by every request made by a Blip client and closed when the client is closed.
+ */
+public class PooledHttpTransport implements BlipTransport {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 100;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+    private final PoolingHttpClientConnectionManager CONNECTION_MANAGER;
+    private final RequestConfig REQUEST_CONFIG;
+    private final CloseableHttpClient CLIENT;
+
+    /**
+     * PooledHttpTransport constructor with default pool size and timeouts.
+     */
+    public PooledHttpTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_TOTAL,
+             DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * PooledHttpTransport constructor.
+     * @param maxConnectionsPerRoute The maximum number of open connections to a single host.
+     * @param maxConnectionsTotal The maximum number of open connections across all hosts.
+     * @param connectTimeoutMillis How long to wait for a connection to be established or leased from the pool.
+     * @param readTimeoutMillis How long to wait for data on an open connection.
+     * @param idleTimeoutMillis How long an unused connection may stay in the pool before it is closed.
+     */
+    public PooledHttpTransport(int maxConnectionsPerRoute, int maxConnectionsTotal, int connectTimeoutMillis,
+                               int readTimeoutMillis, long idleTimeoutMillis) {
+        this(maxConnectionsPerRoute, maxConnectionsTotal, connectTimeoutMillis, readTimeoutMillis, idleTimeoutMillis,
+             null);
+    }
+
+    /**
+     * PooledHttpTransport constructor with an HTTP proxy.
+     * @param maxConnectionsPerRoute The maximum number of open connections to a single host.
+     * @param maxConnectionsTotal The maximum number of open connections across all hosts.
+     * @param connectTimeoutMillis How long to wait for a connection to be established or leased from the pool.
+     * @param readTimeoutMillis How long to wait for data on an open connection.
+     * @param idleTimeoutMillis How long an unused connection may stay in the pool before it is closed.
+     * @param proxy The proxy every request is sent through, or null to connect directly.
+     */
+    public PooledHttpTransport(int maxConnectionsPerRoute, int maxConnectionsTotal, int connectTimeoutMillis,
+                               int readTimeoutMillis, long idleTimeoutMillis, InetSocketAddress proxy) {
+        // Time DNS lookups and new connections for calls traced by an InstrumentedTransport
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new TimedSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+                .register("https", new TimedSocketFactory(SSLConnectionSocketFactory.getSocketFactory()))
+                .build();
+
+        CONNECTION_MANAGER = new PoolingHttpClientConnectionManager(socketFactories, null, null,
+                                                                    new TimedDnsResolver(), -1, TimeUnit.MILLISECONDS);
+        CONNECTION_MANAGER.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        CONNECTION_MANAGER.setMaxTotal(maxConnectionsTotal);
+        // Check connections that sat idle for a while before reusing them, as the server may have closed them.
+        CONNECTION_MANAGER.setValidateAfterInactivity(2000);
+
+        REQUEST_CONFIG = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout(readTimeoutMillis)
+                .build();
+
+        CLIENT = HttpClients.custom()
+                .setConnectionManager(CONNECTION_MANAGER)
+                .setDefaultRequestConfig(REQUEST_CONFIG)
+                .setProxy(proxy == null ? null : new HttpHost(proxy.getHostString(), proxy.getPort()))
+                .disableCookieManagement()
+                // Retries are left to RetryingTransport, which knows which requests are safe to send again
+                .disableAutomaticRetries()
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Sends an HTTP request using a pooled connection.
+     * If the request has a deadline, the connect and read timeouts are shortened so that no wait outlasts it.
+     * @param request The request to send.
+     * @return The HTTP response. Closing it returns the connection to the pool.
+     * @throws SocketTimeoutException if the request's deadline has already passed.
+     * @throws IOException if the URL is malformed, the request cannot be sent or the response cannot be read.
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        RequestBuilder builder = RequestBuilder.create(request.METHOD).setUri(toUri(request.URL));
+
+        for (Map.Entry<String, String> header : request.HEADERS.entrySet()) {
+            builder.addHeader(header.getKey(), header.getValue());
+        }
+
+        if (request.BODY != null) {
+            builder.setEntity(new BodyEntity(request.BODY));
+        }
+
+        if (request.DEADLINE_NANOS != null) {
+            builder.setConfig(deadlineConfig(request.getRemainingMillis()));
+        }
+
+        HttpUriRequest httpRequest = builder.build();
+        CancelSignal signal = CancelSignal.current();
+
+        if (signal != null && httpRequest instanceof HttpRequestBase) {
+            // Aborting closes the connection, which unblocks the thread sending the request or reading the response
+            signal.onCancel(((HttpRequestBase) httpRequest)::abort);
+        }
+
+        return new PooledResponse(CLIENT.execute(httpRequest));
+    }
+
+    /**
+     * Close all pooled connections and stop the idle connection evictor.
+     * @throws IOException if the pool cannot be shut down cleanly.
+     */
+    @Override
+    public void close() throws IOException {
+        CLIENT.close();
+    }
+
+    /**
+     * Parse a URL, percent-encoding any characters that may not appear in a URI, such as a space or '|'. Characters
+     * that are already legal, including existing escapes, are sent as they are; Blip encodes the keys it puts in a
+     * URL, so only bare URLs from other callers rely on this.
+     * @param url The absolute URL to request.
+     * @return The URI.
+     * @throws IOException if the URL cannot be parsed.
+     */
+    private static URI toUri(String url) throws IOException {
+        StringBuilder quoted = new StringBuilder(url.length());
+
+        for (byte b : url.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xff;
+            if (c <= ' ' || c >= 0x7f || "\"<>\\^`{|}".indexOf(c) >= 0) {
+                quoted.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                      .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            } else {
+                quoted.append((char) c);
+            }
+        }
+
+        try {
+            return URI.create(quoted.toString());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+    }
+
+    /**
+     * @param remainingMillis The time left before a request's deadline.
+     * @return The default request settings with no timeout longer than the time left.
+     * @throws SocketTimeoutException if there is no time left.
+     */
+    private RequestConfig deadlineConfig(long remainingMillis) throws SocketTimeoutException {
+        if (remainingMillis <= 0) {
+            throw new SocketTimeoutException("The request deadline has passed");
+        }
+
+        int connectTimeout = capTimeout(REQUEST_CONFIG.getConnectTimeout(), remainingMillis);
+
+        return RequestConfig.copy(REQUEST_CONFIG)
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(capTimeout(REQUEST_CONFIG.getSocketTimeout(), remainingMillis))
+                .build();
+    }
+
+    /**
+     * @param timeoutMillis A timeout, where 0 or less means wait indefinitely.
+     * @param remainingMillis The time left before a request's deadline.
+     * @return The shorter of the two.
+     */
+    private static int capTimeout(int timeoutMillis, long remainingMillis) {
+        return (int) (timeoutMillis <= 0 ? Math.min(remainingMillis, Integer.MAX_VALUE)
+                                         : Math.min(timeoutMillis, remainingMillis));
+    }
+
+    /**
+     * Resolves host names with the system resolver, recording the time taken on the current CallTrace.
+     */
+    private static class TimedDnsResolver implements DnsResolver {
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            long start = System.nanoTime();
+
+            try {
+                return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+            } finally {
+                CallTrace.recordDns(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Opens connections with another socket factory, recording the time taken on the current CallTrace.
+     */
+    private static class TimedSocketFactory implements LayeredConnectionSocketFactory {
+
+        private final ConnectionSocketFactory DELEGATE;
+
+        private TimedSocketFactory(ConnectionSocketFactory delegate) {
+            DELEGATE = delegate;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return DELEGATE.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            long start = System.nanoTime();
+
+            try {
+                return DELEGATE.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            } finally {
+                CallTrace.recordConnect(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                throws IOException {
+            if (!(DELEGATE instanceof LayeredConnectionSocketFactory)) {
+                throw new IOException("Cannot layer a connection over " + DELEGATE.getClass().getName());
+            }
+
+            return ((LayeredConnectionSocketFactory) DELEGATE).createLayeredSocket(socket, target, port, context);
+        }
+    }
+
+    /**
+     * Adapts a RequestBody to the HttpClient entity API.
+     */
+    private static class BodyEntity extends AbstractHttpEntity {
+
+        private final RequestBody BODY;
+
+        private BodyEntity(RequestBody body) {
+            BODY = body;
+            setContentType(body.getContentType());
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return BODY.isRepeatable();
+        }
+
+        @Override
+        public long getContentLength() {
+            return BODY.getContentLength();
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException("Request bodies can only be written");
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            BODY.writeTo(out);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * Adapts an HttpClient response to the TransportResponse API.
+     */
+    private static class PooledResponse implements TransportResponse {
+
+        private final CloseableHttpResponse RESPONSE;
+
+        private PooledResponse(CloseableHttpResponse response) {
+            RESPONSE = response;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return RESPONSE.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            Header header = RESPONSE.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            HttpEntity entity = RESPONSE.getEntity();
+            return entity == null ? new ByteArrayInputStream(new byte[0]) : entity.getContent();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Drain what is left of the body so the connection can be kept alive.
+                EntityUtils.consume(RESPONSE.getEntity());
+            } finally {
+                RESPONSE.close();
+            }
+        }
+    }
+}
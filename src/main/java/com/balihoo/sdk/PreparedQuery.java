@@ -0,0 +1,122 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * A LocationQuery encoded once for reuse. Its request body is stored as encoded segments, and only the page number
+ * and parameter values are encoded and spliced in for each request.
+ * A PreparedQuery is immutable and safe for concurrent use.
+ */
+public class PreparedQuery {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[][] SEGMENTS;
+    private final String[] HOLES;
+    private final int PAGE_SIZE;
+
+    /**
+     * The PreparedQuery constructor.
+     * @param segments The encoded body, split around the values supplied per request.
+     * @param holes The parameter name for each value between two segments, or null for the page number.
+     * @param pageSize The number of results in each page of results.
+     */
+    PreparedQuery(byte[][] segments, String[] holes, int pageSize) {
+        SEGMENTS = segments;
+        HOLES = holes;
+        PAGE_SIZE = pageSize;
+    }
+
+    /**
+     * @return The number of results in each page of results.
+     */
+    public int getPageSize() {
+        return PAGE_SIZE;
+    }
+
+    /**
+     * Encode the request body for a page.
+     * @param pageNumber The page index to return starting from page 0.
+     * @param parameters The value of each parameter, or null if the query has none. Values may be a String, a Number,
+     *                   a Boolean, a JsonElement or null.
+     * @return The UTF-8 encoded JSON request body.
+     * @throws IllegalArgumentException if a parameter is missing or has an unsupported type.
+     */
+    public byte[] encode(int pageNumber, Map<String, ?> parameters) {
+        byte[][] values = new byte[HOLES.length][];
+        int length = SEGMENTS[HOLES.length].length;
+
+        for (int i = 0; i < HOLES.length; i++) {
+            if (HOLES[i] == null) {
+                values[i] = Integer.toString(pageNumber).getBytes(UTF_8);
+            } else if (parameters == null || !parameters.containsKey(HOLES[i])) {
+                throw new IllegalArgumentException("No value for query parameter " + HOLES[i]);
+            } else {
+                values[i] = encodeValue(parameters.get(HOLES[i]));
+            }
+            length += SEGMENTS[i].length + values[i].length;
+        }
+
+        byte[] body = new byte[length];
+        int offset = 0;
+
+        for (int i = 0; i < HOLES.length; i++) {
+            System.arraycopy(SEGMENTS[i], 0, body, offset, SEGMENTS[i].length);
+            offset += SEGMENTS[i].length;
+            System.arraycopy(values[i], 0, body, offset, values[i].length);
+            offset += values[i].length;
+        }
+        System.arraycopy(SEGMENTS[HOLES.length], 0, body, offset, SEGMENTS[HOLES.length].length);
+
+        return body;
+    }
+
+    /**
+     * @param value A parameter value.
+     * @return The value encoded as UTF-8 JSON.
+     */
+    private static byte[] encodeValue(Object value) {
+        StringWriter out = new StringWriter();
+
+        try {
+            JsonWriter json = new JsonWriter(out);
+            // A lone value is only accepted by a lenient writer
+            json.setLenient(true);
+            writeValue(json, value);
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Write a filter value.
+     * @param json The writer, positioned where a value is expected.
+     * @param value A String, Number, Boolean, JsonElement or null.
+     * @throws IOException if the value cannot be written.
+     * @throws IllegalArgumentException if the value has an unsupported type.
+     */
+    static void writeValue(JsonWriter json, Object value) throws IOException {
+        if (value == null) {
+            json.nullValue();
+        } else if (value instanceof String) {
+            json.value((String) value);
+        } else if (value instanceof Number) {
+            json.value((Number) value);
+        } else if (value instanceof Boolean) {
+            json.value((Boolean) value);
+        } else if (value instanceof JsonElement) {
+            json.jsonValue(value.toString());
+        } else {
+            throw new IllegalArgumentException("Unsupported query value type: " + value.getClass().getName());
+        }
+    }
+}
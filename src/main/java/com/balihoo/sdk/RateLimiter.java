@@ -0,0 +1,80 @@
+package com.balihoo.sdk;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A token bucket that limits the rate of calls, safe to share between threads.
+ * The bucket holds up to burst tokens and refills at ratePerSecond. It is implemented as a single atomic
+ * "theoretical arrival time" (the generic cell rate algorithm), so taking a token is one compare-and-set with no
+ * locking, and callers that have to wait do so without holding anything.
+ */
+public class RateLimiter {
+
+    private final long INTERVAL_NANOS;
+    private final long BURST_NANOS;
+    private final AtomicLong NEXT_NANOS;
+
+    /**
+     * The RateLimiter constructor. The bucket starts full.
+     * @param ratePerSecond The sustained number of calls allowed per second.
+     * @param burst The number of calls that may be made at once after a quiet period.
+     */
+    public RateLimiter(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("ratePerSecond and burst must be positive");
+        }
+
+        INTERVAL_NANOS = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        BURST_NANOS = (burst - 1) * INTERVAL_NANOS;
+        NEXT_NANOS = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take a token, waiting until one is available.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedIOException {
+        long now = System.nanoTime();
+        long allowedAt;
+
+        for (;;) {
+            long next = NEXT_NANOS.get();
+            allowedAt = Math.max(now, next - BURST_NANOS);
+            if (NEXT_NANOS.compareAndSet(next, Math.max(next, now) + INTERVAL_NANOS)) {
+                break;
+            }
+            now = System.nanoTime();
+        }
+
+        // The token is reserved; wait for its slot to arrive
+        for (long wait = allowedAt - now; wait > 0; wait = allowedAt - System.nanoTime()) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+            }
+        }
+    }
+
+    /**
+     * Take a token if one is available now.
+     * @return Whether or not a token was taken.
+     */
+    public boolean tryAcquire() {
+        for (;;) {
+            long now = System.nanoTime();
+            long next = NEXT_NANOS.get();
+
+            if (now < next - BURST_NANOS) {
+                return false;
+            }
+
+            if (NEXT_NANOS.compareAndSet(next, Math.max(next, now) + INTERVAL_NANOS)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.balihoo.sdk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A BlipTransport that paces calls to BLIP so parallel jobs sharing an API key stay under the server's throttling
+ * limits instead of wasting calls on 429 responses.
+ * <ul>
+ * <li>An optional global RateLimiter applies to every call, and an optional per-brand rate applies to each brand
+ * separately.</li>
+ * <li>An optional AdaptiveConcurrencyLimiter caps the number of calls in flight, learning the cap from response
+ * statuses and latencies. A call holds its permit until its response is closed.</li>
+ * </ul>
+ * Uploads to S3 are not limited, as they do not count against the BLIP API key.
+ */
+public class RateLimitingTransport implements BlipTransport {
+
+    private final BlipTransport DELEGATE;
+    private final RateLimiter GLOBAL_LIMITER;
+    private final double BRAND_RATE_PER_SECOND;
+    private final int BRAND_BURST;
+    private final AdaptiveConcurrencyLimiter CONCURRENCY_LIMITER;
+    private final ConcurrentMap<String, RateLimiter> BRAND_LIMITERS = new ConcurrentHashMap<>();
+
+    /**
+     * RateLimitingTransport constructor with a global rate limit only.
+     * @param delegate The transport that sends each call.
+     * @param limiter The rate limiter shared by every call.
+     */
+    public RateLimitingTransport(BlipTransport delegate, RateLimiter limiter) {
+        this(delegate, limiter, 0, 0, null);
+    }
+
+    /**
+     * RateLimitingTransport constructor.
+     * @param delegate The transport that sends each call.
+     * @param globalLimiter The rate limiter shared by every call, or null for no global limit.
+     * @param brandRatePerSecond The sustained calls per second allowed for each brand, or 0 for no per-brand limit.
+     * @param brandBurst The number of calls each brand may make at once after a quiet period.
+     * @param concurrencyLimiter The adaptive concurrency limiter, or null for no concurrency limit.
+     */
+    public RateLimitingTransport(BlipTransport delegate, RateLimiter globalLimiter, double brandRatePerSecond,
+                                 int brandBurst, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        DELEGATE = delegate;
+        GLOBAL_LIMITER = globalLimiter;
+        BRAND_RATE_PER_SECOND = brandRatePerSecond;
+        BRAND_BURST = brandBurst;
+        CONCURRENCY_LIMITER = concurrencyLimiter;
+    }
+
+    /**
+     * Waits for the rate and concurrency limits, then sends the request.
+     * @param request The request to send.
+     * @return The response. For concurrency limited calls, closing it returns the permit.
+     * @throws IOException if interrupted while waiting or the request cannot be sent.
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        if (request.OPERATION == BlipOperation.S3_UPLOAD) {
+            return DELEGATE.execute(request);
+        }
+
+        if (GLOBAL_LIMITER != null) {
+            GLOBAL_LIMITER.acquire();
+        }
+
+        if (BRAND_RATE_PER_SECOND > 0 && request.BRAND_KEY != null) {
+            getBrandLimiter(request.BRAND_KEY).acquire();
+        }
+
+        if (CONCURRENCY_LIMITER == null) {
+            return DELEGATE.execute(request);
+        }
+
+        CONCURRENCY_LIMITER.acquire();
+        long start = System.nanoTime();
+        TransportResponse response;
+
+        try {
+            response = DELEGATE.execute(request);
+        } catch (IOException | RuntimeException e) {
+            CONCURRENCY_LIMITER.release(0, System.nanoTime() - start, e instanceof SocketTimeoutException);
+            throw e;
+        }
+
+        return new LimitedResponse(response, System.nanoTime() - start);
+    }
+
+    /**
+     * Get the rate limiter for a brand, creating it on first use.
+     * @param brandKey The unique identifier for a single brand.
+     * @return The brand's rate limiter.
+     */
+    public RateLimiter getBrandLimiter(String brandKey) {
+        return BRAND_LIMITERS.computeIfAbsent(brandKey, key -> new RateLimiter(BRAND_RATE_PER_SECOND, BRAND_BURST));
+    }
+
+    /**
+     * Close the underlying transport.
+     * @throws IOException if the underlying transport cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        DELEGATE.close();
+    }
+
+    /**
+     * Returns the concurrency permit when the response is closed.
+     */
+    private class LimitedResponse implements TransportResponse {
+
+        private final TransportResponse RESPONSE;
+        private final long LATENCY_NANOS;
+        private boolean released = false;
+
+        private LimitedResponse(TransportResponse response, long latencyNanos) {
+            RESPONSE = response;
+            LATENCY_NANOS = latencyNanos;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return RESPONSE.getStatusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return RESPONSE.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return RESPONSE.getBody();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                RESPONSE.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    CONCURRENCY_LIMITER.release(RESPONSE.getStatusCode(), LATENCY_NANOS, false);
+                }
+            }
+        }
+    }
+}
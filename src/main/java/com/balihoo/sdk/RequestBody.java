@@ -0,0 +1,231 @@
+package com.balihoo.sdk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content sent with a TransportRequest.
+ */
+public abstract class RequestBody {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Create a body from text encoded as UTF-8.
+     * @param content The text to send.
+     * @param contentType The MIME type of the content.
+     * @return A repeatable RequestBody.
+     */
+    public static RequestBody create(String content, String contentType) {
+        return create(content.getBytes(UTF_8), contentType);
+    }
+
+    /**
+     * Create a body from a byte array. The array is not copied.
+     * @param content The bytes to send.
+     * @param contentType The MIME type of the content.
+     * @return A repeatable RequestBody.
+     */
+    public static RequestBody create(final byte[] content, final String contentType) {
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return content.length;
+            }
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(content);
+            }
+        };
+    }
+
+    /**
+     * Create a body from the remaining bytes of a buffer. The buffer's position is not changed and its content is
+     * not copied, except in chunks when it is a direct buffer.
+     * @param content The bytes to send.
+     * @param contentType The MIME type of the content.
+     * @return A repeatable RequestBody.
+     */
+    public static RequestBody create(ByteBuffer content, final String contentType) {
+        final ByteBuffer buffer = content.slice();
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return buffer.remaining();
+            }
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                if (buffer.hasArray()) {
+                    out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+                    return;
+                }
+
+                ByteBuffer source = buffer.duplicate();
+                byte[] chunk = new byte[Math.min(source.remaining(), 8192)];
+
+                while (source.hasRemaining()) {
+                    int len = Math.min(source.remaining(), chunk.length);
+                    source.get(chunk, 0, len);
+                    out.write(chunk, 0, len);
+                }
+            }
+        };
+    }
+
+    /**
+     * Create a body that streams a file from disk with a fixed content length, so large documents do not need to be
+     * loaded into memory. The file must not change until the request has completed.
+     * @param file The file to send.
+     * @param contentType The MIME type of the content.
+     * @return A repeatable RequestBody.
+     * @throws IOException if the size of the file cannot be read.
+     */
+    public static RequestBody create(final Path file, final String contentType) throws IOException {
+        final long length = Files.size(file);
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return length;
+            }
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                Files.copy(file, out);
+            }
+        };
+    }
+
+    /**
+     * Create a body that is another body compressed with gzip. The request must be sent with a
+     * "Content-Encoding: gzip" header. Bodies of up to 1MB are compressed immediately and sent with a fixed length;
+     * larger ones, or ones of unknown length, are compressed as they are written and sent chunked.
+     * @param body The body to compress.
+     * @return A RequestBody that is repeatable if the original is.
+     * @throws IOException if the body cannot be compressed.
+     */
+    public static RequestBody gzip(final RequestBody body) throws IOException {
+        long length = body.getContentLength();
+
+        if (length >= 0 && length <= 1024 * 1024 && body.isRepeatable()) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) length / 2 + 32);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                body.writeTo(gzip);
+            }
+
+            return create(compressed.toByteArray(), body.getContentType());
+        }
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public String getContentType() {
+                return body.getContentType();
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return body.isRepeatable();
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                // Finish rather than close: the connection's stream belongs to the caller
+                StreamingGzip gzip = new StreamingGzip(out);
+                try {
+                    body.writeTo(gzip);
+                    gzip.finish();
+                } finally {
+                    gzip.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return The number of bytes in the body, or -1 if unknown.
+     */
+    public abstract long getContentLength();
+
+    /**
+     * @return The MIME type of the body, or null if unspecified.
+     */
+    public abstract String getContentType();
+
+    /**
+     * @return Whether or not the body can be written more than once.
+     */
+    public abstract boolean isRepeatable();
+
+    /**
+     * Write the body to the connection.
+     * @param out The stream to write to. It is not closed by this method.
+     * @throws IOException if the body cannot be written.
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * A GZIPOutputStream that can release its Deflater without closing the stream it writes to.
+     */
+    private static class StreamingGzip extends GZIPOutputStream {
+
+        /**
+         * The StreamingGzip constructor.
+         * @param out The stream to write to.
+         * @throws IOException if the gzip header cannot be written.
+         */
+        private StreamingGzip(OutputStream out) throws IOException {
+            super(out, 8192);
+        }
+
+        /**
+         * Free the Deflater's native memory now rather than when it is finalized. Nothing can be written afterwards.
+         */
+        private void end() {
+            def.end();
+        }
+    }
+}
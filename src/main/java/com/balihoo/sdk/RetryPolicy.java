@@ -0,0 +1,60 @@
+package com.balihoo.sdk;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Controls how a RetryingTransport retries failed requests.
+ * Delays grow exponentially from baseDelayMillis up to maxDelayMillis with full jitter, so clients that failed
+ * together do not retry together.
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 200, 10000, 30000);
+
+    public final int MAX_ATTEMPTS;
+    public final long BASE_DELAY_MILLIS;
+    public final long MAX_DELAY_MILLIS;
+    public final long DEADLINE_MILLIS;
+
+    /**
+     * The RetryPolicy constructor.
+     * @param maxAttempts The maximum number of times a request is sent, including the first attempt.
+     * @param baseDelayMillis The delay ceiling before the first retry. It doubles for each further retry.
+     * @param maxDelayMillis The largest delay between two attempts, including delays asked for with Retry-After.
+     * @param deadlineMillis The total time a request may spend across all attempts and delays. No retry is started
+     *                       that would end its delay after the deadline.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long deadlineMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+
+        MAX_ATTEMPTS = maxAttempts;
+        BASE_DELAY_MILLIS = baseDelayMillis;
+        MAX_DELAY_MILLIS = maxDelayMillis;
+        DEADLINE_MILLIS = deadlineMillis;
+    }
+
+    /**
+     * Pick the delay before the next attempt.
+     * @param attempt The number of the attempt that just failed, starting from 1.
+     * @return A random delay between zero and the exponential backoff ceiling for this attempt.
+     */
+    public long backoffMillis(int attempt) {
+        long ceiling = BASE_DELAY_MILLIS << Math.min(attempt - 1, 30);
+
+        if (ceiling <= 0 || ceiling > MAX_DELAY_MILLIS) {
+            ceiling = MAX_DELAY_MILLIS;
+        }
+
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @param statusCode An HTTP status code.
+     * @return Whether or not the status signals a transient condition worth retrying.
+     */
+    public boolean isRetryableStatus(int statusCode) {
+        return statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+}
@@ -0,0 +1,253 @@
+package com.balihoo.sdk;
+
+import org.apache.http.client.utils.DateUtils;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A BlipTransport that retries transient failures of another transport and stops calling endpoints that keep
+ * failing.
+ * <ul>
+ * <li>Connection failures and 429/502/503/504 responses are retried with jittered exponential backoff, honouring
+ * Retry-After, until the policy's attempt limit or deadline is reached, or the request's own deadline if that is
+ * sooner.</li>
+ * <li>Requests that are not idempotent (BULK_LOAD, S3_UPLOAD, or a POST of unknown operation) are only retried when
+ * they cannot have been processed: the connection was refused or the server answered 429.</li>
+ * <li>Each operation has its own CircuitBreaker; while it is open, requests fail fast with a CircuitOpenException.</li>
+ * </ul>
+ */
+public class RetryingTransport implements BlipTransport {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    private final BlipTransport DELEGATE;
+    private final RetryPolicy POLICY;
+    private final int FAILURE_THRESHOLD;
+    private final long OPEN_MILLIS;
+    private final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    /**
+     * RetryingTransport constructor with default circuit breaker settings.
+     * @param delegate The transport that sends each attempt.
+     * @param policy The retry policy.
+     */
+    public RetryingTransport(BlipTransport delegate, RetryPolicy policy) {
+        this(delegate, policy, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * RetryingTransport constructor.
+     * @param delegate The transport that sends each attempt.
+     * @param policy The retry policy.
+     * @param failureThreshold The number of consecutive failures that opens an endpoint's circuit breaker.
+     * @param openMillis How long an open circuit breaker rejects requests before letting a trial request through.
+     */
+    public RetryingTransport(BlipTransport delegate, RetryPolicy policy, int failureThreshold, long openMillis) {
+        DELEGATE = delegate;
+        POLICY = policy;
+        FAILURE_THRESHOLD = failureThreshold;
+        OPEN_MILLIS = openMillis;
+    }
+
+    /**
+     * Sends the request, retrying transient failures.
+     * @param request The request to send.
+     * @return The first non-retryable response, or the last response once retries are exhausted.
+     * @throws CircuitOpenException if the endpoint's circuit breaker is open.
+     * @throws IOException if the last attempt fails.
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        String endpoint = endpointName(request);
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        long deadline = System.nanoTime() + POLICY.DEADLINE_MILLIS * 1000000;
+        if (request.DEADLINE_NANOS != null && request.DEADLINE_NANOS - deadline < 0) {
+            // A per-call deadline shorter than the policy's leaves less time to retry
+            deadline = request.DEADLINE_NANOS;
+        }
+        boolean repeatable = request.BODY == null || request.BODY.isRepeatable();
+        // A call let through a half-open breaker keeps retrying without being checked again
+        boolean trial = false;
+        // Whether the call still holds the trial, i.e. no outcome has been recorded for it yet
+        boolean holdsTrial = false;
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                if (attempt > 1) {
+                    CallTrace.recordRetry();
+                }
+
+                if (!trial) {
+                    CircuitBreaker.Admission admission = breaker.admit();
+                    if (admission == CircuitBreaker.Admission.REJECTED) {
+                        throw new CircuitOpenException(endpoint);
+                    }
+                    trial = holdsTrial = admission == CircuitBreaker.Admission.TRIAL;
+                }
+
+                TransportResponse response;
+
+                try {
+                    response = DELEGATE.execute(request);
+                } catch (IOException e) {
+                    CancelSignal signal = CancelSignal.current();
+                    if (signal != null && signal.isCancelled()) {
+                        // The caller aborted the request, which says nothing about the endpoint
+                        throw e;
+                    }
+
+                    breaker.onFailure();
+                    holdsTrial = false;
+                    boolean safe = request.isIdempotent() || e instanceof ConnectException;
+
+                    if (!repeatable || !safe || !isRetryable(e)
+                            || !awaitRetry(attempt, POLICY.backoffMillis(attempt), deadline)) {
+                        throw e;
+                    }
+                    continue;
+                }
+
+                int statusCode = response.getStatusCode();
+
+                if (!POLICY.isRetryableStatus(statusCode)) {
+                    breaker.onSuccess();
+                    holdsTrial = false;
+                    return response;
+                }
+
+                // Throttling means the endpoint is up, so it doesn't count towards opening the breaker.
+                if (statusCode == 429) {
+                    breaker.onSuccess();
+                } else {
+                    breaker.onFailure();
+                }
+                holdsTrial = false;
+
+                boolean safe = request.isIdempotent() || statusCode == 429;
+                long delay = Math.max(POLICY.backoffMillis(attempt), retryAfterMillis(response));
+
+                if (!repeatable || !safe || !canRetry(attempt, delay, deadline)) {
+                    return response;
+                }
+
+                response.close();
+                awaitRetry(attempt, delay, deadline);
+            }
+        } finally {
+            // The caller aborted the call or the delegate threw something other than an IOException, so the
+            // endpoint was never tested
+            if (holdsTrial) {
+                breaker.releaseTrial();
+            }
+        }
+    }
+
+    /**
+     * Get the circuit breaker for an endpoint, creating it on first use.
+     * @param endpoint The endpoint name (the BlipOperation name for requests made by a Blip).
+     * @return The endpoint's circuit breaker.
+     */
+    public CircuitBreaker getCircuitBreaker(String endpoint) {
+        return BREAKERS.computeIfAbsent(endpoint, name -> new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS));
+    }
+
+    /**
+     * Close the underlying transport.
+     * @throws IOException if the underlying transport cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        DELEGATE.close();
+    }
+
+    /**
+     * Check whether another attempt fits within the policy.
+     * @param attempt The number of the attempt that just failed.
+     * @param delayMillis The delay before the next attempt.
+     * @param deadline The deadline for all attempts, from System.nanoTime().
+     * @return Whether or not another attempt may be made.
+     */
+    private boolean canRetry(int attempt, long delayMillis, long deadline) {
+        return attempt < POLICY.MAX_ATTEMPTS && System.nanoTime() + delayMillis * 1000000 - deadline < 0;
+    }
+
+    /**
+     * Wait before the next attempt if one is allowed.
+     * @param attempt The number of the attempt that just failed.
+     * @param delayMillis The delay before the next attempt.
+     * @param deadline The deadline for all attempts, from System.nanoTime().
+     * @return Whether or not another attempt may be made.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    private boolean awaitRetry(int attempt, long delayMillis, long deadline) throws InterruptedIOException {
+        if (!canRetry(attempt, delayMillis, deadline)) {
+            return false;
+        }
+
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+
+        return true;
+    }
+
+    /**
+     * @param e The exception thrown by an attempt.
+     * @return Whether or not the failure may be transient.
+     */
+    private boolean isRetryable(IOException e) {
+        CancelSignal signal = CancelSignal.current();
+
+        return !(e instanceof UnknownHostException || e instanceof SSLException
+                || e instanceof CircuitOpenException || Thread.currentThread().isInterrupted()
+                || signal != null && signal.isCancelled());
+    }
+
+    /**
+     * Read the delay requested by a Retry-After header, given either in seconds or as an HTTP date.
+     * @param response The retryable response.
+     * @return The requested delay, capped at the policy's maximum delay, or 0 if none was requested.
+     */
+    private long retryAfterMillis(TransportResponse response) {
+        String retryAfter = response.getHeader("Retry-After");
+
+        if (retryAfter == null) {
+            return 0;
+        }
+
+        long millis;
+
+        try {
+            millis = Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(retryAfter);
+            millis = date == null ? 0 : date.getTime() - System.currentTimeMillis();
+        }
+
+        return Math.max(0, Math.min(millis, POLICY.MAX_DELAY_MILLIS));
+    }
+
+    /**
+     * @param request A request.
+     * @return The name used to group the request's endpoint for circuit breaking.
+     */
+    private static String endpointName(TransportRequest request) {
+        if (request.OPERATION != null) {
+            return request.OPERATION.name();
+        }
+
+        int query = request.URL.indexOf('?');
+
+        return request.METHOD + " " + (query < 0 ? request.URL : request.URL.substring(0, query));
+    }
+}
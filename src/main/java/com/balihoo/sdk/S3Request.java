@@ -3,22 +3,59 @@ package com.balihoo.sdk;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-import javax.xml.bind.DatatypeConverter;
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
 class S3Request {
 
+    public static final String DEFAULT_S3_ENDPOINT = "https://s3.amazonaws.com";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int MAX_UPLOAD_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final BlipTransport TRANSPORT;
+    private final String S3_ENDPOINT;
+
+    /**
+     * The S3Request constructor.
+     * @param transport The transport used to send the upload, normally shared with the BlipRequest.
+     * @param s3Endpoint The base URL of the S3 service; the bucket name is appended as the path.
+     */
+    protected S3Request(BlipTransport transport, String s3Endpoint) {
+        TRANSPORT = transport;
+        S3_ENDPOINT = s3Endpoint;
+    }
+
+    /**
+     * Open a pooled connection to the S3 endpoint, including the TLS handshake, ahead of the first upload.
+     * @param timeoutMillis The longest to wait for S3 to answer.
+     * @return The status S3 answered with. Any status means the connection was made.
+     * @throws IOException if the endpoint cannot be reached.
+     */
+    protected int connect(long timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        TransportRequest request = new TransportRequest(null, null, "GET", S3_ENDPOINT + "/",
+                                                        Collections.<String, String>emptyMap(), null, deadline);
+
+        try (TransportResponse response = TRANSPORT.execute(request)) {
+            return response.getStatusCode();
+        }
+    }
+
     /**
      * Upload a bulk location file to S3
      * @param blipRequest A credentialed BlipRequest object.
@@ -28,63 +65,181 @@ class S3Request {
      * @throws IOException if file cannot be processed.
      */
     protected BlipResponse upload(BlipRequest blipRequest, String brandKey, String filePath) throws IOException {
-        // Compress file contents
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(byteStream));
-        FileInputStream in = new FileInputStream(filePath);
+        Path source = Paths.get(filePath);
+        // Files that are already gzipped (e.g. by a BulkFileWriter) are uploaded as they are
+        boolean gzipped = isGzipped(source);
+        Path compressedFile = gzipped ? source : Files.createTempFile("blip-bulk-", ".gz");
         try {
-            byte[] buffer = new byte[1024];
+            // Compress file contents to a temporary file, hashing the compressed bytes as they are written
+            String fileMD5 = gzipped ? digest(source) : compress(source, compressedFile);
+
+            // Get authorization to upload file from BLIP
+            String path = String.format("/brand/%s/authorizeUpload?fileMD5=%s", BlipRequest.encode(brandKey),
+                                        fileMD5);
+            BlipResponse authResponse = blipRequest.executeCommand(BlipOperation.AUTHORIZE_UPLOAD, brandKey,
+                                                                    BlipRequest.Command.GET, path, null);
+
+            // Return error response if auth fails.
+            if (authResponse.STATUS_CODE != 200) {
+                return authResponse;
+            }
+
+            // Upload file to S3
+            String mimeType = gzipped ? "application/json" : Files.probeContentType(source);
+            JsonObject auth = new JsonParser().parse(authResponse.BODY).getAsJsonObject();
+            JsonObject formData = auth.get("data").getAsJsonObject();
+            String s3Bucket = auth.get("s3Bucket").getAsString();
+            String s3Path = String.format("s3://%s/%s", s3Bucket, formData.get("key").getAsString());
+            BlipResponse uploadResponse = postFileWithRetry(brandKey, s3Bucket, formData, mimeType,
+                                                            compressedFile.toFile(), fileMD5);
+
+            // Return error response if upload fails.
+            if (uploadResponse.STATUS_CODE != 204) {
+                return uploadResponse;
+            }
+
+            return new BlipResponse(uploadResponse.STATUS_CODE, s3Path);
+        } finally {
+            if (!gzipped) {
+                Files.deleteIfExists(compressedFile);
+            }
+        }
+    }
+
+    /**
+     * Check for the gzip magic number at the start of a file.
+     * @param file The file to check.
+     * @return Whether or not the file is gzipped.
+     * @throws IOException if the file cannot be read.
+     */
+    static boolean isGzipped(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    /**
+     * Compute the MD5 checksum of a file.
+     * @param file The file to hash.
+     * @return The MD5 checksum of the file as a lowercase hex String.
+     * @throws IOException if the file cannot be read.
+     */
+    static String digest(Path file) throws IOException {
+        MessageDigest md = newMD5();
+
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+
+            while ((len = in.read(buffer)) != -1) {
+                md.update(buffer, 0, len);
+            }
+        }
+
+        return toHex(md.digest());
+    }
+
+    /**
+     * Gzip a file in a single streaming pass, computing the MD5 checksum of the compressed bytes as they are written.
+     * @param source The file to compress.
+     * @param target The file to write the compressed contents to.
+     * @return The MD5 checksum of the compressed file as a lowercase hex String.
+     * @throws IOException if the file cannot be compressed.
+     */
+    static String compress(Path source, Path target) throws IOException {
+        MessageDigest md = newMD5();
+
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream gzip = new GZIPOutputStream(new DigestOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(target), BUFFER_SIZE), md), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
             int len;
 
-            while ((len = in.read(buffer)) > 0) {
+            while ((len = in.read(buffer)) != -1) {
                 gzip.write(buffer, 0, len);
             }
-        } finally {
-            in.close();
-            gzip.finish();
-            gzip.flush();
-            gzip.close();
         }
 
-        // Get authorization to upload file from BLIP
-        byte[] content = byteStream.toByteArray();
-        String fileMD5 = generateMD5Hash(content);
-        String path = String.format("/brand/%s/authorizeUpload?fileMD5=%s", brandKey, fileMD5);
-        BlipResponse authResponse = blipRequest.executeCommand(BlipRequest.Command.GET, path, null);
+        return toHex(md.digest());
+    }
+
+    /**
+     * @param bytes A checksum.
+     * @return The checksum as a lowercase hex String.
+     */
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
 
-        // Return error response if auth fails.
-        if (authResponse.STATUS_CODE != 200) {
-            return authResponse;
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
         }
 
-        // Upload file to S3
-        String mimeType = Files.probeContentType(Paths.get(filePath));
-        JsonObject auth = new JsonParser().parse(authResponse.BODY).getAsJsonObject();
-        JsonObject formData = auth.get("data").getAsJsonObject();
-        String s3Bucket = auth.get("s3Bucket").getAsString();
-        String s3Path = String.format("s3://%s/%s", s3Bucket, formData.get("key").getAsString());
-        BlipResponse uploadResponse = postFile(s3Bucket, formData, mimeType, content);
-
-        // Return error response if upload fails.
-        if (uploadResponse.STATUS_CODE != 204) {
-            return uploadResponse;
+        return new String(hex);
+    }
+
+    /**
+     * @return A new MD5 MessageDigest.
+     * @throws IOException if MD5 is not available.
+     */
+    private static MessageDigest newMD5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not available", e);
         }
+    }
+
+    /**
+     * Post the compressed file to S3, retrying server errors and dropped connections.
+     * Each attempt re-reads the compressed file from disk and reuses the same upload authorization, so a retry does
+     * not recompress the file or ask BLIP for a new policy.
+     * @param brandKey The unique identifier for a single brand.
+     * @param s3Bucket The Amazon S3 bucket name.
+     * @param formData JSON object containing the pre-signed URL data.
+     * @param mimeType The MIME type of the file to be uploaded.
+     * @param compressedFile The gzipped file.
+     * @param fileMD5 The MD5 checksum of the gzipped file as a lowercase hex String.
+     * @return BlipResponse object with a status code and body text if applicable.
+     * @throws IOException if the file cannot be uploaded after the final attempt.
+     */
+    private BlipResponse postFileWithRetry(String brandKey, String s3Bucket, JsonObject formData, String mimeType,
+                                           File compressedFile, String fileMD5) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                BlipResponse response = postFile(brandKey, s3Bucket, formData, mimeType, compressedFile, fileMD5);
+
+                if (response.STATUS_CODE < 500 || attempt == MAX_UPLOAD_ATTEMPTS) {
+                    return response;
+                }
+            } catch (IOException e) {
+                if (attempt == MAX_UPLOAD_ATTEMPTS) {
+                    throw e;
+                }
+            }
 
-        return new BlipResponse(uploadResponse.STATUS_CODE, s3Path);
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry the S3 upload");
+            }
+        }
     }
 
     /**
      * Create Multipart form-data HTTP Post to upload file to S3
+     * @param brandKey The unique identifier for a single brand.
      * @param s3Bucket The Amazon S3 bucket name.
      * @param formData JSON object containing the pre-signed URL data.
      * @param mimeType The MIME type of the file to be uploaded.
-     * @param compressedFile The gzipped file contents.
+     * @param compressedFile The gzipped file, streamed from disk as the request is sent.
+     * @param fileMD5 The MD5 checksum of the gzipped file as a lowercase hex String.
      * @return BlipResponse object with a status code and body text if applicable.
      * @throws IOException if file cannot be processed.
      */
-    private BlipResponse postFile(String s3Bucket, JsonObject formData, String mimeType, byte[] compressedFile) throws IOException {
-        CloseableHttpClient httpClient = HttpClients.createDefault();
-        HttpPost uploadFile = new HttpPost(String.format("https://s3.amazonaws.com/%s", s3Bucket));
+    private BlipResponse postFile(String brandKey, String s3Bucket, JsonObject formData, String mimeType,
+                                  File compressedFile, String fileMD5) throws IOException {
         MultipartEntityBuilder builder = MultipartEntityBuilder.create();
 
         // Add multipart/form-data params
@@ -96,43 +251,55 @@ class S3Request {
         builder.addTextBody("signature", formData.get("signature").getAsString());
         builder.addTextBody("AWSAccessKeyId", formData.get("AWSAccessKeyId").getAsString());
         builder.addTextBody("content-type", mimeType);
-        builder.addBinaryBody("file", compressedFile); // file has to be the last param added
+        builder.addBinaryBody("file", compressedFile, ContentType.DEFAULT_BINARY, null); // file has to be the last param added
         HttpEntity multipart = builder.build();
-        uploadFile.setEntity(multipart);
 
-        CloseableHttpResponse response = httpClient.execute(uploadFile);
-        int statusCode = response.getStatusLine().getStatusCode();
-        String body = "";
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", multipart.getContentType().getValue());
+        TransportRequest uploadFile = new TransportRequest(BlipOperation.S3_UPLOAD, brandKey, "POST",
+                                                           String.format("%s/%s", S3_ENDPOINT, s3Bucket),
+                                                           headers, new MultipartBody(multipart));
+        BlipStreamingResponse response = new BlipStreamingResponse(TRANSPORT.execute(uploadFile));
+        String eTag = response.getHeader("ETag");
+        BlipResponse uploadResponse = response.toBlipResponse();
 
-        // Get response body if the request is not successful
-        if (statusCode != 204) {
-            HttpEntity responseEntity = response.getEntity();
-            body = EntityUtils.toString(responseEntity, "UTF-8");
+        // S3 reports the MD5 of a single-part object as its ETag; a mismatch means the upload was corrupted.
+        if (uploadResponse.STATUS_CODE == 204 && eTag != null && !eTag.replace("\"", "").equalsIgnoreCase(fileMD5)) {
+            return new BlipResponse(502, String.format("Error: S3 ETag %s does not match file MD5 %s", eTag, fileMD5));
         }
 
-        return new BlipResponse(statusCode, body);
+        return uploadResponse;
     }
 
     /**
-     * Generate an MD5 checksum.
-     * @param content The content to evaluate.
-     * @return The checksum as a String.
+     * Adapts a multipart/form-data entity to the RequestBody API.
      */
-    private String generateMD5Hash(byte[] content) {
-        String fileMD5 = "";
-        MessageDigest md = null;
+    private static class MultipartBody extends RequestBody {
 
-        try {
-            md = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        private final HttpEntity ENTITY;
+
+        private MultipartBody(HttpEntity entity) {
+            ENTITY = entity;
         }
 
-        if (md != null) {
-            md.update(content);
-            fileMD5 = DatatypeConverter.printHexBinary(md.digest()).toLowerCase();
+        @Override
+        public long getContentLength() {
+            return ENTITY.getContentLength();
         }
 
-        return fileMD5;
+        @Override
+        public String getContentType() {
+            return ENTITY.getContentType().getValue();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return ENTITY.isRepeatable();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            ENTITY.writeTo(out);
+        }
     }
 }
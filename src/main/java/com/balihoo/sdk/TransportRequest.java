@@ -0,0 +1,90 @@
+package com.balihoo.sdk;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An HTTP request handed to a BlipTransport.
+ */
+public class TransportRequest {
+
+    public final BlipOperation OPERATION;
+    public final String BRAND_KEY;
+    public final String METHOD;
+    public final String URL;
+    public final Map<String, String> HEADERS;
+    public final RequestBody BODY;
+    public final Long DEADLINE_NANOS;
+
+    /**
+     * The TransportRequest constructor.
+     * @param method The HTTP method (e.g. GET, PUT, POST, DELETE).
+     * @param url The absolute URL to request.
+     * @param headers The request headers.
+     * @param body The request body, or null if the request has no body.
+     */
+    public TransportRequest(String method, String url, Map<String, String> headers, RequestBody body) {
+        this(null, null, method, url, headers, body);
+    }
+
+    /**
+     * The TransportRequest constructor for a request made on behalf of a BLIP operation.
+     * @param operation The BLIP operation being performed, or null if unknown.
+     * @param brandKey The brand the request applies to, or null if it is not brand specific.
+     * @param method The HTTP method (e.g. GET, PUT, POST, DELETE).
+     * @param url The absolute URL to request.
+     * @param headers The request headers.
+     * @param body The request body, or null if the request has no body.
+     */
+    public TransportRequest(BlipOperation operation, String brandKey, String method, String url,
+                            Map<String, String> headers, RequestBody body) {
+        this(operation, brandKey, method, url, headers, body, null);
+    }
+
+    /**
+     * The TransportRequest constructor for a request that must complete by a deadline.
+     * @param operation The BLIP operation being performed, or null if unknown.
+     * @param brandKey The brand the request applies to, or null if it is not brand specific.
+     * @param method The HTTP method (e.g. GET, PUT, POST, DELETE).
+     * @param url The absolute URL to request.
+     * @param headers The request headers.
+     * @param body The request body, or null if the request has no body.
+     * @param deadlineNanos The System.nanoTime() by which the response must arrive, or null for no deadline.
+     */
+    public TransportRequest(BlipOperation operation, String brandKey, String method, String url,
+                            Map<String, String> headers, RequestBody body, Long deadlineNanos) {
+        OPERATION = operation;
+        BRAND_KEY = brandKey;
+        METHOD = method;
+        URL = url;
+        HEADERS = Collections.unmodifiableMap(headers);
+        BODY = body;
+        DEADLINE_NANOS = deadlineNanos;
+    }
+
+    /**
+     * @return Whether or not sending this request more than once has the same effect as sending it once.
+     *         Falls back to the HTTP method when the operation is unknown.
+     */
+    public boolean isIdempotent() {
+        if (OPERATION != null) {
+            return OPERATION.IDEMPOTENT;
+        }
+
+        return !"POST".equalsIgnoreCase(METHOD);
+    }
+
+    /**
+     * @return The time left before the deadline, rounded up to the next millisecond, which is 0 or less once the
+     *         deadline has passed, or Long.MAX_VALUE if the request has no deadline.
+     */
+    public long getRemainingMillis() {
+        if (DEADLINE_NANOS == null) {
+            return Long.MAX_VALUE;
+        }
+
+        long remaining = DEADLINE_NANOS - System.nanoTime();
+
+        return remaining <= 0 ? remaining / 1000000 : (remaining + 999999) / 1000000;
+    }
+}
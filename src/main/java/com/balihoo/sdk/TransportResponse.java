@@ -0,0 +1,31 @@
+package com.balihoo.sdk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An HTTP response returned by a BlipTransport.
+ * Closing the response releases its connection back to the transport.
+ */
+public interface TransportResponse extends Closeable {
+
+    /**
+     * @return The numeric HTTP status code.
+     */
+    int getStatusCode();
+
+    /**
+     * Get the first value of a response header.
+     * @param name The case-insensitive header name.
+     * @return The header value, or null if the header is not present.
+     */
+    String getHeader(String name);
+
+    /**
+     * Get the response body. The stream is empty if the response has no body.
+     * @return The response body as an InputStream.
+     * @throws IOException if the body cannot be read.
+     */
+    InputStream getBody() throws IOException;
+}
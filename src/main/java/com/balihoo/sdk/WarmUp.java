@@ -0,0 +1,219 @@
+package com.balihoo.sdk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepares a Blip for its first real calls: opens connections to BLIP and to the S3 endpoint, checks the
+ * credentials with /ping and loads brand metadata through the transport, all in parallel and within a time limit.
+ */
+class WarmUp {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final BlipRequest REQUEST;
+    private final S3Request S3;
+
+    /**
+     * The WarmUp constructor.
+     * @param request The request used for BLIP calls.
+     * @param s3 The request used for S3 calls.
+     */
+    WarmUp(BlipRequest request, S3Request s3) {
+        REQUEST = request;
+        S3 = s3;
+    }
+
+    /**
+     * Run the warm-up. Failures are recorded in the report rather than thrown.
+     * @param connections The number of connections to open to BLIP.
+     * @param timeoutMillis The longest the warm-up may take.
+     * @param brandKeys The brands whose projections to load, or null for every brand the credentials can access.
+     * @return The report.
+     */
+    WarmUpReport run(int connections, long timeoutMillis, Collection<String> brandKeys) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int pool = POOL_NUMBER.incrementAndGet();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, String.format("blip-warm-up-%s-%s", pool,
+                                                               threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong pingNanos = new AtomicLong();
+        AtomicLong s3Nanos = new AtomicLong();
+        AtomicLong preloadNanos = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(connections);
+
+        try {
+            List<Future<BlipResponse>> pings = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                pings.add(executor.submit(() -> {
+                    // Send the pings together so that none of them can reuse another's connection
+                    ready.countDown();
+                    ready.await(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+                    BlipResponse response = REQUEST.executeCommand(BlipOperation.PING, null,
+                                                                   BlipRequest.Command.GET, "/ping", null,
+                                                                   remainingMillis(deadline));
+                    pingNanos.accumulateAndGet(System.nanoTime() - start, Math::max);
+
+                    return response;
+                }));
+            }
+
+            Future<Integer> s3 = executor.submit(() -> {
+                int status = S3.connect(remainingMillis(deadline));
+                s3Nanos.set(System.nanoTime() - start);
+
+                return status;
+            });
+
+            Future<List<String>> preload = executor.submit(() -> {
+                List<String> loaded = preload(executor, connections, brandKeys, deadline, errors);
+                preloadNanos.set(System.nanoTime() - start);
+
+                return loaded;
+            });
+
+            int pingStatus = -1;
+            int answered = 0;
+            for (Future<BlipResponse> ping : pings) {
+                BlipResponse response = await(ping, deadline, errors);
+                if (response != null) {
+                    answered++;
+                    if (pingStatus != 200) {
+                        pingStatus = response.STATUS_CODE;
+                    }
+                }
+            }
+            if (pingStatus != -1 && pingStatus != 200) {
+                errors.add(new BlipException(new BlipResponse(pingStatus, "Error: the credentials were rejected")));
+            }
+
+            Integer s3Status = await(s3, deadline, errors);
+            List<String> loaded = await(preload, deadline, errors);
+
+            return new WarmUpReport(pingStatus, answered, s3Status == null ? -1 : s3Status,
+                                    loaded == null ? Collections.<String>emptyList() : loaded, pingNanos.get(),
+                                    s3Nanos.get(), preloadNanos.get(), System.nanoTime() - start,
+                                    new ArrayList<>(errors));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Load the brand keys if none were given, then every brand's projections, using up to a number of threads.
+     * @param executor The executor to load the projections on.
+     * @param parallelism The number of brands to load at once.
+     * @param brandKeys The brands to load, or null for every brand the credentials can access.
+     * @param deadline The System.nanoTime() by which loading must finish.
+     * @param errors Receives the calls that failed.
+     * @return The brands whose projections were loaded.
+     * @throws BlipException if BLIP responds to getBrandKeys with an error status.
+     * @throws IOException if the brand keys cannot be fetched.
+     */
+    private List<String> preload(ExecutorService executor, int parallelism, Collection<String> brandKeys,
+                                 long deadline, List<Throwable> errors) throws IOException {
+        if (brandKeys == null) {
+            BlipResponse response = REQUEST.executeCommand(BlipOperation.GET_BRAND_KEYS, null,
+                                                           BlipRequest.Command.GET, "/brand", null,
+                                                           remainingMillis(deadline));
+            if (response.STATUS_CODE != 200) {
+                throw new BlipException(response);
+            }
+
+            brandKeys = new ArrayList<>();
+            for (JsonElement brandKey : new JsonParser().parse(response.BODY).getAsJsonArray()) {
+                brandKeys.add(brandKey.getAsString());
+            }
+        }
+
+        Queue<String> remaining = new ConcurrentLinkedQueue<>(brandKeys);
+        List<String> loaded = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Void>> workers = new ArrayList<>();
+
+        for (int i = 0; i < Math.min(parallelism, brandKeys.size()); i++) {
+            workers.add(executor.submit(() -> {
+                String brandKey;
+                while ((brandKey = remaining.poll()) != null) {
+                    try {
+                        String path = String.format("/brand/%s/projection", BlipRequest.encode(brandKey));
+                        BlipResponse response = REQUEST.executeCommand(BlipOperation.GET_BRAND_PROJECTIONS, brandKey,
+                                                                       BlipRequest.Command.GET, path, null,
+                                                                       remainingMillis(deadline));
+                        if (response.STATUS_CODE == 200) {
+                            loaded.add(brandKey);
+                        } else {
+                            errors.add(new BlipException(response));
+                        }
+                    } catch (IOException e) {
+                        errors.add(e);
+                    }
+                }
+
+                return null;
+            }));
+        }
+
+        for (Future<Void> worker : workers) {
+            await(worker, deadline, errors);
+        }
+
+        synchronized (loaded) {
+            return new ArrayList<>(loaded);
+        }
+    }
+
+    /**
+     * Wait for a step to finish by the deadline, recording its failure and cancelling it if it does not.
+     * @param step The step.
+     * @param deadline The System.nanoTime() by which the step must finish.
+     * @param errors Receives the reason the step failed.
+     * @param <T> The type of the step's result.
+     * @return The step's result, or null if it failed.
+     */
+    private static <T> T await(Future<T> step, long deadline, List<Throwable> errors) {
+        try {
+            return step.get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            errors.add(e.getCause());
+        } catch (TimeoutException e) {
+            step.cancel(true);
+            errors.add(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            step.cancel(true);
+            errors.add(e);
+        }
+
+        return null;
+    }
+
+    /**
+     * @param deadline A System.nanoTime() deadline.
+     * @return The milliseconds left until the deadline, at least 1 so a call that starts late fails fast.
+     */
+    private static long remainingMillis(long deadline) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+}
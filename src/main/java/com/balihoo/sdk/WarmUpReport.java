@@ -0,0 +1,71 @@
+package com.balihoo.sdk;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of Blip.warmUp: whether the credentials were accepted, how many connections were opened, which brands
+ * were preloaded and how long each step took. The steps run in parallel, so their times overlap.
+ */
+public class WarmUpReport {
+
+    public final int PING_STATUS;
+    public final int CONNECTIONS;
+    public final int S3_STATUS;
+    public final List<String> BRAND_KEYS;
+    public final long PING_NANOS;
+    public final long S3_NANOS;
+    public final long PRELOAD_NANOS;
+    public final long TOTAL_NANOS;
+    public final List<Throwable> ERRORS;
+
+    /**
+     * The WarmUpReport constructor.
+     * @param pingStatus The status BLIP answered the pings with, or -1 if no ping was answered.
+     * @param connections The number of pings answered, each on its own connection to BLIP.
+     * @param s3Status The status the S3 endpoint answered with, or -1 if it could not be reached.
+     * @param brandKeys The brands whose projections were loaded.
+     * @param pingNanos The time until the last ping was answered, including DNS, connect and TLS handshake.
+     * @param s3Nanos The time until the S3 endpoint answered.
+     * @param preloadNanos The time taken to load the brand keys and projections.
+     * @param totalNanos The time taken by the whole warm-up.
+     * @param errors The calls that failed, timed out or were answered with an error status.
+     */
+    WarmUpReport(int pingStatus, int connections, int s3Status, List<String> brandKeys, long pingNanos,
+                 long s3Nanos, long preloadNanos, long totalNanos, List<Throwable> errors) {
+        PING_STATUS = pingStatus;
+        CONNECTIONS = connections;
+        S3_STATUS = s3Status;
+        BRAND_KEYS = Collections.unmodifiableList(brandKeys);
+        PING_NANOS = pingNanos;
+        S3_NANOS = s3Nanos;
+        PRELOAD_NANOS = preloadNanos;
+        TOTAL_NANOS = totalNanos;
+        ERRORS = Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return Whether or not BLIP accepted the credentials.
+     */
+    public boolean isAuthorized() {
+        return PING_STATUS == 200;
+    }
+
+    /**
+     * @return Whether or not the credentials were accepted, S3 was reached and every call succeeded.
+     */
+    public boolean isSuccessful() {
+        return isAuthorized() && S3_STATUS != -1 && ERRORS.isEmpty();
+    }
+
+    /**
+     * @return A one-line summary of the timings, for logging at startup.
+     */
+    @Override
+    public String toString() {
+        return String.format("ping %s on %s connections in %.1fms, S3 %s in %.1fms, %s brands preloaded in %.1fms, "
+                             + "total %.1fms, %s errors", PING_STATUS, CONNECTIONS, PING_NANOS / 1e6, S3_STATUS,
+                             S3_NANOS / 1e6, BRAND_KEYS.size(), PRELOAD_NANOS / 1e6, TOTAL_NANOS / 1e6,
+                             ERRORS.size());
+    }
+}
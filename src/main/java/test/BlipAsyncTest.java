@@ -0,0 +1,76 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipAsync;
+import com.balihoo.sdk.BlipResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BlipAsyncTest {
+
+    private HttpServer server;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/brand", (HttpExchange exchange) -> {
+            int now = running.incrementAndGet();
+            maxRunning.accumulateAndGet(now, Math::max);
+
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            running.decrementAndGet();
+            while (exchange.getRequestBody().read() != -1) {
+                // drain the request so the connection stays open
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testInFlightCallsAreBounded() throws Exception {
+        String endpoint = String.format("http://127.0.0.1:%s", server.getAddress().getPort());
+
+        try (Blip blip = new Blip("key", "secret", endpoint); BlipAsync async = new BlipAsync(blip, 3)) {
+            List<CompletableFuture<BlipResponse>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 12; i++) {
+                futures.add(async.putLocation("brand", "location" + i, "source", "{}"));
+                assertTrue(async.getInFlightCount() <= 3);
+            }
+
+            for (CompletableFuture<BlipResponse> future : futures) {
+                assertEquals(204, future.get().STATUS_CODE);
+            }
+        }
+
+        assertTrue(maxRunning.get() <= 3);
+    }
+}
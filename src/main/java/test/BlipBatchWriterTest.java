@@ -0,0 +1,221 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipAsync;
+import com.balihoo.sdk.BlipBatchWriter;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipSimulator;
+import com.balihoo.sdk.BulkLoadCallbackReceiver;
+import com.balihoo.sdk.PooledHttpTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BlipBatchWriterTest {
+
+    private BlipSimulator simulator;
+    private Blip blip;
+    private BlipAsync async;
+    private final List<BlipBatchWriter.Result> results = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new BlipSimulator();
+        simulator.addBrand("mybrand", "mysource");
+        blip = new Blip("key", "secret", simulator.getEndpoint(), simulator.getS3Endpoint(),
+                        new PooledHttpTransport());
+        async = new BlipAsync(blip, 4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        async.close();
+        blip.close();
+        simulator.close();
+    }
+
+    @Test
+    public void testCoalescesRepeatedKeys() throws Exception {
+        simulator.putLocation("mybrand", "B2", "{}");
+
+        try (BlipBatchWriter writer = new BlipBatchWriter(async, "mybrand", "mysource", 1000, 60000, results::add)) {
+            writer.put("A1", "{\"version\":1}");
+            writer.put("A1", "{\"version\":2}");
+            writer.put("B2", "{\"version\":1}");
+            writer.delete("B2");
+            writer.flush().get(10, TimeUnit.SECONDS);
+
+            assertEquals(4, writer.getSubmittedCount());
+            assertEquals(2, writer.getCoalescedCount());
+            assertEquals(2, writer.getSucceededCount());
+        }
+
+        assertEquals("{\"version\":2}", simulator.getLocation("mybrand", "A1"));
+        assertNull(simulator.getLocation("mybrand", "B2"));
+        assertEquals(1, simulator.getRequestCount(BlipOperation.PUT_LOCATION));
+        assertEquals(1, simulator.getRequestCount(BlipOperation.DELETE_LOCATION));
+    }
+
+    @Test
+    public void testFlushesOnSizeAndOnTime() throws Exception {
+        try (BlipBatchWriter writer = new BlipBatchWriter(async, "mybrand", "mysource", 3, 60000, results::add)) {
+            writer.put("A1", "{}");
+            writer.put("B2", "{}");
+            assertTrue(awaitResults(2, 200) < 2);
+            writer.put("C3", "{}");
+            assertEquals(3, awaitResults(3, 5000));
+        }
+
+        results.clear();
+        try (BlipBatchWriter writer = new BlipBatchWriter(async, "mybrand", "mysource", 1000, 50, results::add)) {
+            writer.put("D4", "{}");
+            assertEquals(1, awaitResults(1, 5000));
+        }
+
+        assertEquals(4, simulator.getLocationCount("mybrand"));
+    }
+
+    @Test
+    public void testKeepsOrderAcrossBatches() throws Exception {
+        // Without ordering the quick delete would land before the slow put that came first
+        simulator.setLatency(BlipOperation.PUT_LOCATION, BlipSimulator.Latency.fixed(200));
+
+        try (BlipBatchWriter writer = new BlipBatchWriter(async, "mybrand", "mysource", 1000, 60000, results::add)) {
+            writer.put("A1", "{}");
+            writer.flush();
+            writer.delete("A1");
+            writer.flush().get(10, TimeUnit.SECONDS);
+        }
+
+        assertNull(simulator.getLocation("mybrand", "A1"));
+        assertEquals(BlipBatchWriter.Operation.PUT, results.get(0).OPERATION);
+        assertEquals(BlipBatchWriter.Operation.DELETE, results.get(1).OPERATION);
+    }
+
+    @Test
+    public void testSendsBulkLoadAtThreshold() throws Exception {
+        try (BulkLoadCallbackReceiver receiver = new BulkLoadCallbackReceiver(new InetSocketAddress("127.0.0.1", 0),
+                                                                              null);
+             BlipBatchWriter writer = new BlipBatchWriter(async, "mybrand", "mysource", 1000, 60000, 3, receiver,
+                                                          10000, results::add)) {
+            writer.put("A1", "{}");
+            writer.put("B2", "{}");
+            writer.flush().get(10, TimeUnit.SECONDS);
+            assertEquals(0, writer.getBulkLoadedCount());
+
+            writer.put("C3", "{\"version\":1}");
+            writer.put("D4", "{}");
+            writer.put("E5", "{}");
+            writer.flush();
+            // Sent only once the load has finished, so it is not overwritten by it
+            writer.put("C3", "{\"version\":2}");
+            writer.flush().get(10, TimeUnit.SECONDS);
+
+            assertEquals(3, writer.getBulkLoadedCount());
+            assertEquals(6, writer.getSucceededCount());
+        }
+
+        assertEquals(1, simulator.getRequestCount(BlipOperation.BULK_LOAD));
+        assertEquals(3, simulator.getRequestCount(BlipOperation.PUT_LOCATION));
+        assertEquals(5, simulator.getLocationCount("mybrand"));
+        assertEquals("{\"version\":2}", simulator.getLocation("mybrand", "C3"));
+        List<String> bulkLoaded = new ArrayList<>();
+        for (BlipBatchWriter.Result result : results) {
+            assertTrue(result.isSuccessful());
+            if (result.BULK_LOADED) {
+                bulkLoaded.add(result.LOCATION_KEY);
+            }
+        }
+        assertEquals(Arrays.asList("C3", "D4", "E5"), bulkLoaded);
+    }
+
+    @Test
+    public void testReportsRejectedBulkLoad() throws Exception {
+        simulator.setErrorRate(BlipOperation.BULK_LOAD, 1, 400);
+
+        try (BulkLoadCallbackReceiver receiver = new BulkLoadCallbackReceiver(new InetSocketAddress("127.0.0.1", 0),
+                                                                              null);
+             BlipBatchWriter writer = new BlipBatchWriter(async, "mybrand", "mysource", 1000, 60000, 2, receiver,
+                                                          10000, results::add)) {
+            writer.put("A1", "{}");
+            writer.put("B2", "{}");
+            writer.flush().get(10, TimeUnit.SECONDS);
+
+            assertEquals(2, writer.getFailedCount());
+        }
+
+        assertEquals(2, results.size());
+        for (BlipBatchWriter.Result result : results) {
+            assertTrue(result.BULK_LOADED);
+            assertEquals(400, result.RESPONSE.STATUS_CODE);
+            assertNull(result.ERROR);
+        }
+    }
+
+    @Test
+    public void testReportsSuccessAndFailure() throws Exception {
+        simulator.setErrorRate(BlipOperation.DELETE_LOCATION, 1, 400);
+
+        try (BlipBatchWriter writer = new BlipBatchWriter(async, "mybrand", "mysource", 1000, 60000, results::add)) {
+            writer.put("A1", "{}");
+            writer.delete("B2");
+            writer.flush().get(10, TimeUnit.SECONDS);
+
+            assertEquals(1, writer.getSucceededCount());
+            assertEquals(1, writer.getFailedCount());
+        }
+
+        assertEquals(2, results.size());
+        for (BlipBatchWriter.Result result : results) {
+            if (result.OPERATION == BlipBatchWriter.Operation.PUT) {
+                assertTrue(result.isSuccessful());
+                assertEquals(204, result.RESPONSE.STATUS_CODE);
+            } else {
+                assertFalse(result.isSuccessful());
+                assertEquals(400, result.RESPONSE.STATUS_CODE);
+            }
+            assertNull(result.ERROR);
+            assertFalse(result.BULK_LOADED);
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForOutstandingCalls() throws IOException {
+        simulator.setLatency(BlipOperation.PUT_LOCATION, BlipSimulator.Latency.fixed(300));
+
+        BlipBatchWriter writer = new BlipBatchWriter(async, "mybrand", "mysource", 2, 10, results::add);
+        for (int i = 0; i < 5; i++) {
+            writer.put("LOC" + i, "{}");
+        }
+        writer.close();
+
+        assertEquals(5, results.size());
+        assertEquals(5, writer.getSucceededCount());
+        assertEquals(5, simulator.getLocationCount("mybrand"));
+        try {
+            writer.put("LOC5", "{}");
+            fail("Expected the writer to be closed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private int awaitResults(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (results.size() < count && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+
+        return results.size();
+    }
+}
@@ -0,0 +1,137 @@
+package test;
+
+import com.balihoo.sdk.AdaptiveConcurrencyLimiter;
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipAsync;
+import com.balihoo.sdk.BlipMetrics;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipResponse;
+import com.balihoo.sdk.BlipSimulator;
+import com.balihoo.sdk.RetryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BlipBuilderTest {
+
+    private BlipSimulator simulator;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new BlipSimulator();
+        simulator.addBrand("mybrand", "mysource");
+        simulator.putLocation("mybrand", "ABC123", "{\"name\":\"Main Street\"}");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        simulator.close();
+    }
+
+    @Test
+    public void testComposesTransports() throws IOException {
+        BlipMetrics metrics = new BlipMetrics();
+        simulator.setErrorRate(BlipOperation.GET_BRAND_SOURCES, 1, 503);
+
+        try (Blip blip = Blip.builder()
+                .credentials("key", "secret")
+                .endpoint(simulator.getEndpoint())
+                .s3Endpoint(simulator.getS3Endpoint())
+                .connectionPool(4, 4)
+                .timeouts(1000, 5000)
+                .retries(new RetryPolicy(3, 1, 10, 5000))
+                .cache(100, 60000)
+                .listener(metrics)
+                .build()) {
+            assertEquals(200, blip.getLocation("mybrand", "ABC123").STATUS_CODE);
+            assertEquals(200, blip.getLocation("mybrand", "ABC123").STATUS_CODE);
+            assertEquals(503, blip.getBrandSources("mybrand").STATUS_CODE);
+        }
+
+        // The second getLocation is served from the cache
+        assertEquals(1, simulator.getRequestCount(BlipOperation.GET_LOCATION));
+        assertEquals(1, metrics.get(BlipOperation.GET_LOCATION).getCallCount());
+        assertEquals(3, simulator.getRequestCount(BlipOperation.GET_BRAND_SOURCES));
+        assertEquals(2, metrics.get(BlipOperation.GET_BRAND_SOURCES).getRetryCount());
+    }
+
+    @Test
+    public void testComposesRateLimits() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 32, 0);
+        simulator.setErrorRate(BlipOperation.GET_BRAND_SOURCES, 1, 503);
+        long start = System.nanoTime();
+
+        try (Blip blip = Blip.builder()
+                .credentials("key", "secret")
+                .endpoint(simulator.getEndpoint())
+                .brandRateLimit(5, 1)
+                .concurrencyLimit(limiter)
+                .build()) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(200, blip.getLocation("mybrand", "ABC123").STATUS_CODE);
+            }
+            assertEquals(503, blip.getBrandSources("mybrand").STATUS_CODE);
+        }
+
+        // Three calls after the first wait for a token at 5 per second
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(limiter.getLimit() < 8);
+        assertEquals(0, limiter.getInFlightCount());
+    }
+
+    @Test
+    public void testSharedAcrossThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        List<Future<BlipResponse>> responses = new ArrayList<>();
+
+        try (Blip blip = Blip.builder().credentials("key", "secret").endpoint(simulator.getEndpoint()).build()) {
+            for (int i = 0; i < 500; i++) {
+                responses.add(executor.submit(() -> blip.getLocation("mybrand", "ABC123")));
+            }
+            for (Future<BlipResponse> response : responses) {
+                assertEquals(200, response.get(10, TimeUnit.SECONDS).STATUS_CODE);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(500, simulator.getRequestCount(BlipOperation.GET_LOCATION));
+    }
+
+    @Test
+    public void testAsyncIsSharedAndClosedWithBlip() throws Exception {
+        BlipAsync async;
+
+        try (Blip blip = Blip.builder().credentials("key", "secret").endpoint(simulator.getEndpoint())
+                             .async(4, null).build()) {
+            async = blip.async();
+            assertSame(async, blip.async());
+            assertEquals(200, async.getLocation("mybrand", "ABC123").get(10, TimeUnit.SECONDS).STATUS_CODE);
+        }
+
+        CompletableFuture<BlipResponse> rejected = async.getLocation("mybrand", "ABC123");
+        try {
+            rejected.get(10, TimeUnit.SECONDS);
+            fail("Expected the closed BlipAsync to reject the call");
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRequiresCredentials() {
+        Blip.builder().endpoint(simulator.getEndpoint()).build();
+    }
+}
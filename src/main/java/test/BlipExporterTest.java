@@ -0,0 +1,333 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipExporter;
+import com.balihoo.sdk.BlipSimulator;
+import com.balihoo.sdk.NdjsonExportSink;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BlipExporterTest {
+
+    private static final Map<String, Integer> BRAND_SIZES = new TreeMap<>();
+
+    static {
+        BRAND_SIZES.put("big", 7);
+        BRAND_SIZES.put("small", 2);
+    }
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private Blip blip;
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private volatile boolean smallFails = false;
+    private volatile int failingPage = -1;
+    private volatile int deleted = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/brand", this::handle);
+        executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.start();
+        blip = new Blip("key", "secret", String.format("http://127.0.0.1:%s", server.getAddress().getPort()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        blip.close();
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExportsEveryBrandWithPages() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BlipExporter.Progress result;
+
+        try (NdjsonExportSink sink = new NdjsonExportSink(out)) {
+            result = new BlipExporter(blip, 4, 2, 3).export(sink);
+        }
+
+        assertTrue(result.isComplete());
+        assertEquals(9, result.EXPORTED);
+        assertEquals(lines("big", 7, "small", 2), sortedLines(out));
+        // Each lane stops at its first short page: pages 0-3 of big and 0-1 of small
+        assertEquals(6, requests.get("locationList").get());
+        assertNull(requests.get("location"));
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws IOException {
+        Path dir = Files.createTempDirectory("export");
+        Path output = dir.resolve("export.json");
+        Path checkpoint = dir.resolve("export.checkpoint");
+        smallFails = true;
+
+        try {
+            BlipExporter exporter = new BlipExporter(blip, 4, 2, 3);
+            BlipExporter.Progress first;
+            try (NdjsonExportSink sink = new NdjsonExportSink(output)) {
+                first = exporter.export(Arrays.asList("big", "small"), sink, checkpoint, null);
+            }
+
+            assertFalse(first.isComplete());
+            assertEquals(1, first.BRANDS_COMPLETED);
+            assertTrue(first.ERRORS.containsKey("small"));
+
+            smallFails = false;
+            requests.clear();
+            List<BlipExporter.Progress> reports = Collections.synchronizedList(new ArrayList<BlipExporter.Progress>());
+            BlipExporter.Progress second;
+            try (NdjsonExportSink sink = new NdjsonExportSink(output)) {
+                second = exporter.export(Arrays.asList("big", "small"), sink, checkpoint, reports::add);
+            }
+
+            assertTrue(second.isComplete());
+            assertEquals(2, second.EXPORTED);
+            assertEquals(2, requests.get("locationList").get());
+            assertFalse(reports.isEmpty());
+            assertEquals(lines("big", 7, "small", 2), sortedLines(Files.readAllLines(output)));
+        } finally {
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(checkpoint);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testExportsAgainPagesThatLocationsMovedOnTo() throws IOException {
+        Path dir = Files.createTempDirectory("export");
+        Path output = dir.resolve("export.json");
+        Path checkpoint = dir.resolve("export.checkpoint");
+        // Lane 0 records pages 0 and 2 of big; lane 1 fails at page 1
+        failingPage = 1;
+
+        try {
+            BlipExporter exporter = new BlipExporter(blip, 4, 2, 3);
+            try (NdjsonExportSink sink = new NdjsonExportSink(output)) {
+                assertFalse(exporter.export(Collections.singletonList("big"), sink, checkpoint, null).isComplete());
+            }
+
+            // Deleting big0 moves big3 on to page 0, which was already exported
+            failingPage = -1;
+            deleted = 1;
+            BlipExporter.Progress second;
+            try (NdjsonExportSink sink = new NdjsonExportSink(output)) {
+                second = exporter.export(Collections.singletonList("big"), sink, checkpoint, null);
+            }
+
+            // big1 and big2 on page 0 and big6 on page 1 were exported with the first run's pages 0 and 2
+            assertTrue(second.isComplete());
+            assertEquals(3, second.EXPORTED);
+            assertEquals(3, second.SKIPPED);
+            assertEquals(lines("big", 7), sortedLines(Files.readAllLines(output)));
+        } finally {
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(checkpoint);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testSkipsExportedPagesWithOneRequestEach() throws IOException {
+        Path dir = Files.createTempDirectory("export");
+        Path output = dir.resolve("export.json");
+        Path checkpoint = dir.resolve("export.checkpoint");
+        failingPage = 1;
+
+        try {
+            BlipExporter exporter = new BlipExporter(blip, 4, 2, 3);
+            try (NdjsonExportSink sink = new NdjsonExportSink(output)) {
+                assertFalse(exporter.export(Collections.singletonList("big"), sink, checkpoint, null).isComplete());
+            }
+
+            failingPage = -1;
+            requests.clear();
+            BlipExporter.Progress second;
+            try (NdjsonExportSink sink = new NdjsonExportSink(output)) {
+                second = exporter.export(Collections.singletonList("big"), sink, checkpoint, null);
+            }
+
+            assertTrue(second.isComplete());
+            assertEquals(3, second.EXPORTED);
+            assertEquals(4, second.SKIPPED);
+            // Pages 0 and 2 once each to check them, page 1 and the empty page 3
+            assertEquals(4, requests.get("locationList").get());
+            assertEquals(lines("big", 7), sortedLines(Files.readAllLines(output)));
+        } finally {
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(checkpoint);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testSinkWritesEachLocationOnOneLine() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (NdjsonExportSink sink = new NdjsonExportSink(out)) {
+            sink.write("big", "big0", "{\n  \"locationKey\": \"big0\",\n  \"name\": \"Location 0\"\n}");
+        }
+
+        assertEquals(lines("big", 1), sortedLines(out));
+    }
+
+    @Test
+    public void testFetchesEachLocationForProjection() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BlipExporter.Progress result;
+
+        try (NdjsonExportSink sink = new NdjsonExportSink(out)) {
+            result = new BlipExporter(blip, 4, 3, 3, "custom", false).export(Collections.singletonList("big"),
+                                                                          sink, null, null);
+        }
+
+        assertTrue(result.isComplete());
+        assertEquals(lines("big", 7), sortedLines(out));
+        assertEquals(1, requests.get("locationKeys").get());
+        assertEquals(7, requests.get("location").get());
+        assertNull(requests.get("locationList"));
+    }
+
+    @Test
+    public void testExportsFromSimulator() throws IOException {
+        ByteArrayOutputStream pages = new ByteArrayOutputStream();
+        ByteArrayOutputStream locations = new ByteArrayOutputStream();
+
+        try (BlipSimulator simulator = new BlipSimulator();
+             Blip simulated = new Blip("key", "secret", simulator.getEndpoint())) {
+            simulator.addBrand("big", "mysource");
+            for (int i = 0; i < 7; i++) {
+                simulator.putLocation("big", "big" + i, document("big", i));
+            }
+
+            try (NdjsonExportSink sink = new NdjsonExportSink(pages)) {
+                assertTrue(new BlipExporter(simulated, 4, 2, 3).export(sink).isComplete());
+            }
+            try (NdjsonExportSink sink = new NdjsonExportSink(locations)) {
+                assertTrue(new BlipExporter(simulated, 4, 3, 3, "custom", false).export(sink).isComplete());
+            }
+        }
+
+        assertEquals(lines("big", 7), sortedLines(pages));
+        assertEquals(lines("big", 7), sortedLines(locations));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+
+        if (path.length == 2) {
+            respond(exchange, 200, "[\"big\",\"small\"]");
+            return;
+        }
+
+        String brandKey = path[2];
+        int offset = "big".equals(brandKey) ? deleted : 0;
+        int size = BRAND_SIZES.get(brandKey);
+
+        if ("locationList".equals(path[3])) {
+            count("locationList");
+            JsonObject body = new JsonParser().parse(new InputStreamReader(exchange.getRequestBody(), "UTF-8"))
+                                              .getAsJsonObject();
+            if (smallFails && "small".equals(brandKey)) {
+                respond(exchange, 500, "{}");
+                return;
+            }
+            int pageSize = body.get("pageSize").getAsInt();
+            if ("big".equals(brandKey) && pageSize > 1 && body.get("pageNumber").getAsInt() == failingPage) {
+                respond(exchange, 500, "{}");
+                return;
+            }
+            int first = body.get("pageNumber").getAsInt() * pageSize + offset;
+            StringBuilder page = new StringBuilder("[");
+            for (int i = first; i < Math.min(first + pageSize, size); i++) {
+                page.append(i == first ? "" : ",").append(record(brandKey, i));
+            }
+            respond(exchange, 200, page.append("]").toString());
+        } else if (path.length == 4) {
+            count("locationKeys");
+            StringBuilder keys = new StringBuilder("[");
+            for (int i = 0; i < size; i++) {
+                keys.append(i == 0 ? "" : ",").append("\"").append(brandKey).append(i).append("\"");
+            }
+            respond(exchange, 200, keys.append("]").toString());
+        } else {
+            count("location");
+            respond(exchange, 200, record(brandKey, Integer.parseInt(path[4].substring(brandKey.length()))));
+        }
+    }
+
+    private void count(String operation) {
+        requests.computeIfAbsent(operation, key -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static String document(String brandKey, int i) {
+        return String.format("{\"locationKey\":\"%s%s\",\"name\":\"Location %s\"}", brandKey, i, i);
+    }
+
+    private static String record(String brandKey, int i) {
+        return String.format("{\"brandKey\":\"%s\",\"locationKey\":\"%s%s\",\"document\":%s}",
+                             brandKey, brandKey, i, document(brandKey, i));
+    }
+
+    private static List<String> lines(Object... brandSizes) {
+        List<String> lines = new ArrayList<>();
+        for (int b = 0; b < brandSizes.length; b += 2) {
+            String brandKey = (String) brandSizes[b];
+            for (int i = 0; i < (Integer) brandSizes[b + 1]; i++) {
+                lines.add(record(brandKey, i));
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static List<String> sortedLines(ByteArrayOutputStream out) throws IOException {
+        return sortedLines(Arrays.asList(out.toString("UTF-8").split("\n")));
+    }
+
+    private static List<String> sortedLines(List<String> lines) {
+        List<String> sorted = new ArrayList<>(lines);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        while (exchange.getRequestBody().read() != -1) {
+            // drain the request so the connection stays open
+        }
+
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
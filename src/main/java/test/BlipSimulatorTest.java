@@ -0,0 +1,120 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipAsync;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipResponse;
+import com.balihoo.sdk.BlipSimulator;
+import com.balihoo.sdk.BulkLoadCallbackReceiver;
+import com.balihoo.sdk.BulkLoadHandle;
+import com.balihoo.sdk.BulkLoadResult;
+import com.balihoo.sdk.LocationQuery;
+import com.balihoo.sdk.PooledHttpTransport;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BlipSimulatorTest {
+
+    private BlipSimulator simulator;
+    private Blip blip;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new BlipSimulator();
+        simulator.addBrand("mybrand", "mysource");
+        blip = new Blip("key", "secret", simulator.getEndpoint(), simulator.getS3Endpoint(),
+                        new PooledHttpTransport());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        blip.close();
+        simulator.close();
+    }
+
+    @Test
+    public void testServesLocations() throws IOException {
+        assertEquals(204, blip.putLocation("mybrand", "B2", "mysource", "{\"name\":\"Alpha\",\"state\":\"ID\"}")
+                .STATUS_CODE);
+        assertEquals(204, blip.putLocation("mybrand", "A1", "mysource", "{\"name\":\"Bravo\",\"state\":\"ID\"}")
+                .STATUS_CODE);
+        simulator.putLocation("mybrand", "C3", "{\"name\":\"Charlie\",\"state\":\"WA\"}");
+
+        assertEquals("[\"mybrand\"]", blip.getBrandKeys().BODY);
+        assertEquals("[\"mysource\"]", blip.getBrandSources("mybrand").BODY);
+        assertEquals("[\"A1\",\"B2\",\"C3\"]", blip.getLocationKeys("mybrand").BODY);
+        assertEquals(404, blip.getLocation("otherbrand", "A1").STATUS_CODE);
+
+        BlipResponse location = blip.getLocation("mybrand", "A1");
+        assertEquals(200, location.STATUS_CODE);
+        assertEquals("Bravo", new JsonParser().parse(location.BODY).getAsJsonObject()
+                                              .getAsJsonObject("document").get("name").getAsString());
+
+        BlipResponse page = blip.queryLocations("mybrand", new LocationQuery().where("document.state", "ID")
+                                                                             .sort("name", "asc").page(1, 0));
+        JsonArray matches = new JsonParser().parse(page.BODY).getAsJsonArray();
+        assertEquals(1, matches.size());
+        assertEquals("B2", matches.get(0).getAsJsonObject().get("locationKey").getAsString());
+
+        assertEquals(204, blip.deleteLocation("mybrand", "A1", "mysource").STATUS_CODE);
+        assertNull(simulator.getLocation("mybrand", "A1"));
+        assertEquals(2, simulator.getLocationCount("mybrand"));
+    }
+
+    @Test
+    public void testAppliesBulkLoadsAndCallsBack() throws Exception {
+        simulator.putLocation("mybrand", "OLD", "{\"name\":\"Old\"}");
+        Path file = Files.createTempFile("bulk", ".json");
+
+        try (BlipAsync async = new BlipAsync(blip);
+             BulkLoadCallbackReceiver receiver = new BulkLoadCallbackReceiver(
+                     new InetSocketAddress("127.0.0.1", 0), null)) {
+            Files.write(file, Arrays.asList(
+                    "{\"brandKey\":\"mybrand\",\"locationKey\":\"A1\",\"document\":{\"name\":\"Alpha\"}}",
+                    "{\"brandKey\":\"mybrand\",\"locationKey\":\"B2\",\"document\":{\"name\":\"Bravo\"}}"));
+            BulkLoadHandle handle = async.bulkLoad("mybrand", "mysource", file.toString(), true, 2, receiver, 10000);
+            BulkLoadResult result = handle.getCompletion().get(10, TimeUnit.SECONDS);
+
+            assertTrue(result.SUCCEEDED);
+            assertEquals(handle.getS3Path(), result.S3_PATH);
+            assertEquals("{\"name\":\"Alpha\"}", simulator.getLocation("mybrand", "A1"));
+            assertEquals(2, simulator.getLocationCount("mybrand"));
+            assertEquals(1, simulator.getRequestCount(BlipOperation.S3_UPLOAD));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testInjectsErrorsAndThrottles() throws IOException {
+        simulator.setErrorRate(BlipOperation.GET_LOCATION_KEYS, 1, 503);
+        assertEquals(503, blip.getLocationKeys("mybrand").STATUS_CODE);
+        assertEquals(200, blip.getBrandSources("mybrand").STATUS_CODE);
+
+        simulator.setRateLimit(0.001, 1);
+        assertEquals(200, blip.ping().STATUS_CODE);
+        assertEquals(429, blip.ping().STATUS_CODE);
+        assertEquals(2, simulator.getRequestCount(BlipOperation.PING));
+    }
+
+    @Test
+    public void testDelaysCalls() throws IOException {
+        simulator.setLatency(BlipOperation.PING, BlipSimulator.Latency.fixed(100));
+        long start = System.nanoTime();
+
+        assertEquals(200, blip.ping().STATUS_CODE);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+}
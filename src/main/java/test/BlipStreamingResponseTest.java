@@ -0,0 +1,76 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipResponse;
+import com.balihoo.sdk.BlipStreamingResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BlipStreamingResponseTest {
+
+    private static final String KEYS = "[\"caf\u00e9\",\r\n\"na\u00efve\"]";
+
+    private HttpServer server;
+    private String endpoint;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/brand/mybrand/location", (HttpExchange exchange) -> {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+            out.write(KEYS.getBytes("UTF-8"));
+            out.close();
+        });
+        server.start();
+        endpoint = String.format("http://127.0.0.1:%s", server.getAddress().getPort());
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBufferedBodyIsDecodedWithoutChanges() throws IOException {
+        try (Blip blip = new Blip("key", "secret", endpoint)) {
+            BlipResponse response = blip.getLocationKeys("mybrand");
+
+            assertEquals(200, response.STATUS_CODE);
+            assertEquals(KEYS, response.BODY);
+        }
+    }
+
+    @Test
+    public void testStreamedBodyPreservesBytes() throws IOException {
+        try (Blip blip = new Blip("key", "secret", endpoint);
+             BlipStreamingResponse response = blip.streamLocationKeys("mybrand")) {
+            assertTrue(response.isSuccessful());
+
+            InputStream in = response.getInputStream();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[3];
+            int len;
+
+            while ((len = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, len);
+            }
+
+            assertArrayEquals(KEYS.getBytes("UTF-8"), bytes.toByteArray());
+        }
+    }
+}
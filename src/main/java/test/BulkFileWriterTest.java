@@ -0,0 +1,107 @@
+package test;
+
+import com.balihoo.sdk.BulkFileWriter;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class BulkFileWriterTest {
+
+    @Test
+    public void testWritesValidLocationsInOrderAndRejectsInvalidOnes() throws Exception {
+        Path file = Files.createTempFile("bulk", ".json");
+
+        try {
+            BulkFileWriter writer = new BulkFileWriter(file, "mybrand", false, 4);
+            for (int i = 0; i < 2500; i++) {
+                JsonObject document = new JsonObject();
+                document.addProperty("name", "Location\n" + i);
+                assertTrue(writer.write("LOC" + i, document));
+            }
+            assertFalse(writer.write("LOC7", "{}"));
+            assertFalse(writer.write(null, "{}"));
+            writer.write("BADJSON", "{\"name\":");
+            writer.write("NOTOBJECT", "[1,2]");
+            writer.write("STRING", "{\"name\":\"Main\"}");
+            writer.write("POJO", Collections.singletonMap("name", "Main"));
+            writer.write("NAN", Collections.singletonMap("rating", Double.NaN));
+            JsonObject infinite = new JsonObject();
+            infinite.addProperty("rating", Double.POSITIVE_INFINITY);
+            writer.write("INFINITE", infinite);
+            writer.close();
+
+            assertEquals(2502, writer.getRecordCount());
+            assertEquals(6, writer.getRejectedCount());
+            assertEquals("duplicate locationKey", writer.getRejections().get(0).REASON);
+            assertEquals(md5(file), writer.getMD5());
+
+            List<String> lines = Files.readAllLines(file);
+            assertEquals(2502, lines.size());
+            JsonObject first = new JsonParser().parse(lines.get(0)).getAsJsonObject();
+            assertEquals("mybrand", first.get("brandKey").getAsString());
+            assertEquals("LOC0", first.get("locationKey").getAsString());
+            assertEquals("Location\n0", first.getAsJsonObject("document").get("name").getAsString());
+            assertTrue(lines.get(2499).contains("\"LOC2499\""));
+            assertTrue(lines.get(2501).contains("\"POJO\""));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testGzippedFileReadsBackAsOneStream() throws Exception {
+        Path file = Files.createTempFile("bulk", ".json.gz");
+
+        try {
+            try (BulkFileWriter writer = new BulkFileWriter(file, "mybrand", true, 3)) {
+                for (int i = 0; i < 5000; i++) {
+                    writer.write("LOC" + i, "{\"i\":" + i + "}");
+                }
+            }
+
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(file)), "UTF-8"))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+
+            assertEquals(5000, lines.size());
+            assertEquals("{\"brandKey\":\"mybrand\",\"locationKey\":\"LOC4999\",\"document\":{\"i\":4999}}",
+                         lines.get(4999));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String md5(Path file) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                md.update(buffer, 0, len);
+            }
+        }
+
+        return String.format("%032x", new BigInteger(1, md.digest()));
+    }
+}
@@ -0,0 +1,257 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipAsync;
+import com.balihoo.sdk.BlipResponse;
+import com.balihoo.sdk.BulkFileWriter;
+import com.balihoo.sdk.BulkLoadCallbackReceiver;
+import com.balihoo.sdk.BulkLoadHandle;
+import com.balihoo.sdk.BulkLoadResult;
+import com.balihoo.sdk.PooledHttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class BulkLoadTest {
+
+    private static final String AUTH = "{\"s3Bucket\":\"mybucket\",\"data\":{\"acl\":\"private\",\"bucket\":\"mybucket\","
+            + "\"key\":\"uploads/file.gz\",\"content-md5\":\"md5\",\"policy\":\"policy\",\"signature\":\"signature\","
+            + "\"AWSAccessKeyId\":\"id\"}}";
+
+    private HttpServer server;
+    private String endpoint;
+    private final AtomicInteger uploadAttempts = new AtomicInteger();
+    private final AtomicReference<String> bulkLoadQuery = new AtomicReference<>();
+    private final AtomicReference<String> authorizeQuery = new AtomicReference<>();
+    private final AtomicReference<byte[]> uploadedFile = new AtomicReference<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/brand/mybrand/authorizeUpload", (HttpExchange exchange) -> {
+            authorizeQuery.set(exchange.getRequestURI().getQuery());
+            respond(exchange, 200, AUTH);
+        });
+        server.createContext("/s3/mybucket", (HttpExchange exchange) -> {
+            uploadedFile.set(readFilePart(exchange));
+            // Fail the first attempt to exercise the retry path
+            respond(exchange, uploadAttempts.incrementAndGet() == 1 ? 503 : 204, null);
+        });
+        server.createContext("/brand/mybrand/bulkLoad", (HttpExchange exchange) -> {
+            bulkLoadQuery.set(exchange.getRequestURI().getQuery());
+            respond(exchange, 204, null);
+        });
+        server.start();
+        endpoint = String.format("http://127.0.0.1:%s", server.getAddress().getPort());
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBulkLoadUploadsToConfiguredS3Endpoint() throws IOException {
+        Path file = Files.createTempFile("bulk", ".json");
+        Files.write(file, "{\"brandKey\":\"mybrand\",\"locationKey\":\"ABC123\",\"document\":{}}\n".getBytes("UTF-8"));
+
+        try (Blip blip = new Blip("key", "secret", endpoint, endpoint + "/s3", new PooledHttpTransport())) {
+            BlipResponse response = blip.bulkLoad("mybrand", "mysource", file.toString(), false, 1,
+                                                  null, null, null, null);
+
+            assertEquals(204, response.STATUS_CODE);
+        } finally {
+            Files.delete(file);
+        }
+
+        assertEquals(2, uploadAttempts.get());
+        assertTrue(bulkLoadQuery.get().startsWith("s3Path=s3://mybucket/uploads/file.gz&source=mysource"));
+    }
+
+    @Test
+    public void testUploadIsGzippedWithMatchingMD5() throws Exception {
+        Path file = Files.createTempFile("bulk", ".json");
+        StringBuilder contents = new StringBuilder();
+        // Several buffers' worth, so the file is compressed in more than one pass of the copy loop
+        for (int i = 0; i < 5000; i++) {
+            contents.append("{\"brandKey\":\"mybrand\",\"locationKey\":\"LOC").append(i)
+                    .append("\",\"document\":{\"name\":\"Location ").append(i).append("\"}}\n");
+        }
+        byte[] original = contents.toString().getBytes("UTF-8");
+        Files.write(file, original);
+
+        try (Blip blip = new Blip("key", "secret", endpoint, endpoint + "/s3", new PooledHttpTransport())) {
+            BlipResponse response = blip.bulkLoad("mybrand", "mysource", file.toString(), false, 5000,
+                                                  null, null, null, null);
+
+            assertEquals(204, response.STATUS_CODE);
+        } finally {
+            Files.delete(file);
+        }
+
+        byte[] uploaded = uploadedFile.get();
+        ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(uploaded))) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                unzipped.write(buffer, 0, len);
+            }
+        }
+        assertArrayEquals(original, unzipped.toByteArray());
+        assertTrue(uploaded.length < original.length);
+
+        StringBuilder md5 = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(uploaded)) {
+            md5.append(String.format("%02x", b));
+        }
+        assertEquals("fileMD5=" + md5, authorizeQuery.get());
+    }
+
+    @Test
+    public void testGzippedFileIsUploadedWithoutRecompressing() throws IOException {
+        Path file = Files.createTempFile("bulk", ".json.gz");
+        BulkFileWriter writer = new BulkFileWriter(file, "mybrand", true);
+        writer.write("ABC123", "{}");
+        writer.close();
+
+        try (Blip blip = new Blip("key", "secret", endpoint, endpoint + "/s3", new PooledHttpTransport())) {
+            BlipResponse response = blip.bulkLoad("mybrand", "mysource", file.toString(), false,
+                                                  (int) writer.getRecordCount(), null, null, null, null);
+
+            assertEquals(204, response.STATUS_CODE);
+        } finally {
+            Files.delete(file);
+        }
+
+        assertEquals("fileMD5=" + writer.getMD5(), authorizeQuery.get());
+    }
+
+    @Test
+    public void testCallbackCompletesBulkLoadHandle() throws Exception {
+        Path file = Files.createTempFile("bulk", ".json");
+        Files.write(file, "{\"brandKey\":\"mybrand\",\"locationKey\":\"ABC123\",\"document\":{}}\n".getBytes("UTF-8"));
+
+        try (Blip blip = new Blip("key", "secret", endpoint, endpoint + "/s3", new PooledHttpTransport());
+             BlipAsync async = new BlipAsync(blip);
+             BulkLoadCallbackReceiver receiver = new BulkLoadCallbackReceiver(
+                     new InetSocketAddress("127.0.0.1", 0), null)) {
+            BulkLoadHandle handle = async.bulkLoad("mybrand", "mysource", file.toString(), false, 1, receiver, 10000);
+
+            assertEquals(204, handle.getInitiated().get(10, TimeUnit.SECONDS).STATUS_CODE);
+            assertEquals("s3://mybucket/uploads/file.gz", handle.getS3Path());
+            assertTrue(bulkLoadQuery.get().contains("&successCallback=" + handle.SUCCESS_CALLBACK_URL));
+            assertFalse(handle.getCompletion().isDone());
+
+            // BLIP calls back once the load has finished
+            HttpURLConnection connection = (HttpURLConnection) new URL(handle.SUCCESS_CALLBACK_URL).openConnection();
+            assertEquals(200, connection.getResponseCode());
+            connection.disconnect();
+
+            BulkLoadResult result = handle.getCompletion().get(10, TimeUnit.SECONDS);
+            assertTrue(result.SUCCEEDED);
+            assertEquals("s3://mybucket/uploads/file.gz", result.S3_PATH);
+            assertEquals(0, receiver.getPendingCount());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testBulkLoadHandleTimesOutWithoutCallback() throws Exception {
+        Path file = Files.createTempFile("bulk", ".json");
+        Files.write(file, "{\"brandKey\":\"mybrand\",\"locationKey\":\"ABC123\",\"document\":{}}\n".getBytes("UTF-8"));
+
+        try (Blip blip = new Blip("key", "secret", endpoint, endpoint + "/s3", new PooledHttpTransport());
+             BlipAsync async = new BlipAsync(blip);
+             BulkLoadCallbackReceiver receiver = new BulkLoadCallbackReceiver(
+                     new InetSocketAddress("127.0.0.1", 0), null)) {
+            BulkLoadHandle handle = async.bulkLoad("mybrand", "mysource", file.toString(), false, 1, receiver, 200);
+
+            try {
+                handle.getCompletion().get(10, TimeUnit.SECONDS);
+                fail("Expected a timeout");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertEquals(0, receiver.getPendingCount());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testWildcardAddressRequiresPublicUrl() throws IOException {
+        try {
+            new BulkLoadCallbackReceiver(new InetSocketAddress(0), null).close();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // BLIP could not call back to http://0.0.0.0
+        }
+
+        try (BulkLoadCallbackReceiver receiver = new BulkLoadCallbackReceiver(new InetSocketAddress(0),
+                                                                              "https://callbacks.example.com/")) {
+            BulkLoadHandle handle = receiver.register(10000);
+            assertTrue(handle.SUCCESS_CALLBACK_URL.startsWith("https://callbacks.example.com/bulkLoad/"));
+            handle.cancel();
+        }
+    }
+
+    private static byte[] readFilePart(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        String boundary = "\r\n--" + contentType.substring(contentType.indexOf("boundary=") + 9);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = exchange.getRequestBody().read(buffer)) != -1) {
+            body.write(buffer, 0, len);
+        }
+
+        // ISO-8859-1 maps each byte to one char, so indexes in the String are offsets in the body
+        String text = new String(body.toByteArray(), "ISO-8859-1");
+        int start = text.indexOf("\r\n\r\n", text.indexOf("name=\"file\"")) + 4;
+
+        return Arrays.copyOfRange(body.toByteArray(), start, text.indexOf(boundary, start));
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        while (exchange.getRequestBody().read() != -1) {
+            // drain the request so the connection stays open
+        }
+
+        if (body == null) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
@@ -0,0 +1,162 @@
+package test;
+
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipTransport;
+import com.balihoo.sdk.CachingTransport;
+import com.balihoo.sdk.TransportRequest;
+import com.balihoo.sdk.TransportResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CachingTransportTest {
+
+    private static final String LOCATION_URL = "http://localhost/brand/mybrand/location/loc1";
+
+    @Test
+    public void testServesRepeatedReadsFromCache() throws IOException {
+        CountingTransport delegate = new CountingTransport(null);
+        CachingTransport transport = new CachingTransport(delegate, 100, 60000);
+
+        assertEquals("body1", read(transport.execute(get(LOCATION_URL + "?projection=universal"))));
+        assertEquals("body1", read(transport.execute(get(LOCATION_URL + "?projection=universal"))));
+        assertEquals("body2", read(transport.execute(get(LOCATION_URL + "?projection=other"))));
+
+        assertEquals(2, delegate.requests.size());
+        assertEquals(1, transport.getHitCount());
+    }
+
+    @Test
+    public void testWriteInvalidatesEveryVariantOfLocation() throws IOException {
+        CountingTransport delegate = new CountingTransport(null);
+        CachingTransport transport = new CachingTransport(delegate, 100, 60000);
+
+        read(transport.execute(get(LOCATION_URL + "?projection=universal")));
+        read(transport.execute(get(LOCATION_URL + "?projection=other")));
+        transport.execute(new TransportRequest(BlipOperation.PUT_LOCATION, "mybrand", "PUT", LOCATION_URL,
+                                               Collections.<String, String>emptyMap(), null)).close();
+        read(transport.execute(get(LOCATION_URL + "?projection=universal")));
+
+        assertEquals(4, delegate.requests.size());
+    }
+
+    @Test
+    public void testRevalidatesExpiredEntryWithETag() throws Exception {
+        CountingTransport delegate = new CountingTransport("\"v1\"");
+        CachingTransport transport = new CachingTransport(delegate, 100, 0);
+
+        assertEquals("body1", read(transport.execute(get(LOCATION_URL))));
+        Thread.sleep(1);
+        assertEquals("body1", read(transport.execute(get(LOCATION_URL))));
+
+        assertEquals(2, delegate.requests.size());
+        assertEquals("\"v1\"", delegate.requests.get(1).HEADERS.get("If-None-Match"));
+        assertEquals(1, transport.getRevalidationCount());
+    }
+
+    @Test
+    public void testCoalescesConcurrentMisses() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingTransport delegate = new CountingTransport(null) {
+            @Override
+            public TransportResponse execute(TransportRequest request) throws IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.execute(request);
+            }
+        };
+        final CachingTransport transport = new CachingTransport(delegate, 100, 60000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> read(transport.execute(get(LOCATION_URL)))));
+            }
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("body1", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, delegate.requests.size());
+    }
+
+    private static TransportRequest get(String url) {
+        return new TransportRequest(BlipOperation.GET_LOCATION, "mybrand", "GET", url,
+                                    Collections.<String, String>emptyMap(), null);
+    }
+
+    private static String read(TransportResponse response) throws IOException {
+        try (Scanner scanner = new Scanner(response.getBody(), "UTF-8")) {
+            return scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Records requests and answers each with a numbered body, or 304 when If-None-Match matches.
+     */
+    private static class CountingTransport implements BlipTransport {
+
+        private final String eTag;
+        private final List<TransportRequest> requests = Collections.synchronizedList(new ArrayList<TransportRequest>());
+
+        private CountingTransport(String eTag) {
+            this.eTag = eTag;
+        }
+
+        @Override
+        public TransportResponse execute(TransportRequest request) throws IOException {
+            requests.add(request);
+            final boolean notModified = eTag != null && eTag.equals(request.HEADERS.get("If-None-Match"));
+            final String body = "body" + requests.size();
+
+            return new TransportResponse() {
+                @Override
+                public int getStatusCode() {
+                    return notModified ? 304 : 200;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return "ETag".equalsIgnoreCase(name) ? eTag : null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(notModified ? new byte[0] : body.getBytes());
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipAsync;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipSimulator;
+import com.balihoo.sdk.BulkLoadCallbackReceiver;
+import com.balihoo.sdk.DeltaSync;
+import com.balihoo.sdk.PooledHttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeltaSyncTest {
+
+    private HttpServer server;
+    private Path indexFile;
+    private Blip blip;
+    private BlipAsync async;
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+    private volatile int putStatus = 204;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/brand/mybrand/location/", (HttpExchange exchange) -> {
+            while (exchange.getRequestBody().read() != -1) {
+                // drain the request so the connection stays open
+            }
+            String method = exchange.getRequestMethod();
+            String locationKey = exchange.getRequestURI().getPath().substring("/brand/mybrand/location/".length());
+            calls.add(method + " " + locationKey);
+            exchange.sendResponseHeaders("PUT".equals(method) ? putStatus : 204, -1);
+            exchange.close();
+        });
+        server.start();
+
+        indexFile = Files.createTempDirectory("deltasync").resolve("mybrand.idx");
+        blip = new Blip("key", "secret", String.format("http://127.0.0.1:%s", server.getAddress().getPort()));
+        async = new BlipAsync(blip, 4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        async.close();
+        blip.close();
+        server.stop(0);
+        Files.deleteIfExists(indexFile);
+        Files.delete(indexFile.getParent());
+    }
+
+    @Test
+    public void testSendsOnlyChanges() throws IOException {
+        DeltaSync.Result first = sync("{\"a\":1}", "{\"b\":1}", "{\"c\":1}", null);
+        assertEquals(3, first.ADDED);
+        assertEquals(3, calls.size());
+
+        calls.clear();
+        DeltaSync.Result second = sync("{\"a\": 1}", "{\"b\":2}", null, "{\"d\":1}");
+
+        assertEquals(1, second.ADDED);
+        assertEquals(1, second.UPDATED);
+        assertEquals(1, second.DELETED);
+        assertEquals(1, second.UNCHANGED);
+        Collections.sort(calls);
+        assertEquals("[DELETE C, PUT B, PUT D]", calls.toString());
+
+        calls.clear();
+        DeltaSync.Result third = sync("{\"a\":1}", "{\"b\":2}", null, "{\"d\":1}");
+        assertEquals(3, third.UNCHANGED);
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void testFailedChangesAreSentAgain() throws IOException {
+        sync("{\"a\":1}", null, null, null);
+
+        putStatus = 500;
+        DeltaSync.Result failed = sync("{\"a\":2}", "{\"b\":1}", null, null);
+        assertEquals(2, failed.FAILED);
+
+        putStatus = 204;
+        calls.clear();
+        DeltaSync.Result retried = sync("{\"a\":2}", "{\"b\":1}", null, null);
+        assertEquals(1, retried.UPDATED);
+        assertEquals(1, retried.ADDED);
+        assertEquals(0, retried.FAILED);
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testUnconfirmedBulkLoadIsSentAgain() throws IOException {
+        try (BlipSimulator simulator = new BlipSimulator();
+             Blip simulated = new Blip("key", "secret", simulator.getEndpoint(), simulator.getS3Endpoint(),
+                                       new PooledHttpTransport());
+             BlipAsync simulatedAsync = new BlipAsync(simulated, 4)) {
+            simulator.addBrand("mybrand", "mysource");
+
+            // BLIP cannot reach this receiver, so the load is never confirmed
+            try (BulkLoadCallbackReceiver unreachable = new BulkLoadCallbackReceiver(
+                    new InetSocketAddress("127.0.0.1", 0), "http://127.0.0.1:1")) {
+                DeltaSync.Result result = bulkSync(simulatedAsync, unreachable, 300);
+                assertEquals(3, result.ADDED);
+                assertEquals(3, result.FAILED);
+            }
+            assertEquals(3, simulator.getLocationCount("mybrand"));
+
+            try (BulkLoadCallbackReceiver receiver = new BulkLoadCallbackReceiver(
+                    new InetSocketAddress("127.0.0.1", 0), null)) {
+                DeltaSync.Result result = bulkSync(simulatedAsync, receiver, 10000);
+                assertEquals(3, result.ADDED);
+                assertEquals(0, result.FAILED);
+
+                result = bulkSync(simulatedAsync, receiver, 10000);
+                assertEquals(3, result.UNCHANGED);
+            }
+            assertEquals(2, simulator.getRequestCount(BlipOperation.BULK_LOAD));
+        }
+    }
+
+    private DeltaSync.Result bulkSync(BlipAsync async, BulkLoadCallbackReceiver receiver, long timeoutMillis)
+            throws IOException {
+        DeltaSync sync = new DeltaSync(async, "mybrand", "mysource", indexFile, 2, 1000, receiver, timeoutMillis);
+
+        try (DeltaSync.Session session = sync.begin()) {
+            for (String key : new String[] {"A", "B", "C"}) {
+                session.add(key, "{\"name\":\"" + key + "\"}");
+            }
+            return session.commit();
+        }
+    }
+
+    private DeltaSync.Result sync(String a, String b, String c, String d) throws IOException {
+        DeltaSync sync = new DeltaSync(async, "mybrand", "mysource", indexFile, 1000);
+
+        try (DeltaSync.Session session = sync.begin()) {
+            String[] documents = {a, b, c, d};
+            for (int i = 0; i < documents.length; i++) {
+                if (documents[i] != null) {
+                    session.add(String.valueOf((char) ('A' + i)), documents[i]);
+                }
+            }
+            return session.commit();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipMetrics;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipResponse;
+import com.balihoo.sdk.HedgingTransport;
+import com.balihoo.sdk.InstrumentedTransport;
+import com.balihoo.sdk.PooledHttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HedgingTransportTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private String endpoint;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+    // The number of requests that stall until the test ends, or -1 for all of them
+    private volatile int stalled = 1;
+    // Whether the first request for each locationKey takes 300ms
+    private volatile boolean firstRequestSlow = false;
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/brand", this::handle);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        endpoint = String.format("http://127.0.0.1:%s", server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSlowReadIsAnsweredByHedge() throws IOException {
+        HedgingTransport hedging = new HedgingTransport(new PooledHttpTransport(), 95, 50);
+        BlipMetrics metrics = new BlipMetrics();
+        long start = System.nanoTime();
+
+        try (Blip blip = new Blip("key", "secret", endpoint, new InstrumentedTransport(hedging, metrics))) {
+            BlipResponse response = blip.getLocation("mybrand", "ABC123");
+            assertEquals(200, response.STATUS_CODE);
+            assertEquals("{\"locationKey\":\"ABC123\"}", response.BODY);
+        }
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2, requests.get());
+        assertEquals(1, hedging.getHedgesSent());
+        assertEquals(1, hedging.getHedgesWon());
+        assertEquals(1, metrics.get(BlipOperation.GET_LOCATION).getHedgedCount());
+    }
+
+    @Test
+    public void testWritesAreNotHedged() throws IOException {
+        stalled = 0;
+        HedgingTransport hedging = new HedgingTransport(new PooledHttpTransport(), 95, 1);
+
+        try (Blip blip = new Blip("key", "secret", endpoint, hedging)) {
+            BlipResponse response = blip.putLocation("mybrand", "ABC123", "mysource", "{\"name\":\"Test\"}");
+            assertEquals(200, response.STATUS_CODE);
+        }
+
+        assertEquals(1, requests.get());
+        assertEquals(0, hedging.getHedgesSent());
+    }
+
+    @Test
+    public void testAbortedCopiesKeepTheDelayUp() throws IOException {
+        stalled = 0;
+        firstRequestSlow = true;
+        HedgingTransport hedging = new HedgingTransport(new PooledHttpTransport(), 95, 50);
+
+        try (Blip blip = new Blip("key", "secret", endpoint, hedging)) {
+            for (int i = 0; i < HedgingTransport.MIN_SAMPLES; i++) {
+                assertEquals(200, blip.getLocation("mybrand", "LOC" + i).STATUS_CODE);
+            }
+        }
+
+        // Every primary was slow; counting only the hedges that answered would bring the delay down to theirs
+        assertEquals(HedgingTransport.MIN_SAMPLES, hedging.getHedgesWon());
+        assertTrue(hedging.getHedgeDelayNanos(BlipOperation.GET_LOCATION) >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+
+    @Test
+    public void testDeadlineLimitsWaitForResponse() throws IOException {
+        stalled = -1;
+        long start = System.nanoTime();
+
+        try (Blip blip = new Blip("key", "secret", endpoint)) {
+            blip.getLocation("mybrand", "ABC123", "universal", false, 200);
+            fail("Expected the call to time out");
+        } catch (SocketTimeoutException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        while (exchange.getRequestBody().read() != -1) {
+            // drain the request so the connection stays open
+        }
+
+        String[] path = exchange.getRequestURI().getPath().split("/");
+
+        if (requests.incrementAndGet() <= stalled || stalled < 0) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (firstRequestSlow && seen.add(path[path.length - 1])) {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        byte[] body = String.format("{\"locationKey\":\"%s\"}", path[path.length - 1]).getBytes("UTF-8");
+
+        try {
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } catch (IOException e) {
+            // The client aborted the request
+            exchange.close();
+        }
+    }
+}
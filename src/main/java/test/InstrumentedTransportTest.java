@@ -0,0 +1,122 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipCallEvent;
+import com.balihoo.sdk.BlipMetrics;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.InstrumentedTransport;
+import com.balihoo.sdk.LatencyHistogram;
+import com.balihoo.sdk.PooledHttpTransport;
+import com.balihoo.sdk.RetryPolicy;
+import com.balihoo.sdk.RetryingTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedTransportTest {
+
+    private HttpServer server;
+    private String endpoint;
+    private final AtomicInteger locationCalls = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ping", (HttpExchange exchange) -> respond(exchange, 200, "pong"));
+        server.createContext("/brand/mybrand/location/ABC123", (HttpExchange exchange) -> {
+            // Fail the first read to exercise the retry path
+            boolean fail = "GET".equals(exchange.getRequestMethod()) && locationCalls.incrementAndGet() == 1;
+            respond(exchange, fail ? 503 : 200, "{}");
+        });
+        server.start();
+        endpoint = String.format("http://127.0.0.1:%s", server.getAddress().getPort());
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testReportsTimingsBytesAndConnectionReuse() throws IOException {
+        final List<BlipCallEvent> events = Collections.synchronizedList(new ArrayList<BlipCallEvent>());
+
+        try (Blip blip = new Blip("key", "secret", endpoint,
+                                  new InstrumentedTransport(new PooledHttpTransport(), events::add))) {
+            blip.ping();
+            blip.ping();
+            blip.putLocation("mybrand", "ABC123", "mysource", "{\"name\":\"Main\"}");
+        }
+
+        assertEquals(3, events.size());
+        BlipCallEvent first = events.get(0);
+        assertEquals(BlipOperation.PING, first.OPERATION);
+        assertEquals(200, first.STATUS_CODE);
+        assertFalse(first.CONNECTION_REUSED);
+        assertTrue(first.CONNECT_NANOS > 0);
+        assertEquals(4, first.BYTES_RECEIVED);
+        assertTrue(first.TOTAL_NANOS >= first.TIME_TO_FIRST_BYTE_NANOS);
+        assertTrue(events.get(1).CONNECTION_REUSED);
+
+        BlipCallEvent put = events.get(2);
+        assertEquals(BlipOperation.PUT_LOCATION, put.OPERATION);
+        assertEquals("mybrand", put.BRAND_KEY);
+        assertEquals(15, put.BYTES_SENT);
+    }
+
+    @Test
+    public void testMetricsCountRetries() throws IOException {
+        BlipMetrics metrics = new BlipMetrics();
+        RetryingTransport retrying = new RetryingTransport(new PooledHttpTransport(), new RetryPolicy(3, 1, 5, 10000));
+
+        try (Blip blip = new Blip("key", "secret", endpoint, new InstrumentedTransport(retrying, metrics))) {
+            assertEquals(200, blip.getLocation("mybrand", "ABC123").STATUS_CODE);
+        }
+
+        BlipMetrics.OperationMetrics location = metrics.get(BlipOperation.GET_LOCATION);
+        assertEquals(1, location.getCallCount());
+        assertEquals(1, location.getRetryCount());
+        assertEquals(0, location.getFailureCount());
+        assertEquals(1, location.TOTAL_NANOS.getCount());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000, histogram.getValueAtPercentile(50), 500000 * 0.04);
+        assertEquals(990000, histogram.getValueAtPercentile(99), 990000 * 0.04);
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        while (exchange.getRequestBody().read() != -1) {
+            // drain the request so the connection stays open
+        }
+
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipException;
+import com.balihoo.sdk.JsonRecordIterator;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class JsonRecordIteratorTest {
+
+    private HttpServer server;
+    private Blip blip;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/brand/mybrand/location", (HttpExchange exchange) ->
+                respond(exchange, 200, "[\"ABC123\",\"ABC124\",\"ABC125\"]"));
+        server.createContext("/brand/mybrand/locationList", (HttpExchange exchange) ->
+                respond(exchange, 200, "{\"count\":2,\"locations\":[{\"locationKey\":\"ABC123\"},{\"locationKey\":\"ABC124\"}]}"));
+        server.createContext("/brand/nobrand/location", (HttpExchange exchange) ->
+                respond(exchange, 404, "Brand not found"));
+        server.start();
+        blip = new Blip("key", "secret", String.format("http://127.0.0.1:%s", server.getAddress().getPort()));
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        blip.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testIteratesLocationKeyArray() throws IOException {
+        List<String> keys = new ArrayList<>();
+
+        try (JsonRecordIterator<String> iterator = blip.iterateLocationKeys("mybrand")) {
+            while (iterator.hasNext()) {
+                keys.add(iterator.next());
+            }
+        }
+
+        assertEquals(3, keys.size());
+        assertEquals("ABC125", keys.get(2));
+    }
+
+    @Test
+    public void testStreamsLocationsNestedInObject() throws IOException {
+        List<String> keys = blip.iterateQueryLocations("mybrand", "{}", "full").stream()
+                .map((JsonObject location) -> location.get("locationKey").getAsString())
+                .collect(Collectors.toList());
+
+        assertEquals(2, keys.size());
+        assertEquals("ABC124", keys.get(1));
+    }
+
+    @Test
+    public void testErrorStatusThrows() throws IOException {
+        try {
+            blip.iterateLocationKeys("nobrand");
+            fail("Expected BlipException");
+        } catch (BlipException e) {
+            assertEquals(404, e.RESPONSE.STATUS_CODE);
+            assertEquals("Brand not found", e.RESPONSE.BODY);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        while (exchange.getRequestBody().read() != -1) {
+            // drain the request so the connection stays open
+        }
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
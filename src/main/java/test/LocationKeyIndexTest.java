@@ -0,0 +1,143 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipSimulator;
+import com.balihoo.sdk.LocationKeyIndex;
+import com.balihoo.sdk.LocationKeySet;
+import com.balihoo.sdk.PooledHttpTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LocationKeyIndexTest {
+
+    private BlipSimulator simulator;
+    private Blip blip;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new BlipSimulator();
+        simulator.addBrand("mybrand", "mysource");
+        blip = new Blip("key", "secret", simulator.getEndpoint(), simulator.getS3Endpoint(),
+                        new PooledHttpTransport());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        blip.close();
+        simulator.close();
+    }
+
+    @Test
+    public void testSetOperations() {
+        List<String> evens = new ArrayList<>();
+        List<String> threes = new ArrayList<>();
+        for (int i = 999; i >= 0; i--) {
+            String key = String.format("store-%06d", i);
+            if (i % 2 == 0) {
+                evens.add(key);
+            }
+            if (i % 3 == 0) {
+                threes.add(key);
+            }
+        }
+        evens.addAll(Arrays.asList("z\u00e9", "Z", "", "store-000000"));
+
+        LocationKeySet a = LocationKeySet.of(evens);
+        LocationKeySet b = LocationKeySet.of(threes);
+        TreeSet<String> expected = new TreeSet<>(evens);
+
+        assertEquals(expected.size(), a.size());
+        assertEquals(new ArrayList<>(expected), toList(a));
+        assertTrue(a.getEncodedSize() < 8 * a.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0, a.contains(String.format("store-%06d", i)));
+        }
+        assertTrue(a.contains("") && a.contains("Z") && a.contains("z\u00e9"));
+        assertFalse(a.contains("store-") || a.contains("a") || a.contains("z") || a.contains("zz"));
+
+        assertEquals(500 + 334 - 167 + 3, a.union(b).size());
+        assertEquals(167, a.intersect(b).size());
+        assertTrue(a.intersect(b).contains("store-000006"));
+        assertEquals(500 - 167 + 3, a.minus(b).size());
+        assertFalse(a.minus(b).contains("store-000006"));
+        assertEquals(a, a.union(b).minus(b.minus(a)));
+
+        LocationKeySet.Diff diff = a.diff(b);
+        assertEquals(b.minus(a), diff.ADDED);
+        assertEquals(a.minus(b), diff.REMOVED);
+        assertTrue(a.diff(LocationKeySet.of(evens)).isEmpty());
+        assertTrue(LocationKeySet.EMPTY.union(LocationKeySet.EMPTY).isEmpty());
+    }
+
+    @Test
+    public void testRefreshPublishesChanges() throws IOException {
+        simulator.putLocation("mybrand", "A1", "{}");
+        simulator.putLocation("mybrand", "B2", "{}");
+
+        try (LocationKeyIndex index = new LocationKeyIndex(blip, "universal")) {
+            assertNull(index.get("mybrand"));
+            assertEquals(Arrays.asList("A1", "B2"), toList(index.refresh("mybrand").ADDED));
+            LocationKeySet first = index.get("mybrand");
+
+            simulator.putLocation("mybrand", "C3", "{}");
+            blip.deleteLocation("mybrand", "A1", "mysource");
+            LocationKeySet.Diff diff = index.refresh("mybrand");
+
+            assertEquals(Arrays.asList("C3"), toList(diff.ADDED));
+            assertEquals(Arrays.asList("A1"), toList(diff.REMOVED));
+            assertEquals(Arrays.asList("B2", "C3"), toList(index.get("mybrand")));
+            assertEquals(Arrays.asList("A1", "B2"), toList(first));
+
+            simulator.setErrorRate(BlipOperation.GET_LOCATION_KEYS, 1, 503);
+            try {
+                index.refresh("mybrand");
+                fail("Expected the refresh to fail");
+            } catch (IOException e) {
+                assertEquals(Arrays.asList("B2", "C3"), toList(index.get("mybrand")));
+            }
+        }
+    }
+
+    @Test
+    public void testTrackRefreshesInBackground() throws Exception {
+        simulator.putLocation("mybrand", "A1", "{}");
+        BlockingQueue<LocationKeySet.Diff> changes = new ArrayBlockingQueue<>(10);
+
+        try (LocationKeyIndex index = new LocationKeyIndex(blip, "universal")) {
+            index.track("mybrand", 50, (brandKey, diff, keys) -> changes.add(diff));
+
+            assertEquals(Arrays.asList("A1"), toList(changes.poll(5, TimeUnit.SECONDS).ADDED));
+            simulator.putLocation("mybrand", "B2", "{}");
+            assertEquals(Arrays.asList("B2"), toList(changes.poll(5, TimeUnit.SECONDS).ADDED));
+
+            index.untrack("mybrand");
+            Thread.sleep(100);
+            long requests = simulator.getRequestCount(BlipOperation.GET_LOCATION_KEYS);
+            Thread.sleep(200);
+            assertEquals(requests, simulator.getRequestCount(BlipOperation.GET_LOCATION_KEYS));
+            assertTrue(changes.isEmpty());
+        }
+    }
+
+    private static List<String> toList(Iterable<String> keys) {
+        List<String> list = new ArrayList<>();
+        for (String key : keys) {
+            list.add(key);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,140 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipAsync;
+import com.balihoo.sdk.LocationPage;
+import com.balihoo.sdk.LocationQueryCursor;
+import com.balihoo.sdk.PooledHttpTransport;
+import com.balihoo.sdk.RetryPolicy;
+import com.balihoo.sdk.RetryingTransport;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LocationQueryCursorTest {
+
+    private static final int LOCATION_COUNT = 25;
+
+    private HttpServer server;
+    private String endpoint;
+    private volatile long slowPageMillis = 0;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/brand/mybrand/locationList", (HttpExchange exchange) -> {
+            JsonObject request = new JsonParser().parse(new InputStreamReader(exchange.getRequestBody(), "UTF-8"))
+                                                 .getAsJsonObject();
+            int pageSize = request.get("pageSize").getAsInt();
+            int pageNumber = request.get("pageNumber").getAsInt();
+            if (pageNumber > 0 && slowPageMillis > 0) {
+                try {
+                    Thread.sleep(slowPageMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            StringBuilder body = new StringBuilder("[");
+
+            for (int i = pageNumber * pageSize; i < Math.min(LOCATION_COUNT, (pageNumber + 1) * pageSize); i++) {
+                body.append(body.length() > 1 ? "," : "").append("{\"locationKey\":\"L").append(i).append("\"}");
+            }
+
+            byte[] bytes = body.append("]").toString().getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        });
+        server.start();
+        endpoint = String.format("http://127.0.0.1:%s", server.getAddress().getPort());
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testPagesThroughAllResultsInOrder() throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<Integer> pageNumbers = new ArrayList<>();
+
+        try (Blip blip = new Blip("key", "secret", endpoint); BlipAsync async = new BlipAsync(blip, 4);
+             LocationQueryCursor cursor = new LocationQueryCursor(async, "mybrand", "{}", "full", 10, 2)) {
+            while (cursor.hasNext()) {
+                LocationPage page = cursor.next();
+                pageNumbers.add(page.PAGE_NUMBER);
+                assertTrue(page.FETCH_NANOS > 0);
+
+                for (JsonObject location : page.LOCATIONS) {
+                    keys.add(location.get("locationKey").getAsString());
+                }
+            }
+        }
+
+        assertEquals(3, pageNumbers.size());
+        assertEquals(Integer.valueOf(2), pageNumbers.get(2));
+        assertEquals(LOCATION_COUNT, keys.size());
+        assertEquals("L24", keys.get(24));
+    }
+
+    @Test
+    public void testCloseAbortsPrefetchedPages() throws Exception {
+        slowPageMillis = 5000;
+
+        try (Blip blip = new Blip("key", "secret", endpoint); BlipAsync async = new BlipAsync(blip, 4)) {
+            LocationQueryCursor cursor = new LocationQueryCursor(async, "mybrand", "{}", "full", 10, 2);
+            assertEquals(0, cursor.next().PAGE_NUMBER);
+            assertEquals(3, async.getInFlightCount());
+
+            long start = System.nanoTime();
+            cursor.close();
+            while (async.getInFlightCount() > 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2)) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, async.getInFlightCount());
+        }
+    }
+
+    @Test
+    public void testClosedCursorDoesNotOpenTheCircuitBreaker() throws Exception {
+        slowPageMillis = 5000;
+        int prefetch = RetryingTransport.DEFAULT_FAILURE_THRESHOLD;
+        RetryingTransport transport = new RetryingTransport(new PooledHttpTransport(), RetryPolicy.DEFAULT);
+
+        try (Blip blip = new Blip("key", "secret", endpoint, transport);
+             BlipAsync async = new BlipAsync(blip, prefetch + 1)) {
+            LocationQueryCursor cursor = new LocationQueryCursor(async, "mybrand", "{}", "full", 1, prefetch);
+            assertEquals(0, cursor.next().PAGE_NUMBER);
+            // Let every prefetched page reach the server, then abort them all
+            Thread.sleep(200);
+            cursor.close();
+
+            long start = System.nanoTime();
+            while (async.getInFlightCount() > 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2)) {
+                Thread.sleep(10);
+            }
+
+            assertFalse(transport.getCircuitBreaker("QUERY_LOCATIONS").isOpen());
+            slowPageMillis = 0;
+            assertEquals(200, blip.queryLocations("mybrand", "{}", "full", 10, 0, null, null).STATUS_CODE);
+        }
+    }
+}
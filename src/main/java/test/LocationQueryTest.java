@@ -0,0 +1,85 @@
+package test;
+
+import com.balihoo.sdk.LocationQuery;
+import com.balihoo.sdk.PreparedQuery;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LocationQueryTest {
+
+    @Test
+    public void testRawQueryMatchesStringFormat() throws Exception {
+        LocationQuery query = new LocationQuery("{\"document.address.state\":\"ID\"}")
+                .view("universal").page(100, 2).sort("locationKey", "asc");
+
+        assertEquals("{\"query\":{\"document.address.state\":\"ID\"},\"view\":\"universal\","
+                             + "\"sortColumn\":\"locationKey\",\"sortDirection\":\"asc\","
+                             + "\"pageSize\":100,\"pageNumber\":2}",
+                     new String(query.toBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testFiltersAndValuesAreEscaped() throws Exception {
+        JsonObject range = new JsonObject();
+        range.addProperty("$gt", 5);
+
+        LocationQuery query = new LocationQuery()
+                .where("document.name", "Joe's \"Diner\"")
+                .where("document.rating", range)
+                .where("document.open", true)
+                .view("my\"view");
+
+        JsonObject body = new JsonParser().parse(new String(query.toBytes(), "UTF-8")).getAsJsonObject();
+        JsonObject filters = body.getAsJsonObject("query");
+
+        assertEquals("Joe's \"Diner\"", filters.get("document.name").getAsString());
+        assertEquals(5, filters.getAsJsonObject("document.rating").get("$gt").getAsInt());
+        assertTrue(filters.get("document.open").getAsBoolean());
+        assertEquals("my\"view", body.get("view").getAsString());
+        assertFalse(body.has("pageNumber"));
+    }
+
+    @Test
+    public void testPreparedQueryPatchesPageAndParameters() throws Exception {
+        PreparedQuery prepared = new LocationQuery()
+                .where("document.address.state", "ID")
+                .whereParameter("document.address.city", "city")
+                .prepare(500);
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("city", "Coeur d'Alene");
+
+        for (int pageNumber : new int[] {0, 7, 12345}) {
+            JsonObject body = new JsonParser().parse(new String(prepared.encode(pageNumber, parameters), "UTF-8"))
+                                              .getAsJsonObject();
+
+            assertEquals("ID", body.getAsJsonObject("query").get("document.address.state").getAsString());
+            assertEquals("Coeur d'Alene", body.getAsJsonObject("query").get("document.address.city").getAsString());
+            assertEquals(500, body.get("pageSize").getAsInt());
+            assertEquals(pageNumber, body.get("pageNumber").getAsInt());
+        }
+
+        parameters.put("city", 42);
+        JsonObject body = new JsonParser().parse(new String(prepared.encode(0, parameters), "UTF-8"))
+                                          .getAsJsonObject();
+        assertEquals(42, body.getAsJsonObject("query").get("document.address.city").getAsInt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreparedQueryRequiresEveryParameter() {
+        new LocationQuery().whereParameter("document.address.city", "city").prepare(10)
+                           .encode(0, Collections.<String, Object>emptyMap());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParametersCannotBeEncodedUnprepared() {
+        new LocationQuery().whereParameter("document.address.city", "city").toBytes();
+    }
+}
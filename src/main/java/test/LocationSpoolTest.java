@@ -0,0 +1,226 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipAsync;
+import com.balihoo.sdk.BlipBatchWriter;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipSimulator;
+import com.balihoo.sdk.BlipTransport;
+import com.balihoo.sdk.LocationSpool;
+import com.balihoo.sdk.PooledHttpTransport;
+import com.balihoo.sdk.RetryPolicy;
+import com.balihoo.sdk.TransportRequest;
+import com.balihoo.sdk.TransportResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LocationSpoolTest {
+
+    private static final RetryPolicy FAST_RETRY = new RetryPolicy(1, 10, 20, 1000);
+
+    private BlipSimulator simulator;
+    private Blip blip;
+    private BlipAsync async;
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new BlipSimulator();
+        simulator.addBrand("mybrand", "mysource");
+        blip = new Blip("key", "secret", simulator.getEndpoint(), simulator.getS3Endpoint(),
+                        new PooledHttpTransport());
+        async = new BlipAsync(blip, 4);
+        directory = Files.createTempDirectory("spool");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        async.close();
+        blip.close();
+        simulator.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testAcceptsWritesDuringOutageAndCoalesces() throws IOException {
+        simulator.setErrorRate(1, 503);
+        List<BlipBatchWriter.Result> results = new CopyOnWriteArrayList<>();
+
+        try (LocationSpool spool = new LocationSpool(async, "mybrand", "mysource", directory, 4096, 1000, 10,
+                                                     FAST_RETRY, results::add)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                spool.put("LOC" + (i % 10), "{\"version\":" + i + "}");
+            }
+            spool.delete("LOC9");
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            assertFalse(spool.awaitDrained(200));
+            assertEquals(101, spool.getBacklog());
+            assertTrue(results.isEmpty());
+
+            simulator.setErrorRate(0, 503);
+            assertTrue(spool.awaitDrained(10000));
+            assertEquals(0, spool.getBacklog());
+        }
+
+        assertEquals("{\"version\":90}", simulator.getLocation("mybrand", "LOC0"));
+        assertEquals("{\"version\":98}", simulator.getLocation("mybrand", "LOC8"));
+        assertNull(simulator.getLocation("mybrand", "LOC9"));
+        assertEquals(9, simulator.getLocationCount("mybrand"));
+        assertEquals(10, results.size());
+        for (BlipBatchWriter.Result result : results) {
+            assertTrue(result.isSuccessful());
+        }
+    }
+
+    @Test
+    public void testResumesAfterRestart() throws IOException {
+        simulator.setErrorRate(1, 503);
+
+        // Small segments so the log spans several files
+        try (LocationSpool spool = new LocationSpool(async, "mybrand", "mysource", directory, 256, 1000, 10,
+                                                     FAST_RETRY, null)) {
+            for (int i = 0; i < 50; i++) {
+                spool.put(String.format("LOC%03d", i), "{\"name\":\"Location " + i + "\"}");
+            }
+        }
+        assertEquals(0, simulator.getLocationCount("mybrand"));
+        assertTrue(segmentCount() > 5);
+
+        simulator.setErrorRate(0, 503);
+        try (LocationSpool spool = new LocationSpool(async, "mybrand", "mysource", directory, 256, 20, 10,
+                                                     FAST_RETRY, null)) {
+            assertEquals(50, spool.getBacklog());
+            assertTrue(spool.awaitDrained(10000));
+            spool.put("LOC050", "{\"name\":\"Location 50\"}");
+            assertTrue(spool.awaitDrained(10000));
+        }
+        assertEquals(51, simulator.getLocationCount("mybrand"));
+        assertEquals(1, segmentCount());
+
+        long puts = simulator.getRequestCount(BlipOperation.PUT_LOCATION);
+        try (LocationSpool spool = new LocationSpool(async, "mybrand", "mysource", directory, 256, 20, 10,
+                                                     FAST_RETRY, null)) {
+            assertEquals(0, spool.getBacklog());
+            assertTrue(spool.awaitDrained(1000));
+        }
+        assertEquals(puts, simulator.getRequestCount(BlipOperation.PUT_LOCATION));
+    }
+
+    @Test
+    public void testSkipsRejectedWrites() throws IOException {
+        simulator.setErrorRate(BlipOperation.PUT_LOCATION, 1, 400);
+        List<BlipBatchWriter.Result> results = new CopyOnWriteArrayList<>();
+
+        try (LocationSpool spool = new LocationSpool(async, "mybrand", "mysource", directory, 4096, 1000, 10,
+                                                     FAST_RETRY, results::add)) {
+            spool.put("A1", "{}");
+            assertTrue(spool.awaitDrained(10000));
+            assertEquals(1, spool.getFailedCount());
+        }
+
+        assertEquals(1, results.size());
+        assertEquals(400, results.get(0).RESPONSE.STATUS_CODE);
+    }
+
+    @Test
+    public void testSkipsWritesThatFailWithoutAnIOException() throws IOException {
+        List<BlipBatchWriter.Result> results = new CopyOnWriteArrayList<>();
+        BlipTransport pooled = new PooledHttpTransport();
+        BlipTransport rejecting = new BlipTransport() {
+            @Override
+            public TransportResponse execute(TransportRequest request) throws IOException {
+                if (request.URL.contains("/location/BAD?")) {
+                    throw new IllegalArgumentException("Bad location");
+                }
+                return pooled.execute(request);
+            }
+
+            @Override
+            public void close() throws IOException {
+                pooled.close();
+            }
+        };
+
+        try (Blip rejectingBlip = new Blip("key", "secret", simulator.getEndpoint(), rejecting);
+             BlipAsync rejectingAsync = new BlipAsync(rejectingBlip, 4);
+             LocationSpool spool = new LocationSpool(rejectingAsync, "mybrand", "mysource", directory, 4096, 1000, 10,
+                                                     FAST_RETRY, results::add)) {
+            spool.put("BAD", "{}");
+            spool.put("A1", "{}");
+            assertTrue(spool.awaitDrained(10000));
+            assertEquals(1, spool.getFailedCount());
+        }
+
+        assertEquals(2, results.size());
+        assertEquals("BAD", results.get(0).LOCATION_KEY);
+        assertNull(results.get(0).RESPONSE);
+        assertTrue(results.get(0).ERROR instanceof IllegalArgumentException);
+        assertTrue(results.get(1).isSuccessful());
+        assertEquals("{}", simulator.getLocation("mybrand", "A1"));
+    }
+
+    @Test
+    public void testDiscardsTornWrite() throws IOException {
+        simulator.setErrorRate(1, 503);
+
+        try (LocationSpool spool = new LocationSpool(async, "mybrand", "mysource", directory, 4096, 1000, 10,
+                                                     FAST_RETRY, null)) {
+            spool.put("A1", "{}");
+            spool.put("B2", "{}");
+        }
+
+        // Simulate a crash part way through appending a third record
+        Path segment;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+            segment = files.iterator().next();
+        }
+        byte[] bytes = Files.readAllBytes(segment);
+        int end = 0;
+        while (bytes[end] != 0 || bytes[end + 1] != 0 || bytes[end + 2] != 0 || bytes[end + 3] != 0) {
+            end += 8 + (((bytes[end] & 0xff) << 24) | ((bytes[end + 1] & 0xff) << 16)
+                        | ((bytes[end + 2] & 0xff) << 8) | (bytes[end + 3] & 0xff));
+        }
+        bytes[end + 3] = 40;
+        bytes[end + 9] = 'C';
+        Files.write(segment, bytes);
+
+        simulator.setErrorRate(0, 503);
+        try (LocationSpool spool = new LocationSpool(async, "mybrand", "mysource", directory, 4096, 1000, 10,
+                                                     FAST_RETRY, null)) {
+            assertEquals(2, spool.getBacklog());
+            spool.put("D4", "{}");
+            assertTrue(spool.awaitDrained(10000));
+        }
+
+        assertEquals(3, simulator.getLocationCount("mybrand"));
+        assertNotNull(simulator.getLocation("mybrand", "D4"));
+    }
+
+    private long segmentCount() throws IOException {
+        long count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,123 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipResponse;
+import com.balihoo.sdk.BlipSimulator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PooledHttpTransportTest {
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ping", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "pong".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSequentialCallsReuseOneConnection() throws IOException {
+        String endpoint = String.format("http://127.0.0.1:%s", server.getAddress().getPort());
+
+        try (Blip blip = new Blip("key", "secret", endpoint)) {
+            for (int i = 0; i < 5; i++) {
+                BlipResponse response = blip.ping();
+                assertEquals(200, response.STATUS_CODE);
+                assertEquals("pong", response.BODY.trim());
+            }
+        }
+
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testEncodesUnsafeCharactersInKeys() throws IOException {
+        try (BlipSimulator simulator = new BlipSimulator()) {
+            simulator.addBrand("mybrand", "mysource");
+
+            try (Blip blip = new Blip("key", "secret", simulator.getEndpoint())) {
+                assertEquals(204, blip.putLocation("mybrand", "a b|c\u00e9", "mysource", "{}").STATUS_CODE);
+                assertEquals("{}", simulator.getLocation("mybrand", "a b|c\u00e9"));
+                assertEquals(204, blip.deleteLocation("mybrand", "a b|c\u00e9", "mysource").STATUS_CODE);
+                assertNull(simulator.getLocation("mybrand", "a b|c\u00e9"));
+            }
+        }
+    }
+
+    @Test
+    public void testEncodesReservedCharactersInKeys() throws IOException {
+        String locationKey = "a/b?c#d&e%f+g";
+
+        try (BlipSimulator simulator = new BlipSimulator()) {
+            simulator.addBrand("my brand", "my&source");
+
+            try (Blip blip = new Blip("key", "secret", simulator.getEndpoint())) {
+                assertEquals(204, blip.putLocation("my brand", locationKey, "my&source", "{\"a\":1}").STATUS_CODE);
+                assertEquals("{\"a\":1}", simulator.getLocation("my brand", locationKey));
+                assertEquals(200, blip.getLocation("my brand", locationKey).STATUS_CODE);
+                assertEquals(204, blip.deleteLocation("my brand", locationKey, "my&source").STATUS_CODE);
+                assertNull(simulator.getLocation("my brand", locationKey));
+            }
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryDroppedConnections() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            Thread acceptor = new Thread(() -> {
+                while (true) {
+                    try (Socket client = socket.accept()) {
+                        accepted.incrementAndGet();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            acceptor.start();
+
+            try (Blip blip = new Blip("key", "secret", String.format("http://127.0.0.1:%s", socket.getLocalPort()))) {
+                blip.ping();
+                fail("Expected the dropped connection to fail the call");
+            } catch (IOException e) {
+                assertEquals(1, accepted.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package test;
+
+import com.balihoo.sdk.AdaptiveConcurrencyLimiter;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipTransport;
+import com.balihoo.sdk.RateLimiter;
+import com.balihoo.sdk.RateLimitingTransport;
+import com.balihoo.sdk.TransportRequest;
+import com.balihoo.sdk.TransportResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RateLimitingTransportTest {
+
+    @Test
+    public void testRateLimiterAllowsBurstThenRefuses() {
+        RateLimiter limiter = new RateLimiter(1, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testRateLimiterPacesCalls() throws IOException {
+        RateLimiter limiter = new RateLimiter(100, 1);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 11; i++) {
+            limiter.acquire();
+        }
+
+        assertTrue(System.nanoTime() - start >= 95000000L);
+    }
+
+    @Test
+    public void testConcurrencyLimitGrowsWhenSaturatedAndShrinksOnThrottling() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, 0);
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < 4; i++) {
+                limiter.release(200, 1000, false);
+            }
+        }
+        assertEquals(5, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(429, 1, false);
+        assertEquals(3, limiter.getLimit());
+        assertEquals(0, limiter.getInFlightCount());
+    }
+
+    @Test
+    public void testTransportHoldsPermitUntilResponseIsClosed() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 8, 0);
+        RateLimitingTransport transport = new RateLimitingTransport(new StatusTransport(429), null, 10, 10, limiter);
+
+        TransportResponse response = transport.execute(request(BlipOperation.GET_LOCATION));
+        assertEquals(1, limiter.getInFlightCount());
+        response.close();
+        response.close();
+
+        assertEquals(0, limiter.getInFlightCount());
+        assertEquals(6, limiter.getLimit());
+    }
+
+    private static TransportRequest request(BlipOperation operation) {
+        return new TransportRequest(operation, "mybrand", "GET", "http://localhost/",
+                                    Collections.<String, String>emptyMap(), null);
+    }
+
+    /**
+     * Answers every request with the same status code.
+     */
+    private static class StatusTransport implements BlipTransport {
+
+        private final int statusCode;
+
+        private StatusTransport(int statusCode) {
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public TransportResponse execute(TransportRequest request) {
+            return new TransportResponse() {
+                @Override
+                public int getStatusCode() {
+                    return statusCode;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
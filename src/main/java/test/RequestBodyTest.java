@@ -0,0 +1,140 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipResponse;
+import com.balihoo.sdk.RequestBody;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class RequestBodyTest {
+
+    private static final byte[] DOCUMENT = "{\"name\":\"My Location\",\"city\":\"Boise\"}".getBytes();
+
+    @Test
+    public void testByteBufferBodyWritesRemainingBytes() throws IOException {
+        ByteBuffer heap = ByteBuffer.allocate(DOCUMENT.length + 4);
+        heap.put(new byte[2]).put(DOCUMENT).flip();
+        heap.position(2).limit(2 + DOCUMENT.length);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(DOCUMENT.length);
+        direct.put(DOCUMENT).flip();
+
+        for (ByteBuffer buffer : new ByteBuffer[] {heap, direct}) {
+            RequestBody body = RequestBody.create(buffer, "application/json");
+            assertEquals(DOCUMENT.length, body.getContentLength());
+            assertArrayEquals(DOCUMENT, write(body));
+            // Repeatable, and the caller's buffer is untouched
+            assertArrayEquals(DOCUMENT, write(body));
+            assertEquals(DOCUMENT.length, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void testFileBodyHasFixedLength() throws IOException {
+        Path file = Files.createTempFile("location", ".json");
+
+        try {
+            Files.write(file, DOCUMENT);
+            RequestBody body = RequestBody.create(file, "application/json");
+
+            assertEquals(DOCUMENT.length, body.getContentLength());
+            assertTrue(body.isRepeatable());
+            assertArrayEquals(DOCUMENT, write(body));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testStreamingGzipLeavesConnectionOpen() throws IOException {
+        Path file = Files.createTempFile("location", ".json");
+
+        try {
+            Files.write(file, new byte[2 * 1024 * 1024]);
+            RequestBody body = RequestBody.gzip(RequestBody.create(file, "application/json"));
+            assertEquals(-1, body.getContentLength());
+
+            for (int i = 0; i < 2; i++) {
+                final AtomicBoolean closed = new AtomicBoolean();
+                ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                    @Override
+                    public void close() {
+                        closed.set(true);
+                    }
+                };
+                body.writeTo(out);
+
+                assertFalse(closed.get());
+                assertEquals(2 * 1024 * 1024, read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))
+                        .length);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testPutLocationCompressesLargeBodies() throws IOException {
+        final AtomicReference<String> encoding = new AtomicReference<>();
+        final AtomicReference<byte[]> received = new AtomicReference<>();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/brand/mybrand/location/", (HttpExchange exchange) -> {
+            encoding.set(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            InputStream in = exchange.getRequestBody();
+            received.set(read("gzip".equals(encoding.get()) ? new GZIPInputStream(in) : in));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+
+        String endpoint = String.format("http://127.0.0.1:%s", server.getAddress().getPort());
+
+        try (Blip blip = new Blip("key", "secret", endpoint);
+             Blip compressing = Blip.builder().credentials("key", "secret").endpoint(endpoint)
+                                    .requestCompressionThreshold(16).build()) {
+            BlipResponse response = blip.putLocation("mybrand", "ABC123", "mysource", DOCUMENT);
+            assertEquals(204, response.STATUS_CODE);
+            assertNull(encoding.get());
+            assertArrayEquals(DOCUMENT, received.get());
+
+            response = compressing.putLocation("mybrand", "ABC123", "mysource", DOCUMENT);
+            assertEquals(204, response.STATUS_CODE);
+            assertEquals("gzip", encoding.get());
+            assertArrayEquals(DOCUMENT, received.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static byte[] write(RequestBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+}
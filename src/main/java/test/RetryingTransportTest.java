@@ -0,0 +1,175 @@
+package test;
+
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipTransport;
+import com.balihoo.sdk.CircuitOpenException;
+import com.balihoo.sdk.RetryPolicy;
+import com.balihoo.sdk.RetryingTransport;
+import com.balihoo.sdk.TransportRequest;
+import com.balihoo.sdk.TransportResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+
+import static org.junit.Assert.*;
+
+public class RetryingTransportTest {
+
+    private static final RetryPolicy POLICY = new RetryPolicy(4, 1, 5, 10000);
+
+    @Test
+    public void testRetriesIdempotentRequestUntilSuccess() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport(503, 502, 200);
+
+        try (TransportResponse response = new RetryingTransport(delegate, POLICY)
+                .execute(request(BlipOperation.GET_LOCATION, "GET"))) {
+            assertEquals(200, response.getStatusCode());
+        }
+
+        assertEquals(3, delegate.calls);
+    }
+
+    @Test
+    public void testDoesNotRetryNonIdempotentServerError() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport(503, 200);
+
+        try (TransportResponse response = new RetryingTransport(delegate, POLICY)
+                .execute(request(BlipOperation.BULK_LOAD, "GET"))) {
+            assertEquals(503, response.getStatusCode());
+        }
+
+        assertEquals(1, delegate.calls);
+    }
+
+    @Test
+    public void testRetriesThrottledNonIdempotentRequest() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport(429, 204);
+
+        try (TransportResponse response = new RetryingTransport(delegate, POLICY)
+                .execute(request(BlipOperation.BULK_LOAD, "GET"))) {
+            assertEquals(204, response.getStatusCode());
+        }
+
+        assertEquals(2, delegate.calls);
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() throws IOException {
+        ScriptedTransport delegate = new ScriptedTransport(503, 503, 503, 503);
+        RetryingTransport transport = new RetryingTransport(delegate, new RetryPolicy(1, 1, 1, 1000), 2, 60000);
+
+        transport.execute(request(BlipOperation.PING, "GET")).close();
+        transport.execute(request(BlipOperation.PING, "GET")).close();
+
+        try {
+            transport.execute(request(BlipOperation.PING, "GET"));
+            fail("Expected CircuitOpenException");
+        } catch (CircuitOpenException e) {
+            assertEquals(2, delegate.calls);
+        }
+
+        // Other operations have their own breaker
+        transport.execute(request(BlipOperation.GET_LOCATION, "GET")).close();
+        assertEquals(3, delegate.calls);
+    }
+
+    @Test
+    public void testTrialRetriesAreNotRejectedByItsOwnFailure() throws Exception {
+        ScriptedTransport delegate = new ScriptedTransport(503, 503, 503, 200);
+        RetryingTransport transport = new RetryingTransport(delegate, new RetryPolicy(3, 1, 1, 10000), 1, 50);
+
+        try {
+            transport.execute(request(BlipOperation.PING, "GET"));
+            fail("Expected CircuitOpenException");
+        } catch (CircuitOpenException e) {
+            assertEquals(1, delegate.calls);
+        }
+
+        Thread.sleep(60);
+        // The trial fails and reopens the breaker, but its own retries still go through
+        try (TransportResponse response = transport.execute(request(BlipOperation.PING, "GET"))) {
+            assertEquals(200, response.getStatusCode());
+        }
+        assertEquals(4, delegate.calls);
+        assertFalse(transport.getCircuitBreaker("PING").isOpen());
+    }
+
+    @Test
+    public void testTrialIsReleasedWhenTheDelegateThrows() throws Exception {
+        ScriptedTransport delegate = new ScriptedTransport(503, 0, 200);
+        RetryingTransport transport = new RetryingTransport(delegate, new RetryPolicy(1, 1, 1, 10000), 1, 50);
+
+        transport.execute(request(BlipOperation.PING, "GET")).close();
+        Thread.sleep(60);
+
+        try {
+            transport.execute(request(BlipOperation.PING, "GET"));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals(2, delegate.calls);
+        }
+
+        try (TransportResponse response = transport.execute(request(BlipOperation.PING, "GET"))) {
+            assertEquals(200, response.getStatusCode());
+        }
+        assertEquals(3, delegate.calls);
+    }
+
+    private static TransportRequest request(BlipOperation operation, String method) {
+        return new TransportRequest(operation, "mybrand", method, "http://localhost/",
+                                    Collections.<String, String>emptyMap(), null);
+    }
+
+    /**
+     * Returns canned status codes in order, throwing an IllegalArgumentException for a status of 0.
+     */
+    private static class ScriptedTransport implements BlipTransport {
+
+        private final Deque<Integer> statusCodes;
+        private int calls = 0;
+
+        private ScriptedTransport(Integer... statusCodes) {
+            this.statusCodes = new ArrayDeque<>(Arrays.asList(statusCodes));
+        }
+
+        @Override
+        public TransportResponse execute(TransportRequest request) {
+            calls++;
+            final int statusCode = statusCodes.poll();
+            if (statusCode == 0) {
+                throw new IllegalArgumentException("Illegal request");
+            }
+
+            return new TransportResponse() {
+                @Override
+                public int getStatusCode() {
+                    return statusCode;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
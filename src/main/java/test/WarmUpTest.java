@@ -0,0 +1,104 @@
+package test;
+
+import com.balihoo.sdk.Blip;
+import com.balihoo.sdk.BlipCallEvent;
+import com.balihoo.sdk.BlipOperation;
+import com.balihoo.sdk.BlipSimulator;
+import com.balihoo.sdk.WarmUpReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class WarmUpTest {
+
+    private BlipSimulator simulator;
+    private final List<BlipCallEvent> events = new CopyOnWriteArrayList<>();
+    private Blip blip;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new BlipSimulator();
+        simulator.addBrand("brand1", "mysource");
+        simulator.addBrand("brand2", "mysource");
+        blip = Blip.builder()
+                .credentials("key", "secret")
+                .endpoint(simulator.getEndpoint())
+                .s3Endpoint(simulator.getS3Endpoint())
+                .cache(100, 60000)
+                .listener(events::add)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        blip.close();
+        simulator.close();
+    }
+
+    @Test
+    public void testPrimesConnectionsAndCache() throws IOException {
+        WarmUpReport report = blip.warmUp(4, 5000);
+
+        assertTrue(report.toString(), report.isSuccessful());
+        assertEquals(200, report.PING_STATUS);
+        assertEquals(4, report.CONNECTIONS);
+        assertEquals(404, report.S3_STATUS);
+        assertEquals(new HashSet<>(Arrays.asList("brand1", "brand2")), new HashSet<>(report.BRAND_KEYS));
+        assertTrue(report.PING_NANOS > 0 && report.TOTAL_NANOS >= report.PING_NANOS);
+        assertEquals(4, simulator.getRequestCount(BlipOperation.PING));
+
+        events.clear();
+        assertEquals(200, blip.getBrandProjections("brand1").STATUS_CODE);
+        assertEquals(2, simulator.getRequestCount(BlipOperation.GET_BRAND_PROJECTIONS));
+        assertEquals(200, blip.getBrandKeys().STATUS_CODE);
+        assertEquals(1, simulator.getRequestCount(BlipOperation.GET_BRAND_KEYS));
+        assertEquals(200, blip.ping().STATUS_CODE);
+        assertTrue(events.get(0).CONNECTION_REUSED);
+    }
+
+    @Test
+    public void testReportsRejectedCredentials() {
+        simulator.setErrorRate(BlipOperation.PING, 1, 401);
+        simulator.setErrorRate(BlipOperation.GET_BRAND_KEYS, 1, 401);
+
+        WarmUpReport report = blip.warmUp(2, 5000);
+
+        assertFalse(report.isAuthorized());
+        assertFalse(report.isSuccessful());
+        assertEquals(401, report.PING_STATUS);
+        assertEquals(2, report.CONNECTIONS);
+        assertTrue(report.BRAND_KEYS.isEmpty());
+        assertFalse(report.ERRORS.isEmpty());
+    }
+
+    @Test
+    public void testStopsAtTimeout() {
+        simulator.setLatency(BlipOperation.GET_BRAND_PROJECTIONS, BlipSimulator.Latency.fixed(3000));
+        long start = System.nanoTime();
+
+        WarmUpReport report = blip.warmUp(2, 300, Collections.singletonList("brand1"));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertTrue(report.isAuthorized());
+        assertFalse(report.isSuccessful());
+        assertTrue(report.BRAND_KEYS.isEmpty());
+        assertEquals(0, simulator.getRequestCount(BlipOperation.GET_BRAND_KEYS));
+        boolean timedOut = false;
+        for (Throwable error : report.ERRORS) {
+            timedOut |= error instanceof TimeoutException || error instanceof SocketTimeoutException;
+        }
+        assertTrue(timedOut);
+    }
+}